@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.bench;
+
+import io.confluent.castle.action.Action;
+import io.confluent.castle.action.ActionId;
+import io.confluent.castle.action.ActionResource;
+import io.confluent.castle.action.TargetId;
+import io.confluent.castle.cluster.CastleCluster;
+import io.confluent.castle.cluster.CastleNode;
+
+/**
+ * An action which stands in for one of the standard Castle actions.  It has the
+ * same type and dependencies as the real action, but only uses the node's fake
+ * uplink.
+ */
+public final class FakeAction extends Action {
+    /**
+     * What the action does with the uplink.
+     */
+    public enum Kind {
+        STARTUP,
+        SHUTDOWN,
+        COMMAND,
+        SYNC_TO,
+        SYNC_FROM;
+    }
+
+    private final ActionResource resource;
+    private final Kind kind;
+
+    public FakeAction(String type, String scope, TargetId[] comesAfter,
+                      ActionResource resource, Kind kind) {
+        super(new ActionId(type, scope), comesAfter, new String[0], 0);
+        this.resource = resource;
+        this.kind = kind;
+    }
+
+    @Override
+    public ActionResource resource() {
+        return resource;
+    }
+
+    @Override
+    public void call(CastleCluster cluster, CastleNode node) throws Throwable {
+        switch (kind) {
+            case STARTUP:
+                node.uplink().startup();
+                break;
+            case SHUTDOWN:
+                node.uplink().shutdown().get();
+                break;
+            case SYNC_TO:
+                node.uplink().command().syncTo("/fake/local", "/fake/remote").mustRun();
+                break;
+            case SYNC_FROM:
+                node.uplink().command().syncFrom("/fake/remote", "/fake/local").mustRun();
+                break;
+            case COMMAND:
+            default:
+                node.uplink().command().args("fake", id().type()).mustRun();
+                break;
+        }
+    }
+}
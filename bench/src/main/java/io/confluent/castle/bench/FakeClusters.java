@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.bench;
+
+import io.confluent.castle.cluster.CastleCluster;
+import io.confluent.castle.cluster.CastleClusterSpec;
+import io.confluent.castle.cluster.CastleNodeSpec;
+import io.confluent.castle.common.CastleLog;
+import io.confluent.castle.common.EventLog;
+import io.confluent.castle.role.FakeNodeRole;
+import io.confluent.castle.role.FakeZooKeeperRole;
+import io.confluent.castle.role.Role;
+import io.confluent.castle.tool.CastleEnvironment;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Creates clusters of fake nodes.  The first node runs ZooKeeper, and every node
+ * runs a broker.  Nothing is written to disk, and nothing runs outside the JVM.
+ */
+public final class FakeClusters {
+    private static class FakeEnvironment extends CastleEnvironment {
+        FakeEnvironment() {
+            super(System.getProperty("java.io.tmpdir"));
+        }
+
+        @Override
+        public CastleLog createCastleLog(String nodeName) throws IOException {
+            return CastleLog.fromDevNull(nodeName, false);
+        }
+
+        @Override
+        public EventLog createEventLog() {
+            return EventLog.disabled();
+        }
+    }
+
+    /**
+     * Create a fake cluster.
+     *
+     * @param numNodes      The number of nodes.
+     * @param latency       The latency distribution of fake commands.  See FakeLatency.
+     * @return              The new cluster.
+     */
+    public static CastleCluster create(int numNodes, String latency) throws Exception {
+        if (numNodes <= 0) {
+            throw new RuntimeException("The number of nodes must be positive.");
+        }
+        FakeLatency.parse(latency);
+        Map<String, CastleNodeSpec> nodes = new HashMap<>();
+        nodes.put("node0", new CastleNodeSpec(
+            Arrays.asList("fakeNode", "fakeZooKeeper"), null));
+        if (numNodes > 1) {
+            nodes.put(String.format("node[1-%d]", numNodes - 1),
+                new CastleNodeSpec(Arrays.asList("fakeNode"), null));
+        }
+        Map<String, Role> roles = new HashMap<>();
+        roles.put("fakeNode", new FakeNodeRole(latency));
+        roles.put("fakeZooKeeper", new FakeZooKeeperRole());
+        CastleClusterSpec spec = new CastleClusterSpec(null, nodes, roles);
+        return new CastleCluster(new FakeEnvironment(),
+            CastleLog.fromDevNull("cluster", false), null, spec);
+    }
+}
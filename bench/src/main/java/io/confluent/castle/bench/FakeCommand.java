@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.bench;
+
+import io.confluent.castle.command.Command;
+
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A command which doesn't run anything.  It sleeps for a latency picked from a
+ * distribution, and then succeeds.
+ */
+public final class FakeCommand implements Command {
+    /**
+     * The total number of fake commands which have been run.
+     */
+    static final AtomicLong NUM_RUN = new AtomicLong(0);
+
+    private final FakeLatency latency;
+
+    public FakeCommand(FakeLatency latency) {
+        this.latency = latency;
+    }
+
+    @Override
+    public Command args(String... args) {
+        return argList(Arrays.asList(args));
+    }
+
+    @Override
+    public Command argList(List<String> args) {
+        return this;
+    }
+
+    @Override
+    public Command syncTo(String local, String remote) {
+        return this;
+    }
+
+    @Override
+    public Command syncFrom(String remote, String local) {
+        return this;
+    }
+
+    @Override
+    public Command putFile(String remote, byte[] contents) {
+        return this;
+    }
+
+    @Override
+    public Command captureOutput(StringBuilder stringBuilder) {
+        return this;
+    }
+
+    @Override
+    public Command streamOutput(OutputStream outputStream) {
+        return this;
+    }
+
+    @Override
+    public Command setOutputLimit(long outputLimit) {
+        return this;
+    }
+
+    @Override
+    public Command setCaptureStderr(boolean captureStderr) {
+        return this;
+    }
+
+    @Override
+    public Command setStdin(byte[] stdin) {
+        return this;
+    }
+
+    @Override
+    public int run() throws Exception {
+        latency.sleep();
+        NUM_RUN.incrementAndGet();
+        return 0;
+    }
+
+    @Override
+    public void mustRun() throws Exception {
+        run();
+    }
+
+    @Override
+    public void exec() throws Exception {
+        run();
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.bench;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A distribution of fake command latencies.
+ *
+ * The distribution is described by a string, which is one of:
+ *   fixed:MS               Every command takes MS milliseconds.
+ *   uniform:MIN:MAX        Commands take between MIN and MAX milliseconds.
+ *   exponential:MEAN       Commands take an exponentially distributed time
+ *                          with the given mean, in milliseconds.
+ */
+public final class FakeLatency {
+    private enum Kind {
+        FIXED,
+        UNIFORM,
+        EXPONENTIAL;
+    }
+
+    private final String spec;
+    private final Kind kind;
+    private final long a;
+    private final long b;
+
+    public static FakeLatency parse(String spec) {
+        String[] parts = spec.trim().split(":");
+        try {
+            if (parts[0].equals("fixed") && parts.length == 2) {
+                return new FakeLatency(spec, Kind.FIXED, Long.parseLong(parts[1]), 0);
+            } else if (parts[0].equals("uniform") && parts.length == 3) {
+                return new FakeLatency(spec, Kind.UNIFORM,
+                    Long.parseLong(parts[1]), Long.parseLong(parts[2]));
+            } else if (parts[0].equals("exponential") && parts.length == 2) {
+                return new FakeLatency(spec, Kind.EXPONENTIAL, Long.parseLong(parts[1]), 0);
+            }
+        } catch (NumberFormatException e) {
+            throw new RuntimeException("Unable to parse latency " + spec, e);
+        }
+        throw new RuntimeException("Unable to parse latency " + spec + ".  Expected " +
+            "fixed:MS, uniform:MIN:MAX, or exponential:MEAN.");
+    }
+
+    private FakeLatency(String spec, Kind kind, long a, long b) {
+        if (a < 0 || b < 0 || (kind == Kind.UNIFORM && b < a)) {
+            throw new RuntimeException("Invalid latency " + spec);
+        }
+        this.spec = spec;
+        this.kind = kind;
+        this.a = a;
+        this.b = b;
+    }
+
+    /**
+     * Pick a latency from the distribution, in milliseconds.
+     */
+    public long sampleMs() {
+        switch (kind) {
+            case UNIFORM:
+                return ThreadLocalRandom.current().nextLong(a, b + 1);
+            case EXPONENTIAL:
+                return (long) (-a * Math.log(1.0 - ThreadLocalRandom.current().nextDouble()));
+            case FIXED:
+            default:
+                return a;
+        }
+    }
+
+    /**
+     * Sleep for a latency picked from the distribution.
+     */
+    public void sleep() throws InterruptedException {
+        long ms = sampleMs();
+        if (ms > 0) {
+            Thread.sleep(ms);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return spec;
+    }
+}
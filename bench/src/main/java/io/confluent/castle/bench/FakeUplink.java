@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.bench;
+
+import io.confluent.castle.command.Command;
+import io.confluent.castle.uplink.Uplink;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * An uplink to a node which doesn't exist.  Starting the node and running
+ * commands on it just take some time.
+ */
+public final class FakeUplink implements Uplink {
+    private final String nodeName;
+    private final FakeLatency latency;
+    private volatile boolean started = false;
+
+    public FakeUplink(String nodeName, FakeLatency latency) {
+        this.nodeName = nodeName;
+        this.latency = latency;
+    }
+
+    @Override
+    public Command command() {
+        return new FakeCommand(latency);
+    }
+
+    @Override
+    public String internalDns() {
+        return nodeName;
+    }
+
+    @Override
+    public boolean started() {
+        return started;
+    }
+
+    @Override
+    public boolean canLogin() {
+        return started;
+    }
+
+    @Override
+    public void startup() throws Exception {
+        latency.sleep();
+        started = true;
+    }
+
+    @Override
+    public void check() throws Exception {
+        latency.sleep();
+    }
+
+    @Override
+    public CompletableFuture<Void> shutdown() throws Exception {
+        latency.sleep();
+        started = false;
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public void shutdownAll() throws Exception {
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.bench;
+
+import io.confluent.castle.action.ActionPlan;
+import io.confluent.castle.action.ActionRegistry;
+import io.confluent.castle.action.ActionScheduler;
+import io.confluent.castle.cluster.CastleCluster;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks for the action scheduler, run against fake clusters.
+ *
+ * plan measures building the action universe for a target, along with the
+ * dry-run simulation.  run measures building a scheduler, running every action
+ * in the target, and shutting the scheduler down.  With the default zero command
+ * latency, this is the scheduler's own overhead.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class SchedulerBenchmark {
+    @Param({"10", "100", "1000", "10000"})
+    public int numNodes;
+
+    @Param({"up", "status", "down"})
+    public String target;
+
+    @Param({"fixed:0"})
+    public String latency;
+
+    @Param({"64"})
+    public int maxConcurrentActions;
+
+    private CastleCluster cluster;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        cluster = FakeClusters.create(numNodes, latency);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        cluster.close();
+    }
+
+    private ActionScheduler.Builder createBuilder() throws Exception {
+        return cluster.createSchedulerBuilder(Collections.singletonList(target),
+                ActionRegistry.INSTANCE.actions(cluster.nodes().keySet())).
+            setMaxConcurrentActions(maxConcurrentActions);
+    }
+
+    @Benchmark
+    public ActionPlan plan() throws Exception {
+        return createBuilder().buildPlan();
+    }
+
+    @Benchmark
+    public void run() throws Exception {
+        try (ActionScheduler scheduler = createBuilder().build()) {
+            scheduler.await(1, TimeUnit.DAYS);
+        }
+    }
+}
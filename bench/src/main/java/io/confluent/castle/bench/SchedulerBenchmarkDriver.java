@@ -0,0 +1,199 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.bench;
+
+import io.confluent.castle.action.ActionRegistry;
+import io.confluent.castle.action.ActionScheduler;
+import io.confluent.castle.action.ActionTracer;
+import io.confluent.castle.action.ExecutorMode;
+import io.confluent.castle.action.SchedulingPolicy;
+import io.confluent.castle.cluster.CastleCluster;
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.Namespace;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static net.sourceforge.argparse4j.impl.Arguments.store;
+
+/**
+ * A standalone driver which runs targets against fake clusters of increasing
+ * size, and prints how long the scheduler took to build and run, how many
+ * threads it used, and how much heap it used.
+ */
+public final class SchedulerBenchmarkDriver {
+    private static List<String> splitList(String str) {
+        List<String> results = new ArrayList<>();
+        for (String item : str.split(",")) {
+            if (!item.trim().isEmpty()) {
+                results.add(item.trim());
+            }
+        }
+        return results;
+    }
+
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    /**
+     * Get the sum of the peak usage of each heap memory pool.  This overestimates
+     * the true peak, since the pools don't all peak at once.
+     */
+    private static long peakHeapBytes() {
+        long total = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                total += pool.getPeakUsage().getUsed();
+            }
+        }
+        return total;
+    }
+
+    private static long usedHeapBytes() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    public static void main(String[] args) throws Exception {
+        ArgumentParser parser = ArgumentParsers.newFor("scheduler-benchmark").
+            addHelp(true).build().
+            description("Measures the action scheduler's overhead on fake clusters.");
+        parser.addArgument("--nodes")
+            .action(store())
+            .type(String.class)
+            .dest("nodes")
+            .setDefault("10,100,1000,10000")
+            .help("A comma-separated list of cluster sizes to run.");
+        parser.addArgument("--targets")
+            .action(store())
+            .type(String.class)
+            .dest("targets")
+            .setDefault("up,status,down")
+            .help("A comma-separated list of targets to run on each cluster.");
+        parser.addArgument("--latency")
+            .action(store())
+            .type(String.class)
+            .dest("latency")
+            .setDefault("fixed:0")
+            .help("The latency of fake commands: fixed:MS, uniform:MIN:MAX, or " +
+                "exponential:MEAN.");
+        parser.addArgument("--max-concurrent-actions")
+            .action(store())
+            .type(Integer.class)
+            .dest("maxConcurrentActions")
+            .setDefault(64)
+            .help("The maximum number of concurrent actions to allow.");
+        parser.addArgument("--executor-mode")
+            .action(store())
+            .type(String.class)
+            .dest("executorMode")
+            .setDefault(ExecutorMode.SHARED.toString())
+            .help("The executor mode: shared, virtual, or per-node.");
+        parser.addArgument("--max-executor-threads")
+            .action(store())
+            .type(Integer.class)
+            .dest("maxExecutorThreads")
+            .setDefault(ActionScheduler.DEFAULT_MAX_EXECUTOR_THREADS)
+            .help("The maximum number of threads to use in the shared executor mode.");
+        parser.addArgument("--scheduling-policy")
+            .action(store())
+            .type(String.class)
+            .dest("schedulingPolicy")
+            .setDefault(SchedulingPolicy.FIFO.toString())
+            .help("The scheduling policy: fifo or critical-path.");
+        parser.addArgument("--iterations")
+            .action(store())
+            .type(Integer.class)
+            .dest("iterations")
+            .setDefault(3)
+            .help("The number of times to run each target.  The first run of each " +
+                "cluster size is a warmup, and is not printed.");
+        Namespace res = parser.parseArgsOrFail(args);
+
+        String latency = res.getString("latency");
+        ExecutorMode executorMode = ExecutorMode.fromString(res.getString("executorMode"));
+        SchedulingPolicy schedulingPolicy =
+            SchedulingPolicy.fromString(res.getString("schedulingPolicy"));
+        int iterations = res.getInt("iterations");
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        System.out.printf("latency=%s, executorMode=%s, maxConcurrentActions=%d, " +
+            "schedulingPolicy=%s%n", latency, executorMode,
+            res.getInt("maxConcurrentActions"), schedulingPolicy);
+        System.out.printf("%8s %-8s %8s %10s %10s %14s %12s %14s %14s%n",
+            "NODES", "TARGET", "ACTIONS", "BUILD_MS", "RUN_MS", "ACTIONS_PER_S",
+            "PEAK_THREADS", "RETAINED_MB", "PEAK_HEAP_MB");
+        for (String nodesString : splitList(res.getString("nodes"))) {
+            int numNodes = Integer.parseInt(nodesString);
+            try (CastleCluster cluster = FakeClusters.create(numNodes, latency)) {
+                boolean warmup = true;
+                for (int i = 0; i < iterations + 1; i++) {
+                    for (String target : splitList(res.getString("targets"))) {
+                        ActionTracer tracer = new ActionTracer();
+                        ActionScheduler.Builder builder = cluster.createSchedulerBuilder(
+                                Collections.singletonList(target),
+                                ActionRegistry.INSTANCE.actions(cluster.nodes().keySet())).
+                            setMaxConcurrentActions(res.getInt("maxConcurrentActions")).
+                            setExecutorMode(executorMode).
+                            setMaxExecutorThreads(res.getInt("maxExecutorThreads")).
+                            setSchedulingPolicy(schedulingPolicy).
+                            setTracer(tracer);
+                        System.gc();
+                        long baseHeap = usedHeapBytes();
+                        resetPeakHeap();
+                        threadBean.resetPeakThreadCount();
+                        long startNs = System.nanoTime();
+                        long builtNs;
+                        long retainedHeap;
+                        try (ActionScheduler scheduler = builder.build()) {
+                            builtNs = System.nanoTime();
+                            scheduler.await(1, TimeUnit.DAYS);
+                            System.gc();
+                            retainedHeap = usedHeapBytes() - baseHeap;
+                        }
+                        long endNs = System.nanoTime();
+                        if (warmup) {
+                            continue;
+                        }
+                        int numActions = tracer.timings().size();
+                        long runNs = endNs - builtNs;
+                        System.out.printf("%8d %-8s %8d %10d %10d %14d %12d %14d %14d%n",
+                            numNodes, target, numActions,
+                            TimeUnit.NANOSECONDS.toMillis(builtNs - startNs),
+                            TimeUnit.NANOSECONDS.toMillis(runNs),
+                            (runNs == 0) ? 0 : (numActions * TimeUnit.SECONDS.toNanos(1)) / runNs,
+                            threadBean.getPeakThreadCount(),
+                            Math.max(0, retainedHeap) / (1024 * 1024),
+                            Math.max(0, peakHeapBytes() - baseHeap) / (1024 * 1024));
+                    }
+                    warmup = false;
+                }
+            }
+        }
+    }
+}
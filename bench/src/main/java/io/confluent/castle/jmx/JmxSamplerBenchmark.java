@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.jmx;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks for the JMX dumper's sampling path, run against MBeans in
+ * the benchmark's own platform MBean server.
+ *
+ * sample measures fetching every MBean, including the allocations made by the
+ * MBean server itself.  storeCsv and storeBinary measure writing one sampled
+ * row to a file which discards its output.  Run them with -prof gc to see the
+ * allocation per row in gc.alloc.rate.norm, which should be close to zero for
+ * storeCsv and storeBinary.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class JmxSamplerBenchmark {
+    private static final String DOMAIN = "io.confluent.castle.jmx.bench";
+
+    public interface BenchMetricMBean {
+        long getCount();
+
+        double getOneMinuteRate();
+    }
+
+    public static final class BenchMetric implements BenchMetricMBean {
+        private long count = 0;
+
+        @Override
+        public long getCount() {
+            return count++;
+        }
+
+        @Override
+        public double getOneMinuteRate() {
+            return count * 0.25;
+        }
+    }
+
+    private static final class NullOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+
+    @Param({"10", "100", "1000"})
+    public int numObjects;
+
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+    private final List<ObjectName> registered = new ArrayList<>();
+
+    private JmxSampler sampler;
+
+    private JmxDumper.DumpFile csvFile;
+
+    private JmxDumper.DumpFile binaryFile;
+
+    private long timeMs = System.currentTimeMillis();
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        List<JmxTarget> targets = new ArrayList<>();
+        for (int i = 0; i < numObjects; i++) {
+            ObjectName name = new ObjectName(DOMAIN + ":type=Metric,index=" + i);
+            server.registerMBean(new BenchMetric(), name);
+            registered.add(name);
+            targets.add(new JmxTarget(name, "Metric[index=" + i + "]",
+                Arrays.asList("Count", "OneMinuteRate"), true));
+        }
+        sampler = new JmxSampler(server, null, 1, targets);
+        JmxFileConfig config = new JmxFileConfig("/dev/null", null, null);
+        csvFile = new JmxDumper.CsvFile(config, 0, targets, new NullOutputStream());
+        csvFile.bind(sampler);
+        csvFile.writeHeader();
+        binaryFile = new JmxDumper.BinaryFile(config, 0, targets, new NullOutputStream());
+        binaryFile.bind(sampler);
+        binaryFile.writeHeader();
+        sampler.sample();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        csvFile.close();
+        binaryFile.close();
+        for (ObjectName name : registered) {
+            server.unregisterMBean(name);
+        }
+    }
+
+    @Benchmark
+    public boolean sample() throws Exception {
+        return sampler.sample();
+    }
+
+    @Benchmark
+    public void storeCsv() throws Exception {
+        csvFile.storeJmx(timeMs++, sampler);
+    }
+
+    @Benchmark
+    public void storeBinary() throws Exception {
+        binaryFile.storeJmx(timeMs++, sampler);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.role;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.confluent.castle.action.Action;
+import io.confluent.castle.action.ActionResource;
+import io.confluent.castle.action.BrokerStartAction;
+import io.confluent.castle.action.BrokerStatusAction;
+import io.confluent.castle.action.BrokerStopAction;
+import io.confluent.castle.action.DaemonStopAction;
+import io.confluent.castle.action.DockerDestroyAction;
+import io.confluent.castle.action.DockerInitAction;
+import io.confluent.castle.action.LinuxSetupAction;
+import io.confluent.castle.action.SaveLogsAction;
+import io.confluent.castle.action.SourceSetupAction;
+import io.confluent.castle.action.TargetId;
+import io.confluent.castle.action.UbuntuSetupAction;
+import io.confluent.castle.action.ZooKeeperStartAction;
+import io.confluent.castle.bench.FakeAction;
+import io.confluent.castle.bench.FakeLatency;
+import io.confluent.castle.bench.FakeUplink;
+import io.confluent.castle.cluster.CastleCluster;
+import io.confluent.castle.cluster.CastleNode;
+import io.confluent.castle.uplink.Uplink;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * A node role for benchmarks, which gives each node a fake uplink, and fake versions of the
+ * actions that a docker broker node would have.
+ *
+ * Like the other roles, this is in the role package, since role type names are
+ * resolved relative to it.
+ */
+public class FakeNodeRole implements Role, UplinkRole {
+    private final String latency;
+
+    @JsonCreator
+    public FakeNodeRole(@JsonProperty("latency") String latency) {
+        this.latency = (latency == null) ? "fixed:0" : latency;
+    }
+
+    @JsonProperty
+    public String latency() {
+        return latency;
+    }
+
+    @Override
+    public Collection<Action> createActions(String nodeName) {
+        ArrayList<Action> actions = new ArrayList<>();
+        actions.add(new FakeAction(DockerInitAction.TYPE, nodeName,
+            new TargetId[0], ActionResource.CLOUD_API, FakeAction.Kind.STARTUP));
+        actions.add(new FakeAction(UbuntuSetupAction.TYPE, nodeName,
+            new TargetId[0], ActionResource.REMOTE_CPU, FakeAction.Kind.COMMAND));
+        actions.add(new FakeAction(SourceSetupAction.TYPE, nodeName,
+            new TargetId[] {new TargetId(LinuxSetupAction.TYPE, nodeName)},
+            ActionResource.BULK_TRANSFER, FakeAction.Kind.SYNC_TO));
+        actions.add(new FakeAction(BrokerStartAction.TYPE, nodeName,
+            new TargetId[] {new TargetId(ZooKeeperStartAction.TYPE)},
+            ActionResource.DEFAULT, FakeAction.Kind.COMMAND));
+        actions.add(new FakeAction(BrokerStatusAction.TYPE, nodeName,
+            new TargetId[0], ActionResource.LIGHTWEIGHT_PROBE, FakeAction.Kind.COMMAND));
+        actions.add(new FakeAction(BrokerStopAction.TYPE, nodeName,
+            new TargetId[0], ActionResource.DEFAULT, FakeAction.Kind.COMMAND));
+        actions.add(new FakeAction(SaveLogsAction.TYPE, nodeName,
+            new TargetId[] {new TargetId(DaemonStopAction.TYPE, nodeName)},
+            ActionResource.BULK_TRANSFER, FakeAction.Kind.SYNC_FROM));
+        actions.add(new FakeAction(DockerDestroyAction.TYPE, nodeName,
+            new TargetId[0], ActionResource.CLOUD_API, FakeAction.Kind.SHUTDOWN));
+        return actions;
+    }
+
+    @Override
+    public Uplink createUplink(CastleCluster cluster, CastleNode node) {
+        return new FakeUplink(node.nodeName(), FakeLatency.parse(latency));
+    }
+};
@@ -0,0 +1,56 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.role;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import io.confluent.castle.action.Action;
+import io.confluent.castle.action.ActionResource;
+import io.confluent.castle.action.BrokerStopAction;
+import io.confluent.castle.action.InitAction;
+import io.confluent.castle.action.TargetId;
+import io.confluent.castle.action.ZooKeeperStartAction;
+import io.confluent.castle.action.ZooKeeperStatusAction;
+import io.confluent.castle.action.ZooKeeperStopAction;
+import io.confluent.castle.bench.FakeAction;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * A role with fake versions of the ZooKeeper actions.  Like the real ones, they
+ * wait for every node to be initialized, and for every broker to stop.
+ */
+public class FakeZooKeeperRole implements Role {
+    @JsonCreator
+    public FakeZooKeeperRole() {
+    }
+
+    @Override
+    public Collection<Action> createActions(String nodeName) {
+        ArrayList<Action> actions = new ArrayList<>();
+        actions.add(new FakeAction(ZooKeeperStartAction.TYPE, nodeName,
+            new TargetId[] {new TargetId(InitAction.TYPE)},
+            ActionResource.DEFAULT, FakeAction.Kind.COMMAND));
+        actions.add(new FakeAction(ZooKeeperStatusAction.TYPE, nodeName,
+            new TargetId[0], ActionResource.LIGHTWEIGHT_PROBE, FakeAction.Kind.COMMAND));
+        actions.add(new FakeAction(ZooKeeperStopAction.TYPE, nodeName,
+            new TargetId[] {new TargetId(BrokerStopAction.TYPE)},
+            ActionResource.DEFAULT, FakeAction.Kind.COMMAND));
+        return actions;
+    }
+};
@@ -21,6 +21,7 @@ import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleNode;
 
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
@@ -29,6 +30,11 @@ import java.util.Set;
  * An action which the Castle tool can execute.
  */
 public abstract class Action {
+    /**
+     * The default estimated duration for an action.
+     */
+    public static final int DEFAULT_ESTIMATED_DURATION_MS = 1000;
+
     /**
      * The ID of this action.
      */
@@ -88,6 +94,46 @@ public abstract class Action {
         return initialDelayMs;
     }
 
+    /**
+     * Get a rough estimate of how long Action#call takes, in milliseconds.
+     * This is used for prioritizing actions when we have no history for them.
+     */
+    public int estimatedDurationMs() {
+        return DEFAULT_ESTIMATED_DURATION_MS;
+    }
+
+    /**
+     * Get the resource class which limits how many actions like this can run at once.
+     */
+    public ActionResource resource() {
+        return ActionResource.DEFAULT;
+    }
+
+    /**
+     * Get the policy for retrying this action when it fails.  This can be
+     * overridden for each action type in the cluster conf.
+     */
+    public RetryPolicy retryPolicy() {
+        return RetryPolicy.NONE;
+    }
+
+    /**
+     * Return true if this action can be skipped when resuming a run, because the
+     * action journal shows that it already completed with the same inputs.
+     * Actions which start, stop, or check on things must always run.
+     */
+    public boolean resumable() {
+        return false;
+    }
+
+    /**
+     * Get the local files and directories which this action reads from.  These
+     * are part of the fingerprint recorded in the action journal.
+     */
+    public Collection<String> inputPaths(CastleCluster cluster) {
+        return Collections.emptyList();
+    }
+
     /**
      * Return the action IDs that this Action should contain.
      */
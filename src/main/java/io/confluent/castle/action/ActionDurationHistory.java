@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.action;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.type.TypeReference;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static io.confluent.castle.common.JsonUtil.JSON_SERDE;
+
+/**
+ * Tracks how long each type of action has taken to run in previous runs.
+ *
+ * The history is stored as a JSON file in the working directory.  Each action
+ * type maps to a moving average of the time spent in Action#call.
+ */
+public final class ActionDurationHistory {
+    public static final String FILE_NAME = "action_durations.json";
+
+    /**
+     * The maximum number of samples to weight the moving average by.  Once we
+     * have this many samples, each new sample moves the average by 1/MAX_SAMPLES
+     * of the difference.
+     */
+    private static final int MAX_SAMPLES = 10;
+
+    public static class Entry {
+        private final long averageMs;
+        private final int samples;
+
+        @JsonCreator
+        public Entry(@JsonProperty("averageMs") long averageMs,
+                     @JsonProperty("samples") int samples) {
+            this.averageMs = averageMs;
+            this.samples = samples;
+        }
+
+        @JsonProperty
+        public long averageMs() {
+            return averageMs;
+        }
+
+        @JsonProperty
+        public int samples() {
+            return samples;
+        }
+
+        Entry add(long durationMs) {
+            int newSamples = Math.min(samples + 1, MAX_SAMPLES);
+            return new Entry(averageMs + ((durationMs - averageMs) / newSamples), newSamples);
+        }
+    }
+
+    private final String path;
+
+    private final TreeMap<String, Entry> entries;
+
+    /**
+     * Load the history from the given path.  If there is no file at the path,
+     * the history starts out empty.
+     */
+    public static ActionDurationHistory load(String path) throws Exception {
+        TreeMap<String, Entry> entries = new TreeMap<>();
+        if (path != null && new File(path).exists()) {
+            Map<String, Entry> map = JSON_SERDE.readValue(new File(path),
+                new TypeReference<Map<String, Entry>>() { });
+            if (map != null) {
+                entries.putAll(map);
+            }
+        }
+        return new ActionDurationHistory(path, entries);
+    }
+
+    /**
+     * Create an empty history which is not backed by a file.
+     */
+    public ActionDurationHistory() {
+        this(null, new TreeMap<>());
+    }
+
+    private ActionDurationHistory(String path, TreeMap<String, Entry> entries) {
+        this.path = path;
+        this.entries = entries;
+    }
+
+    /**
+     * Record the duration of an action.
+     */
+    public synchronized void record(String type, long durationMs) {
+        Entry entry = entries.get(type);
+        if (entry == null) {
+            entries.put(type, new Entry(durationMs, 1));
+        } else {
+            entries.put(type, entry.add(durationMs));
+        }
+    }
+
+    /**
+     * Get the average duration of an action type, or -1 if we have no history for it.
+     */
+    public synchronized long averageMs(String type) {
+        Entry entry = entries.get(type);
+        if (entry == null) {
+            return -1;
+        }
+        return entry.averageMs();
+    }
+
+    public synchronized Map<String, Entry> entries() {
+        return Collections.unmodifiableMap(new TreeMap<>(entries));
+    }
+
+    /**
+     * Write the history back to the file it was loaded from.
+     */
+    public synchronized void save() throws Exception {
+        if (path != null) {
+            JSON_SERDE.writeValue(new File(path), entries);
+        }
+    }
+}
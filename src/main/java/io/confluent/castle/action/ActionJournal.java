@@ -0,0 +1,327 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.action;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.confluent.castle.cluster.CastleCluster;
+import io.confluent.castle.cluster.CastleNode;
+import io.confluent.castle.role.Role;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static io.confluent.castle.common.JsonUtil.JSON_SERDE;
+
+/**
+ * A journal of the actions which have completed, stored next to the cluster file.
+ *
+ * Each line of the journal is a JSON object containing an action ID and a
+ * fingerprint of the inputs the action ran with.  When resuming a run, actions
+ * whose fingerprints still match can be treated as already completed.  Later
+ * lines take precedence over earlier ones.  When the journal is loaded, it is
+ * compacted down to the latest line for each action, so that it does not grow
+ * without bound across runs.
+ */
+public final class ActionJournal implements AutoCloseable {
+    public static final String FILE_NAME = "action_journal.log";
+
+    public static class Entry {
+        private final String type;
+        private final String scope;
+        private final String fingerprint;
+
+        @JsonCreator
+        public Entry(@JsonProperty("type") String type,
+                     @JsonProperty("scope") String scope,
+                     @JsonProperty("fingerprint") String fingerprint) {
+            this.type = type;
+            this.scope = scope;
+            this.fingerprint = fingerprint;
+        }
+
+        @JsonProperty
+        public String type() {
+            return type;
+        }
+
+        @JsonProperty
+        public String scope() {
+            return scope;
+        }
+
+        @JsonProperty
+        public String fingerprint() {
+            return fingerprint;
+        }
+    }
+
+    private final String path;
+
+    private final Map<ActionId, String> fingerprints;
+
+    /**
+     * Caches the fingerprints of local files and directories used as action inputs.
+     * Each path is walked at most once per run, no matter how many actions on how
+     * many nodes read from it.
+     */
+    private final ConcurrentHashMap<String, String> pathFingerprints =
+        new ConcurrentHashMap<>();
+
+    private Writer writer = null;
+
+    /**
+     * Load the journal from the given path.  If there is no file at the path,
+     * the journal starts out empty.  A truncated last line, which can be left
+     * behind if castle was killed while appending it, is ignored.  If the file
+     * contains superseded or unreadable lines, it is rewritten with only the
+     * latest line for each action.
+     */
+    public static ActionJournal load(String path) throws Exception {
+        Map<ActionId, String> fingerprints = new LinkedHashMap<>();
+        int numLines = 0;
+        if (path != null && new File(path).exists()) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(path), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    numLines++;
+                    if (line.trim().isEmpty()) {
+                        continue;
+                    }
+                    Entry entry;
+                    try {
+                        entry = JSON_SERDE.readValue(line, Entry.class);
+                    } catch (IOException e) {
+                        continue;
+                    }
+                    if (entry.type() != null && entry.scope() != null) {
+                        ActionId id = new ActionId(entry.type(), entry.scope());
+                        // Re-insert, so that the compacted journal keeps the
+                        // order in which actions last completed.
+                        fingerprints.remove(id);
+                        fingerprints.put(id, entry.fingerprint());
+                    }
+                }
+            }
+            if (numLines > fingerprints.size()) {
+                compact(path, fingerprints);
+            }
+        }
+        return new ActionJournal(path, fingerprints);
+    }
+
+    /**
+     * Rewrite the journal with one line per action.  The new contents are written
+     * to a temporary file which then replaces the journal, so that killing castle
+     * part way through leaves either the old journal or the new one.
+     */
+    private static void compact(String path, Map<ActionId, String> fingerprints)
+            throws IOException {
+        Path target = Paths.get(path);
+        Path temp = Paths.get(path + ".tmp");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(temp.toFile()),
+                StandardCharsets.UTF_8)) {
+            for (Map.Entry<ActionId, String> entry : fingerprints.entrySet()) {
+                writeEntry(writer, entry.getKey(), entry.getValue());
+            }
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeEntry(Writer writer, ActionId id, String fingerprint)
+            throws IOException {
+        writer.write(JSON_SERDE.writer().without(SerializationFeature.INDENT_OUTPUT).
+            writeValueAsString(new Entry(id.type(), id.scope(), fingerprint)));
+        writer.write(String.format("%n"));
+    }
+
+    /**
+     * Create an empty journal which is not backed by a file.
+     */
+    public ActionJournal() {
+        this(null, new HashMap<>());
+    }
+
+    private ActionJournal(String path, Map<ActionId, String> fingerprints) {
+        this.path = path;
+        this.fingerprints = fingerprints;
+    }
+
+    /**
+     * Get the fingerprint an action completed with, or null if it is not in the journal.
+     */
+    public synchronized String completedFingerprint(ActionId id) {
+        return fingerprints.get(id);
+    }
+
+    /**
+     * Append a completed action to the journal.  The line is flushed immediately,
+     * so that it survives castle being killed.
+     */
+    public synchronized void record(ActionId id, String fingerprint) throws IOException {
+        fingerprints.put(id, fingerprint);
+        if (path == null) {
+            return;
+        }
+        if (writer == null) {
+            boolean needsNewline = endsWithPartialLine(path);
+            writer = new OutputStreamWriter(new FileOutputStream(path, true),
+                StandardCharsets.UTF_8);
+            if (needsNewline) {
+                writer.write(String.format("%n"));
+            }
+        }
+        writeEntry(writer, id, fingerprint);
+        writer.flush();
+    }
+
+    /**
+     * Return true if the file exists and its last line was not terminated, which
+     * happens if castle was killed while appending to it.
+     */
+    private static boolean endsWithPartialLine(String path) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path, "r")) {
+            if (file.length() == 0) {
+                return false;
+            }
+            file.seek(file.length() - 1);
+            return file.read() != '\n';
+        } catch (FileNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Compute the fingerprint of an action's inputs.  This covers the cluster
+     * configuration fields which actions read, the JSON of every role on the node,
+     * and the local paths the action reads from.
+     *
+     * Scheduling and transport settings, such as globalTimeout, concurrencyLimits,
+     * retryPolicies, speculativeStartup, sshMultiplexing and nodeAgent, change how
+     * actions are run, but not what they do, so changing them doesn't make actions
+     * run again.
+     */
+    public String fingerprint(CastleCluster cluster, CastleNode node, Action action) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            update(digest, action.id().toString());
+            update(digest, cluster.conf().kafkaPath());
+            update(digest, cluster.conf().castlePath());
+            if (node != null) {
+                Map<String, Role> roles = new TreeMap<>();
+                for (Role role : node.roles().values()) {
+                    roles.put(role.getClass().getName(), role);
+                }
+                for (Map.Entry<String, Role> entry : roles.entrySet()) {
+                    update(digest, entry.getKey());
+                    update(digest, JSON_SERDE.valueToTree(entry.getValue()).toString());
+                }
+            }
+            for (String inputPath : action.inputPaths(cluster)) {
+                update(digest, inputPath);
+                update(digest, pathFingerprint(inputPath));
+            }
+            return toHex(digest.digest());
+        } catch (Exception e) {
+            throw new RuntimeException("Unable to fingerprint " + action.id(), e);
+        }
+    }
+
+    /**
+     * Get the fingerprint of an input path, walking it only the first time.  Callers
+     * which ask for the same path concurrently wait for that walk rather than
+     * repeating it.
+     */
+    String pathFingerprint(String inputPath) {
+        return pathFingerprints.computeIfAbsent(inputPath, p -> {
+            try {
+                return treeFingerprint(Paths.get(p));
+            } catch (Exception e) {
+                throw new RuntimeException("Unable to fingerprint " + p, e);
+            }
+        });
+    }
+
+    /**
+     * Fingerprint a file or directory tree.  Rather than reading every file, we
+     * hash the relative path, size, and modification time of each file, the same
+     * way make and rsync decide whether something has changed.
+     */
+    static String treeFingerprint(Path root) throws Exception {
+        if (root.toString().isEmpty() || !Files.exists(root)) {
+            return "";
+        }
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        List<Path> files;
+        try (Stream<Path> stream = Files.walk(root)) {
+            files = stream.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+        for (Path file : files) {
+            update(digest, root.relativize(file).toString());
+            update(digest, Long.toString(Files.size(file)));
+            update(digest, Long.toString(Files.getLastModifiedTime(file).toMillis()));
+        }
+        return toHex(digest.digest());
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder bld = new StringBuilder();
+        for (byte b : bytes) {
+            bld.append(String.format("%02x", b));
+        }
+        return bld.toString();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+}
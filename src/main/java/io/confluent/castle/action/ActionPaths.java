@@ -22,6 +22,7 @@ public final class ActionPaths {
 
     public static final String CASTLE_ROOT = "/mnt/castle";
     public static final String CASTLE_SRC = CASTLE_ROOT + "/src";
+    public static final String CASTLE_AGENT_START_SCRIPT = CASTLE_SRC + "/bin/castle-agent.sh";
     public static final String JMX_DUMPER_START_SCRIPT = CASTLE_SRC + "/bin/jmx_dumper.sh";
     public static final String JMX_DUMPER_ROOT = "/mnt/jmx";
     public static final String JMX_DUMPER_PROPERTIES = JMX_DUMPER_ROOT  + "/jmx.conf";
@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.action;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * A counting semaphore which hands out permits in priority order.
+ *
+ * Permits are requested without blocking, by passing a callback which runs once
+ * the permit is granted.  When several callbacks are waiting for a permit, the
+ * one with the highest priority gets the next one.  Callbacks with the same
+ * priority are served in the order in which they started waiting.  Callbacks run
+ * on the thread which made the permit available, outside of any lock, so they
+ * should be short.
+ */
+public final class ActionPermits {
+    private static final class Waiter implements Comparable<Waiter> {
+        private final long priority;
+        private final long sequence;
+        private final Runnable onAcquired;
+
+        Waiter(long priority, long sequence, Runnable onAcquired) {
+            this.priority = priority;
+            this.sequence = sequence;
+            this.onAcquired = onAcquired;
+        }
+
+        @Override
+        public int compareTo(Waiter other) {
+            if (priority != other.priority) {
+                return (priority > other.priority) ? -1 : 1;
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private final PriorityQueue<Waiter> waiters = new PriorityQueue<>();
+
+    private int permits;
+
+    private int available;
+
+    private long nextSequence = 0;
+
+    public ActionPermits(int permits) {
+        this.permits = permits;
+        this.available = permits;
+    }
+
+    /**
+     * Change the total number of permits.  If the number goes down while more
+     * permits than that are held, the excess is reclaimed as they are released.
+     */
+    public void setPermits(int newPermits) {
+        List<Runnable> granted;
+        synchronized (this) {
+            available += newPermits - permits;
+            permits = newPermits;
+            granted = grantCallbacks();
+        }
+        runAll(granted);
+    }
+
+    public synchronized int permits() {
+        return permits;
+    }
+
+    /**
+     * Acquire a permit without blocking.  If a permit is available and nobody
+     * with a higher priority is waiting, the callback runs right away, on the
+     * calling thread.  Otherwise, it runs when a permit is granted to it.
+     *
+     * @param priority      The priority.  Higher values are served first.
+     * @param onAcquired    The callback to run once we hold the permit.
+     */
+    public void acquire(long priority, Runnable onAcquired) {
+        List<Runnable> granted;
+        synchronized (this) {
+            waiters.add(new Waiter(priority, nextSequence++, onAcquired));
+            granted = grantCallbacks();
+        }
+        runAll(granted);
+    }
+
+    /**
+     * Release a permit.
+     */
+    public void release() {
+        List<Runnable> granted;
+        synchronized (this) {
+            available++;
+            granted = grantCallbacks();
+        }
+        runAll(granted);
+    }
+
+    /**
+     * Grant permits to the callbacks at the front of the queue.
+     *
+     * @return      The callbacks to run once we drop the lock.
+     */
+    private List<Runnable> grantCallbacks() {
+        List<Runnable> granted = null;
+        while (available > 0) {
+            Waiter waiter = waiters.peek();
+            if (waiter == null) {
+                break;
+            }
+            waiters.poll();
+            available--;
+            if (granted == null) {
+                granted = new ArrayList<>();
+            }
+            granted.add(waiter.onAcquired);
+        }
+        return granted;
+    }
+
+    private static void runAll(List<Runnable> callbacks) {
+        if (callbacks != null) {
+            for (Runnable callback : callbacks) {
+                callback.run();
+            }
+        }
+    }
+
+    public synchronized int available() {
+        return available;
+    }
+
+    public synchronized int numWaiters() {
+        return waiters.size();
+    }
+}
@@ -0,0 +1,736 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.action;
+
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * A dry run of the actions which an ActionScheduler would run.
+ *
+ * The plan holds the action DAG.  It simulates the run under the scheduler's
+ * concurrency limits, taking each action's duration from the history of earlier
+ * runs, in order to predict how long the run will take and which chain of actions
+ * determines that.  Nothing is executed.
+ *
+ * The plan can be printed as text, or as a Graphviz DOT graph.
+ */
+public final class ActionPlan {
+    public static final String SUMMARY_FILE_NAME = "action_plan.txt";
+
+    /**
+     * An action in the plan, along with its predicted timings.  The timings are
+     * in milliseconds since the start of the run.
+     */
+    public static final class PlannedAction {
+        private final ActionId id;
+        private final ActionResource resource;
+        private final long durationMs;
+        private final boolean fromHistory;
+        private final int initialDelayMs;
+        private final long priority;
+        private final boolean runnable;
+        private final Set<ActionId> children;
+        private final Set<ActionId> comesAfter;
+        private final Set<String> barriers;
+        private long scheduledMs = -1;
+        private long startedMs = -1;
+        private long callEndedMs = -1;
+        private long completedMs = -1;
+        private ActionId cause = null;
+        private boolean waitedForResources = false;
+
+        PlannedAction(ActionId id, ActionResource resource, long durationMs,
+                      boolean fromHistory, int initialDelayMs, long priority,
+                      boolean runnable, Collection<ActionId> children,
+                      Collection<ActionId> comesAfter, Collection<String> barriers) {
+            this.id = id;
+            this.resource = resource;
+            this.durationMs = durationMs;
+            this.fromHistory = fromHistory;
+            this.initialDelayMs = initialDelayMs;
+            this.priority = priority;
+            this.runnable = runnable;
+            this.children = Collections.unmodifiableSet(new HashSet<>(children));
+            this.comesAfter = Collections.unmodifiableSet(new HashSet<>(comesAfter));
+            this.barriers = Collections.unmodifiableSet(new HashSet<>(barriers));
+        }
+
+        public ActionId id() {
+            return id;
+        }
+
+        public ActionResource resource() {
+            return resource;
+        }
+
+        /**
+         * The expected duration of Action#call.
+         */
+        public long durationMs() {
+            return durationMs;
+        }
+
+        /**
+         * True if the duration came from earlier runs, rather than from the
+         * action's own estimate.
+         */
+        public boolean fromHistory() {
+            return fromHistory;
+        }
+
+        /**
+         * The actions which this action contains.
+         */
+        public Set<ActionId> children() {
+            return children;
+        }
+
+        /**
+         * The actions which must complete before this action can start.
+         */
+        public Set<ActionId> comesAfter() {
+            return comesAfter;
+        }
+
+        /**
+         * The action types which must entirely complete before this action can start.
+         */
+        public Set<String> barriers() {
+            return barriers;
+        }
+
+        /**
+         * The predicted time when the action's dependencies are satisfied.
+         */
+        public long scheduledMs() {
+            return scheduledMs;
+        }
+
+        /**
+         * The predicted time when Action#call begins.
+         */
+        public long startedMs() {
+            return startedMs;
+        }
+
+        /**
+         * The predicted time when Action#call returns.
+         */
+        public long callEndedMs() {
+            return callEndedMs;
+        }
+
+        /**
+         * The predicted time when the action and all of its children complete.
+         */
+        public long completedMs() {
+            return completedMs;
+        }
+
+        /**
+         * The action which was the last thing holding this action up, or null if
+         * nothing did.
+         */
+        public ActionId cause() {
+            return cause;
+        }
+
+        /**
+         * True if the cause freed up a permit, a thread, or the node, rather than
+         * being a dependency of this action.
+         */
+        public boolean waitedForResources() {
+            return waitedForResources;
+        }
+    }
+
+    private final List<String> targetNames;
+
+    private final Map<ActionId, PlannedAction> actions;
+
+    private final Map<ActionResource, Integer> resourceLimits;
+
+    /**
+     * The maximum number of actions which can run at once, across all resource
+     * classes except lightweight probes.
+     */
+    private final int maxConcurrentActions;
+
+    /**
+     * The number of executor threads, which limits how many actions can run at
+     * once, or Integer.MAX_VALUE if this is not limited.
+     */
+    private final int maxThreads;
+
+    private final SchedulingPolicy schedulingPolicy;
+
+    private final boolean adaptiveConcurrency;
+
+    private final long makespanMs;
+
+    private final List<ActionId> criticalPath;
+
+    ActionPlan(Collection<String> targetNames, Collection<PlannedAction> actions,
+               Map<ActionResource, Integer> resourceLimits, int maxConcurrentActions,
+               int maxThreads,
+               SchedulingPolicy schedulingPolicy, boolean adaptiveConcurrency) {
+        this.targetNames = Collections.unmodifiableList(
+            new ArrayList<>(new TreeSet<>(targetNames)));
+        Map<ActionId, PlannedAction> map = new HashMap<>();
+        for (PlannedAction action : actions) {
+            map.put(action.id(), action);
+        }
+        this.actions = Collections.unmodifiableMap(map);
+        this.resourceLimits = Collections.unmodifiableMap(new EnumMap<>(resourceLimits));
+        this.maxConcurrentActions = maxConcurrentActions;
+        this.maxThreads = maxThreads;
+        this.schedulingPolicy = schedulingPolicy;
+        this.adaptiveConcurrency = adaptiveConcurrency;
+        this.makespanMs = new Simulation().run();
+        this.criticalPath = findCriticalPath();
+    }
+
+    public Map<ActionId, PlannedAction> actions() {
+        return actions;
+    }
+
+    /**
+     * The predicted time which the whole run will take.
+     */
+    public long makespanMs() {
+        return makespanMs;
+    }
+
+    /**
+     * The chain of actions which determined when the last action finished running,
+     * in the order in which they ran.  This is found the same way as in
+     * ActionTracer#criticalPath, except that an action can also be held up by the
+     * action which freed the permit, thread, or node it was waiting for.
+     */
+    public List<ActionId> criticalPath() {
+        return criticalPath;
+    }
+
+    private List<ActionId> findCriticalPath() {
+        PlannedAction last = null;
+        for (PlannedAction action : sortedActions()) {
+            if (last == null || action.callEndedMs > last.callEndedMs) {
+                last = action;
+            }
+        }
+        List<ActionId> path = new ArrayList<>();
+        for (PlannedAction action = last; action != null; action = actions.get(action.cause)) {
+            if (path.contains(action.id)) {
+                break;
+            }
+            path.add(action.id);
+            if (action.cause == null) {
+                break;
+            }
+        }
+        Collections.reverse(path);
+        return Collections.unmodifiableList(path);
+    }
+
+    private List<PlannedAction> sortedActions() {
+        Map<String, PlannedAction> sorted = new TreeMap<>();
+        for (PlannedAction action : actions.values()) {
+            sorted.put(action.id.toString(), action);
+        }
+        return new ArrayList<>(sorted.values());
+    }
+
+    private static String join(Collection<?> items) {
+        Set<String> sorted = new TreeSet<>();
+        for (Object item : items) {
+            sorted.add(item.toString());
+        }
+        return String.join(", ", sorted);
+    }
+
+    /**
+     * Create a human-readable description of the plan.  This contains the
+     * settings which the simulation used, each action with its dependencies and
+     * predicted timings, and the predicted critical path.
+     */
+    public String summary() {
+        StringBuilder bld = new StringBuilder();
+        bld.append(String.format("Targets: %s%n", String.join(", ", targetNames)));
+        int fromHistory = 0;
+        for (PlannedAction action : actions.values()) {
+            if (action.fromHistory) {
+                fromHistory++;
+            }
+        }
+        bld.append(String.format("Actions: %d (%d with durations from earlier runs)%n",
+            actions.size(), fromHistory));
+        bld.append(String.format("Scheduling policy: %s%n", schedulingPolicy));
+        StringBuilder limits = new StringBuilder();
+        String prefix = "";
+        for (Map.Entry<ActionResource, Integer> entry : resourceLimits.entrySet()) {
+            limits.append(prefix).append(entry.getKey()).append('=').
+                append(entry.getValue() == Integer.MAX_VALUE ?
+                    "unlimited" : entry.getValue().toString());
+            prefix = ", ";
+        }
+        bld.append(String.format("Maximum concurrent actions: %s%n",
+            maxConcurrentActions == Integer.MAX_VALUE ?
+                "unlimited" : Integer.toString(maxConcurrentActions)));
+        bld.append(String.format("Resource limits: %s%n", limits));
+        bld.append(String.format("Executor threads: %s%n",
+            maxThreads == Integer.MAX_VALUE ? "unlimited" : Integer.toString(maxThreads)));
+        if (adaptiveConcurrency) {
+            bld.append(String.format("Adaptive concurrency is not simulated.  The " +
+                "prediction assumes the maximum limits.%n"));
+        }
+        bld.append(String.format("Predicted total time: %d ms%n%n", makespanMs));
+
+        bld.append(String.format("Actions:%n"));
+        bld.append(String.format("  %-40s %-18s %10s %10s %10s%n",
+            "ACTION", "RESOURCE", "RUN_MS", "START_MS", "END_MS"));
+        for (PlannedAction action : sortedActions()) {
+            bld.append(String.format("  %-40s %-18s %10s %10d %10d%n", action.id,
+                action.resource, action.durationMs + (action.fromHistory ? "" : "*"),
+                action.startedMs, action.completedMs));
+            if (!action.children.isEmpty()) {
+                bld.append(String.format("      contains: %s%n", join(action.children)));
+            }
+            if (!action.comesAfter.isEmpty()) {
+                bld.append(String.format("      after: %s%n", join(action.comesAfter)));
+            }
+            if (!action.barriers.isEmpty()) {
+                bld.append(String.format("      after all: %s%n", join(action.barriers)));
+            }
+        }
+        bld.append(String.format("  * estimated, since there is no history for this " +
+            "action type.%n%n"));
+
+        bld.append(String.format("Critical path:%n"));
+        bld.append(String.format("  %-40s %12s %12s %12s  %s%n",
+            "ACTION", "START_MS", "WAIT_MS", "RUN_MS", "HELD_UP_BY"));
+        for (ActionId id : criticalPath) {
+            PlannedAction action = actions.get(id);
+            String heldUpBy = "";
+            if (action.cause != null) {
+                heldUpBy = (action.waitedForResources ? "resources freed by " : "") +
+                    action.cause;
+            }
+            bld.append(String.format("  %-40s %12d %12d %12d  %s%n", id,
+                action.startedMs, action.startedMs - action.scheduledMs,
+                action.durationMs, heldUpBy));
+        }
+        return bld.toString();
+    }
+
+    private static String quote(String str) {
+        return "\"" + str.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    /**
+     * Create a Graphviz DOT graph of the plan.  Solid edges go from each action
+     * to the actions it contains, and dashed edges from each action to the actions
+     * which come after it.  Barriers for "all" dependencies are drawn as diamonds.
+     * The critical path is drawn in red.
+     */
+    public String toDot() {
+        Set<ActionId> critical = new HashSet<>(criticalPath);
+        StringBuilder bld = new StringBuilder();
+        bld.append(String.format("digraph castle {%n"));
+        bld.append(String.format("  rankdir=LR;%n"));
+        bld.append(String.format("  node [shape=box];%n"));
+        Set<String> barrierTypes = new TreeSet<>();
+        for (PlannedAction action : sortedActions()) {
+            bld.append(String.format("  %s [label=%s%s];%n", quote(action.id.toString()),
+                quote(action.id + "\\n" + action.durationMs + " ms"),
+                critical.contains(action.id) ? ", color=red" : ""));
+            barrierTypes.addAll(action.barriers);
+        }
+        for (String type : barrierTypes) {
+            bld.append(String.format("  %s [shape=diamond, label=%s];%n",
+                quote("all:" + type), quote("all " + type)));
+        }
+        for (PlannedAction action : sortedActions()) {
+            String name = quote(action.id.toString());
+            for (ActionId childId : sortedIds(action.children)) {
+                bld.append(String.format("  %s -> %s;%n", name, quote(childId.toString())));
+            }
+            for (ActionId beforeId : sortedIds(action.comesAfter)) {
+                boolean red = critical.contains(action.id) && beforeId.equals(action.cause);
+                bld.append(String.format("  %s -> %s [style=dashed%s];%n",
+                    quote(beforeId.toString()), name, red ? ", color=red" : ""));
+            }
+            for (String type : new TreeSet<>(action.barriers)) {
+                bld.append(String.format("  %s -> %s [style=dashed];%n",
+                    quote("all:" + type), name));
+            }
+            if (barrierTypes.contains(action.id.type())) {
+                bld.append(String.format("  %s -> %s [style=dotted];%n",
+                    name, quote("all:" + action.id.type())));
+            }
+        }
+        bld.append(String.format("}%n"));
+        return bld.toString();
+    }
+
+    private static List<ActionId> sortedIds(Collection<ActionId> ids) {
+        Map<String, ActionId> sorted = new TreeMap<>();
+        for (ActionId id : ids) {
+            sorted.put(id.toString(), id);
+        }
+        return new ArrayList<>(sorted.values());
+    }
+
+    /**
+     * Write the summary to a text file.
+     */
+    public void writeSummary(String path) throws Exception {
+        write(path, summary());
+    }
+
+    /**
+     * Write the DOT graph to a file.
+     */
+    public void writeDot(String path) throws Exception {
+        write(path, toDot());
+    }
+
+    private static void write(String path, String text) throws Exception {
+        try (Writer writer = new OutputStreamWriter(
+                new FileOutputStream(path, false), StandardCharsets.UTF_8)) {
+            writer.write(text);
+        }
+    }
+
+    /**
+     * Simulates a run of the scheduler, in simulated time.  This follows the same
+     * rules as ActionScheduler: an action is scheduled once it is runnable, and the
+     * actions and barriers it comes after have completed.  It is then queued on its
+     * node.  Each node runs one action at a time.  Once an action reaches the front
+     * of its node's queue, it waits for the permit for its resource class, and then,
+     * unless it is a lightweight probe, for a global permit.  Permits go to the
+     * waiting action with the highest priority.  An action only occupies an executor thread
+     * while it runs.
+     */
+    private final class Simulation {
+        private final class Event implements Comparable<Event> {
+            private final long timeMs;
+            private final long sequence;
+            private final Runnable runnable;
+
+            Event(long timeMs, Runnable runnable) {
+                this.timeMs = timeMs;
+                this.sequence = nextSequence++;
+                this.runnable = runnable;
+            }
+
+            @Override
+            public int compareTo(Event other) {
+                if (timeMs != other.timeMs) {
+                    return Long.compare(timeMs, other.timeMs);
+                }
+                return Long.compare(sequence, other.sequence);
+            }
+        }
+
+        private final class SimAction {
+            private final PlannedAction action;
+            private ActionScheduler.ActionState state = ActionScheduler.ActionState.PENDING;
+            private final Set<ActionId> parents = new HashSet<>();
+            private final Set<ActionId> children;
+            private final Set<ActionId> comesBefore = new HashSet<>();
+            private final Set<ActionId> comesAfter;
+            private final Set<String> barriers;
+            private long waitSequence = 0;
+
+            SimAction(PlannedAction action) {
+                this.action = action;
+                this.children = new HashSet<>(action.children);
+                this.comesAfter = new HashSet<>(action.comesAfter);
+                this.barriers = new HashSet<>(action.barriers);
+            }
+        }
+
+        private final PriorityQueue<Event> events = new PriorityQueue<>();
+        private long nextSequence = 0;
+        private long nowMs = 0;
+        private int numCompleted = 0;
+        private final Map<ActionId, SimAction> sims = new HashMap<>();
+        private final Map<String, Integer> barrierRemaining = new HashMap<>();
+        private final Map<String, List<SimAction>> barrierWaiters = new HashMap<>();
+        private final Map<String, Deque<SimAction>> nodeQueues = new HashMap<>();
+        private final Set<String> busyNodes = new HashSet<>();
+        private final Deque<SimAction> threadWaiters = new ArrayDeque<>();
+        private int availableThreads = maxThreads;
+        private final Map<ActionResource, Integer> availablePermits =
+            new EnumMap<>(ActionResource.class);
+        private final Map<ActionResource, PriorityQueue<SimAction>> permitWaiters =
+            new EnumMap<>(ActionResource.class);
+        private int availableGlobalPermits = maxConcurrentActions;
+        private final PriorityQueue<SimAction> globalPermitWaiters =
+            new PriorityQueue<>(this::compareWaiters);
+
+        /**
+         * Run the simulation.
+         *
+         * @return      The time when the last action completed.
+         */
+        long run() {
+            for (PlannedAction action : sortedActions()) {
+                SimAction sim = new SimAction(action);
+                sims.put(action.id, sim);
+                if (!nodeQueues.containsKey(action.id.scope())) {
+                    nodeQueues.put(action.id.scope(), new ArrayDeque<>());
+                }
+            }
+            for (SimAction sim : sims.values()) {
+                for (ActionId childId : sim.children) {
+                    sims.get(childId).parents.add(sim.action.id);
+                }
+                for (ActionId beforeId : sim.comesAfter) {
+                    sims.get(beforeId).comesBefore.add(sim.action.id);
+                }
+                for (String type : sim.barriers) {
+                    if (!barrierWaiters.containsKey(type)) {
+                        barrierWaiters.put(type, new ArrayList<>());
+                        barrierRemaining.put(type, 0);
+                    }
+                    barrierWaiters.get(type).add(sim);
+                }
+            }
+            for (ActionId id : sims.keySet()) {
+                Integer remaining = barrierRemaining.get(id.type());
+                if (remaining != null) {
+                    barrierRemaining.put(id.type(), remaining + 1);
+                }
+            }
+            for (ActionResource resource : ActionResource.values()) {
+                Integer limit = resourceLimits.get(resource);
+                availablePermits.put(resource, limit == null ? Integer.MAX_VALUE : limit);
+                permitWaiters.put(resource, new PriorityQueue<>(this::compareWaiters));
+            }
+            List<SimAction> runnable = new ArrayList<>();
+            for (PlannedAction action : sortedActions()) {
+                if (action.runnable) {
+                    SimAction sim = sims.get(action.id);
+                    sim.state = ActionScheduler.ActionState.RUNNABLE;
+                    runnable.add(sim);
+                }
+            }
+            for (SimAction sim : runnable) {
+                maybeSchedule(sim, null);
+            }
+            long endMs = 0;
+            while (true) {
+                Event event = events.poll();
+                if (event == null) {
+                    break;
+                }
+                nowMs = event.timeMs;
+                event.runnable.run();
+                endMs = nowMs;
+            }
+            if (numCompleted != sims.size()) {
+                Set<String> stuck = new TreeSet<>();
+                for (SimAction sim : sims.values()) {
+                    if (sim.state != ActionScheduler.ActionState.COMPLETED) {
+                        stuck.add(sim.action.id.toString());
+                    }
+                }
+                throw new RuntimeException("The plan can never complete these actions: " +
+                    String.join(", ", stuck) + ".  Check for circular dependencies.");
+            }
+            return endMs;
+        }
+
+        private int compareWaiters(SimAction a, SimAction b) {
+            if (a.action.priority != b.action.priority) {
+                return (a.action.priority > b.action.priority) ? -1 : 1;
+            }
+            return Long.compare(a.waitSequence, b.waitSequence);
+        }
+
+        private void at(long timeMs, Runnable runnable) {
+            events.add(new Event(timeMs, runnable));
+        }
+
+        private void maybeSchedule(SimAction sim, ActionId cause) {
+            if (sim.state != ActionScheduler.ActionState.RUNNABLE ||
+                    !sim.comesAfter.isEmpty() || !sim.barriers.isEmpty()) {
+                return;
+            }
+            sim.state = ActionScheduler.ActionState.EXECUTING;
+            sim.action.scheduledMs = nowMs;
+            sim.action.cause = cause;
+            if (sim.action.initialDelayMs > 0) {
+                at(nowMs + sim.action.initialDelayMs, () -> enqueue(sim));
+            } else {
+                enqueue(sim);
+            }
+        }
+
+        private void enqueue(SimAction sim) {
+            nodeQueues.get(sim.action.id.scope()).add(sim);
+            dispatch(sim.action.id.scope(), null);
+        }
+
+        /**
+         * Let the next action queued on a node ask for its permit, if the node is
+         * not already busy.
+         *
+         * @param nodeName      The node.
+         * @param freedBy       The action which just freed up the node, or null.
+         */
+        private void dispatch(String nodeName, ActionId freedBy) {
+            Deque<SimAction> queue = nodeQueues.get(nodeName);
+            if (busyNodes.contains(nodeName) || queue.isEmpty()) {
+                return;
+            }
+            busyNodes.add(nodeName);
+            acquirePermit(queue.poll(), freedBy);
+        }
+
+        private void acquirePermit(SimAction sim, ActionId freedBy) {
+            ActionResource resource = sim.action.resource;
+            int available = availablePermits.get(resource);
+            if (available > 0) {
+                availablePermits.put(resource, available - 1);
+                acquireGlobalPermit(sim, freedBy);
+            } else {
+                sim.waitSequence = nextSequence++;
+                permitWaiters.get(resource).add(sim);
+            }
+        }
+
+        private void acquireGlobalPermit(SimAction sim, ActionId freedBy) {
+            if (sim.action.resource == ActionResource.LIGHTWEIGHT_PROBE) {
+                acquireThread(sim, freedBy);
+            } else if (availableGlobalPermits > 0) {
+                availableGlobalPermits--;
+                acquireThread(sim, freedBy);
+            } else {
+                sim.waitSequence = nextSequence++;
+                globalPermitWaiters.add(sim);
+            }
+        }
+
+        private void acquireThread(SimAction sim, ActionId freedBy) {
+            if (availableThreads > 0) {
+                availableThreads--;
+                start(sim, freedBy);
+            } else {
+                threadWaiters.add(sim);
+            }
+        }
+
+        private void start(SimAction sim, ActionId freedBy) {
+            if (freedBy != null) {
+                sim.action.cause = freedBy;
+                sim.action.waitedForResources = true;
+            }
+            sim.action.startedMs = nowMs;
+            at(nowMs + sim.action.durationMs, () -> callEnded(sim));
+        }
+
+        private void callEnded(SimAction sim) {
+            ActionId id = sim.action.id;
+            sim.action.callEndedMs = nowMs;
+            SimAction waitingForThread = threadWaiters.poll();
+            if (waitingForThread != null) {
+                start(waitingForThread, id);
+            } else {
+                availableThreads++;
+            }
+            // Like the scheduler, release the permits before freeing the node.
+            if (sim.action.resource != ActionResource.LIGHTWEIGHT_PROBE) {
+                SimAction nextGlobal = globalPermitWaiters.poll();
+                if (nextGlobal != null) {
+                    acquireThread(nextGlobal, id);
+                } else {
+                    availableGlobalPermits++;
+                }
+            }
+            SimAction next = permitWaiters.get(sim.action.resource).poll();
+            if (next != null) {
+                acquireGlobalPermit(next, id);
+            } else {
+                availablePermits.put(sim.action.resource,
+                    availablePermits.get(sim.action.resource) + 1);
+            }
+            busyNodes.remove(id.scope());
+            dispatch(id.scope(), id);
+
+            sim.state = ActionScheduler.ActionState.WAITING_FOR_CHILDREN;
+            for (ActionId childId : sortedIds(sim.children)) {
+                SimAction child = sims.get(childId);
+                if (child.state == ActionScheduler.ActionState.PENDING) {
+                    child.state = ActionScheduler.ActionState.RUNNABLE;
+                    maybeSchedule(child, id);
+                }
+            }
+            maybeComplete(sim);
+        }
+
+        private void maybeComplete(SimAction sim) {
+            if (sim.state != ActionScheduler.ActionState.WAITING_FOR_CHILDREN ||
+                    !sim.children.isEmpty()) {
+                return;
+            }
+            ActionId id = sim.action.id;
+            sim.state = ActionScheduler.ActionState.COMPLETED;
+            sim.action.completedMs = nowMs;
+            numCompleted++;
+            for (ActionId parentId : sortedIds(sim.parents)) {
+                SimAction parent = sims.get(parentId);
+                parent.children.remove(id);
+                maybeComplete(parent);
+            }
+            for (ActionId afterId : sortedIds(sim.comesBefore)) {
+                SimAction after = sims.get(afterId);
+                after.comesAfter.remove(id);
+                maybeSchedule(after, id);
+            }
+            Integer remaining = barrierRemaining.get(id.type());
+            if (remaining != null) {
+                barrierRemaining.put(id.type(), remaining - 1);
+                if (remaining == 1) {
+                    for (SimAction waiter : barrierWaiters.get(id.type())) {
+                        waiter.barriers.remove(id.type());
+                        maybeSchedule(waiter, id);
+                    }
+                }
+            }
+        }
+    }
+}
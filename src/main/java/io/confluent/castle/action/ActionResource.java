@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.action;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The kind of resource which an action mostly consumes while it runs.
+ *
+ * Each resource class has its own pool of permits, so that actions which
+ * compete for one resource don't hold up actions which need another.
+ */
+public enum ActionResource {
+    /**
+     * Actions which don't declare a resource class.
+     */
+    DEFAULT("default"),
+
+    /**
+     * Actions which make calls to a cloud provider, such as creating instances.
+     */
+    CLOUD_API("cloud-api"),
+
+    /**
+     * Actions which copy large amounts of data to or from a node.
+     */
+    BULK_TRANSFER("bulk-transfer"),
+
+    /**
+     * Actions which do a lot of work on the remote node, such as installing packages.
+     */
+    REMOTE_CPU("remote-cpu"),
+
+    /**
+     * Short actions which check on the state of a node.
+     */
+    LIGHTWEIGHT_PROBE("lightweight-probe");
+
+    private final String name;
+
+    ActionResource(String name) {
+        this.name = name;
+    }
+
+    public static ActionResource fromString(String name) {
+        String lowerName = name.trim().toLowerCase(Locale.ROOT);
+        for (ActionResource resource : ActionResource.values()) {
+            if (resource.name.equals(lowerName)) {
+                return resource;
+            }
+        }
+        StringBuilder bld = new StringBuilder();
+        String prefix = "";
+        for (ActionResource resource : ActionResource.values()) {
+            bld.append(prefix).append(resource.name);
+            prefix = ", ";
+        }
+        throw new RuntimeException("Unknown resource class " + name +
+            ".  Valid resource classes are: " + bld.toString());
+    }
+
+    /**
+     * Parse a string of the form "bulk-transfer=2,cloud-api=4" into a map of
+     * resource limits.
+     *
+     * @param str       The string to parse.
+     * @return          A map from resource classes to concurrency limits.
+     */
+    public static Map<ActionResource, Integer> parseLimits(String str) {
+        Map<ActionResource, Integer> limits = new EnumMap<>(ActionResource.class);
+        if (str == null) {
+            return limits;
+        }
+        for (String entry : str.split(",")) {
+            if (entry.trim().isEmpty()) {
+                continue;
+            }
+            int index = entry.indexOf('=');
+            if (index < 0) {
+                throw new RuntimeException("Unable to parse resource limit " + entry +
+                    ".  Expected the form <resource-class>=<limit>.");
+            }
+            ActionResource resource = fromString(entry.substring(0, index));
+            int limit;
+            try {
+                limit = Integer.parseInt(entry.substring(index + 1).trim());
+            } catch (NumberFormatException e) {
+                throw new RuntimeException("Unable to parse the limit for resource class " +
+                    resource + " in " + entry, e);
+            }
+            limits.put(resource, limit);
+        }
+        return limits;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -21,25 +21,34 @@ import io.confluent.castle.common.CastleUtil;
 import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleNode;
 import io.confluent.castle.common.CastleLog;
+import io.confluent.castle.common.EventLog;
+import io.confluent.castle.command.CommandResultException;
 
+import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.lang.reflect.Method;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Deque;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -52,6 +61,16 @@ import org.slf4j.LoggerFactory;
 public final class ActionScheduler implements AutoCloseable {
     static final Logger log = LoggerFactory.getLogger(ActionScheduler.class);
 
+    /**
+     * The default maximum number of threads to use in the SHARED executor mode.
+     */
+    public static final int DEFAULT_MAX_EXECUTOR_THREADS = 64;
+
+    /**
+     * How long an idle thread in the shared executor waits before exiting.
+     */
+    private static final long EXECUTOR_THREAD_KEEPALIVE_MS = 60000;
+
     /**
      * A mutable builder object used to construct the ActionScheduler.
      */
@@ -60,6 +79,18 @@ public final class ActionScheduler implements AutoCloseable {
         private final Set<String> targetNames = new HashSet<>();
         private final HashMap<ActionId, Action> actions = new HashMap<>();
         private int maxConcurrentActions = Integer.MAX_VALUE;
+        private final Map<ActionResource, Integer> resourceLimits =
+            new EnumMap<>(ActionResource.class);
+        private SchedulingPolicy schedulingPolicy = SchedulingPolicy.FIFO;
+        private ExecutorMode executorMode = ExecutorMode.SHARED;
+        private int maxExecutorThreads = DEFAULT_MAX_EXECUTOR_THREADS;
+        private ActionDurationHistory durationHistory = new ActionDurationHistory();
+        private ActionTracer tracer = new ActionTracer();
+        private ActionJournal journal = new ActionJournal();
+        private boolean resume = false;
+        private final Map<String, RetryPolicy> retryPolicies = new HashMap<>();
+        private int minAdaptiveConcurrency = 0;
+        private int maxAdaptiveConcurrency = 0;
 
         public Builder(CastleCluster cluster) {
             this.cluster = cluster;
@@ -89,20 +120,166 @@ public final class ActionScheduler implements AutoCloseable {
             return this;
         }
 
+        /**
+         * Set the maximum number of actions which can run at once, across all
+         * resource classes except lightweight probes, which are not limited.
+         */
         public Builder setMaxConcurrentActions(int maxConcurrentActions) {
             this.maxConcurrentActions = maxConcurrentActions;
             return this;
         }
 
+        /**
+         * Set the maximum number of actions of the given resource class which
+         * can run at once.  This applies on top of the maximum number of
+         * concurrent actions.  Resource classes without a limit are only limited
+         * by that.
+         */
+        public Builder setResourceLimit(ActionResource resource, int limit) {
+            if (limit <= 0) {
+                throw new RuntimeException("The limit for resource class " + resource +
+                    " must be positive, not " + limit);
+            }
+            resourceLimits.put(resource, limit);
+            return this;
+        }
+
+        public Builder setResourceLimits(Map<ActionResource, Integer> limits) {
+            for (Map.Entry<ActionResource, Integer> entry : limits.entrySet()) {
+                setResourceLimit(entry.getKey(), entry.getValue());
+            }
+            return this;
+        }
+
+        public Builder setSchedulingPolicy(SchedulingPolicy schedulingPolicy) {
+            this.schedulingPolicy = schedulingPolicy;
+            return this;
+        }
+
+        public Builder setExecutorMode(ExecutorMode executorMode) {
+            this.executorMode = executorMode;
+            return this;
+        }
+
+        /**
+         * Set the maximum number of threads to use in the SHARED executor mode.
+         */
+        public Builder setMaxExecutorThreads(int maxExecutorThreads) {
+            if (maxExecutorThreads <= 0) {
+                throw new RuntimeException("The maximum number of executor threads " +
+                    "must be positive, not " + maxExecutorThreads);
+            }
+            this.maxExecutorThreads = maxExecutorThreads;
+            return this;
+        }
+
+        public Builder setDurationHistory(ActionDurationHistory durationHistory) {
+            this.durationHistory = durationHistory;
+            return this;
+        }
+
+        public Builder setTracer(ActionTracer tracer) {
+            this.tracer = tracer;
+            return this;
+        }
+
+        public Builder setJournal(ActionJournal journal) {
+            this.journal = journal;
+            return this;
+        }
+
+        /**
+         * If resume is set, actions which the journal shows completed with the same
+         * inputs in an earlier run are treated as already completed.
+         */
+        public Builder setResume(boolean resume) {
+            this.resume = resume;
+            return this;
+        }
+
+        /**
+         * Set the retry policies to use for some action types, overriding the
+         * actions' own retry policies.
+         */
+        public Builder setRetryPolicies(Map<String, RetryPolicy> retryPolicies) {
+            this.retryPolicies.putAll(retryPolicies);
+            return this;
+        }
+
+        /**
+         * Enable adaptive concurrency.  Actions other than lightweight probes will
+         * also be limited by a concurrency limit which starts at the minimum, and
+         * is adjusted between the minimum and maximum as actions complete.
+         * See AdaptiveConcurrency.
+         */
+        public Builder setAdaptiveConcurrency(int minLimit, int maxLimit) {
+            this.minAdaptiveConcurrency = minLimit;
+            this.maxAdaptiveConcurrency = maxLimit;
+            return this;
+        }
+
         public ActionScheduler build() {
             Set<ActionId> targetActions = findTargetActions();
             Map<ActionId, ActionData> universe = findUniverse(targetActions);
+            Map<String, BarrierData> barriers = findBarriers(universe);
+            if (schedulingPolicy == SchedulingPolicy.CRITICAL_PATH) {
+                calculateCriticalPaths(universe, barriers);
+            }
             if (log.isDebugEnabled()) {
-                log.debug("Building scheduler with targetActions {}, universe {}",
+                log.debug("Building scheduler with targetActions {}, universe {}, barriers {}",
                     CastleUtil.join(targetActions, ", "),
-                    CastleUtil.join(universe.keySet(), ", "));
+                    CastleUtil.join(universe.keySet(), ", "),
+                    CastleUtil.join(barriers.keySet(), ", "));
+            }
+            Map<ActionResource, Integer> limits = findResourceLimits();
+            AdaptiveConcurrency adaptiveConcurrency = null;
+            if (maxAdaptiveConcurrency > 0) {
+                adaptiveConcurrency = new AdaptiveConcurrency(minAdaptiveConcurrency,
+                    maxAdaptiveConcurrency, minAdaptiveConcurrency, tracer);
             }
-            return new ActionScheduler(cluster, targetActions, universe, maxConcurrentActions);
+            return new ActionScheduler(cluster, targetActions, universe, barriers,
+                limits, maxConcurrentActions, adaptiveConcurrency, retryPolicies,
+                durationHistory, tracer, journal, executorMode, maxExecutorThreads);
+        }
+
+        /**
+         * Create a plan of what the scheduler would do, without running anything.
+         * The plan uses the same targets, limits, and scheduling policy as the
+         * scheduler would.
+         */
+        public ActionPlan buildPlan() {
+            Set<ActionId> targetActions = findTargetActions();
+            Map<ActionId, ActionData> universe = findUniverse(targetActions);
+            Map<String, BarrierData> barriers = findBarriers(universe);
+            if (schedulingPolicy == SchedulingPolicy.CRITICAL_PATH) {
+                calculateCriticalPaths(universe, barriers);
+            }
+            List<ActionPlan.PlannedAction> plannedActions = new ArrayList<>();
+            for (ActionData actionData : universe.values()) {
+                Action action = actionData.action;
+                long durationMs = durationHistory.averageMs(action.id().type());
+                boolean fromHistory = durationMs >= 0;
+                if (!fromHistory) {
+                    durationMs = action.estimatedDurationMs();
+                }
+                plannedActions.add(new ActionPlan.PlannedAction(action.id(),
+                    action.resource(), durationMs, fromHistory, action.initialDelayMs(),
+                    actionData.criticalPathMs, actionData.state == ActionState.RUNNABLE,
+                    actionData.children, actionData.comesAfter, actionData.barriers));
+            }
+            int maxThreads = (executorMode == ExecutorMode.SHARED) ?
+                maxExecutorThreads : Integer.MAX_VALUE;
+            return new ActionPlan(targetNames, plannedActions, findResourceLimits(),
+                maxConcurrentActions, maxThreads, schedulingPolicy, maxAdaptiveConcurrency > 0);
+        }
+
+        private Map<ActionResource, Integer> findResourceLimits() {
+            Map<ActionResource, Integer> limits = new EnumMap<>(ActionResource.class);
+            for (ActionResource resource : ActionResource.values()) {
+                Integer limit = resourceLimits.get(resource);
+                limits.put(resource, (limit == null) ? Integer.MAX_VALUE : limit);
+            }
+            return limits;
         }
 
         private Set<ActionId> findTargetActions() {
@@ -168,10 +345,12 @@ public final class ActionScheduler implements AutoCloseable {
                         childData.parents.add(actionData.action.id());
                     }
                 }
-                // Convert "ALL" target IDs into concrete action IDs.
-                Set<ActionId> beforeIds = TargetId.actionIds(actionData.action.comesAfter(),
-                    cluster.nodes().keySet());
-                for (ActionId beforeId : beforeIds) {
+                // "ALL" target IDs are handled by barriers.  See findBarriers.
+                for (TargetId targetId : actionData.action.comesAfter()) {
+                    if (targetId.hasGlobalScope()) {
+                        continue;
+                    }
+                    ActionId beforeId = new ActionId(targetId.type(), targetId.scope());
                     ActionData beforeData = universe.get(beforeId);
                     if (beforeData != null) {
                         actionData.comesAfter.add(beforeId);
@@ -179,6 +358,9 @@ public final class ActionScheduler implements AutoCloseable {
                     }
                 }
             }
+            if (resume) {
+                removeJournaledActions(universe, targetActions);
+            }
             boolean canStart = false;
             for (ActionId id : targetActions) {
                 ActionData actionData = universe.get(id);
@@ -193,6 +375,173 @@ public final class ActionScheduler implements AutoCloseable {
             }
             return universe;
         }
+
+        /**
+         * Remove the actions which the journal shows already completed with the same
+         * inputs.  An action is only removed if everything it contains is removed
+         * as well.  Since barriers are created later, they only count the actions
+         * which are left.
+         */
+        private void removeJournaledActions(Map<ActionId, ActionData> universe,
+                                            Set<ActionId> targetActions) {
+            Map<ActionId, Boolean> completed = new HashMap<>();
+            for (ActionId id : universe.keySet()) {
+                isJournaled(id, universe, completed);
+            }
+            List<ActionData> removed = new ArrayList<>();
+            for (Map.Entry<ActionId, Boolean> entry : completed.entrySet()) {
+                if (entry.getValue()) {
+                    removed.add(universe.remove(entry.getKey()));
+                    targetActions.remove(entry.getKey());
+                }
+            }
+            for (ActionData actionData : removed) {
+                ActionId id = actionData.action.id();
+                for (ActionId parentId : actionData.parents) {
+                    ActionData parentData = universe.get(parentId);
+                    if (parentData != null) {
+                        parentData.children.remove(id);
+                    }
+                }
+                for (ActionId afterId : actionData.comesBefore) {
+                    ActionData afterData = universe.get(afterId);
+                    if (afterData != null) {
+                        afterData.comesAfter.remove(id);
+                    }
+                }
+                for (ActionId beforeId : actionData.comesAfter) {
+                    ActionData beforeData = universe.get(beforeId);
+                    if (beforeData != null) {
+                        beforeData.comesBefore.remove(id);
+                    }
+                }
+                log.debug("Skipping {}, which completed in a previous run.", id);
+            }
+            if (!removed.isEmpty()) {
+                cluster.clusterLog().printf("*** Resuming: skipping %d action(s) which " +
+                    "completed in a previous run.%n", removed.size());
+            }
+        }
+
+        private boolean isJournaled(ActionId id, Map<ActionId, ActionData> universe,
+                                    Map<ActionId, Boolean> completed) {
+            Boolean result = completed.get(id);
+            if (result != null) {
+                return result;
+            }
+            ActionData actionData = universe.get(id);
+            result = false;
+            if (actionData.action.resumable()) {
+                String fingerprint = journal.completedFingerprint(id);
+                if (fingerprint != null && fingerprint.equals(journal.fingerprint(cluster,
+                        cluster.nodes().get(id.scope()), actionData.action))) {
+                    result = true;
+                    for (ActionId childId : actionData.children) {
+                        if (!isJournaled(childId, universe, completed)) {
+                            result = false;
+                        }
+                    }
+                }
+            }
+            completed.put(id, result);
+            return result;
+        }
+
+        /**
+         * Create a barrier for each action type which is the target of an "ALL"
+         * dependency.  Rather than linking every dependent action to every action
+         * of that type, which would create N * N edges, each dependent action waits
+         * on a single barrier that completes once all actions of the type are done.
+         */
+        private Map<String, BarrierData> findBarriers(Map<ActionId, ActionData> universe) {
+            Map<String, BarrierData> barriers = new HashMap<>();
+            for (ActionData actionData : universe.values()) {
+                for (TargetId targetId : actionData.action.comesAfter()) {
+                    if (targetId.hasGlobalScope()) {
+                        BarrierData barrier = barriers.get(targetId.type());
+                        if (barrier == null) {
+                            barrier = new BarrierData();
+                            barriers.put(targetId.type(), barrier);
+                        }
+                        barrier.waiters.add(actionData.action.id());
+                        actionData.barriers.add(targetId.type());
+                    }
+                }
+            }
+            for (ActionId id : universe.keySet()) {
+                BarrierData barrier = barriers.get(id.type());
+                if (barrier != null) {
+                    barrier.remaining++;
+                }
+            }
+            // A barrier with no actions in the universe doesn't need to be waited on.
+            for (Iterator<Map.Entry<String, BarrierData>> iter = barriers.entrySet().iterator();
+                    iter.hasNext(); ) {
+                Map.Entry<String, BarrierData> entry = iter.next();
+                if (entry.getValue().remaining == 0) {
+                    for (ActionId waiterId : entry.getValue().waiters) {
+                        universe.get(waiterId).barriers.remove(entry.getKey());
+                    }
+                    iter.remove();
+                }
+            }
+            return barriers;
+        }
+
+        /**
+         * Calculate the critical path length of each action.  This is the estimated
+         * duration of the action, plus the longest critical path of any action which
+         * has to wait for it.
+         */
+        private void calculateCriticalPaths(Map<ActionId, ActionData> universe,
+                                            Map<String, BarrierData> barriers) {
+            Set<ActionId> visiting = new HashSet<>();
+            for (ActionData actionData : universe.values()) {
+                calculateCriticalPath(actionData, universe, barriers, visiting);
+            }
+        }
+
+        private long calculateCriticalPath(ActionData actionData,
+                                           Map<ActionId, ActionData> universe,
+                                           Map<String, BarrierData> barriers,
+                                           Set<ActionId> visiting) {
+            if (actionData.criticalPathMs >= 0) {
+                return actionData.criticalPathMs;
+            }
+            ActionId id = actionData.action.id();
+            if (!visiting.add(id)) {
+                // There is a cycle.  Building the scheduler will fail later on.
+                return 0;
+            }
+            long longestSuccessor = 0;
+            for (ActionId childId : actionData.children) {
+                longestSuccessor = Math.max(longestSuccessor,
+                    calculateCriticalPath(universe.get(childId), universe, barriers, visiting));
+            }
+            for (ActionId afterId : actionData.comesBefore) {
+                longestSuccessor = Math.max(longestSuccessor,
+                    calculateCriticalPath(universe.get(afterId), universe, barriers, visiting));
+            }
+            BarrierData barrier = barriers.get(id.type());
+            if (barrier != null) {
+                if (barrier.criticalPathMs < 0) {
+                    long longestWaiter = 0;
+                    for (ActionId waiterId : barrier.waiters) {
+                        longestWaiter = Math.max(longestWaiter, calculateCriticalPath(
+                            universe.get(waiterId), universe, barriers, visiting));
+                    }
+                    barrier.criticalPathMs = longestWaiter;
+                }
+                longestSuccessor = Math.max(longestSuccessor, barrier.criticalPathMs);
+            }
+            visiting.remove(id);
+            long durationMs = durationHistory.averageMs(id.type());
+            if (durationMs < 0) {
+                durationMs = actionData.action.estimatedDurationMs();
+            }
+            actionData.criticalPathMs = durationMs + longestSuccessor;
+            return actionData.criticalPathMs;
+        }
     }
 
     /**
@@ -202,14 +551,27 @@ public final class ActionScheduler implements AutoCloseable {
      */
     private final class MaybeSchedule implements Runnable {
         private final ActionId actionId;
+        private final ActionId cause;
 
-        MaybeSchedule(ActionId actionId) {
+        /**
+         * Create a new MaybeSchedule runnable.
+         *
+         * @param actionId      The action to schedule.
+         * @param cause         The action whose progress made this action schedulable,
+         *                      or null if there is none.
+         */
+        MaybeSchedule(ActionId actionId, ActionId cause) {
             this.actionId = actionId;
+            this.cause = cause;
         }
 
         @Override
         public void run() {
             try {
+                if (shutdownFuture.isDone()) {
+                    log.trace("Not scheduling {} because the scheduler has shut down.", actionId);
+                    return;
+                }
                 ActionData actionData = universe.get(actionId);
                 if (actionData.state != ActionState.RUNNABLE) {
                     log.trace("Can't schedule {} because it is in state {}",
@@ -221,56 +583,196 @@ public final class ActionScheduler implements AutoCloseable {
                         CastleUtil.join(actionData.comesAfter, ", "), actionId);
                     return;
                 }
+                if (!actionData.barriers.isEmpty()) {
+                    log.trace("Must complete all of {} before starting {}",
+                        CastleUtil.join(actionData.barriers, ", "), actionId);
+                    return;
+                }
                 actionData.state = ActionState.EXECUTING;
+                tracer.markScheduled(actionId, cause);
+                final ExecuteAction executeAction = new ExecuteAction(actionData.action,
+                    cluster.nodes().get(actionId.scope()), actionData.criticalPathMs, 1);
                 if (actionData.action.initialDelayMs() > 0) {
                     log.debug("Scheduling {} in {} ms", actionId, actionData.action.initialDelayMs());
-                    nodeExecutors.get(actionId.scope()).schedule(
-                        new ExecuteAction(actionData.action, cluster.nodes().get(actionId.scope())),
+                    schedulerExecutor.schedule(executeAction::dispatch,
                         actionData.action.initialDelayMs(), TimeUnit.MILLISECONDS);
                 } else {
                     log.debug("Scheduling {}", actionId);
-                    nodeExecutors.get(actionId.scope()).submit(
-                        new ExecuteAction(actionData.action, cluster.nodes().get(actionId.scope())));
+                    executeAction.dispatch();
                 }
             } catch (Throwable throwable) {
                 cluster.clusterLog().error("** MaybeSchedule got fatal exception", throwable);
-                shutdownFuture.completeExceptionally(throwable);
+                abort(throwable);
             }
         }
     }
 
     /**
-     #* Executes an Action.  Because this takes place in the context of a node executor.
+     * Executes an Action.  Because this takes place in the context of a node executor.
      * It cannot access ActionScheduler fields directly.
+     *
+     * The action gets its permits once it reaches the front of its node's queue,
+     * just before it is handed to a thread.  So an action which is queued behind
+     * another action on a busy node doesn't hold permits which actions on other
+     * nodes could use, and an action waiting for a permit doesn't tie up a thread.
      */
     private final class ExecuteAction implements Runnable {
         private final Action action;
         private final CastleNode node;
+        private final long priority;
+        private final int attempt;
+        private final ActionPermits permits;
+        private final boolean limited;
+        private final boolean adaptive;
 
-        ExecuteAction(Action action, CastleNode node) {
+        ExecuteAction(Action action, CastleNode node, long priority, int attempt) {
             this.action = action;
             this.node = node;
+            this.priority = priority;
+            this.attempt = attempt;
+            this.permits = resourcePermits.get(action.resource());
+            this.limited = action.resource() != ActionResource.LIGHTWEIGHT_PROBE;
+            this.adaptive = (adaptiveConcurrency != null) && limited;
+        }
+
+        /**
+         * Queue the action on its node executor.
+         */
+        void dispatch() {
+            if (shutdownFuture.isDone()) {
+                log.debug("Not dispatching {} because the scheduler has shut down.", action.id());
+                return;
+            }
+            tracer.markWaiting(action.id());
+            nodeExecutors.get(node.nodeName()).execute(this, this::acquirePermits);
+        }
+
+        /**
+         * Wait for the action's permits without blocking, and then start it.  The
+         * node executor calls this once the action reaches the front of its queue.
+         */
+        private void acquirePermits(Runnable start) {
+            Runnable acquireAdaptive = adaptive ?
+                () -> adaptiveConcurrency.acquire(priority, start) : start;
+            Runnable acquireGlobal = limited ?
+                () -> globalPermits.acquire(priority, acquireAdaptive) : acquireAdaptive;
+            permits.acquire(priority, acquireGlobal);
+        }
+
+        private void releasePermits() {
+            if (adaptive) {
+                adaptiveConcurrency.release();
+            }
+            if (limited) {
+                globalPermits.release();
+            }
+            permits.release();
+        }
+
+        /**
+         * If the retry policy allows it, schedule another attempt at running the
+         * action after a backoff.  The permits are released while we wait.
+         *
+         * @return      True if another attempt was scheduled.
+         */
+        private boolean maybeRetry(Throwable throwable) {
+            RetryPolicy policy = retryPolicies.get(action.id().type());
+            if (policy == null) {
+                policy = action.retryPolicy();
+            }
+            if (shutdownFuture.isDone() || (attempt >= policy.maxAttempts()) ||
+                    !policy.isRetryable(throwable)) {
+                return false;
+            }
+            long backoffMs = policy.backoffMs(attempt);
+            CastleLog.printToAll(String.format("** Attempt %d of %d at %s failed: %s.  " +
+                "Retrying in %d ms.%n", attempt, policy.maxAttempts(), action.id(),
+                throwable.getMessage(), backoffMs), node.log(), cluster.clusterLog());
+            final ExecuteAction retry = new ExecuteAction(action, node, priority, attempt + 1);
+            schedulerExecutor.schedule(retry::dispatch, backoffMs, TimeUnit.MILLISECONDS);
+            return true;
+        }
+
+        /**
+         * Return true if the action failed because a command it required to succeed
+         * did not, as opposed to failing for some other reason or not at all.
+         */
+        private boolean isCommandFailure(Throwable throwable) {
+            for (Throwable t = throwable; t != null; t = t.getCause()) {
+                if (t instanceof CommandResultException) {
+                    return true;
+                }
+                if (t.getCause() == t) {
+                    break;
+                }
+            }
+            return false;
         }
 
         @Override
         public void run() {
+            synchronized (runningThreads) {
+                if (shutdownFuture.isDone()) {
+                    log.debug("Not running {} because the scheduler has shut down.", action.id());
+                    releasePermits();
+                    return;
+                }
+                runningThreads.put(action.id(), Thread.currentThread());
+            }
             try {
-                runSemaphore.acquire();
+                tracer.markStarted(action.id());
                 nodeExecutorInfos.put(node.nodeName(), new NodeExecutorInfo(action.id().type()));
+                long startNs = System.nanoTime();
+                long baselineMs = durationHistory.averageMs(action.id().type());
+                long prevConnectionFailures = node.commandStats().numConnectionFailures();
+                Throwable error = null;
+                EventLog.setCurrentAction(action.id().toString());
                 try {
                     CastleLog.debugToAll(String.format("** Running %s", action.id()),
                         node.log(), cluster.clusterLog());
                     action.call(cluster, node);
-                    schedulerExecutor.submit(new FinishRunningAction(action));
+                    tracer.markCallEnded(action.id());
+                    durationHistory.record(action.id().type(),
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNs));
+                    String fingerprint = action.resumable() ?
+                        journal.fingerprint(cluster, node, action) : null;
+                    schedulerExecutor.submit(new FinishRunningAction(action, fingerprint));
+                } catch (Throwable throwable) {
+                    error = throwable;
+                    if (!maybeRetry(throwable)) {
+                        throw throwable;
+                    }
                 } finally {
+                    EventLog.setCurrentAction(null);
+                    cluster.eventLog().action(action.id().toString(), node.nodeName(),
+                        startNs, System.nanoTime(), error);
                     nodeExecutorInfos.remove(node.nodeName());
-                    runSemaphore.release();
+                    if (adaptive) {
+                        adaptiveConcurrency.record(action.id().type(), startNs,
+                            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNs),
+                            baselineMs,
+                            node.commandStats().numConnectionFailures() - prevConnectionFailures,
+                            isCommandFailure(error));
+                    }
+                    releasePermits();
                 }
             } catch (Throwable throwable) {
-                String msg = "** ExecuteAction " + action.id() + " failed";
-                node.log().error(msg, throwable);
-                cluster.clusterLog().error(msg, throwable);
-                shutdownFuture.completeExceptionally(throwable);
+                if (shutdownFuture.isDone()) {
+                    CastleLog.printToAll(String.format("** ExecuteAction %s was cancelled%n",
+                        action.id()), node.log(), cluster.clusterLog());
+                } else {
+                    String msg = "** ExecuteAction " + action.id() + " failed";
+                    node.log().error(msg, throwable);
+                    cluster.clusterLog().error(msg, throwable);
+                    abort(throwable);
+                }
+            } finally {
+                synchronized (runningThreads) {
+                    runningThreads.remove(action.id());
+                }
+                // Clear any interrupt which arrived after the action finished, so
+                // that it doesn't leak into the next task run by this thread.
+                Thread.interrupted();
             }
         }
     }
@@ -282,9 +784,11 @@ public final class ActionScheduler implements AutoCloseable {
      */
     private final class FinishRunningAction implements Runnable {
         private final Action action;
+        private final String fingerprint;
 
-        FinishRunningAction(Action action) {
+        FinishRunningAction(Action action, String fingerprint) {
             this.action = action;
+            this.fingerprint = fingerprint;
         }
 
         @Override
@@ -296,12 +800,14 @@ public final class ActionScheduler implements AutoCloseable {
                         ", which is not in EXECUTING state.");
                 }
                 actionData.state = ActionState.WAITING_FOR_CHILDREN;
+                actionData.fingerprint = fingerprint;
                 for (ActionId childId : actionData.children) {
                     ActionData childData = universe.get(childId);
                     if (childData.state == ActionState.PENDING) {
                         log.trace("Setting state for child action {} to RUNNABLE", childId);
                         childData.state = ActionState.RUNNABLE;
-                        schedulerExecutor.submit(new MaybeSchedule(childId));
+                        tracer.markRunnable(childId);
+                        schedulerExecutor.submit(new MaybeSchedule(childId, action.id()));
                     }
                 }
                 if (actionData.children.isEmpty()) {
@@ -309,7 +815,7 @@ public final class ActionScheduler implements AutoCloseable {
                 }
             } catch (Throwable throwable) {
                 cluster.clusterLog().error("** FinishRunningAction got fatal exception", throwable);
-                shutdownFuture.completeExceptionally(throwable);
+                abort(throwable);
             }
         }
     }
@@ -342,7 +848,16 @@ public final class ActionScheduler implements AutoCloseable {
                 CastleLog.debugToAll(String.format("** Finished %s", actionId),
                     cluster.nodes().get(actionId.scope()).log(), cluster.clusterLog());
                 actionData.state = ActionState.COMPLETED;
+                tracer.markCompleted(actionId);
                 numCompleted++;
+                if (actionData.fingerprint != null) {
+                    try {
+                        journal.record(actionId, actionData.fingerprint);
+                    } catch (IOException e) {
+                        cluster.clusterLog().error("Unable to record {} in the action journal",
+                            actionId, e);
+                    }
+                }
                 for (Iterator<ActionId> iter = actionData.parents.iterator(); iter.hasNext(); ) {
                     ActionId parentId = iter.next();
                     ActionData parentData = universe.get(parentId);
@@ -356,15 +871,27 @@ public final class ActionScheduler implements AutoCloseable {
                     ActionId afterId = iter.next();
                     ActionData afterData = universe.get(afterId);
                     afterData.comesAfter.remove(actionId);
-                    schedulerExecutor.submit(new MaybeSchedule(afterId));
+                    schedulerExecutor.submit(new MaybeSchedule(afterId, actionId));
                     iter.remove();
                 }
+                BarrierData barrier = barriers.get(actionId.type());
+                if (barrier != null) {
+                    barrier.remaining--;
+                    if (barrier.remaining == 0) {
+                        log.trace("Completed barrier for all {} actions", actionId.type());
+                        for (ActionId waiterId : barrier.waiters) {
+                            universe.get(waiterId).barriers.remove(actionId.type());
+                            schedulerExecutor.submit(new MaybeSchedule(waiterId, actionId));
+                        }
+                        barrier.waiters.clear();
+                    }
+                }
                 if (numCompleted == universe.size()) {
                     CastleUtil.completeNull(shutdownFuture);
                 }
             } catch (Throwable throwable) {
                 cluster.clusterLog().error("** MaybeCompleteAction got fatal exception", throwable);
-                shutdownFuture.completeExceptionally(throwable);
+                abort(throwable);
             }
         }
     }
@@ -384,12 +911,24 @@ public final class ActionScheduler implements AutoCloseable {
         private final Set<ActionId> comesAfter = new HashSet<>();
         private final Set<ActionId> parents = new HashSet<>();
         private final Set<ActionId> children = new HashSet<>();
+        private final Set<String> barriers = new HashSet<>();
+        private long criticalPathMs = -1;
+        private String fingerprint = null;
 
         ActionData(Action action) {
             this.action = action;
         }
     }
 
+    /**
+     * A barrier which completes once every action of a given type has completed.
+     */
+    private static class BarrierData {
+        private int remaining = 0;
+        private final List<ActionId> waiters = new ArrayList<>();
+        private long criticalPathMs = -1;
+    }
+
     public static class NodeExecutorInfo {
         private final String actionType;
 
@@ -412,6 +951,11 @@ public final class ActionScheduler implements AutoCloseable {
      */
     private final Map<ActionId, ActionData> universe;
 
+    /**
+     * Maps action types to the barriers which wait for all actions of that type.
+     */
+    private final Map<String, BarrierData> barriers;
+
     /**
      * The number of completed actions.
      */
@@ -425,18 +969,65 @@ public final class ActionScheduler implements AutoCloseable {
     /**
      * The single-threaded scheduler executor which coordinates running actions.
      */
-    private final ExecutorService schedulerExecutor;
+    private final ScheduledExecutorService schedulerExecutor;
+
+    /**
+     * Limits the number of concurrently executing tasks for each resource class.
+     * When there are more runnable tasks than permits, the tasks with the longest
+     * critical path go first.
+     */
+    private final Map<ActionResource, ActionPermits> resourcePermits;
+
+    /**
+     * The permits which limit how many actions can run at once, across all resource
+     * classes except lightweight probes.  An action takes these after the permit
+     * for its resource class.
+     */
+    private final ActionPermits globalPermits;
+
+    /**
+     * If this is non-null, it further limits how many actions can run at once,
+     * adjusting the limit based on how actions are doing.
+     */
+    private final AdaptiveConcurrency adaptiveConcurrency;
+
+    /**
+     * Maps action types to retry policies which override the actions' own policies.
+     */
+    private final Map<String, RetryPolicy> retryPolicies;
+
+    /**
+     * Records how long each action took to run.
+     */
+    private final ActionDurationHistory durationHistory;
+
+    /**
+     * Records when each action reached each stage of scheduling.
+     */
+    private final ActionTracer tracer;
+
+    /**
+     * Records the actions which have completed, so that later runs can resume.
+     */
+    private final ActionJournal journal;
 
     /**
-     * A semaphore that limits the number of concurrently executing tasks.
+     * The executor services which run actions.  Depending on the executor mode, this
+     * is either one single-threaded executor per node, or a single shared executor.
      */
-    private final Semaphore runSemaphore;
+    private final List<ExecutorService> actionExecutors;
 
     /**
-     * A map from node names to executor services.
-     * Node executors run actions in separate threads.
+     * A map from node names to executors.  Each node executor runs the actions
+     * for its node one at a time.
      */
-    private final Map<String, ScheduledExecutorService> nodeExecutors;
+    private final Map<String, SerialExecutor> nodeExecutors;
+
+    /**
+     * The threads which are running each action.  Accesses are protected by
+     * synchronizing on the map itself.
+     */
+    private final Map<ActionId, Thread> runningThreads = new HashMap<>();
 
     /**
      * Information about the node executors.
@@ -446,29 +1037,92 @@ public final class ActionScheduler implements AutoCloseable {
     private ActionScheduler(CastleCluster cluster,
                             Set<ActionId> targetActions,
                             Map<ActionId, ActionData> universe,
-                            int maxConcurrentActions) {
+                            Map<String, BarrierData> barriers,
+                            Map<ActionResource, Integer> resourceLimits,
+                            int maxConcurrentActions,
+                            AdaptiveConcurrency adaptiveConcurrency,
+                            Map<String, RetryPolicy> retryPolicies,
+                            ActionDurationHistory durationHistory,
+                            ActionTracer tracer,
+                            ActionJournal journal,
+                            ExecutorMode executorMode,
+                            int maxExecutorThreads) {
         this.cluster = cluster;
         this.universe = universe;
+        this.barriers = barriers;
         this.shutdownFuture = new CompletableFuture<>();
         this.schedulerExecutor = Executors.newSingleThreadScheduledExecutor(
             CastleUtil.createThreadFactory("ActionSchedulerThread", false));
-        this.runSemaphore = new Semaphore(maxConcurrentActions);
+        this.resourcePermits = new EnumMap<>(ActionResource.class);
+        for (Map.Entry<ActionResource, Integer> entry : resourceLimits.entrySet()) {
+            this.resourcePermits.put(entry.getKey(), new ActionPermits(entry.getValue()));
+        }
+        this.globalPermits = new ActionPermits(maxConcurrentActions);
+        this.adaptiveConcurrency = adaptiveConcurrency;
+        this.retryPolicies = new HashMap<>(retryPolicies);
+        this.durationHistory = durationHistory;
+        this.tracer = tracer;
+        this.journal = journal;
+        this.actionExecutors = new ArrayList<>();
         this.nodeExecutors = new HashMap<>();
         this.nodeExecutorInfos = new ConcurrentHashMap<String, NodeExecutorInfo>();
-        for (String nodeName : cluster.nodes().keySet()) {
-            this.nodeExecutors.put(nodeName, Executors.newSingleThreadScheduledExecutor(
-                CastleUtil.createThreadFactory(
-                    "ActionSchedulerNodeExecutor[" + nodeName + "]", false)));
+        if (executorMode == ExecutorMode.PER_NODE) {
+            for (String nodeName : cluster.nodes().keySet()) {
+                ExecutorService executor = Executors.newSingleThreadExecutor(
+                    CastleUtil.createThreadFactory(
+                        "ActionSchedulerNodeExecutor[" + nodeName + "]", false));
+                this.actionExecutors.add(executor);
+                this.nodeExecutors.put(nodeName, new SerialExecutor(executor));
+            }
+        } else {
+            ExecutorService executor = (executorMode == ExecutorMode.VIRTUAL) ?
+                createVirtualThreadExecutor() : createSharedExecutor(maxExecutorThreads);
+            this.actionExecutors.add(executor);
+            for (String nodeName : cluster.nodes().keySet()) {
+                this.nodeExecutors.put(nodeName, new SerialExecutor(executor));
+            }
         }
         if (universe.isEmpty()) {
             CastleUtil.completeNull(shutdownFuture);
         } else {
             for (ActionId id : targetActions) {
-                schedulerExecutor.submit(new MaybeSchedule(id));
+                if (universe.get(id).state == ActionState.RUNNABLE) {
+                    tracer.markRunnable(id);
+                }
+                schedulerExecutor.submit(new MaybeSchedule(id, null));
             }
         }
     }
 
+    /**
+     * Create a thread pool which is shared by all nodes.  Threads are created as
+     * needed, up to the given maximum, and exit after they have been idle for a while.
+     */
+    private static ExecutorService createSharedExecutor(int maxThreads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads,
+            EXECUTOR_THREAD_KEEPALIVE_MS, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            CastleUtil.createThreadFactory("ActionSchedulerExecutor%d", false));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Create an executor which runs each task in a new virtual thread.  We look up
+     * the factory method by reflection, since it is not present in older JDKs.
+     */
+    private static ExecutorService createVirtualThreadExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (NoSuchMethodException e) {
+            throw new RuntimeException("The virtual executor mode requires a JDK which " +
+                "supports virtual threads.", e);
+        } catch (Exception e) {
+            throw new RuntimeException("Unable to create a virtual thread executor.", e);
+        }
+    }
+
     /**
      * Wait for the scheduler to finish.
      *
@@ -480,6 +1134,24 @@ public final class ActionScheduler implements AutoCloseable {
         shutdownFuture.get(duration, timeUnit);
     }
 
+    /**
+     * Fail the scheduler.  Actions which have not started yet will not be run, and
+     * the threads which are running actions are interrupted.  This makes any
+     * commands which they are waiting on get killed, rather than running until
+     * they finish on their own.
+     */
+    private void abort(Throwable throwable) {
+        if (!shutdownFuture.completeExceptionally(throwable)) {
+            return;
+        }
+        synchronized (runningThreads) {
+            for (Map.Entry<ActionId, Thread> entry : runningThreads.entrySet()) {
+                log.debug("Interrupting {}", entry.getKey());
+                entry.getValue().interrupt();
+            }
+        }
+    }
+
     /**
      * Log the currently executing actions to the provided PrintStream.
      */
@@ -503,12 +1175,11 @@ public final class ActionScheduler implements AutoCloseable {
      */
     @Override
     public void close() throws Exception {
-        shutdownFuture.completeExceptionally(
-            new InterruptedException("The scheduler is shutting down."));
-        for (ExecutorService executorService : nodeExecutors.values()) {
+        abort(new InterruptedException("The scheduler is shutting down."));
+        for (ExecutorService executorService : actionExecutors) {
             executorService.shutdownNow();
         }
-        for (ExecutorService executorService : nodeExecutors.values()) {
+        for (ExecutorService executorService : actionExecutors) {
             executorService.awaitTermination(1, TimeUnit.DAYS);
         }
         schedulerExecutor.shutdownNow();
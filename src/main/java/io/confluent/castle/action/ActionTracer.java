@@ -0,0 +1,419 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.action;
+
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static io.confluent.castle.common.JsonUtil.JSON_SERDE;
+
+/**
+ * Records when each action moves through the stages of the scheduler, so that we
+ * can see where the time goes in a run.
+ *
+ * The timings can be written out as a Chrome trace file, which can be loaded into
+ * chrome://tracing or Perfetto, and as a plain text summary.
+ */
+public final class ActionTracer {
+    public static final String TRACE_FILE_NAME = "action_trace.json";
+
+    public static final String SUMMARY_FILE_NAME = "action_summary.txt";
+
+    /**
+     * The timestamps for a single action, in nanoseconds.  A value of -1 means
+     * that the action never reached that stage.
+     */
+    public static final class ActionTiming {
+        private volatile long runnableNs = -1;
+        private volatile long scheduledNs = -1;
+        private volatile long waitingNs = -1;
+        private volatile long startedNs = -1;
+        private volatile long callEndedNs = -1;
+        private volatile long completedNs = -1;
+        private volatile ActionId cause = null;
+
+        /**
+         * The time when the action's parent finished running, or when the scheduler
+         * started, if the action is a target.
+         */
+        public long runnableNs() {
+            return runnableNs;
+        }
+
+        /**
+         * The time when the action's dependencies were satisfied, and it was handed
+         * to its node's executor.
+         */
+        public long scheduledNs() {
+            return scheduledNs;
+        }
+
+        /**
+         * The time when the action started waiting for a permit.
+         */
+        public long waitingNs() {
+            return waitingNs;
+        }
+
+        /**
+         * The time when the action got a permit and Action#call began.
+         */
+        public long startedNs() {
+            return startedNs;
+        }
+
+        /**
+         * The time when Action#call returned.
+         */
+        public long callEndedNs() {
+            return callEndedNs;
+        }
+
+        /**
+         * The time when the action and all of its children completed.
+         */
+        public long completedNs() {
+            return completedNs;
+        }
+
+        /**
+         * The action whose completion allowed this action to be scheduled, or null
+         * if there was no such action.
+         */
+        public ActionId cause() {
+            return cause;
+        }
+
+        public long callDurationNs() {
+            if (startedNs < 0 || callEndedNs < 0) {
+                return -1;
+            }
+            return callEndedNs - startedNs;
+        }
+
+        public long permitWaitNs() {
+            if (waitingNs < 0 || startedNs < 0) {
+                return -1;
+            }
+            return startedNs - waitingNs;
+        }
+    }
+
+    private final long baseNs = System.nanoTime();
+
+    private final long baseEpochMs = System.currentTimeMillis();
+
+    private final ConcurrentHashMap<ActionId, ActionTiming> timings = new ConcurrentHashMap<>();
+
+    /**
+     * Changes to the adaptive concurrency limit.  Each element holds the time in
+     * nanoseconds and the new limit.  Accesses are protected by synchronizing on
+     * the list itself.
+     */
+    private final List<long[]> concurrencyChanges = new ArrayList<>();
+
+    private ActionTiming timing(ActionId id) {
+        ActionTiming timing = timings.get(id);
+        if (timing == null) {
+            timing = new ActionTiming();
+            ActionTiming prev = timings.putIfAbsent(id, timing);
+            if (prev != null) {
+                timing = prev;
+            }
+        }
+        return timing;
+    }
+
+    void markRunnable(ActionId id) {
+        timing(id).runnableNs = System.nanoTime();
+    }
+
+    void markScheduled(ActionId id, ActionId cause) {
+        ActionTiming timing = timing(id);
+        timing.cause = cause;
+        timing.scheduledNs = System.nanoTime();
+    }
+
+    void markWaiting(ActionId id) {
+        timing(id).waitingNs = System.nanoTime();
+    }
+
+    void markStarted(ActionId id) {
+        timing(id).startedNs = System.nanoTime();
+    }
+
+    void markCallEnded(ActionId id) {
+        timing(id).callEndedNs = System.nanoTime();
+    }
+
+    void markCompleted(ActionId id) {
+        timing(id).completedNs = System.nanoTime();
+    }
+
+    void markConcurrency(int limit) {
+        synchronized (concurrencyChanges) {
+            concurrencyChanges.add(new long[] {System.nanoTime(), limit});
+        }
+    }
+
+    /**
+     * Get the changes to the adaptive concurrency limit, as pairs of times in
+     * nanoseconds and limits.
+     */
+    public List<long[]> concurrencyChanges() {
+        synchronized (concurrencyChanges) {
+            return new ArrayList<>(concurrencyChanges);
+        }
+    }
+
+    public Map<ActionId, ActionTiming> timings() {
+        return Collections.unmodifiableMap(timings);
+    }
+
+    private long toMicros(long ns) {
+        return TimeUnit.NANOSECONDS.toMicros(ns - baseNs);
+    }
+
+    private static long toMillis(long ns) {
+        return TimeUnit.NANOSECONDS.toMillis(ns);
+    }
+
+    /**
+     * Write the timings out in the Chrome trace event format.
+     *
+     * Each node becomes a thread in the trace.  The time each action spent waiting
+     * for a permit and running Action#call appear on the node's thread.  The whole
+     * lifetime of each action, from becoming runnable to completing, appears as an
+     * async event.
+     *
+     * @param path      The path to write to.
+     */
+    public void writeTrace(String path) throws Exception {
+        JsonNodeFactory factory = JsonNodeFactory.instance;
+        ObjectNode root = factory.objectNode();
+        root.put("displayTimeUnit", "ms");
+        ObjectNode metadata = root.putObject("metadata");
+        metadata.put("startTimeEpochMs", baseEpochMs);
+        ArrayNode events = root.putArray("traceEvents");
+        Map<String, Integer> threadIds = new TreeMap<>();
+        for (ActionId id : timings.keySet()) {
+            threadIds.put(id.scope(), 0);
+        }
+        int nextThreadId = 1;
+        for (Map.Entry<String, Integer> entry : threadIds.entrySet()) {
+            entry.setValue(nextThreadId++);
+            ObjectNode event = events.addObject();
+            event.put("name", "thread_name");
+            event.put("ph", "M");
+            event.put("pid", 1);
+            event.put("tid", entry.getValue());
+            event.putObject("args").put("name", entry.getKey());
+        }
+        for (long[] change : concurrencyChanges()) {
+            ObjectNode event = events.addObject();
+            event.put("name", "concurrencyLimit");
+            event.put("ph", "C");
+            event.put("pid", 1);
+            event.put("ts", toMicros(change[0]));
+            event.putObject("args").put("limit", change[1]);
+        }
+        int asyncId = 0;
+        for (Map.Entry<ActionId, ActionTiming> entry : timingsByName().values()) {
+            ActionId id = entry.getKey();
+            ActionTiming timing = entry.getValue();
+            int tid = threadIds.get(id.scope());
+            if (timing.waitingNs >= 0 && timing.startedNs >= 0) {
+                ObjectNode event = events.addObject();
+                event.put("name", "permit:" + id.type());
+                event.put("cat", "permit");
+                event.put("ph", "X");
+                event.put("pid", 1);
+                event.put("tid", tid);
+                event.put("ts", toMicros(timing.waitingNs));
+                event.put("dur", TimeUnit.NANOSECONDS.toMicros(timing.permitWaitNs()));
+            }
+            if (timing.startedNs >= 0 && timing.callEndedNs >= 0) {
+                ObjectNode event = events.addObject();
+                event.put("name", id.type());
+                event.put("cat", "call");
+                event.put("ph", "X");
+                event.put("pid", 1);
+                event.put("tid", tid);
+                event.put("ts", toMicros(timing.startedNs));
+                event.put("dur", TimeUnit.NANOSECONDS.toMicros(timing.callDurationNs()));
+                ObjectNode args = event.putObject("args");
+                args.put("action", id.toString());
+                if (timing.cause != null) {
+                    args.put("cause", timing.cause.toString());
+                }
+            }
+            if (timing.runnableNs >= 0 && timing.completedNs >= 0) {
+                asyncId++;
+                for (String phase : new String[] {"b", "e"}) {
+                    ObjectNode event = events.addObject();
+                    event.put("name", id.toString());
+                    event.put("cat", "lifecycle");
+                    event.put("ph", phase);
+                    event.put("id", asyncId);
+                    event.put("pid", 1);
+                    event.put("tid", tid);
+                    event.put("ts", toMicros(phase.equals("b") ?
+                        timing.runnableNs : timing.completedNs));
+                }
+            }
+        }
+        JSON_SERDE.writer().without(SerializationFeature.INDENT_OUTPUT).
+            writeValue(new File(path), root);
+    }
+
+    private Map<String, Map.Entry<ActionId, ActionTiming>> timingsByName() {
+        Map<String, Map.Entry<ActionId, ActionTiming>> map = new TreeMap<>();
+        for (Map.Entry<ActionId, ActionTiming> entry : timings.entrySet()) {
+            map.put(entry.getKey().toString(), entry);
+        }
+        return map;
+    }
+
+    /**
+     * Find the chain of actions which determined when the last action finished
+     * running.  We start with the action whose call ended last, and then repeatedly
+     * follow the action whose completion allowed the current one to be scheduled.
+     *
+     * @return          The chain of actions, in the order in which they ran.
+     */
+    public List<ActionId> criticalPath() {
+        ActionId last = null;
+        long lastCallEndedNs = -1;
+        for (Map.Entry<ActionId, ActionTiming> entry : timings.entrySet()) {
+            if (entry.getValue().callEndedNs > lastCallEndedNs) {
+                lastCallEndedNs = entry.getValue().callEndedNs;
+                last = entry.getKey();
+            }
+        }
+        List<ActionId> path = new ArrayList<>();
+        for (ActionId id = last; id != null; id = timings.get(id).cause) {
+            if (path.contains(id)) {
+                break;
+            }
+            path.add(id);
+        }
+        Collections.reverse(path);
+        return path;
+    }
+
+    static long percentile(List<Long> sortedValues, double fraction) {
+        if (sortedValues.isEmpty()) {
+            return 0;
+        }
+        int index = (int) Math.ceil(fraction * sortedValues.size()) - 1;
+        return sortedValues.get(Math.max(0, Math.min(index, sortedValues.size() - 1)));
+    }
+
+    /**
+     * Create a human-readable summary of the run.  This contains the critical path
+     * and per-action-type statistics about time spent waiting for permits and
+     * running.
+     */
+    public String summary() {
+        StringBuilder bld = new StringBuilder();
+        long endNs = baseNs;
+        for (ActionTiming timing : timings.values()) {
+            endNs = Math.max(endNs, Math.max(timing.callEndedNs, timing.completedNs));
+        }
+        bld.append(String.format("Total time: %d ms%n%n", toMillis(endNs - baseNs)));
+
+        bld.append(String.format("Critical path:%n"));
+        bld.append(String.format("  %-40s %12s %12s %12s%n",
+            "ACTION", "START_MS", "WAIT_MS", "RUN_MS"));
+        for (ActionId id : criticalPath()) {
+            ActionTiming timing = timings.get(id);
+            bld.append(String.format("  %-40s %12d %12d %12d%n", id,
+                toMillis(timing.startedNs - baseNs),
+                toMillis(Math.max(0, timing.permitWaitNs())),
+                toMillis(timing.callDurationNs())));
+        }
+        bld.append(String.format("%n"));
+
+        Map<String, List<Long>> callDurations = new TreeMap<>();
+        Map<String, List<Long>> permitWaits = new TreeMap<>();
+        for (Map.Entry<ActionId, ActionTiming> entry : timings.entrySet()) {
+            ActionTiming timing = entry.getValue();
+            if (timing.callDurationNs() < 0) {
+                continue;
+            }
+            String type = entry.getKey().type();
+            if (!callDurations.containsKey(type)) {
+                callDurations.put(type, new ArrayList<>());
+                permitWaits.put(type, new ArrayList<>());
+            }
+            callDurations.get(type).add(toMillis(timing.callDurationNs()));
+            permitWaits.get(type).add(toMillis(Math.max(0, timing.permitWaitNs())));
+        }
+        bld.append(String.format("Action types:%n"));
+        bld.append(String.format("  %-24s %8s %10s %10s %10s %12s %12s%n",
+            "TYPE", "COUNT", "P50_MS", "P99_MS", "MAX_MS", "WAIT_P50_MS", "WAIT_P99_MS"));
+        for (Map.Entry<String, List<Long>> entry : callDurations.entrySet()) {
+            List<Long> durations = entry.getValue();
+            List<Long> waits = permitWaits.get(entry.getKey());
+            Collections.sort(durations);
+            Collections.sort(waits);
+            bld.append(String.format("  %-24s %8d %10d %10d %10d %12d %12d%n",
+                entry.getKey(), durations.size(),
+                percentile(durations, 0.5), percentile(durations, 0.99),
+                durations.get(durations.size() - 1),
+                percentile(waits, 0.5), percentile(waits, 0.99)));
+        }
+        List<long[]> changes = concurrencyChanges();
+        if (!changes.isEmpty()) {
+            bld.append(String.format("%nAdaptive concurrency limit:%n"));
+            bld.append(String.format("  %12s %8s%n", "TIME_MS", "LIMIT"));
+            for (long[] change : changes) {
+                bld.append(String.format("  %12d %8d%n",
+                    toMillis(Math.max(0, change[0] - baseNs)), change[1]));
+            }
+        }
+        return bld.toString();
+    }
+
+    /**
+     * Write the summary to a text file.
+     *
+     * @param path      The path to write to.
+     */
+    public void writeSummary(String path) throws Exception {
+        try (Writer writer = new OutputStreamWriter(
+                new FileOutputStream(path, false), StandardCharsets.UTF_8)) {
+            writer.write(summary());
+        }
+    }
+}
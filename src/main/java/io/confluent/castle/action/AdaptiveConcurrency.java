@@ -0,0 +1,202 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.action;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Adjusts the number of actions which may run at once, based on how the actions
+ * which already ran did.
+ *
+ * This uses additive increase, multiplicative decrease (AIMD), like TCP congestion
+ * control.  Each time as many actions complete as the current limit allows, we
+ * compare the throughput with that of the previous window.  If the limit was
+ * fully used and throughput did not get worse, the limit goes up: it doubles until
+ * the first decrease, and goes up by one after that.  When an action fails
+ * because a command it required did not succeed, sees ssh connection failures,
+ * or takes much longer than it usually does, the limit is halved.  Only actions
+ * which started after the last decrease can cause another one, so that a single
+ * burst of errors halves the limit only once.
+ *
+ * Commands which merely exit with a non-zero status are not counted.  Status
+ * checks and polling loops fail on purpose until the thing they are waiting for
+ * happens, so on a healthy cluster they would keep pulling the limit down.
+ */
+public final class AdaptiveConcurrency {
+    private static final Logger log = LoggerFactory.getLogger(AdaptiveConcurrency.class);
+
+    /**
+     * An action which takes this many times longer than its historical average
+     * counts as a latency spike.
+     */
+    static final int LATENCY_SPIKE_FACTOR = 3;
+
+    /**
+     * Actions whose historical average is shorter than this are too noisy to
+     * detect latency spikes with.
+     */
+    static final long MIN_LATENCY_BASELINE_MS = 100;
+
+    /**
+     * The fraction of the previous window's throughput that the current window
+     * must reach for the limit to go up.
+     */
+    private static final double THROUGHPUT_TOLERANCE = 0.9;
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private final ActionPermits permits;
+
+    private final ActionTracer tracer;
+
+    private int limit;
+
+    private boolean slowStart = true;
+
+    private long lastDecreaseNs;
+
+    private long windowStartNs;
+
+    private int windowCompletions = 0;
+
+    private boolean windowSaturated = false;
+
+    private double lastThroughput = 0;
+
+    public AdaptiveConcurrency(int minLimit, int maxLimit, int initialLimit,
+                               ActionTracer tracer) {
+        if (minLimit < 1) {
+            throw new RuntimeException("The minimum concurrency limit must be at least 1.");
+        }
+        if (maxLimit < minLimit) {
+            throw new RuntimeException("The maximum concurrency limit " + maxLimit +
+                " is less than the minimum concurrency limit " + minLimit);
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        this.permits = new ActionPermits(limit);
+        this.tracer = tracer;
+        this.lastDecreaseNs = System.nanoTime();
+        this.windowStartNs = lastDecreaseNs;
+        tracer.markConcurrency(limit);
+    }
+
+    /**
+     * Acquire permission to run an action without blocking.  See
+     * ActionPermits#acquire(long, Runnable).
+     *
+     * @param priority      The priority.  Higher values are served first.
+     * @param onAcquired    The callback to run once we have permission.
+     */
+    public void acquire(long priority, Runnable onAcquired) {
+        permits.acquire(priority, onAcquired);
+    }
+
+    public void release() {
+        permits.release();
+    }
+
+    public synchronized int limit() {
+        return limit;
+    }
+
+    /**
+     * Record the outcome of an action.
+     *
+     * @param type                  The action type.
+     * @param startNs               When the action started running.
+     * @param durationMs            How long the action took.
+     * @param baselineMs            How long actions of this type usually take, or
+     *                              -1 if we don't know.
+     * @param connectionFailures    The number of commands which failed because ssh
+     *                              could not connect.
+     * @param commandFailed         True if the action failed because a command it
+     *                              required to succeed did not.
+     */
+    public synchronized void record(String type, long startNs, long durationMs,
+                                    long baselineMs, long connectionFailures,
+                                    boolean commandFailed) {
+        // The caller still holds its permit, so if none are available, every
+        // permit was in use.
+        if ((permits.available() <= 0) || (permits.numWaiters() > 0)) {
+            windowSaturated = true;
+        }
+        String reason = null;
+        if (commandFailed) {
+            reason = "a command failed";
+        } else if (connectionFailures > 0) {
+            reason = connectionFailures + " ssh connection failure(s)";
+        } else if ((baselineMs >= MIN_LATENCY_BASELINE_MS) &&
+                (durationMs > LATENCY_SPIKE_FACTOR * baselineMs)) {
+            reason = "it took " + durationMs + " ms, compared with an average of " +
+                baselineMs + " ms";
+        }
+        if (reason != null) {
+            if (startNs - lastDecreaseNs >= 0) {
+                decrease(type, reason);
+            }
+            return;
+        }
+        windowCompletions++;
+        if (windowCompletions >= limit) {
+            long nowNs = System.nanoTime();
+            double throughput = windowCompletions / (double) Math.max(1, nowNs - windowStartNs);
+            if (windowSaturated && (throughput >= lastThroughput * THROUGHPUT_TOLERANCE)) {
+                increase();
+            }
+            lastThroughput = throughput;
+            windowStartNs = nowNs;
+            windowCompletions = 0;
+            windowSaturated = false;
+        }
+    }
+
+    private void increase() {
+        int newLimit = Math.min(maxLimit, slowStart ? limit * 2 : limit + 1);
+        if (newLimit != limit) {
+            log.debug("Raising the concurrency limit from {} to {}", limit, newLimit);
+            setLimit(newLimit);
+        }
+    }
+
+    private void decrease(String type, String reason) {
+        slowStart = false;
+        lastDecreaseNs = System.nanoTime();
+        windowStartNs = lastDecreaseNs;
+        windowCompletions = 0;
+        windowSaturated = false;
+        // Throughput at the old limit is not a useful baseline for the new one.
+        lastThroughput = 0;
+        int newLimit = Math.max(minLimit, limit / 2);
+        if (newLimit != limit) {
+            log.info("Lowering the concurrency limit from {} to {} after {}: {}",
+                limit, newLimit, type, reason);
+            setLimit(newLimit);
+        }
+    }
+
+    private void setLimit(int newLimit) {
+        limit = newLimit;
+        permits.setPermits(newLimit);
+        tracer.markConcurrency(newLimit);
+    }
+}
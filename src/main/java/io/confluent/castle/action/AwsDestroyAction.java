@@ -38,6 +38,11 @@ public final class AwsDestroyAction extends Action {
         this.role = role;
     }
 
+    @Override
+    public ActionResource resource() {
+        return ActionResource.CLOUD_API;
+    }
+
     public void call(CastleCluster cluster, CastleNode node) throws Throwable {
         if (!node.uplink().started()) {
             node.log().printf("*** Skipping %s, because the node is not running.%n", TYPE);
@@ -36,6 +36,8 @@ import static io.confluent.castle.common.JsonUtil.JSON_SERDE;
 public final class AwsInitAction extends Action {
     public final static String TYPE = "awsInit";
 
+    private final static int ESTIMATED_DURATION_MS = 120000;
+
     private final AwsNodeRole role;
 
     public AwsInitAction(String scope, AwsNodeRole role) {
@@ -46,6 +48,16 @@ public final class AwsInitAction extends Action {
         this.role = role;
     }
 
+    @Override
+    public int estimatedDurationMs() {
+        return ESTIMATED_DURATION_MS;
+    }
+
+    @Override
+    public ActionResource resource() {
+        return ActionResource.CLOUD_API;
+    }
+
     @Override
     public void call(final CastleCluster cluster, final CastleNode node) throws Throwable {
         if (node.uplink().started()) {
@@ -19,15 +19,11 @@ package io.confluent.castle.action;
 
 import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleNode;
+import io.confluent.castle.command.CommandBatch;
 import io.confluent.castle.common.CastleUtil;
 import io.confluent.castle.common.DynamicVariableExpander;
 import io.confluent.castle.role.BrokerRole;
 
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
@@ -59,22 +55,15 @@ public final class BrokerStartAction extends Action {
 
     @Override
     public void call(final CastleCluster cluster, final CastleNode node) throws Throwable {
-        File configFile = null, log4jFile = null;
-        try {
-            DynamicVariableExpander expander = new DynamicVariableExpander(cluster, node);
-            configFile = writeBrokerConfig(expander, cluster, node);
-            log4jFile = writeBrokerLog4j(cluster, node);
-            CastleUtil.killJavaProcess(cluster, node, KAFKA_CLASS_NAME, true);
-            node.uplink().command().args(createSetupPathsCommandLine()).mustRun();
-            node.uplink().command().syncTo(configFile.getAbsolutePath(),
-                ActionPaths.KAFKA_BROKER_PROPERTIES).mustRun();
-            node.uplink().command().syncTo(log4jFile.getAbsolutePath(),
-                ActionPaths.KAFKA_BROKER_LOG4J).mustRun();
-            node.uplink().command().args(createRunDaemonCommandLine()).mustRun();
-        } finally {
-            CastleUtil.deleteFileOrLog(node.log(), configFile);
-            CastleUtil.deleteFileOrLog(node.log(), log4jFile);
-        }
+        DynamicVariableExpander expander = new DynamicVariableExpander(cluster, node);
+        new CommandBatch(node).
+            argList(CastleUtil.killJavaProcessArgs(KAFKA_CLASS_NAME, true)).
+            args(createSetupPathsCommandLine()).
+            writeFile(ActionPaths.KAFKA_BROKER_PROPERTIES,
+                createBrokerConfig(expander, cluster, node)).
+            writeFile(ActionPaths.KAFKA_BROKER_LOG4J, createBrokerLog4j(cluster, node)).
+            args(createRunDaemonCommandLine(node)).
+            mustRun();
         CastleUtil.waitFor(5, 30000, new Callable<Boolean>() {
             @Override
             public Boolean call() throws Exception {
@@ -91,9 +80,9 @@ public final class BrokerStartAction extends Action {
             "sudo", "chown", "`whoami`", KAFKA_ROOT, KAFKA_OPLOGS, KAFKA_LOGS, KAFKA_CONF};
     }
 
-    public String[] createRunDaemonCommandLine() {
+    public String[] createRunDaemonCommandLine(CastleNode node) {
         return new String[]{"-n", "--", "nohup", "env",
-            "JMX_PORT=9192",
+            "JMX_PORT=" + (BrokerRole.JMX_PORT + node.uplink().portOffset()),
             "KAFKA_JVM_PERFORMANCE_OPTS='" + role.jvmOptions() + "'",
             "KAFKA_LOG4J_OPTS='-Dlog4j.configuration=file:" + ActionPaths.KAFKA_BROKER_LOG4J + "' ",
             "LOG_DIR=\"" + KAFKA_LOGS + "\"",
@@ -118,99 +107,64 @@ public final class BrokerStartAction extends Action {
         return defaultConf;
     }
 
-    private File writeBrokerConfig(DynamicVariableExpander expander,
-                                   CastleCluster cluster,
-                                   CastleNode node) throws Exception {
-        File file = null;
-        FileOutputStream fos = null;
-        OutputStreamWriter osw = null;
-        boolean success = false;
+    private String createBrokerConfig(DynamicVariableExpander expander,
+                                      CastleCluster cluster,
+                                      CastleNode node) throws Exception {
+        StringBuilder bld = new StringBuilder();
         Map<String, String> effectiveConf =
             expander.expand(CastleUtil.mergeConfig(role.conf(), getDefaultConf()));
-        try {
-            file = new File(cluster.env().workingDirectory(), String.format("broker-%d.properties",
-                node.nodeIndex()));
-            fos = new FileOutputStream(file, false);
-            osw = new OutputStreamWriter(fos, StandardCharsets.UTF_8);
-            osw.write(String.format("broker.id=%d%n", getBrokerId(cluster, node)));
-            osw.write(String.format("listeners=%s://:%d%n", role.externalAuth(), BrokerRole.PORT));
-            osw.write(String.format("advertised.listeners=%s://:%d%n", role.externalAuth(), BrokerRole.PORT));
-            osw.write(String.format("inter.broker.listener.name=%s%n", role.externalAuth()));
-            osw.write(String.format("log.dirs=%s%n", KAFKA_OPLOGS));
-            osw.write(String.format("zookeeper.connect=%s%n", cluster.getZooKeeperConnectString()));
-            for (Map.Entry<String, String> entry : effectiveConf.entrySet()) {
-                osw.write(String.format("%s=%s%n", entry.getKey(), entry.getValue()));
-            }
-            success = true;
-            return file;
-        } finally {
-            CastleUtil.closeQuietly(cluster.clusterLog(),
-                osw, "temporary broker file OutputStreamWriter");
-            CastleUtil.closeQuietly(cluster.clusterLog(),
-                fos, "temporary broker file FileOutputStream");
-            if (!success) {
-                CastleUtil.deleteFileOrLog(node.log(), file);
-            }
+        bld.append(String.format("broker.id=%d%n", getBrokerId(cluster, node)));
+        int port = BrokerRole.PORT + node.uplink().portOffset();
+        bld.append(String.format("listeners=%s://:%d%n", role.externalAuth(), port));
+        bld.append(String.format("advertised.listeners=%s://:%d%n", role.externalAuth(), port));
+        bld.append(String.format("inter.broker.listener.name=%s%n", role.externalAuth()));
+        bld.append(String.format("log.dirs=%s%n", KAFKA_OPLOGS));
+        bld.append(String.format("zookeeper.connect=%s%n", cluster.getZooKeeperConnectString()));
+        for (Map.Entry<String, String> entry : effectiveConf.entrySet()) {
+            bld.append(String.format("%s=%s%n", entry.getKey(), entry.getValue()));
         }
+        return bld.toString();
     }
 
-    File writeBrokerLog4j(CastleCluster cluster,  CastleNode node) throws IOException {
-        File file = null;
-        FileOutputStream fos = null;
-        OutputStreamWriter osw = null;
-        boolean success = false;
-        try {
-            file = new File(cluster.env().workingDirectory(), String.format("broker-log4j-%d.properties",
-                node.nodeIndex()));
-            fos = new FileOutputStream(file, false);
-            osw = new OutputStreamWriter(fos, StandardCharsets.UTF_8);
-            osw.write(String.format("log4j.rootLogger=INFO, kafkaAppender%n"));
-            osw.write(String.format("%n"));
-            writeDailyRollingFileAppender(osw, "kafkaAppender", "server.log");
-            writeDailyRollingFileAppender(osw, "stateChangeAppender", "state-change.log");
-            writeDailyRollingFileAppender(osw, "requestAppender", "kafka-request.log");
-            writeDailyRollingFileAppender(osw, "cleanerAppender", "log-cleaner.log");
-            writeDailyRollingFileAppender(osw, "controllerAppender", "controller.log");
-            writeDailyRollingFileAppender(osw, "authorizerAppender", "kafka-authorizer.log");
-            osw.write(String.format("log4j.logger.org.I0Itec.zkclient.ZkClient=INFO%n"));
-            osw.write(String.format("log4j.logger.org.apache.zookeeper=INFO%n"));
-            osw.write(String.format("%n"));
-            osw.write(String.format("log4j.logger.kafka=INFO%n"));
-            osw.write(String.format("log4j.logger.org.apache.kafka=INFO%n"));
-            osw.write(String.format("%n"));
-            osw.write(String.format("log4j.logger.kafka.request.logger=WARN, requestAppender%n"));
-            osw.write(String.format("%n"));
-            osw.write(String.format("log4j.logger.kafka.controller=TRACE, controllerAppender%n"));
-            osw.write(String.format("log4j.additivity.kafka.controller=false%n"));
-            osw.write(String.format("%n"));
-            osw.write(String.format("log4j.logger.kafka.log.LogCleaner=INFO, cleanerAppender%n"));
-            osw.write(String.format("log4j.additivity.kafka.log.LogCleaner=false%n"));
-            osw.write(String.format("%n"));
-            osw.write(String.format("log4j.logger.state.change.logger=TRACE, stateChangeAppender%n"));
-            osw.write(String.format("log4j.additivity.state.change.logger=false%n"));
-            osw.write(String.format("%n"));
-            osw.write(String.format("log4j.logger.kafka.authorizer.logger=INFO, authorizerAppender%n"));
-            osw.write(String.format("log4j.additivity.kafka.authorizer.logger=false%n"));
-            success = true;
-            return file;
-        } finally {
-            CastleUtil.closeQuietly(cluster.clusterLog(),
-                osw, "temporary broker log4j file OutputStreamWriter");
-            CastleUtil.closeQuietly(cluster.clusterLog(),
-                fos, "temporary broker log4j file FileOutputStream");
-            if (!success) {
-                CastleUtil.deleteFileOrLog(node.log(), file);
-            }
-        }
+    String createBrokerLog4j(CastleCluster cluster, CastleNode node) {
+        StringBuilder bld = new StringBuilder();
+        bld.append(String.format("log4j.rootLogger=INFO, kafkaAppender%n"));
+        bld.append(String.format("%n"));
+        writeDailyRollingFileAppender(bld, "kafkaAppender", "server.log");
+        writeDailyRollingFileAppender(bld, "stateChangeAppender", "state-change.log");
+        writeDailyRollingFileAppender(bld, "requestAppender", "kafka-request.log");
+        writeDailyRollingFileAppender(bld, "cleanerAppender", "log-cleaner.log");
+        writeDailyRollingFileAppender(bld, "controllerAppender", "controller.log");
+        writeDailyRollingFileAppender(bld, "authorizerAppender", "kafka-authorizer.log");
+        bld.append(String.format("log4j.logger.org.I0Itec.zkclient.ZkClient=INFO%n"));
+        bld.append(String.format("log4j.logger.org.apache.zookeeper=INFO%n"));
+        bld.append(String.format("%n"));
+        bld.append(String.format("log4j.logger.kafka=INFO%n"));
+        bld.append(String.format("log4j.logger.org.apache.kafka=INFO%n"));
+        bld.append(String.format("%n"));
+        bld.append(String.format("log4j.logger.kafka.request.logger=WARN, requestAppender%n"));
+        bld.append(String.format("%n"));
+        bld.append(String.format("log4j.logger.kafka.controller=TRACE, controllerAppender%n"));
+        bld.append(String.format("log4j.additivity.kafka.controller=false%n"));
+        bld.append(String.format("%n"));
+        bld.append(String.format("log4j.logger.kafka.log.LogCleaner=INFO, cleanerAppender%n"));
+        bld.append(String.format("log4j.additivity.kafka.log.LogCleaner=false%n"));
+        bld.append(String.format("%n"));
+        bld.append(String.format("log4j.logger.state.change.logger=TRACE, stateChangeAppender%n"));
+        bld.append(String.format("log4j.additivity.state.change.logger=false%n"));
+        bld.append(String.format("%n"));
+        bld.append(String.format("log4j.logger.kafka.authorizer.logger=INFO, authorizerAppender%n"));
+        bld.append(String.format("log4j.additivity.kafka.authorizer.logger=false%n"));
+        return bld.toString();
     }
 
-    static void writeDailyRollingFileAppender(OutputStreamWriter osw, String appender,
-                                              String logName) throws IOException {
-        osw.write(String.format("log4j.appender.%s=org.apache.log4j.DailyRollingFileAppender%n", appender));
-        osw.write(String.format("log4j.appender.%s.DatePattern='.'yyyy-MM-dd-HH%n", appender));
-        osw.write(String.format("log4j.appender.%s.File=%s/%s%n", appender, KAFKA_LOGS, logName));
-        osw.write(String.format("log4j.appender.%s.layout=org.apache.log4j.PatternLayout%n", appender));
-        osw.write(String.format("log4j.appender.%s.layout.ConversionPattern=%s%n",
+    static void writeDailyRollingFileAppender(StringBuilder bld, String appender,
+                                              String logName) {
+        bld.append(String.format("log4j.appender.%s=org.apache.log4j.DailyRollingFileAppender%n", appender));
+        bld.append(String.format("log4j.appender.%s.DatePattern='.'yyyy-MM-dd-HH%n", appender));
+        bld.append(String.format("log4j.appender.%s.File=%s/%s%n", appender, KAFKA_LOGS, logName));
+        bld.append(String.format("log4j.appender.%s.layout=org.apache.log4j.PatternLayout%n", appender));
+        bld.append(String.format("log4j.appender.%s.layout.ConversionPattern=%s%n",
             appender, "[%d] %p %m (%c)%n"));
     }
 
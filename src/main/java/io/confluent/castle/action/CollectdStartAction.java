@@ -19,15 +19,10 @@ package io.confluent.castle.action;
 
 import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleNode;
+import io.confluent.castle.command.CommandBatch;
 import io.confluent.castle.common.CastleUtil;
 import io.confluent.castle.role.CollectdRole;
 
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.nio.charset.StandardCharsets;
-
 import static io.confluent.castle.action.ActionPaths.COLLECTD;
 import static io.confluent.castle.action.ActionPaths.COLLECTD_LOGS;
 import static io.confluent.castle.action.ActionPaths.COLLECTD_PROPERTIES;
@@ -48,19 +43,12 @@ public final class CollectdStartAction extends Action {
 
     @Override
     public void call(final CastleCluster cluster, final CastleNode node) throws Throwable {
-
-        File configFile = null, log4jFile = null;
-        try {
-            configFile = writeCollectdConfig(cluster, node);
-            CastleUtil.killProcess(cluster, node, COLLECTD, "SIGKILL");
-            node.uplink().command().args(createSetupPathsCommandLine()).mustRun();
-            node.uplink().command().syncTo(configFile.getAbsolutePath(),
-                COLLECTD_PROPERTIES).mustRun();
-            node.uplink().command().args(createRunDaemonCommandLine()).mustRun();
-        } finally {
-            CastleUtil.deleteFileOrLog(node.log(), configFile);
-            CastleUtil.deleteFileOrLog(node.log(), log4jFile);
-        }
+        new CommandBatch(node).
+            argList(CastleUtil.killProcessArgs(COLLECTD, "SIGKILL")).
+            args(createSetupPathsCommandLine()).
+            writeFile(COLLECTD_PROPERTIES, createCollectdConfig(cluster, node)).
+            args(createRunDaemonCommandLine()).
+            mustRun();
     }
 
     public static String[] createSetupPathsCommandLine() {
@@ -70,57 +58,39 @@ public final class CollectdStartAction extends Action {
             "sudo", "chown", "`whoami`", COLLECTD_ROOT, COLLECTD_LOGS, COLLECTD_LOGS + "/csv"};
     }
 
-    private File writeCollectdConfig(CastleCluster cluster, CastleNode node) throws IOException {
-        File file = null;
-        FileOutputStream fos = null;
-        OutputStreamWriter osw = null;
-        boolean success = false;
-        try {
-            file = new File(cluster.env().workingDirectory(), String.format("collected-%d.conf",
-                node.nodeIndex()));
-            fos = new FileOutputStream(file, false);
-            osw = new OutputStreamWriter(fos, StandardCharsets.UTF_8);
-            osw.write(String.format("Interval 2%n"));
-            osw.write(String.format("LoadPlugin logfile%n"));
-            osw.write(String.format("<Plugin \"logfile\">%n"));
-            osw.write(String.format("   LogLevel \"info\"%n"));
-            osw.write(String.format("   File \"%s/collectd.log\"%n", COLLECTD_LOGS));
-            osw.write(String.format("   Timestamp true%n"));
-            osw.write(String.format("</Plugin>%n"));
-            osw.write(String.format("%n"));
-            osw.write(String.format("LoadPlugin cpu%n"));
-            osw.write(String.format("<Plugin \"cpu\">%n"));
-            osw.write(String.format("   ReportByCpu false%n"));
-            osw.write(String.format("   ValuesPercentage true%n"));
-            osw.write(String.format("</Plugin>%n"));
-            osw.write(String.format("%n"));
-            osw.write(String.format("LoadPlugin interface%n"));
-            osw.write(String.format("<Plugin \"interface\">%n"));
-            osw.write(String.format("  Interface \"lo\"%n"));
-            osw.write(String.format("  IgnoreSelected true%n"));
-            osw.write(String.format("</Plugin>%n"));
-            osw.write(String.format("%n"));
-            osw.write(String.format("LoadPlugin disk%n"));
-            osw.write(String.format("<Plugin \"disk\">%n"));
-            osw.write(String.format("  IgnoreSelected true%n"));
-            osw.write(String.format("</Plugin>%n"));
-            osw.write(String.format("%n"));
-            osw.write(String.format("LoadPlugin csv%n"));
-            osw.write(String.format("   <Plugin \"csv\">%n"));
-            osw.write(String.format("   DataDir \"%s/csv\"%n", COLLECTD_LOGS));
-            osw.write(String.format("   StoreRates false%n"));
-            osw.write(String.format("</Plugin>%n"));
-            success = true;
-            return file;
-        } finally {
-            CastleUtil.closeQuietly(node.log(), osw,
-                    "temporary collectd file OutputStreamWriter");
-            CastleUtil.closeQuietly(node.log(), fos,
-                    "temporary collectd file FileOutputStream");
-            if (!success) {
-                CastleUtil.deleteFileOrLog(node.log(), file);
-            }
-        }
+    private String createCollectdConfig(CastleCluster cluster, CastleNode node) {
+        StringBuilder bld = new StringBuilder();
+        bld.append(String.format("Interval 2%n"));
+        bld.append(String.format("LoadPlugin logfile%n"));
+        bld.append(String.format("<Plugin \"logfile\">%n"));
+        bld.append(String.format("   LogLevel \"info\"%n"));
+        bld.append(String.format("   File \"%s/collectd.log\"%n", COLLECTD_LOGS));
+        bld.append(String.format("   Timestamp true%n"));
+        bld.append(String.format("</Plugin>%n"));
+        bld.append(String.format("%n"));
+        bld.append(String.format("LoadPlugin cpu%n"));
+        bld.append(String.format("<Plugin \"cpu\">%n"));
+        bld.append(String.format("   ReportByCpu false%n"));
+        bld.append(String.format("   ValuesPercentage true%n"));
+        bld.append(String.format("</Plugin>%n"));
+        bld.append(String.format("%n"));
+        bld.append(String.format("LoadPlugin interface%n"));
+        bld.append(String.format("<Plugin \"interface\">%n"));
+        bld.append(String.format("  Interface \"lo\"%n"));
+        bld.append(String.format("  IgnoreSelected true%n"));
+        bld.append(String.format("</Plugin>%n"));
+        bld.append(String.format("%n"));
+        bld.append(String.format("LoadPlugin disk%n"));
+        bld.append(String.format("<Plugin \"disk\">%n"));
+        bld.append(String.format("  IgnoreSelected true%n"));
+        bld.append(String.format("</Plugin>%n"));
+        bld.append(String.format("%n"));
+        bld.append(String.format("LoadPlugin csv%n"));
+        bld.append(String.format("   <Plugin \"csv\">%n"));
+        bld.append(String.format("   DataDir \"%s/csv\"%n", COLLECTD_LOGS));
+        bld.append(String.format("   StoreRates false%n"));
+        bld.append(String.format("</Plugin>%n"));
+        return bld.toString();
     }
 
     public static String[] createRunDaemonCommandLine() {
@@ -37,6 +37,11 @@ public final class CollectdStatusAction extends Action {
             0);
     }
 
+    @Override
+    public ActionResource resource() {
+        return ActionResource.LIGHTWEIGHT_PROBE;
+    }
+
     @Override
     public void call(CastleCluster cluster, CastleNode node) throws Throwable {
         cluster.shutdownManager().changeReturnCode(
@@ -21,6 +21,8 @@ import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleNode;
 import io.confluent.castle.role.AdditionalFile;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -42,6 +44,30 @@ public final class CopyAdditionalFilesAction extends Action {
         this.files = files;
     }
 
+    @Override
+    public ActionResource resource() {
+        return ActionResource.BULK_TRANSFER;
+    }
+
+    @Override
+    public boolean resumable() {
+        return true;
+    }
+
+    @Override
+    public Collection<String> inputPaths(CastleCluster cluster) {
+        List<String> paths = new ArrayList<>();
+        for (AdditionalFile file : files) {
+            paths.add(file.local());
+        }
+        return paths;
+    }
+
+    @Override
+    public RetryPolicy retryPolicy() {
+        return RetryPolicy.TRANSFER;
+    }
+
     @Override
     public void call(CastleCluster cluster, CastleNode node) throws Throwable {
         if (!node.uplink().canLogin()) {
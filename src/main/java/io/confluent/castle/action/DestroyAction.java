@@ -32,6 +32,7 @@ public final class DestroyAction extends Action {
             new String[] {
                 AwsDestroyAction.TYPE,
                 DockerDestroyAction.TYPE,
+                LocalDestroyAction.TYPE,
             },
             0);
     }
@@ -33,6 +33,11 @@ public final class DestroyNodesAction extends Action {
             0);
     }
 
+    @Override
+    public ActionResource resource() {
+        return ActionResource.CLOUD_API;
+    }
+
     public void call(CastleCluster cluster, CastleNode node) throws Throwable {
         node.log().printf("*** %s: Destroying all the nodes for uplink %s.%n",
             node.nodeName(), node.uplink());
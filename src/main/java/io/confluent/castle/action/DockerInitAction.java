@@ -33,6 +33,8 @@ import static io.confluent.castle.common.JsonUtil.JSON_SERDE;
 public final class DockerInitAction extends Action {
     public final static String TYPE = "dockerInit";
 
+    private final static int ESTIMATED_DURATION_MS = 10000;
+
     private final DockerNodeRole role;
 
     public DockerInitAction(String scope, DockerNodeRole role) {
@@ -43,6 +45,16 @@ public final class DockerInitAction extends Action {
         this.role = role;
     }
 
+    @Override
+    public int estimatedDurationMs() {
+        return ESTIMATED_DURATION_MS;
+    }
+
+    @Override
+    public ActionResource resource() {
+        return ActionResource.CLOUD_API;
+    }
+
     @Override
     public void call(final CastleCluster cluster, final CastleNode node) throws Throwable {
         if (node.uplink().started()) {
@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.action;
+
+import java.util.Locale;
+
+/**
+ * Controls which threads the ActionScheduler runs actions in.
+ */
+public enum ExecutorMode {
+    /**
+     * Each node gets its own dedicated thread.
+     */
+    PER_NODE("per-node"),
+
+    /**
+     * All nodes share a bounded pool of threads.  Each node has a serial queue
+     * on top of the pool, so that actions for a node still run one at a time.
+     */
+    SHARED("shared"),
+
+    /**
+     * Like SHARED, but each action runs in a virtual thread.  This requires a
+     * JDK which supports virtual threads.
+     */
+    VIRTUAL("virtual");
+
+    private final String name;
+
+    ExecutorMode(String name) {
+        this.name = name;
+    }
+
+    public static ExecutorMode fromString(String name) {
+        String lowerName = name.toLowerCase(Locale.ROOT);
+        for (ExecutorMode mode : ExecutorMode.values()) {
+            if (mode.name.equals(lowerName)) {
+                return mode;
+            }
+        }
+        throw new RuntimeException("Unknown executor mode " + name +
+            ".  Valid modes are: per-node, shared, virtual");
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -29,6 +29,7 @@ public final class InitAction extends Action {
             new String[] {
                 AwsInitAction.TYPE,
                 DockerInitAction.TYPE,
+                LocalInitAction.TYPE,
             },
             0);
     }
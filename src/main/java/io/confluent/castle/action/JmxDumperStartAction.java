@@ -19,12 +19,14 @@ package io.confluent.castle.action;
 
 import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleNode;
+import io.confluent.castle.command.CommandBatch;
 import io.confluent.castle.common.CastleUtil;
+import io.confluent.castle.jmx.JmxDumperConfig;
 import io.confluent.castle.jmx.JmxDumpersConfig;
 import io.confluent.castle.role.JmxDumperRole;
 
-import java.io.File;
 import java.io.IOException;
+import java.util.Map;
 
 import static io.confluent.castle.action.ActionPaths.JMX_DUMPER_LOGS;
 import static io.confluent.castle.action.ActionPaths.JMX_DUMPER_PROPERTIES;
@@ -50,17 +52,12 @@ public final class JmxDumperStartAction extends Action {
 
     @Override
     public void call(final CastleCluster cluster, final CastleNode node) throws Throwable {
-        File configFile = null;
-        try {
-            configFile = writeJmxDumperConf(cluster, node);
-            CastleUtil.killJavaProcess(cluster, node, JmxDumperRole.CLASS_NAME, true);
-            node.uplink().command().args(createSetupPathsCommandLine()).mustRun();
-            node.uplink().command().syncTo(configFile.getAbsolutePath(),
-                JMX_DUMPER_PROPERTIES).mustRun();
-            node.uplink().command().args(createRunDaemonCommandLine()).mustRun();
-        } finally {
-            CastleUtil.deleteFileOrLog(node.log(), configFile);
-        }
+        new CommandBatch(node).
+            argList(CastleUtil.killJavaProcessArgs(JmxDumperRole.CLASS_NAME, true)).
+            args(createSetupPathsCommandLine()).
+            writeFile(JMX_DUMPER_PROPERTIES, createJmxDumperConf(node)).
+            args(createRunDaemonCommandLine()).
+            mustRun();
     }
 
     public static String[] createSetupPathsCommandLine() {
@@ -70,11 +67,31 @@ public final class JmxDumperStartAction extends Action {
             "sudo", "chown", "`whoami`", JMX_DUMPER_ROOT, JMX_DUMPER_LOGS};
     }
 
-    private File writeJmxDumperConf(CastleCluster cluster, CastleNode node) throws IOException {
-        File file = new File(cluster.env().workingDirectory(),
-                String.format("jmx-dumper-%d.conf", node.nodeIndex()));
-        JSON_SERDE.writeValue(file, conf);
-        return file;
+    private byte[] createJmxDumperConf(CastleNode node) throws IOException {
+        int portOffset = node.uplink().portOffset();
+        if (portOffset == 0) {
+            return JSON_SERDE.writeValueAsBytes(conf);
+        }
+        // The JMX endpoints on this node listen on shifted ports, so shift the
+        // ports of the local endpoints to match.
+        JmxDumpersConfig shifted = new JmxDumpersConfig();
+        for (Map.Entry<String, JmxDumperConfig> entry : conf.map().entrySet()) {
+            shifted.add(shiftLocalPort(entry.getKey(), portOffset), entry.getValue());
+        }
+        return JSON_SERDE.writeValueAsBytes(shifted);
+    }
+
+    static String shiftLocalPort(String hostPort, int portOffset) {
+        int colon = hostPort.lastIndexOf(':');
+        if ((colon < 0) || !hostPort.substring(0, colon).equals("localhost")) {
+            return hostPort;
+        }
+        try {
+            int port = Integer.parseInt(hostPort.substring(colon + 1));
+            return hostPort.substring(0, colon + 1) + (port + portOffset);
+        } catch (NumberFormatException e) {
+            return hostPort;
+        }
     }
 
     public static String[] createRunDaemonCommandLine() {
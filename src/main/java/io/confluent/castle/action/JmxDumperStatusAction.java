@@ -35,6 +35,11 @@ public final class JmxDumperStatusAction extends Action {
             0);
     }
 
+    @Override
+    public ActionResource resource() {
+        return ActionResource.LIGHTWEIGHT_PROBE;
+    }
+
     @Override
     public void call(CastleCluster cluster, CastleNode node) throws Throwable {
         cluster.shutdownManager().changeReturnCode(
@@ -31,4 +31,9 @@ public final class LinuxSetupAction extends Action {
             },
             0);
     }
+
+    @Override
+    public boolean resumable() {
+        return true;
+    }
 };
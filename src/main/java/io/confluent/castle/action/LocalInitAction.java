@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.action;
+
+import io.confluent.castle.cluster.CastleCluster;
+import io.confluent.castle.cluster.CastleNode;
+import io.confluent.castle.role.LocalNodeRole;
+import io.confluent.castle.tool.CastleReturnCode;
+import io.confluent.castle.tool.CastleShutdownHook;
+
+/**
+ * Initiates a new local node.
+ */
+public final class LocalInitAction extends Action {
+    public final static String TYPE = "localInit";
+
+    private final static int ESTIMATED_DURATION_MS = 1000;
+
+    private final LocalNodeRole role;
+
+    public LocalInitAction(String scope, LocalNodeRole role) {
+        super(new ActionId(TYPE, scope),
+            new TargetId[] {},
+            new String[] {},
+            0);
+        this.role = role;
+    }
+
+    @Override
+    public int estimatedDurationMs() {
+        return ESTIMATED_DURATION_MS;
+    }
+
+    @Override
+    public ActionResource resource() {
+        return ActionResource.CLOUD_API;
+    }
+
+    @Override
+    public void call(final CastleCluster cluster, final CastleNode node) throws Throwable {
+        if (node.uplink().started()) {
+            node.log().printf("*** Skipping %s, because the node is already running.%n", TYPE);
+            return;
+        }
+
+        // Make sure that we don't leak local nodes if we shut down unexpectedly.
+        cluster.shutdownManager().addHookIfMissing(new DestroyLocalNodesShutdownHook(cluster));
+
+        // Start up the local node.
+        node.uplink().startup();
+
+        // Write out the new cluster file.
+        cluster.writeToDisk();
+    }
+
+    /**
+     * Destroys local nodes on shutdown.
+     */
+    public static final class DestroyLocalNodesShutdownHook extends CastleShutdownHook {
+        private final CastleCluster cluster;
+
+        DestroyLocalNodesShutdownHook(CastleCluster cluster) {
+            super("DestroyLocalNodesShutdownHook");
+            this.cluster = cluster;
+        }
+
+        @Override
+        public void run(CastleReturnCode returnCode) throws Throwable {
+            if (returnCode == CastleReturnCode.SUCCESS) {
+                try {
+                    cluster.writeToDisk();
+                } catch (Throwable e) {
+                    cluster.clusterLog().printf("*** Failed to write cluster file to %s%n",
+                        cluster.env().clusterOutputPath(), e);
+                    terminateNodes();
+                    throw e;
+                }
+            } else {
+                terminateNodes();
+            }
+        }
+
+        private synchronized void terminateNodes() throws Throwable {
+            boolean terminatedNodes = false;
+            for (CastleNode node : cluster.nodes().values()) {
+                LocalNodeRole localRole = node.getRole(LocalNodeRole.class);
+                if ((localRole != null) && (localRole.pid() > 0)) {
+                    node.uplink().shutdown().get();
+                    terminatedNodes = true;
+                }
+            }
+            if (terminatedNodes) {
+                cluster.clusterLog().info("*** Terminated local nodes.");
+            }
+        }
+    }
+}
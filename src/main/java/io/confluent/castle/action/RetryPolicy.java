@@ -0,0 +1,168 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.action;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.confluent.castle.command.CommandResultException;
+import io.confluent.castle.command.CommandStats;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Describes when and how an action should be retried after it fails.
+ *
+ * A failure is retryable if it was caused by a command which exited with one of
+ * the retryable exit codes, or by an exception whose class, or one of whose
+ * superclasses, is in the list of retryable exceptions.  Exception classes may be
+ * given by their simple or fully qualified names.
+ *
+ * Between attempts, we wait for a random time between zero and an exponentially
+ * growing cap ("full jitter"), so that nodes which failed at the same time don't
+ * all retry at the same time.
+ */
+public final class RetryPolicy {
+    private static final long DEFAULT_INITIAL_BACKOFF_MS = 1000;
+
+    private static final long DEFAULT_MAX_BACKOFF_MS = 30000;
+
+    /**
+     * Never retry.
+     */
+    public static final RetryPolicy NONE = new RetryPolicy(1, 0, 0, null, null);
+
+    /**
+     * Retry rsync transfers which failed because of a network problem.  Besides the
+     * ssh connection failure status, rsync exits with 10 for socket errors, 12 for
+     * errors in the protocol data stream, 30 for timeouts, and 35 for timeouts
+     * waiting for a daemon connection.
+     */
+    public static final RetryPolicy TRANSFER = new RetryPolicy(3, 0, 0,
+        Arrays.asList(CommandStats.SSH_CONNECTION_FAILURE, 10, 12, 30, 35), null);
+
+    private final int maxAttempts;
+
+    private final long initialBackoffMs;
+
+    private final long maxBackoffMs;
+
+    private final List<Integer> retryableExitCodes;
+
+    private final List<String> retryableExceptions;
+
+    @JsonCreator
+    public RetryPolicy(@JsonProperty("maxAttempts") int maxAttempts,
+                       @JsonProperty("initialBackoffMs") long initialBackoffMs,
+                       @JsonProperty("maxBackoffMs") long maxBackoffMs,
+                       @JsonProperty("retryableExitCodes") List<Integer> retryableExitCodes,
+                       @JsonProperty("retryableExceptions") List<String> retryableExceptions) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.initialBackoffMs = (initialBackoffMs <= 0) ?
+            DEFAULT_INITIAL_BACKOFF_MS : initialBackoffMs;
+        this.maxBackoffMs = Math.max(this.initialBackoffMs,
+            (maxBackoffMs <= 0) ? DEFAULT_MAX_BACKOFF_MS : maxBackoffMs);
+        this.retryableExitCodes = Collections.unmodifiableList((retryableExitCodes == null) ?
+            Collections.singletonList(CommandStats.SSH_CONNECTION_FAILURE) : retryableExitCodes);
+        this.retryableExceptions = Collections.unmodifiableList((retryableExceptions == null) ?
+            Collections.<String>emptyList() : retryableExceptions);
+    }
+
+    /**
+     * The maximum number of times to run the action, including the first attempt.
+     */
+    @JsonProperty
+    public int maxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * The cap on the backoff after the first failed attempt.  The cap doubles after
+     * each further failure.
+     */
+    @JsonProperty
+    public long initialBackoffMs() {
+        return initialBackoffMs;
+    }
+
+    /**
+     * The largest the backoff cap can grow to.
+     */
+    @JsonProperty
+    public long maxBackoffMs() {
+        return maxBackoffMs;
+    }
+
+    /**
+     * Command exit codes which are worth retrying.  By default, this is just the ssh
+     * connection failure status.
+     */
+    @JsonProperty
+    public List<Integer> retryableExitCodes() {
+        return retryableExitCodes;
+    }
+
+    @JsonProperty
+    public List<String> retryableExceptions() {
+        return retryableExceptions;
+    }
+
+    /**
+     * Return true if an action which failed with the given exception should be retried.
+     */
+    public boolean isRetryable(Throwable throwable) {
+        for (Throwable t = throwable; t != null; t = t.getCause()) {
+            if (t instanceof CommandResultException) {
+                if (retryableExitCodes.contains(((CommandResultException) t).returnCode())) {
+                    return true;
+                }
+            }
+            for (Class<?> clazz = t.getClass(); clazz != null; clazz = clazz.getSuperclass()) {
+                if (retryableExceptions.contains(clazz.getName()) ||
+                        retryableExceptions.contains(clazz.getSimpleName())) {
+                    return true;
+                }
+            }
+            if (t.getCause() == t) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the cap on the backoff after the given attempt failed.
+     *
+     * @param attempt   The attempt which failed, starting at 1.
+     */
+    public long backoffCapMs(int attempt) {
+        int shift = Math.min(Math.max(0, attempt - 1), 30);
+        return Math.min(maxBackoffMs, initialBackoffMs << shift);
+    }
+
+    /**
+     * Get a randomized backoff to use after the given attempt failed.
+     *
+     * @param attempt   The attempt which failed, starting at 1.
+     */
+    public long backoffMs(int attempt) {
+        return ThreadLocalRandom.current().nextLong(backoffCapMs(attempt) + 1);
+    }
+}
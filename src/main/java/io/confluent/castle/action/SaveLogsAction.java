@@ -40,6 +40,16 @@ public final class SaveLogsAction extends Action {
             0);
     }
 
+    @Override
+    public ActionResource resource() {
+        return ActionResource.BULK_TRANSFER;
+    }
+
+    @Override
+    public RetryPolicy retryPolicy() {
+        return RetryPolicy.TRANSFER;
+    }
+
     @Override
     public void call(CastleCluster cluster, CastleNode node) throws Throwable {
         if (!node.uplink().canLogin()) {
@@ -0,0 +1,57 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.action;
+
+import java.util.Locale;
+
+/**
+ * Controls the order in which runnable actions are given permission to execute.
+ */
+public enum SchedulingPolicy {
+    /**
+     * Actions execute in the order in which they became runnable.
+     */
+    FIFO("fifo"),
+
+    /**
+     * Actions with the longest remaining critical path execute first.
+     */
+    CRITICAL_PATH("critical-path");
+
+    private final String name;
+
+    SchedulingPolicy(String name) {
+        this.name = name;
+    }
+
+    public static SchedulingPolicy fromString(String name) {
+        String lowerName = name.toLowerCase(Locale.ROOT);
+        for (SchedulingPolicy policy : SchedulingPolicy.values()) {
+            if (policy.name.equals(lowerName)) {
+                return policy;
+            }
+        }
+        throw new RuntimeException("Unknown scheduling policy " + name +
+            ".  Valid policies are: fifo, critical-path");
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.confluent.castle.action;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * An executor which runs tasks one at a time, in the order in which they were
+ * submitted, using threads borrowed from an underlying executor.
+ *
+ * No thread is tied up while the queue is empty.  A task can also be given an
+ * admitter, which is asked for permission once the task reaches the front of the
+ * queue.  No thread is tied up while waiting for that permission either.
+ */
+final class SerialExecutor implements Executor {
+    private static final class Entry {
+        private final Runnable task;
+        private final Consumer<Runnable> admitter;
+
+        Entry(Runnable task, Consumer<Runnable> admitter) {
+            this.task = task;
+            this.admitter = admitter;
+        }
+    }
+
+    private final Executor executor;
+
+    private final ArrayDeque<Entry> tasks = new ArrayDeque<>();
+
+    private boolean active = false;
+
+    SerialExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        execute(task, start -> start.run());
+    }
+
+    /**
+     * Queue a task which must be admitted before it runs.
+     *
+     * @param task          The task.
+     * @param admitter      Called once the task reaches the front of the queue,
+     *                      with a runnable which hands the task to a thread.  The
+     *                      admitter may call it right away, or later, from any
+     *                      thread.  The tasks behind this one wait until it has
+     *                      been admitted and has run.
+     */
+    void execute(Runnable task, Consumer<Runnable> admitter) {
+        Entry next;
+        synchronized (this) {
+            tasks.add(new Entry(task, admitter));
+            if (active) {
+                return;
+            }
+            next = poll();
+        }
+        admit(next);
+    }
+
+    private synchronized Entry poll() {
+        Entry next = tasks.poll();
+        active = next != null;
+        return next;
+    }
+
+    /**
+     * Ask the admitter to start the given task.  This is called outside of our
+     * lock, since the admitter may run other callbacks.
+     */
+    private void admit(final Entry entry) {
+        if (entry == null) {
+            return;
+        }
+        entry.admitter.accept(() -> executor.execute(() -> {
+            try {
+                entry.task.run();
+            } finally {
+                admit(poll());
+            }
+        }));
+    }
+}
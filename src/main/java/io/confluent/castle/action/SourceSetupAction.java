@@ -20,12 +20,18 @@ package io.confluent.castle.action;
 import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleNode;
 
+import java.util.Arrays;
+import java.util.Collection;
+
 /**
- * Rsyncs the Kafka source directory to the cluster node.
+ * Rsyncs the Kafka and Castle source directories to the cluster node.  The
+ * Castle source includes the node agent.
  */
 public final class SourceSetupAction extends Action {
     public final static String TYPE = "sourceSetup";
 
+    private final static int ESTIMATED_DURATION_MS = 60000;
+
     public SourceSetupAction(String scope) {
         super(new ActionId(TYPE, scope),
             new TargetId[] {
@@ -35,6 +41,31 @@ public final class SourceSetupAction extends Action {
             0);
     }
 
+    @Override
+    public int estimatedDurationMs() {
+        return ESTIMATED_DURATION_MS;
+    }
+
+    @Override
+    public ActionResource resource() {
+        return ActionResource.BULK_TRANSFER;
+    }
+
+    @Override
+    public boolean resumable() {
+        return true;
+    }
+
+    @Override
+    public Collection<String> inputPaths(CastleCluster cluster) {
+        return Arrays.asList(cluster.conf().kafkaPath(), cluster.conf().castlePath());
+    }
+
+    @Override
+    public RetryPolicy retryPolicy() {
+        return RetryPolicy.TRANSFER;
+    }
+
     @Override
     public void call(CastleCluster cluster, CastleNode node) throws Throwable {
         if (!node.uplink().canLogin()) {
@@ -50,6 +81,8 @@ public final class SourceSetupAction extends Action {
         node.uplink().command().
             syncTo(cluster.conf().castlePath() + "/", ActionPaths.CASTLE_SRC + "/").
             mustRun();
+        // The agent can be started now, even if an earlier attempt failed.
+        cluster.agentConnectionPool().reset(node.nodeName());
     }
 
     public static String[] setupDirectoriesCommand() {
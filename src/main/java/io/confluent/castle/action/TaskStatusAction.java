@@ -44,6 +44,11 @@ public class TaskStatusAction extends Action  {
         this.role = role;
     }
 
+    @Override
+    public ActionResource resource() {
+        return ActionResource.LIGHTWEIGHT_PROBE;
+    }
+
     @Override
     public void call(final CastleCluster cluster, CastleNode node) throws Throwable {
         if (!node.uplink().canLogin()) {
@@ -17,7 +17,11 @@
 
 package io.confluent.castle.action;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import io.confluent.castle.cluster.CastleNode;
@@ -26,6 +30,8 @@ import io.confluent.castle.command.CommandResultException;
 import io.confluent.castle.role.TrogdorCoordinatorRole;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -48,40 +54,32 @@ public class TrogdorClient {
         this.node = node;
     }
 
-    private static String coordinatorUrl(String endpoint) {
+    private String coordinatorUrl(String endpoint) {
         return String.format("http://localhost:%d/coordinator/%s",
-            TrogdorCoordinatorRole.PORT, endpoint);
+            TrogdorCoordinatorRole.PORT + node.uplink().portOffset(), endpoint);
     }
 
     private JsonNode coordinatorCurl(String endpoint, String op, JsonNode input) throws Exception {
         List<String> cmd = new ArrayList<>(Arrays.asList("curl",
             "-H", "Content-Type:application/json",
-            "-w", "_%{http_code}",
+            "-w", CurlResponse.STATUS_FORMAT,
             "-X", op, coordinatorUrl(endpoint)
         ));
         if (input != null) {
             cmd.addAll(Arrays.asList("-d", "@-"));
         }
-        StringBuilder stringBuilder = new StringBuilder();
+        CurlResponse response = new CurlResponse();
         Command command = node.uplink().command().
             argList(cmd).
-            captureOutput(stringBuilder).
+            streamOutput(response).
             setCaptureStderr(false);
         if (input != null) {
             command.setStdin(JSON_SERDE.writeValueAsBytes(input));
         }
         command.mustRun();
 
-        String output = stringBuilder.toString().trim();
-        int atIndex = output.lastIndexOf("_");
-        if (atIndex < 0) {
-            throw new RuntimeException("HTTP status not found on stdout for curl command.");
-        }
-        String portString = output.substring(atIndex + 1);
-        int httpReturnCode;
-        try {
-            httpReturnCode = Integer.parseInt(portString);
-        } catch (NumberFormatException e) {
+        int httpReturnCode = response.status();
+        if (httpReturnCode < 0) {
             throw new RuntimeException(String.format("%s: failed to parse HTTP status " +
                 "code for curl command %s", node.nodeName(), Command.joinArgs(cmd)));
         }
@@ -89,16 +87,210 @@ public class TrogdorClient {
             throw new RuntimeException(String.format("%s: got HTTP error %d when sending: %s%n",
                 node.nodeName(), httpReturnCode, input));
         }
-        String json = output.substring(0, atIndex);
         try {
-            return JSON_SERDE.readTree(json);
+            return response.json();
         } catch (IOException e) {
             throw new RuntimeException(String.format("%s: JSON parse error when " +
-                "handling the return value '%s' from %s", node.nodeName(), json,
+                "handling the return value from %s", node.nodeName(),
                 Command.joinArgs(cmd)), e);
         }
     }
 
+    /**
+     * Parses the output of curl as it arrives, so that we never hold the whole
+     * response as a string.  Each token from the non-blocking parser is added
+     * straight to the JSON tree, so the tree is the only copy of the response.
+     *
+     * curl ends its output with the HTTP status code, written using STATUS_FORMAT.
+     * We hold back the last STATUS_LENGTH bytes from the JSON parser, since they
+     * may turn out to be the status.
+     */
+    static final class CurlResponse extends OutputStream {
+        static final String STATUS_FORMAT = "_%{http_code}";
+
+        /**
+         * The length of the status: an underscore and a three digit code.
+         */
+        static final int STATUS_LENGTH = 4;
+
+        private final JsonParser parser;
+
+        private final ByteArrayFeeder feeder;
+
+        /**
+         * The objects and arrays which we are in the middle of, innermost first.
+         */
+        private final Deque<JsonNode> containers = new ArrayDeque<>();
+
+        /**
+         * The name of the field whose value comes next, if we are in an object.
+         */
+        private String fieldName = null;
+
+        private JsonNode root = null;
+
+        private final byte[] tail = new byte[STATUS_LENGTH];
+
+        private int tailLength = 0;
+
+        private IOException parseError = null;
+
+        CurlResponse() throws IOException {
+            this.parser = JSON_SERDE.getFactory().createNonBlockingByteArrayParser();
+            this.feeder = (ByteArrayFeeder) parser.getNonBlockingInputFeeder();
+        }
+
+        @Override
+        public void write(int b) {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] buf, int off, int len) {
+            int toFeed = tailLength + len - STATUS_LENGTH;
+            if (toFeed <= 0) {
+                System.arraycopy(buf, off, tail, tailLength, len);
+                tailLength += len;
+                return;
+            }
+            int fromTail = Math.min(toFeed, tailLength);
+            feed(tail, 0, fromTail);
+            int fromBuf = toFeed - fromTail;
+            feed(buf, off, fromBuf);
+            // Keep the last STATUS_LENGTH bytes.
+            int keptFromTail = tailLength - fromTail;
+            System.arraycopy(tail, fromTail, tail, 0, keptFromTail);
+            System.arraycopy(buf, off + fromBuf, tail, keptFromTail, len - fromBuf);
+            tailLength = STATUS_LENGTH;
+        }
+
+        private void feed(byte[] buf, int off, int len) {
+            if ((len == 0) || (parseError != null)) {
+                return;
+            }
+            try {
+                feeder.feedInput(buf, off, off + len);
+                drain();
+            } catch (IOException e) {
+                // Don't fail yet.  An error response may not be JSON, and the
+                // status code is more useful than a parse error.
+                parseError = e;
+            }
+        }
+
+        private void drain() throws IOException {
+            while (true) {
+                JsonToken token = parser.nextToken();
+                if ((token == null) || (token == JsonToken.NOT_AVAILABLE)) {
+                    return;
+                }
+                switch (token) {
+                    case START_OBJECT:
+                        containers.push(add(JsonNodeFactory.instance.objectNode()));
+                        break;
+                    case START_ARRAY:
+                        containers.push(add(JsonNodeFactory.instance.arrayNode()));
+                        break;
+                    case END_OBJECT:
+                    case END_ARRAY:
+                        containers.pop();
+                        break;
+                    case FIELD_NAME:
+                        fieldName = parser.getCurrentName();
+                        break;
+                    case VALUE_STRING:
+                        add(JsonNodeFactory.instance.textNode(parser.getText()));
+                        break;
+                    case VALUE_NUMBER_INT:
+                        add(intNode());
+                        break;
+                    case VALUE_NUMBER_FLOAT:
+                        add(JsonNodeFactory.instance.numberNode(parser.getDoubleValue()));
+                        break;
+                    case VALUE_TRUE:
+                    case VALUE_FALSE:
+                        add(JsonNodeFactory.instance.booleanNode(token == JsonToken.VALUE_TRUE));
+                        break;
+                    case VALUE_NULL:
+                        add(JsonNodeFactory.instance.nullNode());
+                        break;
+                    default:
+                        throw new IOException("Unexpected JSON token " + token);
+                }
+            }
+        }
+
+        private JsonNode intNode() throws IOException {
+            switch (parser.getNumberType()) {
+                case INT:
+                    return JsonNodeFactory.instance.numberNode(parser.getIntValue());
+                case LONG:
+                    return JsonNodeFactory.instance.numberNode(parser.getLongValue());
+                default:
+                    return JsonNodeFactory.instance.numberNode(parser.getBigIntegerValue());
+            }
+        }
+
+        /**
+         * Add a value to the innermost container, or make it the root.
+         */
+        private JsonNode add(JsonNode value) throws IOException {
+            JsonNode parent = containers.peek();
+            if (parent == null) {
+                if (root != null) {
+                    throw new IOException("Unexpected data after the end of the JSON.");
+                }
+                root = value;
+            } else if (parent.isObject()) {
+                ((ObjectNode) parent).set(fieldName, value);
+            } else {
+                ((ArrayNode) parent).add(value);
+            }
+            return value;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (parseError == null) {
+                try {
+                    feeder.endOfInput();
+                    drain();
+                } catch (IOException e) {
+                    parseError = e;
+                }
+            }
+            parser.close();
+        }
+
+        /**
+         * Get the HTTP status code, or -1 if it could not be found.
+         */
+        int status() {
+            if ((tailLength != STATUS_LENGTH) || (tail[0] != '_')) {
+                return -1;
+            }
+            try {
+                return Integer.parseInt(new String(tail, 1, STATUS_LENGTH - 1,
+                    StandardCharsets.US_ASCII));
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
+        /**
+         * Get the JSON response.  This must be called after the stream is closed.
+         */
+        JsonNode json() throws IOException {
+            if (parseError != null) {
+                throw parseError;
+            }
+            if ((root == null) || !containers.isEmpty()) {
+                throw new IOException("The JSON response was incomplete.");
+            }
+            return root;
+        }
+    }
+
     public void createTask(String taskId, JsonNode taskSpec) throws Exception {
         ObjectNode node = new ObjectNode(JsonNodeFactory.instance);
         node.put("id", taskId);
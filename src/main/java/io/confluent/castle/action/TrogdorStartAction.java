@@ -19,15 +19,11 @@ package io.confluent.castle.action;
 
 import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleNode;
+import io.confluent.castle.command.CommandBatch;
 import io.confluent.castle.common.CastleUtil;
 import io.confluent.castle.role.TrogdorAgentRole;
 import io.confluent.castle.role.TrogdorCoordinatorRole;
 
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
@@ -55,22 +51,13 @@ public class TrogdorStartAction extends Action  {
 
     @Override
     public void call(final CastleCluster cluster, final CastleNode node) throws Throwable {
-        File configFile = null, log4jFile = null;
-        try {
-            configFile = writeTrogdorConfig(cluster, node);
-            log4jFile = writeTrogdorLog4j(cluster, node);
-            CastleUtil.killJavaProcess(cluster, node, daemonType.className(), false);
-            node.uplink().command().args(createSetupPathsCommandLine(daemonType)).mustRun();
-            node.uplink().command().syncTo(configFile.getAbsolutePath(),
-                daemonType.propertiesPath()).mustRun();
-            node.uplink().command().syncTo(log4jFile.getAbsolutePath(),
-                daemonType.log4jConfPath()).mustRun();
-            node.uplink().command().args(
-                runDaemonCommandLine(daemonType, node.nodeName())).mustRun();
-        } finally {
-            CastleUtil.deleteFileOrLog(node.log(), configFile);
-            CastleUtil.deleteFileOrLog(node.log(), log4jFile);
-        }
+        new CommandBatch(node).
+            argList(CastleUtil.killJavaProcessArgs(daemonType.className(), false)).
+            args(createSetupPathsCommandLine(daemonType)).
+            writeFile(daemonType.propertiesPath(), createTrogdorConfig(cluster, node)).
+            writeFile(daemonType.log4jConfPath(), createTrogdorLog4j(cluster, node)).
+            args(runDaemonCommandLine(daemonType, node.nodeName())).
+            mustRun();
         CastleUtil.waitFor(5, 30000, new Callable<Boolean>() {
             @Override
             public Boolean call() throws Exception {
@@ -100,90 +87,53 @@ public class TrogdorStartAction extends Action  {
         };
     }
 
-    private File writeTrogdorConfig(CastleCluster cluster, CastleNode node) throws IOException {
-        File file = null;
-        FileOutputStream fos = null;
-        OutputStreamWriter osw = null;
-        boolean success = false;
-        try {
-            file = new File(cluster.env().workingDirectory(),
-                String.format("trogdor-%s-%d.conf", daemonType.name(), node.nodeIndex()));
-            fos = new FileOutputStream(file, false);
-            osw = new OutputStreamWriter(fos, StandardCharsets.UTF_8);
-            osw.write(String.format("{%n"));
-            osw.write(String.format("  \"platform\": \"org.apache.kafka.trogdor.basic.BasicPlatform\",%n"));
-            osw.write(String.format("  \"nodes\": {%n"));
-            String prefix = String.format("%n");
-            for (Map.Entry<String, CastleNode> entry : cluster.nodes().entrySet()) {
-                String nodeName = entry.getKey();
-                CastleNode castleNode = entry.getValue();
-                if ((castleNode.getRole(TrogdorAgentRole.class) != null) ||
-                        (castleNode.getRole(TrogdorCoordinatorRole.class) != null)) {
-                    osw.write(String.format("%s    \"%s\": {%n", prefix, nodeName));
-                    prefix = String.format(",%n");
-                    if (castleNode.getRole(TrogdorAgentRole.class) == null) {
-                        osw.write(String.format("      \"trogdor.agent.port\": 0,%n"));
-                    } else {
-                        osw.write(String.format("      \"trogdor.agent.port\": %d,%n",
-                            TrogdorAgentRole.PORT));
-                    }
-                    if (castleNode.getRole(TrogdorCoordinatorRole.class) != null) {
-                        osw.write(String.format("      \"trogdor.coordinator.port\": %d,%n",
-                            TrogdorCoordinatorRole.PORT));
-                    }
-                    osw.write(String.format("      \"hostname\": \"%s\"%n",
-                        castleNode.uplink().internalDns()));
-                    osw.write(String.format("    }"));
+    private String createTrogdorConfig(CastleCluster cluster, CastleNode node) {
+        StringBuilder bld = new StringBuilder();
+        bld.append(String.format("{%n"));
+        bld.append(String.format("  \"platform\": \"org.apache.kafka.trogdor.basic.BasicPlatform\",%n"));
+        bld.append(String.format("  \"nodes\": {%n"));
+        String prefix = String.format("%n");
+        for (Map.Entry<String, CastleNode> entry : cluster.nodes().entrySet()) {
+            String nodeName = entry.getKey();
+            CastleNode castleNode = entry.getValue();
+            if ((castleNode.getRole(TrogdorAgentRole.class) != null) ||
+                    (castleNode.getRole(TrogdorCoordinatorRole.class) != null)) {
+                bld.append(String.format("%s    \"%s\": {%n", prefix, nodeName));
+                prefix = String.format(",%n");
+                if (castleNode.getRole(TrogdorAgentRole.class) == null) {
+                    bld.append(String.format("      \"trogdor.agent.port\": 0,%n"));
+                } else {
+                    bld.append(String.format("      \"trogdor.agent.port\": %d,%n",
+                        TrogdorAgentRole.PORT + castleNode.uplink().portOffset()));
                 }
-            }
-            osw.write(String.format("%n"));
-            osw.write(String.format("  }%n"));
-            osw.write(String.format("}%n"));
-            success = true;
-            return file;
-        } finally {
-            CastleUtil.closeQuietly(cluster.clusterLog(), osw,
-                "temporary trogdor agent file OutputStreamWriter");
-            CastleUtil.closeQuietly(cluster.clusterLog(), fos,
-                "temporary trogdor agent file FileOutputStream");
-            if (!success) {
-                CastleUtil.deleteFileOrLog(node.log(), file);
+                if (castleNode.getRole(TrogdorCoordinatorRole.class) != null) {
+                    bld.append(String.format("      \"trogdor.coordinator.port\": %d,%n",
+                        TrogdorCoordinatorRole.PORT + castleNode.uplink().portOffset()));
+                }
+                bld.append(String.format("      \"hostname\": \"%s\"%n",
+                    castleNode.uplink().internalDns()));
+                bld.append(String.format("    }"));
             }
         }
+        bld.append(String.format("%n"));
+        bld.append(String.format("  }%n"));
+        bld.append(String.format("}%n"));
+        return bld.toString();
     }
 
-    private File writeTrogdorLog4j(CastleCluster cluster, CastleNode node) throws IOException {
-        File file = null;
-        FileOutputStream fos = null;
-        OutputStreamWriter osw = null;
-        boolean success = false;
-        try {
-            file = new File(cluster.env().workingDirectory(),
-                String.format("trogdor-%s-log4j-%d.properties",
-                    daemonType.name(), node.nodeIndex()));
-            fos = new FileOutputStream(file, false);
-            osw = new OutputStreamWriter(fos, StandardCharsets.UTF_8);
-            osw.write(String.format("log4j.rootLogger=WARN, kafkaAppender%n"));
-            osw.write(String.format("log4j.appender.kafkaAppender=org.apache.log4j.DailyRollingFileAppender%n"));
-            osw.write(String.format("log4j.appender.kafkaAppender.DatePattern='.'yyyy-MM-dd-HH%n"));
-            osw.write(String.format("log4j.appender.kafkaAppender.File=%s%n",
-                daemonType.logPath()));
-            osw.write(String.format("log4j.appender.kafkaAppender.layout=org.apache.log4j.PatternLayout%n"));
-            osw.write(String.format("log4j.appender.kafkaAppender.layout.ConversionPattern=%s%n",
-                "[%d] %p %m (%c)%n"));
-            for (String line : log4j) {
-                osw.write(line + String.format("%n"));
-            }
-            success = true;
-            return file;
-        } finally {
-            CastleUtil.closeQuietly(cluster.clusterLog(), osw,
-                "temporary broker file OutputStreamWriter");
-            CastleUtil.closeQuietly(cluster.clusterLog(), fos,
-                "temporary broker file FileOutputStream");
-            if (!success) {
-                CastleUtil.deleteFileOrLog(node.log(), file);
-            }
+    private String createTrogdorLog4j(CastleCluster cluster, CastleNode node) {
+        StringBuilder bld = new StringBuilder();
+        bld.append(String.format("log4j.rootLogger=WARN, kafkaAppender%n"));
+        bld.append(String.format("log4j.appender.kafkaAppender=org.apache.log4j.DailyRollingFileAppender%n"));
+        bld.append(String.format("log4j.appender.kafkaAppender.DatePattern='.'yyyy-MM-dd-HH%n"));
+        bld.append(String.format("log4j.appender.kafkaAppender.File=%s%n",
+            daemonType.logPath()));
+        bld.append(String.format("log4j.appender.kafkaAppender.layout=org.apache.log4j.PatternLayout%n"));
+        bld.append(String.format("log4j.appender.kafkaAppender.layout.ConversionPattern=%s%n",
+            "[%d] %p %m (%c)%n"));
+        for (String line : log4j) {
+            bld.append(line + String.format("%n"));
         }
+        return bld.toString();
     }
 };
@@ -32,6 +32,11 @@ public class TrogdorStatusAction extends Action {
         this.daemonType = daemonType;
     }
 
+    @Override
+    public ActionResource resource() {
+        return ActionResource.LIGHTWEIGHT_PROBE;
+    }
+
     @Override
     public void call(CastleCluster cluster, CastleNode node) throws Throwable {
         cluster.shutdownManager().changeReturnCode(
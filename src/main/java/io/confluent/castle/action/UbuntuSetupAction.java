@@ -19,17 +19,25 @@ package io.confluent.castle.action;
 
 import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleNode;
+import io.confluent.castle.command.CommandStats;
 import io.confluent.castle.role.UbuntuNodeRole;
 
+import java.util.Arrays;
+
 /**
  * Install some necessary components on Ubuntu.
  */
 public final class UbuntuSetupAction extends Action {
     public final static String TYPE = "ubuntuSetup";
 
-    private final static int MAX_TRIES = 3;
+    private final static int ESTIMATED_DURATION_MS = 180000;
 
-    private final static int APT_GET_RETRY_PERIOD = 100;
+    /**
+     * Retry when dpkg or apt-get fail, or ssh can't connect.  apt-get exits with
+     * 100 when it can't fetch or install packages, which is often transient.
+     */
+    private final static RetryPolicy RETRY_POLICY = new RetryPolicy(3, 0, 0,
+        Arrays.asList(1, 100, CommandStats.SSH_CONNECTION_FAILURE), null);
 
     private final UbuntuNodeRole role;
 
@@ -41,22 +49,35 @@ public final class UbuntuSetupAction extends Action {
         this.role = role;
     }
 
+    @Override
+    public boolean resumable() {
+        return true;
+    }
+
+    @Override
+    public RetryPolicy retryPolicy() {
+        return RETRY_POLICY;
+    }
+
+    @Override
+    public int estimatedDurationMs() {
+        return ESTIMATED_DURATION_MS;
+    }
+
+    @Override
+    public ActionResource resource() {
+        return ActionResource.REMOTE_CPU;
+    }
+
     @Override
     public void call(CastleCluster cluster, CastleNode node) throws Throwable {
         node.log().printf("*** %s: Beginning UbuntuSetup...%n", node.nodeName());
-        for (int tries = 0; tries < MAX_TRIES; tries++) {
-            int result = node.uplink().command().args("-n", "--",
-                "sudo", "dpkg", "--configure", "-a", "&&",
-                "sudo", "apt-get", "update", "-y", "&&",
-                "sudo", "apt-get", "upgrade", "-y", "&&",
-                "sudo", "apt-get", "install", "-y", "iptables", "rsync", "wget", "curl", "collectd-core",
-                "coreutils", "cmake", "pkg-config", "libfuse-dev", role.jdkPackage()).run();
-            if (result == 0) {
-                node.log().printf("*** %s: Finished UbuntuSetup.%n", node.nodeName());
-                return;
-            }
-            Thread.sleep(APT_GET_RETRY_PERIOD);
-        }
-        throw new RuntimeException("Failed to setup Ubuntu after " + MAX_TRIES + " tries.");
+        node.uplink().command().args("-n", "--",
+            "sudo", "dpkg", "--configure", "-a", "&&",
+            "sudo", "apt-get", "update", "-y", "&&",
+            "sudo", "apt-get", "upgrade", "-y", "&&",
+            "sudo", "apt-get", "install", "-y", "iptables", "rsync", "wget", "curl", "collectd-core",
+            "coreutils", "cmake", "pkg-config", "libfuse-dev", role.jdkPackage()).mustRun();
+        node.log().printf("*** %s: Finished UbuntuSetup.%n", node.nodeName());
     }
 };
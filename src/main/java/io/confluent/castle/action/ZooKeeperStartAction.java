@@ -19,14 +19,11 @@ package io.confluent.castle.action;
 
 import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleNode;
+import io.confluent.castle.command.CommandBatch;
 import io.confluent.castle.common.CastleUtil;
 import io.confluent.castle.role.ZooKeeperRole;
+import io.confluent.castle.uplink.Uplink;
 
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.nio.charset.StandardCharsets;
 import java.util.concurrent.Callable;
 
 import static io.confluent.castle.action.ActionPaths.ZK_CONF;
@@ -50,21 +47,13 @@ public class ZooKeeperStartAction extends Action  {
 
     @Override
     public void call(final CastleCluster cluster, final CastleNode node) throws Throwable {
-        File configFile = null, log4jFile = null;
-        try {
-            configFile = writeZooKeeperConfig(cluster, node);
-            log4jFile = writeZooKeeperLog4j(cluster, node);
-            CastleUtil.killJavaProcess(cluster, node, ZooKeeperRole.ZOOKEEPER_CLASS_NAME, false);
-            node.uplink().command().args(createSetupPathsCommandLine()).mustRun();
-            node.uplink().command().syncTo(configFile.getAbsolutePath(),
-                ActionPaths.ZK_PROPERTIES).mustRun();
-            node.uplink().command().syncTo(log4jFile.getAbsolutePath(),
-                ActionPaths.ZK_LOG4J).mustRun();
-            node.uplink().command().args(createRunDaemonCommandLine()).mustRun();
-        } finally {
-            CastleUtil.deleteFileOrLog(node.log(), configFile);
-            CastleUtil.deleteFileOrLog(node.log(), log4jFile);
-        }
+        new CommandBatch(node).
+            argList(CastleUtil.killJavaProcessArgs(ZooKeeperRole.ZOOKEEPER_CLASS_NAME, false)).
+            args(createSetupPathsCommandLine()).
+            writeFile(ActionPaths.ZK_PROPERTIES, createZooKeeperConfig(cluster, node)).
+            writeFile(ActionPaths.ZK_LOG4J, createZooKeeperLog4j(cluster, node)).
+            args(createRunDaemonCommandLine()).
+            mustRun();
         CastleUtil.waitFor(5, 30000, new Callable<Boolean>() {
             @Override
             public Boolean call() throws Exception {
@@ -90,66 +79,33 @@ public class ZooKeeperStartAction extends Action  {
             ">" + ActionPaths.ZK_LOGS + "/stdout-stderr.txt", "2>&1", "</dev/null", "&"};
     }
 
-    private File writeZooKeeperConfig(CastleCluster cluster, CastleNode node) throws IOException {
-        File file = null;
-        FileOutputStream fos = null;
-        OutputStreamWriter osw = null;
-        boolean success = false;
-        try {
-            file = new File(cluster.env().workingDirectory(),
-                String.format("zookeeper-%d.properties", node.nodeIndex()));
-            fos = new FileOutputStream(file, false);
-            osw = new OutputStreamWriter(fos, StandardCharsets.UTF_8);
-            osw.write(String.format("dataDir=%s%n", ZK_OPLOGS));
-            osw.write(String.format("clientPort=2181%n"));
-            osw.write(String.format("maxClientCnxns=0%n"));
-            int serverIdx = 1;
-            for (String nodeName : cluster.nodesWithRole(ZooKeeperRole.class).values()) {
-                osw.write(String.format("server.%d=%s:2888:3888%n", serverIdx++,
-                    cluster.nodes().get(nodeName).uplink().internalDns()));
-            }
-            success = true;
-            return file;
-        } finally {
-            CastleUtil.closeQuietly(cluster.clusterLog(),
-                osw, "temporary ZooKeeper config file OutputStreamWriter");
-            CastleUtil.closeQuietly(cluster.clusterLog(),
-                fos, "temporary ZooKeeper config file FileOutputStream");
-            if (!success) {
-                CastleUtil.deleteFileOrLog(node.log(), file);
-            }
+    private String createZooKeeperConfig(CastleCluster cluster, CastleNode node) {
+        StringBuilder bld = new StringBuilder();
+        bld.append(String.format("dataDir=%s%n", ZK_OPLOGS));
+        bld.append(String.format("clientPort=%d%n",
+            ZooKeeperRole.PORT + node.uplink().portOffset()));
+        bld.append(String.format("maxClientCnxns=0%n"));
+        int serverIdx = 1;
+        for (String nodeName : cluster.nodesWithRole(ZooKeeperRole.class).values()) {
+            Uplink uplink = cluster.nodes().get(nodeName).uplink();
+            bld.append(String.format("server.%d=%s:%d:%d%n", serverIdx++,
+                uplink.internalDns(), ZooKeeperRole.PEER_PORT + uplink.portOffset(),
+                ZooKeeperRole.ELECTION_PORT + uplink.portOffset()));
         }
+        return bld.toString();
     }
 
-    static File writeZooKeeperLog4j(CastleCluster cluster, CastleNode node) throws IOException {
-        File file = null;
-        FileOutputStream fos = null;
-        OutputStreamWriter osw = null;
-        boolean success = false;
-        try {
-            file = new File(cluster.env().workingDirectory(),
-                String.format("zookeeper-log4j-%d.properties", node.nodeIndex()));
-            fos = new FileOutputStream(file, false);
-            osw = new OutputStreamWriter(fos, StandardCharsets.UTF_8);
-            osw.write(String.format("log4j.rootLogger=INFO, kafkaAppender%n"));
-            osw.write(String.format("log4j.appender.kafkaAppender=org.apache.log4j.DailyRollingFileAppender%n"));
-            osw.write(String.format("log4j.appender.kafkaAppender.DatePattern='.'yyyy-MM-dd-HH%n"));
-            osw.write(String.format("log4j.appender.kafkaAppender.File=%s/server.log%n", ZK_LOGS));
-            osw.write(String.format("log4j.appender.kafkaAppender.layout=org.apache.log4j.PatternLayout%n"));
-            osw.write(String.format("log4j.appender.kafkaAppender.layout.ConversionPattern=%s%n%n",
-                "[%d] %p %m (%c)%n"));
-            osw.write(String.format("log4j.logger.org.I0Itec.zkclient.ZkClient=INFO%n"));
-            osw.write(String.format("log4j.logger.org.apache.zookeeper=INFO%n"));
-            success = true;
-            return file;
-        } finally {
-            CastleUtil.closeQuietly(cluster.clusterLog(),
-                osw, "temporary broker file OutputStreamWriter");
-            CastleUtil.closeQuietly(cluster.clusterLog(),
-                fos, "temporary broker file FileOutputStream");
-            if (!success) {
-                CastleUtil.deleteFileOrLog(node.log(), file);
-            }
-        }
+    static String createZooKeeperLog4j(CastleCluster cluster, CastleNode node) {
+        StringBuilder bld = new StringBuilder();
+        bld.append(String.format("log4j.rootLogger=INFO, kafkaAppender%n"));
+        bld.append(String.format("log4j.appender.kafkaAppender=org.apache.log4j.DailyRollingFileAppender%n"));
+        bld.append(String.format("log4j.appender.kafkaAppender.DatePattern='.'yyyy-MM-dd-HH%n"));
+        bld.append(String.format("log4j.appender.kafkaAppender.File=%s/server.log%n", ZK_LOGS));
+        bld.append(String.format("log4j.appender.kafkaAppender.layout=org.apache.log4j.PatternLayout%n"));
+        bld.append(String.format("log4j.appender.kafkaAppender.layout.ConversionPattern=%s%n%n",
+            "[%d] %p %m (%c)%n"));
+        bld.append(String.format("log4j.logger.org.I0Itec.zkclient.ZkClient=INFO%n"));
+        bld.append(String.format("log4j.logger.org.apache.zookeeper=INFO%n"));
+        return bld.toString();
     }
 };
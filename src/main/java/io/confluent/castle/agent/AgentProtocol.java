@@ -0,0 +1,183 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.agent;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The wire protocol spoken between the Castle tool and the node agent.
+ *
+ * Each message is a frame made up of a type byte, a request id, and a body which
+ * depends on the type.  Strings and byte arrays are written as a length followed by
+ * the bytes, so that there is no limit on their size other than MAX_FRAME_BYTES.
+ * A null byte array is written with a length of -1.
+ *
+ * The agent starts by sending a HELLO frame.  After that, the tool sends requests,
+ * and the agent sends back any number of output frames for each request, followed
+ * by exactly one EXIT, DATA, or ERROR frame.  Requests may be interleaved.
+ */
+public final class AgentProtocol {
+    /**
+     * Sent in the HELLO frame, so that the tool can tell that it is talking to an
+     * agent rather than to something which printed to stdout.
+     */
+    public static final int MAGIC = 0xca57a6e7;
+
+    public static final int VERSION = 1;
+
+    /**
+     * The largest string or byte array we will accept in a frame.
+     */
+    public static final int MAX_FRAME_BYTES = 64 * 1024 * 1024;
+
+    /**
+     * The largest file which we will send in a single PUT or DATA frame.  Bigger
+     * files should be copied with rsync.
+     */
+    public static final int MAX_FILE_BYTES = 16 * 1024 * 1024;
+
+    /**
+     * Agent to tool: id is 0, then MAGIC and VERSION.
+     */
+    public static final byte HELLO = 0;
+
+    /**
+     * Tool to agent: run a shell command line, then optional stdin bytes.
+     */
+    public static final byte EXEC = 1;
+
+    /**
+     * Tool to agent: kill the process started by an EXEC request.
+     */
+    public static final byte KILL = 2;
+
+    /**
+     * Tool to agent: write a file.  The path, the POSIX permission bits, the
+     * modification time in milliseconds, and the contents.
+     */
+    public static final byte PUT = 3;
+
+    /**
+     * Tool to agent: read a file.  The path.
+     */
+    public static final byte GET = 4;
+
+    /**
+     * Agent to tool: some bytes written to stdout by an EXEC request.
+     */
+    public static final byte STDOUT = 10;
+
+    /**
+     * Agent to tool: some bytes written to stderr by an EXEC request.
+     */
+    public static final byte STDERR = 11;
+
+    /**
+     * Agent to tool: the exit code of an EXEC request, or 0 for a successful PUT.
+     */
+    public static final byte EXIT = 12;
+
+    /**
+     * Agent to tool: the answer to a GET.  The POSIX permission bits, the
+     * modification time in milliseconds, and the contents.
+     */
+    public static final byte DATA = 13;
+
+    /**
+     * Agent to tool: a request failed.  An error message.
+     */
+    public static final byte ERROR = 14;
+
+    private AgentProtocol() {
+    }
+
+    public static void writeHeader(DataOutputStream out, byte type, int id)
+            throws IOException {
+        out.writeByte(type);
+        out.writeInt(id);
+    }
+
+    public static void writeBytes(DataOutputStream out, byte[] bytes, int off, int len)
+            throws IOException {
+        out.writeInt(len);
+        out.write(bytes, off, len);
+    }
+
+    public static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        if (bytes == null) {
+            out.writeInt(-1);
+        } else {
+            writeBytes(out, bytes, 0, bytes.length);
+        }
+    }
+
+    public static void writeString(DataOutputStream out, String str) throws IOException {
+        writeBytes(out, str.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static byte[] readBytes(DataInputStream in) throws IOException {
+        int len = in.readInt();
+        if (len < 0) {
+            return null;
+        }
+        if (len > MAX_FRAME_BYTES) {
+            throw new IOException("Frame field of " + len + " bytes is too large.");
+        }
+        byte[] bytes = new byte[len];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    public static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = readBytes(in);
+        if (bytes == null) {
+            throw new IOException("Unexpected null string.");
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Convert POSIX permission bits to the symbolic form used by
+     * PosixFilePermissions#fromString, such as "rwxr-xr-x".
+     */
+    public static String modeToString(int mode) {
+        char[] chars = "rwxrwxrwx".toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            if ((mode & (0400 >> i)) == 0) {
+                chars[i] = '-';
+            }
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Convert the symbolic form of POSIX permissions back to permission bits.
+     */
+    public static int modeFromString(String str) {
+        int mode = 0;
+        for (int i = 0; i < 9; i++) {
+            if (str.charAt(i) != '-') {
+                mode |= 0400 >> i;
+            }
+        }
+        return mode;
+    }
+}
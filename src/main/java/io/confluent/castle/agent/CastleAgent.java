@@ -0,0 +1,320 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.agent;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A small agent which runs on each node, and carries out commands for the Castle
+ * tool over its stdin and stdout.
+ *
+ * The tool starts the agent over ssh, so the channel is authenticated and encrypted
+ * by ssh, and the agent never listens on a port of its own.  After that, each
+ * command is just a request on the existing channel, rather than a new ssh process
+ * on the tool's side.  The agent exits when its stdin is closed, killing any
+ * commands which are still running.
+ *
+ * See AgentProtocol for the wire format.
+ */
+public final class CastleAgent {
+    private static final int OUTPUT_BUFFER_SIZE = 32768;
+
+    private static final String TEMP_FILE_SUFFIX = ".castle-tmp";
+
+    private final DataInputStream in;
+
+    private final DataOutputStream out;
+
+    private final File workingDirectory;
+
+    /**
+     * A command which the tool asked us to run.  The tool may ask us to kill it
+     * before the worker thread has started the process, so we remember the kill
+     * and apply it when the process starts.
+     */
+    private static final class Execution {
+        private Process process = null;
+        private boolean killed = false;
+
+        /**
+         * Start the process, unless the command has already been killed.
+         *
+         * @return      The process, or null if the command was killed.
+         */
+        synchronized Process start(ProcessBuilder builder) throws IOException {
+            if (killed) {
+                return null;
+            }
+            process = builder.start();
+            return process;
+        }
+
+        synchronized void kill() {
+            killed = true;
+            if (process != null) {
+                process.destroyForcibly();
+            }
+        }
+    }
+
+    /**
+     * The commands which are running, or which have been received but not started.
+     * Only the request thread adds entries, so a KILL always finds the EXEC it
+     * refers to, unless that command has already finished.
+     */
+    private final Map<Integer, Execution> executions = new ConcurrentHashMap<>();
+
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "CastleAgentWorker");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public static void main(String[] args) throws Exception {
+        // Our stdout carries the protocol, so nothing else may write to it.
+        OutputStream stdout = new FileOutputStream(FileDescriptor.out);
+        System.setOut(System.err);
+        CastleAgent agent = new CastleAgent(new BufferedInputStream(System.in),
+            new BufferedOutputStream(stdout), new File(System.getProperty("user.home")));
+        agent.run();
+        System.exit(0);
+    }
+
+    public CastleAgent(InputStream in, OutputStream out, File workingDirectory) {
+        this.in = new DataInputStream(in);
+        this.out = new DataOutputStream(out);
+        this.workingDirectory = workingDirectory;
+    }
+
+    /**
+     * Handle requests until the input is closed.
+     */
+    public void run() throws Exception {
+        try {
+            synchronized (out) {
+                AgentProtocol.writeHeader(out, AgentProtocol.HELLO, 0);
+                out.writeInt(AgentProtocol.MAGIC);
+                out.writeInt(AgentProtocol.VERSION);
+                out.flush();
+            }
+            while (true) {
+                byte type;
+                try {
+                    type = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                int id = in.readInt();
+                switch (type) {
+                    case AgentProtocol.EXEC: {
+                        String commandLine = AgentProtocol.readString(in);
+                        byte[] stdin = AgentProtocol.readBytes(in);
+                        Execution execution = new Execution();
+                        executions.put(id, execution);
+                        executor.submit(() -> handleExec(id, execution, commandLine, stdin));
+                        break;
+                    }
+                    case AgentProtocol.KILL: {
+                        Execution execution = executions.get(id);
+                        if (execution != null) {
+                            execution.kill();
+                        }
+                        break;
+                    }
+                    case AgentProtocol.PUT: {
+                        String path = AgentProtocol.readString(in);
+                        int mode = in.readInt();
+                        long mtimeMs = in.readLong();
+                        byte[] contents = AgentProtocol.readBytes(in);
+                        executor.submit(() -> handlePut(id, path, mode, mtimeMs, contents));
+                        break;
+                    }
+                    case AgentProtocol.GET: {
+                        String path = AgentProtocol.readString(in);
+                        executor.submit(() -> handleGet(id, path));
+                        break;
+                    }
+                    default:
+                        throw new IOException("Unknown request type " + type);
+                }
+            }
+        } finally {
+            for (Execution execution : executions.values()) {
+                execution.kill();
+            }
+            executor.shutdownNow();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+    private void handleExec(int id, Execution execution, String commandLine, byte[] stdin) {
+        Process process = null;
+        try {
+            // Like sshd, hand the whole command line to the shell.
+            process = execution.start(new ProcessBuilder("bash", "-c", commandLine).
+                directory(workingDirectory));
+            if (process == null) {
+                throw new IOException("The command was killed before it started.");
+            }
+            final Process started = process;
+            Future<?> stdinFuture = executor.submit(() -> {
+                try (OutputStream processStdin = started.getOutputStream()) {
+                    if (stdin != null) {
+                        processStdin.write(stdin);
+                    }
+                }
+                return null;
+            });
+            Future<?> stderrFuture = executor.submit(() -> {
+                pump(id, AgentProtocol.STDERR, started.getErrorStream());
+                return null;
+            });
+            pump(id, AgentProtocol.STDOUT, process.getInputStream());
+            stderrFuture.get();
+            int exitCode = process.waitFor();
+            try {
+                stdinFuture.get();
+            } catch (Exception e) {
+                // The process may exit without reading its stdin.
+            }
+            sendExit(id, exitCode);
+        } catch (Throwable e) {
+            if (process != null) {
+                process.destroyForcibly();
+            }
+            sendError(id, e);
+        } finally {
+            executions.remove(id);
+        }
+    }
+
+    private void pump(int id, byte type, InputStream stream) throws IOException {
+        byte[] buffer = new byte[OUTPUT_BUFFER_SIZE];
+        while (true) {
+            int ret = stream.read(buffer);
+            if (ret == -1) {
+                return;
+            }
+            synchronized (out) {
+                AgentProtocol.writeHeader(out, type, id);
+                AgentProtocol.writeBytes(out, buffer, 0, ret);
+                out.flush();
+            }
+        }
+    }
+
+    private void handlePut(int id, String path, int mode, long mtimeMs, byte[] contents) {
+        Path tempPath = null;
+        try {
+            Path target = Paths.get(path);
+            if (Files.isDirectory(target)) {
+                throw new IOException(path + " is a directory.");
+            }
+            // Write to a temporary file in the same directory and then rename it, so
+            // that nothing ever sees a partially written file.
+            tempPath = target.resolveSibling("." + target.getFileName() + "." + id +
+                TEMP_FILE_SUFFIX);
+            Files.write(tempPath, contents);
+            Files.setPosixFilePermissions(tempPath,
+                PosixFilePermissions.fromString(AgentProtocol.modeToString(mode)));
+            Files.setLastModifiedTime(tempPath, FileTime.fromMillis(mtimeMs));
+            Files.move(tempPath, target, StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+            tempPath = null;
+            sendExit(id, 0);
+        } catch (Throwable e) {
+            sendError(id, e);
+        } finally {
+            if (tempPath != null) {
+                try {
+                    Files.deleteIfExists(tempPath);
+                } catch (IOException e) {
+                    // Ignore.
+                }
+            }
+        }
+    }
+
+    private void handleGet(int id, String path) {
+        try {
+            Path source = Paths.get(path);
+            if (!Files.isRegularFile(source)) {
+                throw new IOException(path + " is not a regular file.");
+            }
+            if (Files.size(source) > AgentProtocol.MAX_FILE_BYTES) {
+                throw new IOException(path + " is too large to send in one frame.");
+            }
+            int mode = AgentProtocol.modeFromString(
+                PosixFilePermissions.toString(Files.getPosixFilePermissions(source)));
+            long mtimeMs = Files.getLastModifiedTime(source).toMillis();
+            byte[] contents = Files.readAllBytes(source);
+            synchronized (out) {
+                AgentProtocol.writeHeader(out, AgentProtocol.DATA, id);
+                out.writeInt(mode);
+                out.writeLong(mtimeMs);
+                AgentProtocol.writeBytes(out, contents);
+                out.flush();
+            }
+        } catch (Throwable e) {
+            sendError(id, e);
+        }
+    }
+
+    private void sendExit(int id, int exitCode) throws IOException {
+        synchronized (out) {
+            AgentProtocol.writeHeader(out, AgentProtocol.EXIT, id);
+            out.writeInt(exitCode);
+            out.flush();
+        }
+    }
+
+    private void sendError(int id, Throwable e) {
+        String message = e.getClass().getSimpleName() + ": " + e.getMessage();
+        try {
+            synchronized (out) {
+                AgentProtocol.writeHeader(out, AgentProtocol.ERROR, id);
+                AgentProtocol.writeString(out, message);
+                out.flush();
+            }
+        } catch (IOException ioe) {
+            // The tool has gone away.
+        }
+    }
+}
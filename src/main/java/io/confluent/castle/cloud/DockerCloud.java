@@ -20,6 +20,7 @@ package io.confluent.castle.cloud;
 import io.confluent.castle.action.ActionPaths;
 import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleNode;
+import io.confluent.castle.command.LineOutputStream;
 import io.confluent.castle.command.NodeShellRunner;
 import io.confluent.castle.common.CastleLog;
 import io.confluent.castle.common.CastleUtil;
@@ -79,8 +80,11 @@ public final class DockerCloud implements AutoCloseable {
         run.addAll(Arrays.asList(new String[] {"docker", "run", "-d",
             "--privileged", "--memory=3G", "--memory-swappiness=1",
             "--name", containerName, "-h", containerName,
-            "--network=" + NETWORK,
-            "-p", "::22"}));
+            "--network=" + NETWORK}));
+        if (!role.dockerExec()) {
+            run.add("-p");
+            run.add("::22");
+        }
         if (!cluster.conf().castlePath().isEmpty()) {
             if (!Files.isDirectory(Paths.get(cluster.conf().castlePath()))) {
                 throw new RuntimeException("Unable to access Castle path " +
@@ -192,19 +196,18 @@ public final class DockerCloud implements AutoCloseable {
      */
     public TreeSet<String> listContainers(CastleNode node) throws Exception {
         getNetworkCheckFuture(node).get();
-        StringBuilder stringBuilder = new StringBuilder();
+        TreeSet<String> containers = new TreeSet<>();
         new NodeShellRunner(node,
             Arrays.asList(new String[] { "docker", "ps", "-a", "--no-trunc",
                 "-f=network=" + NETWORK, "-q", "--format", "{{.Names}}"})).
-            setCaptureOutput(stringBuilder).
+            setOutputStream(new LineOutputStream(line -> {
+                String name = line.trim();
+                if (!name.isEmpty()) {
+                    containers.add(name);
+                }
+            })).
             setCaptureStderr(false).
             mustRun();
-        TreeSet<String> containers = new TreeSet<>();
-        for (String line : stringBuilder.toString().trim().split(System.lineSeparator())) {
-            if (!line.isEmpty()) {
-                containers.add(line);
-            }
-        }
         return containers;
     }
 
@@ -34,6 +34,7 @@ import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleNode;
 import io.confluent.castle.common.CastleLog;
 import io.confluent.castle.common.CastleUtil;
+import io.confluent.castle.common.EventLog;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -46,6 +47,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 public final class Ec2Cloud implements AutoCloseable, Runnable {
@@ -71,6 +73,8 @@ public final class Ec2Cloud implements AutoCloseable, Runnable {
 
     private final AmazonEC2 ec2;
 
+    private final EventLog eventLog;
+
     private final Thread thread;
 
     private final List<CreateInstanceOp> creates = new ArrayList<>();
@@ -123,8 +127,9 @@ public final class Ec2Cloud implements AutoCloseable, Runnable {
         }
     }
 
-    public Ec2Cloud(Ec2Settings settings) {
+    public Ec2Cloud(Ec2Settings settings, EventLog eventLog) {
         this.settings = settings;
+        this.eventLog = eventLog;
         AmazonEC2ClientBuilder ec2Builder = AmazonEC2ClientBuilder.standard();
         if (!settings.region().isEmpty()) {
             ec2Builder.setRegion(settings.region());
@@ -232,7 +237,8 @@ public final class Ec2Cloud implements AutoCloseable, Runnable {
                         new TagSpecification().withResourceType(ResourceType.Instance).
                             withTags(CASTLE_TAG));
 
-                RunInstancesResult result = ec2.runInstances(req);
+                RunInstancesResult result = callEc2("ec2:RunInstances count=" +
+                    batchCreates.size(), () -> ec2.runInstances(req));
                 Reservation reservation = result.getReservation();
                 Iterator<Instance> instanceIterator = reservation.getInstances().iterator();
                 while (runInstanceIterator.hasNext() && instanceIterator.hasNext()) {
@@ -259,7 +265,8 @@ public final class Ec2Cloud implements AutoCloseable, Runnable {
             try {
                 DescribeInstancesRequest req = new DescribeInstancesRequest()
                     .withInstanceIds(idToDescribe.keySet());
-                DescribeInstancesResult result = ec2.describeInstances(req);
+                DescribeInstancesResult result = callEc2("ec2:DescribeInstances count=" +
+                    idToDescribe.size(), () -> ec2.describeInstances(req));
                 for (Reservation reservation : result.getReservations()) {
                     for (Instance instance : reservation.getInstances()) {
                         DescribeInstanceOp op = idToDescribe.get(instance.getInstanceId());
@@ -293,7 +300,8 @@ public final class Ec2Cloud implements AutoCloseable, Runnable {
                     new Filter("tag:" + CASTLE_TAG.getKey(),
                         Collections.singletonList(CASTLE_TAG.getValue())));
                 ArrayList<Ec2InstanceInfo> all = new ArrayList<>();
-                DescribeInstancesResult result = ec2.describeInstances(req);
+                DescribeInstancesResult result = callEc2("ec2:DescribeInstances all",
+                    () -> ec2.describeInstances(req));
                 for (Reservation reservation : result.getReservations()) {
                     for (Instance instance : reservation.getInstances()) {
                         all.add(new Ec2InstanceInfo(instance.getInstanceId(),
@@ -324,7 +332,8 @@ public final class Ec2Cloud implements AutoCloseable, Runnable {
             }
             TerminateInstancesRequest req = new TerminateInstancesRequest()
                 .withInstanceIds(idToTerminate.keySet());
-            ec2.terminateInstances(req);
+            callEc2("ec2:TerminateInstances count=" + idToTerminate.size(),
+                () -> ec2.terminateInstances(req));
             for (TerminateInstanceOp op : idToTerminate.values()) {
                 CastleUtil.completeNull(op.future);
             }
@@ -332,6 +341,22 @@ public final class Ec2Cloud implements AutoCloseable, Runnable {
         updateNextCallTime(CALL_DELAY_MS);
     }
 
+    /**
+     * Make a call to the EC2 API, and record it in the event log.
+     */
+    private <T> T callEc2(String description, Supplier<T> call) {
+        long startNs = System.nanoTime();
+        Throwable error = null;
+        try {
+            return call.get();
+        } catch (RuntimeException e) {
+            error = e;
+            throw e;
+        } finally {
+            eventLog.cloud(description, startNs, System.nanoTime(), error);
+        }
+    }
+
     private synchronized void updateNextCallTime(long minDelay) {
         nextCallTimeMs = Math.max(nextCallTimeMs, System.currentTimeMillis() + minDelay);
     }
@@ -19,17 +19,22 @@ package io.confluent.castle.cluster;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import io.confluent.castle.action.Action;
+import io.confluent.castle.action.ActionResource;
 import io.confluent.castle.action.ActionScheduler;
 import io.confluent.castle.cloud.CloudCache;
+import io.confluent.castle.command.AgentConnectionPool;
+import io.confluent.castle.command.SshConnectionPool;
 import io.confluent.castle.common.CastleLog;
 import io.confluent.castle.common.CastleUtil;
 import io.confluent.castle.common.DynamicVariableProviders;
+import io.confluent.castle.common.EventLog;
 import io.confluent.castle.common.JsonMerger;
 import io.confluent.castle.role.Role;
 import io.confluent.castle.role.UplinkRole;
 import io.confluent.castle.role.ZooKeeperRole;
 import io.confluent.castle.tool.CastleEnvironment;
 import io.confluent.castle.tool.CastleShutdownManager;
+import io.confluent.castle.uplink.StragglerDetector;
 import io.confluent.castle.uplink.Uplink;
 
 import java.io.File;
@@ -52,17 +57,26 @@ public final class CastleCluster implements AutoCloseable {
     private final CastleClusterConf conf;
     private final CastleEnvironment env;
     private final CastleLog clusterLog;
+    private final EventLog eventLog;
     private final CloudCache cloudCache;
     private final Map<String, CastleNode> nodes;
     private final CastleShutdownManager shutdownManager;
     private final Map<String, Role> originalRoles;
     private final DynamicVariableProviders dynamicVariableProviders;
+    private final StragglerDetector stragglerDetector;
+    private final SshConnectionPool sshConnectionPool;
+    private final AgentConnectionPool agentConnectionPool;
 
     public CastleCluster(CastleEnvironment env, CastleLog clusterLog,
             CastleShutdownManager shutdownManager, CastleClusterSpec spec) throws Exception {
         this.conf = spec.conf();
+        this.stragglerDetector = (conf.speculativeStartup() == null) ? null :
+            new StragglerDetector(conf.speculativeStartup());
+        this.sshConnectionPool = new SshConnectionPool(conf.sshMultiplexing());
+        this.agentConnectionPool = new AgentConnectionPool(conf.nodeAgent());
         this.env = env;
         this.clusterLog = clusterLog;
+        this.eventLog = env.createEventLog();
         this.cloudCache = new CloudCache();
         TreeMap<String, CastleNode> nodes = new TreeMap<>();
         int nodeIndex = 0;
@@ -71,7 +85,8 @@ public final class CastleCluster implements AutoCloseable {
             String nodeName = e.getKey();
             Map<Class<? extends Role>, Role> roleMap = e.getValue();
             CastleLog castleLog = env.createCastleLog(nodeName);
-            CastleNode node = new CastleNode(clusterLog, nodeIndex, nodeName, castleLog, roleMap);
+            CastleNode node = new CastleNode(clusterLog, nodeIndex, nodeName, castleLog,
+                eventLog, roleMap);
             nodes.put(nodeName, node);
             node.setUplink(getNodeUplink(nodeName, node, roleMap.values()));
             nodeIndex++;
@@ -115,6 +130,32 @@ public final class CastleCluster implements AutoCloseable {
         return clusterLog;
     }
 
+    public EventLog eventLog() {
+        return eventLog;
+    }
+
+    /**
+     * Get the straggler detector for node startup, or null if speculative
+     * startup is disabled.
+     */
+    public StragglerDetector stragglerDetector() {
+        return stragglerDetector;
+    }
+
+    /**
+     * Get the pool of persistent ssh connections to the nodes.
+     */
+    public SshConnectionPool sshConnectionPool() {
+        return sshConnectionPool;
+    }
+
+    /**
+     * Get the pool of connections to the Castle agents on the nodes.
+     */
+    public AgentConnectionPool agentConnectionPool() {
+        return agentConnectionPool;
+    }
+
     public Map<String, CastleNode> nodes() {
         return nodes;
     }
@@ -156,7 +197,9 @@ public final class CastleCluster implements AutoCloseable {
         for (String nodeName : nodesWithRole(ZooKeeperRole.class).values()) {
             bld.append(prefix);
             prefix = ",";
-            bld.append(nodes().get(nodeName).uplink().internalDns()).append(":2181");
+            Uplink uplink = nodes().get(nodeName).uplink();
+            bld.append(uplink.internalDns()).append(":").
+                append(ZooKeeperRole.PORT + uplink.portOffset());
         }
         return bld.toString();
     }
@@ -248,16 +291,35 @@ public final class CastleCluster implements AutoCloseable {
     public ActionScheduler createScheduler(List<String> targetNames,
                 Collection<Action> additionalActions,
                 int maxConcurrentActions) throws Exception {
+        return createSchedulerBuilder(targetNames, additionalActions).
+            setMaxConcurrentActions(maxConcurrentActions).
+            build();
+    }
+
+    /**
+     * Create a builder for a new action scheduler, so that the caller can
+     * configure it further before building it.
+     *
+     * @param targetNames           The targets to execute.
+     * @param additionalActions     Some additional actions to add to our scheduler.  We will
+     *                              also add the actions corresponding to the cluster roles.
+     * @return                      The new scheduler builder.
+     */
+    public ActionScheduler.Builder createSchedulerBuilder(List<String> targetNames,
+                Collection<Action> additionalActions) throws Exception {
         ActionScheduler.Builder builder = new ActionScheduler.Builder(this);
         builder.addTargetNames(targetNames);
         builder.addActions(additionalActions);
-        builder.setMaxConcurrentActions(maxConcurrentActions);
+        for (Map.Entry<String, Integer> entry : conf.concurrencyLimits().entrySet()) {
+            builder.setResourceLimit(ActionResource.fromString(entry.getKey()), entry.getValue());
+        }
+        builder.setRetryPolicies(conf.retryPolicies());
         for (CastleNode node : nodes.values()) {
             for (Role role : node.roles().values()) {
                 builder.addActions(role.createActions(node.nodeName()));
             }
         }
-        return builder.build();
+        return builder;
     }
 
     public CastleShutdownManager shutdownManager() {
@@ -270,10 +332,13 @@ public final class CastleCluster implements AutoCloseable {
 
     @Override
     public void close() {
+        CastleUtil.closeQuietly(clusterLog, agentConnectionPool, "agentConnectionPool");
+        CastleUtil.closeQuietly(clusterLog, sshConnectionPool, "sshConnectionPool");
         CastleUtil.closeQuietly(clusterLog, cloudCache, "cloudCache");
         for (Map.Entry<String, CastleNode> entry : nodes.entrySet()) {
             CastleUtil.closeQuietly(clusterLog, entry.getValue(), "cluster castleLogs");
         }
+        CastleUtil.closeQuietly(clusterLog, eventLog, "eventLog");
     }
 
     public synchronized void writeToDisk() throws Exception {
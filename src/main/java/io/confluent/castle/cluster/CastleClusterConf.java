@@ -19,9 +19,14 @@ package io.confluent.castle.cluster;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import io.confluent.castle.action.RetryPolicy;
+import io.confluent.castle.uplink.SpeculativeStartup;
 
 import java.io.File;
 import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
 
 public class CastleClusterConf {
     private final static int DEFAULT_GLOBAL_TIMEOUT = 3600;
@@ -29,14 +34,34 @@ public class CastleClusterConf {
     private final String kafkaPath;
     private final String castlePath;
     private final int globalTimeout;
+    private final Map<String, Integer> concurrencyLimits;
+    private final Map<String, RetryPolicy> retryPolicies;
+    private final SpeculativeStartup speculativeStartup;
+    private final boolean sshMultiplexing;
+    private final boolean nodeAgent;
 
     @JsonCreator
     public CastleClusterConf(@JsonProperty("kafkaPath") String kafkaPath,
                              @JsonProperty("castlePath") String castlePath,
-                             @JsonProperty("globalTimeout") int globalTimeout) {
+                             @JsonProperty("globalTimeout") int globalTimeout,
+                             @JsonProperty("concurrencyLimits")
+                                 Map<String, Integer> concurrencyLimits,
+                             @JsonProperty("retryPolicies")
+                                 Map<String, RetryPolicy> retryPolicies,
+                             @JsonProperty("speculativeStartup")
+                                 SpeculativeStartup speculativeStartup,
+                             @JsonProperty("sshMultiplexing") Boolean sshMultiplexing,
+                             @JsonProperty("nodeAgent") Boolean nodeAgent) {
         this.kafkaPath = (kafkaPath == null) ? "" : kafkaPath;
         this.castlePath = (castlePath == null) ? "" : castlePath;
         this.globalTimeout = (globalTimeout <= 0) ? DEFAULT_GLOBAL_TIMEOUT : globalTimeout;
+        this.concurrencyLimits = Collections.unmodifiableMap((concurrencyLimits == null) ?
+            new TreeMap<>() : new TreeMap<>(concurrencyLimits));
+        this.retryPolicies = Collections.unmodifiableMap((retryPolicies == null) ?
+            new TreeMap<>() : new TreeMap<>(retryPolicies));
+        this.speculativeStartup = speculativeStartup;
+        this.sshMultiplexing = (sshMultiplexing == null) ? true : sshMultiplexing;
+        this.nodeAgent = (nodeAgent == null) ? false : nodeAgent;
     }
 
     @JsonProperty
@@ -69,4 +94,49 @@ public class CastleClusterConf {
     public int globalTimeout() {
         return globalTimeout;
     }
+
+    /**
+     * A map from resource class names to the maximum number of actions of that
+     * class which may run at once.
+     */
+    @JsonProperty
+    public Map<String, Integer> concurrencyLimits() {
+        return concurrencyLimits;
+    }
+
+    /**
+     * A map from action types to the policies for retrying them.  These override
+     * the actions' own retry policies.
+     */
+    @JsonProperty
+    public Map<String, RetryPolicy> retryPolicies() {
+        return retryPolicies;
+    }
+
+    /**
+     * The configuration for starting replacements for nodes which are slow to
+     * start, or null if this is disabled.
+     */
+    @JsonProperty
+    public SpeculativeStartup speculativeStartup() {
+        return speculativeStartup;
+    }
+
+    /**
+     * True if ssh and rsync commands to each node should share a persistent
+     * master connection.
+     */
+    @JsonProperty
+    public boolean sshMultiplexing() {
+        return sshMultiplexing;
+    }
+
+    /**
+     * True if commands should be sent to a Castle agent running on each node,
+     * rather than each running its own ssh process.
+     */
+    @JsonProperty
+    public boolean nodeAgent() {
+        return nodeAgent;
+    }
 }
@@ -17,9 +17,11 @@
 
 package io.confluent.castle.cluster;
 
+import io.confluent.castle.command.CommandStats;
 import io.confluent.castle.uplink.Uplink;
 import io.confluent.castle.common.CastleUtil;
 import io.confluent.castle.common.CastleLog;
+import io.confluent.castle.common.EventLog;
 import io.confluent.castle.role.Role;
 import org.slf4j.Logger;
 
@@ -48,6 +50,11 @@ public final class CastleNode implements AutoCloseable {
      */
     private final CastleLog castleLog;
 
+    /**
+     * The cluster's event log.
+     */
+    private final EventLog eventLog;
+
     /**
      * The roles supported by this node.
      */
@@ -58,12 +65,18 @@ public final class CastleNode implements AutoCloseable {
      */
     private Uplink uplink;
 
+    /**
+     * Counts the commands run for this node.
+     */
+    private final CommandStats commandStats = new CommandStats();
+
     CastleNode(Logger clusterLog, int nodeIndex, String nodeName, CastleLog castleLog,
-               Map<Class<? extends Role>, Role> roles) {
+               EventLog eventLog, Map<Class<? extends Role>, Role> roles) {
         this.clusterLog = clusterLog;
         this.nodeIndex = nodeIndex;
         this.nodeName = nodeName;
         this.castleLog = castleLog;
+        this.eventLog = eventLog;
         this.roles = Collections.unmodifiableMap(roles);
         this.uplink = null;
     }
@@ -80,6 +93,10 @@ public final class CastleNode implements AutoCloseable {
         return castleLog;
     }
 
+    public EventLog eventLog() {
+        return eventLog;
+    }
+
     @SuppressWarnings("unchecked")
     public <R extends Role> R getRole(Class<? extends Role> clazz) {
         Role role = roles.get(clazz);
@@ -101,6 +118,10 @@ public final class CastleNode implements AutoCloseable {
         return roles;
     }
 
+    public CommandStats commandStats() {
+        return commandStats;
+    }
+
     @Override
     public void close() {
         CastleUtil.closeQuietly(clusterLog, castleLog, "castleLog for " + nodeName);
@@ -0,0 +1,393 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.command;
+
+import io.confluent.castle.action.ActionPaths;
+import io.confluent.castle.agent.AgentProtocol;
+import io.confluent.castle.cluster.CastleNode;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.CharBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A command implementation that sends commands to the Castle agent on the node.
+ *
+ * The agent is started over ssh, and ssh is still used for anything which the
+ * agent can't do: interactive sessions, copying directories, and any command
+ * which runs while the agent is unavailable.
+ */
+public class AgentCommand implements Command {
+    /**
+     * The permissions for files written with putFile: rw-r--r--.
+     */
+    private static final int DEFAULT_FILE_MODE = 0644;
+
+    private static final int CHAR_BUFFER_SIZE = 8192;
+
+    private final CastleNode node;
+
+    private final SshCommand ssh;
+
+    private final AgentConnectionPool pool;
+
+    private Operation operation = Operation.SSH;
+
+    private List<String> args = null;
+
+    private String local = null;
+
+    private String remote = null;
+
+    private boolean captureStderr = false;
+
+    private StringBuilder stringBuilder = null;
+
+    private OutputStream outputStream = null;
+
+    private long outputLimit = DEFAULT_OUTPUT_LIMIT;
+
+    private byte[] stdin = null;
+
+    private byte[] contents = null;
+
+    /**
+     * Create a new agent command.
+     *
+     * @param node      The node.
+     * @param ssh       The ssh command to use to start the agent, and to fall
+     *                  back on.  It is configured along with this command.
+     * @param pool      The agent connections.
+     */
+    public AgentCommand(CastleNode node, SshCommand ssh, AgentConnectionPool pool) {
+        this.node = node;
+        this.ssh = ssh;
+        this.pool = pool;
+    }
+
+    @Override
+    public Command args(String... args) {
+        return argList(Arrays.asList(args));
+    }
+
+    @Override
+    public Command argList(List<String> args) {
+        ssh.argList(args);
+        this.operation = Operation.SSH;
+        this.args = new ArrayList<>(args);
+        this.local = null;
+        this.remote = null;
+        this.contents = null;
+        return this;
+    }
+
+    @Override
+    public Command syncTo(String local, String remote) {
+        ssh.syncTo(local, remote);
+        this.operation = Operation.RSYNC_TO;
+        this.args = null;
+        this.local = local;
+        this.remote = remote;
+        this.contents = null;
+        return this;
+    }
+
+    @Override
+    public Command syncFrom(String remote, String local) {
+        ssh.syncFrom(remote, local);
+        this.operation = Operation.RSYNC_FROM;
+        this.args = null;
+        this.local = local;
+        this.remote = remote;
+        this.contents = null;
+        return this;
+    }
+
+    @Override
+    public Command putFile(String remote, byte[] contents) {
+        ssh.putFile(remote, contents);
+        this.operation = Operation.PUT_FILE;
+        this.args = null;
+        this.local = null;
+        this.remote = remote;
+        this.contents = Arrays.copyOf(contents, contents.length);
+        return this;
+    }
+
+    @Override
+    public Command captureOutput(StringBuilder stringBuilder) {
+        ssh.captureOutput(stringBuilder);
+        this.stringBuilder = stringBuilder;
+        return this;
+    }
+
+    @Override
+    public Command streamOutput(OutputStream outputStream) {
+        ssh.streamOutput(outputStream);
+        this.outputStream = outputStream;
+        return this;
+    }
+
+    @Override
+    public Command setOutputLimit(long outputLimit) {
+        ssh.setOutputLimit(outputLimit);
+        this.outputLimit = outputLimit;
+        return this;
+    }
+
+    @Override
+    public Command setCaptureStderr(boolean captureStderr) {
+        ssh.setCaptureStderr(captureStderr);
+        this.captureStderr = captureStderr;
+        return this;
+    }
+
+    @Override
+    public Command setStdin(byte[] stdin) {
+        ssh.setStdin(stdin);
+        if (stdin == null) {
+            this.stdin = null;
+        } else {
+            this.stdin = Arrays.copyOf(stdin, stdin.length);
+        }
+        return this;
+    }
+
+    @Override
+    public int run() throws Exception {
+        AgentConnection connection = connection();
+        if (connection != null) {
+            long startNs = System.nanoTime();
+            try {
+                switch (operation) {
+                    case SSH:
+                        String commandLine = (args == null) ? null :
+                            Command.shellCommandLine(args);
+                        if (commandLine != null) {
+                            return runOnAgent(connection, commandLine);
+                        }
+                        break;
+                    case RSYNC_TO:
+                        if (putFile(connection)) {
+                            recordTransfer(startNs);
+                            return 0;
+                        }
+                        break;
+                    case RSYNC_FROM:
+                        if (getFile(connection)) {
+                            recordTransfer(startNs);
+                            return 0;
+                        }
+                        break;
+                    case PUT_FILE:
+                        if (contents.length <= AgentProtocol.MAX_FILE_BYTES) {
+                            connection.putFile(remote, DEFAULT_FILE_MODE,
+                                System.currentTimeMillis(), contents);
+                            node.commandStats().record(0);
+                            node.log().printf("** %s: WROTE (agent) %d bytes to %s%n",
+                                node.nodeName(), contents.length, remote);
+                            recordTransfer(startNs);
+                            return 0;
+                        }
+                        break;
+                }
+            } catch (IOException e) {
+                // AgentConnection#exec only throws if nothing was sent to the agent,
+                // and file transfers can safely be repeated, so nothing runs twice.
+                node.log().printf("** %s: the agent could not run the command: %s.  " +
+                    "Using ssh instead.%n", node.nodeName(), e.getMessage());
+            }
+        }
+        return ssh.run();
+    }
+
+    @Override
+    public void mustRun() throws Exception {
+        int returnCode = run();
+        if (returnCode != 0) {
+            throw new CommandResultException(describe(), returnCode);
+        }
+    }
+
+    @Override
+    public void exec() throws Exception {
+        // Interactive sessions need a terminal, which only ssh can give us.
+        ssh.exec();
+    }
+
+    private AgentConnection connection() throws InterruptedException {
+        if (!pool.enabled() || ssh.dns().isEmpty()) {
+            return null;
+        }
+        return pool.connection(node.nodeName(), node.log(), ssh.destination(), () -> {
+            List<String> commandLine = new ArrayList<>(ssh.createSshCommandPreamble());
+            commandLine.add("-T");
+            commandLine.add(ssh.dns());
+            commandLine.add(ActionPaths.CASTLE_AGENT_START_SCRIPT);
+            node.log().printf("** %s: STARTING AGENT %s%n", node.nodeName(),
+                Command.joinArgs(commandLine));
+            Process process = new ProcessBuilder(commandLine).start();
+            return AgentConnection.fromProcess(node.nodeName(), process, node.log());
+        });
+    }
+
+    /**
+     * Record a file transfer which the agent made in the event log.
+     */
+    private void recordTransfer(long startNs) {
+        node.eventLog().command(node.nodeName(), Command.joinArgs(describe()),
+            startNs, System.nanoTime(), 0, 0);
+    }
+
+    private int runOnAgent(AgentConnection connection, String commandLine)
+            throws IOException, InterruptedException {
+        long startNs = System.nanoTime();
+        String description = Command.joinArgs(args);
+        node.log().printf("** %s: RUNNING (agent) %s%n", node.nodeName(), description);
+        List<StringBuilder> stdoutBuilders = new ArrayList<>();
+        List<StringBuilder> stderrBuilders = new ArrayList<>();
+        if (stringBuilder != null) {
+            stdoutBuilders.add(stringBuilder);
+            if (captureStderr) {
+                stderrBuilders.add(stringBuilder);
+            }
+        }
+        OutputCapture capture = new OutputCapture(stdoutBuilders, stderrBuilders,
+            outputStream, outputLimit);
+        CharBuffer charBuffer = CharBuffer.allocate(CHAR_BUFFER_SIZE);
+        boolean[] endedWithNewline = new boolean[] {true};
+        int returnCode;
+        try {
+            returnCode = connection.exec(commandLine, stdin, (stderr, data) -> {
+                try {
+                    // If the caller's stream is behind, this waits, which holds
+                    // up only this node's agent connection.
+                    (stderr ? capture.stderr() : capture.stdout()).
+                        write(data, 0, data.length, charBuffer);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                synchronized (node.log()) {
+                    try {
+                        node.log().write(data, 0, data.length);
+                    } catch (IOException e) {
+                        // There is nowhere else to log the output.
+                    }
+                }
+                if (!stderr && (data.length > 0)) {
+                    endedWithNewline[0] = data[data.length - 1] == '\n';
+                }
+            });
+        } catch (InterruptedException e) {
+            node.log().printf("** %s: INTERRUPTED %s%n", node.nodeName(), description);
+            node.eventLog().command(node.nodeName(), description,
+                startNs, System.nanoTime(), null, 0);
+            capture.endOfOutput();
+            throw e;
+        }
+        if (!endedWithNewline[0]) {
+            synchronized (node.log()) {
+                node.log().write(new byte[] {'\n'});
+            }
+        }
+        node.commandStats().record(returnCode);
+        if (returnCode == CommandStats.SSH_CONNECTION_FAILURE) {
+            pool.invalidate(node.nodeName());
+        }
+        capture.stdout().finish(charBuffer);
+        capture.stderr().finish(charBuffer);
+        node.eventLog().command(node.nodeName(), description,
+            startNs, System.nanoTime(), returnCode, capture.totalBytes());
+        node.log().printf("** %s: FINISHED %s with RESULT %d%n",
+            node.nodeName(), description, returnCode);
+        capture.finish();
+        return returnCode;
+    }
+
+    /**
+     * Copy a single file to the node through the agent.
+     *
+     * @return      True if the file was copied; false if rsync should be used.
+     */
+    private boolean putFile(AgentConnection connection)
+            throws IOException, InterruptedException {
+        Path localPath = Paths.get(local);
+        if (remote.endsWith("/") || !Files.isRegularFile(localPath) ||
+                (Files.size(localPath) > AgentProtocol.MAX_FILE_BYTES)) {
+            return false;
+        }
+        int mode = AgentProtocol.modeFromString(
+            PosixFilePermissions.toString(Files.getPosixFilePermissions(localPath)));
+        long mtimeMs = Files.getLastModifiedTime(localPath).toMillis();
+        connection.putFile(remote, mode, mtimeMs, Files.readAllBytes(localPath));
+        node.commandStats().record(0);
+        node.log().printf("** %s: COPIED (agent) %s to %s%n", node.nodeName(), local, remote);
+        return true;
+    }
+
+    /**
+     * Copy a single file from the node through the agent.
+     *
+     * @return      True if the file was copied; false if rsync should be used.
+     */
+    private boolean getFile(AgentConnection connection)
+            throws IOException, InterruptedException {
+        Path localPath = Paths.get(local);
+        if (remote.endsWith("/") || local.endsWith("/") || Files.isDirectory(localPath)) {
+            return false;
+        }
+        AgentConnection.FileContents file = connection.getFile(remote);
+        Path tempPath = localPath.resolveSibling("." + localPath.getFileName() + ".castle-tmp");
+        try {
+            Files.write(tempPath, file.contents());
+            Files.setPosixFilePermissions(tempPath,
+                PosixFilePermissions.fromString(AgentProtocol.modeToString(file.mode())));
+            Files.setLastModifiedTime(tempPath, FileTime.fromMillis(file.mtimeMs()));
+            Files.move(tempPath, localPath, StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tempPath);
+        }
+        node.commandStats().record(0);
+        node.log().printf("** %s: COPIED (agent) %s to %s%n", node.nodeName(), remote, local);
+        return true;
+    }
+
+    private List<String> describe() {
+        switch (operation) {
+            case RSYNC_TO:
+                return Arrays.asList("rsync", local, ssh.dns() + ":" + remote);
+            case RSYNC_FROM:
+                return Arrays.asList("rsync", ssh.dns() + ":" + remote, local);
+            case PUT_FILE:
+                return Arrays.asList("put", ssh.dns() + ":" + remote);
+            default:
+                return (args == null) ? Collections.emptyList() : args;
+        }
+    }
+}
@@ -0,0 +1,393 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.command;
+
+import io.confluent.castle.agent.AgentProtocol;
+import io.confluent.castle.common.CastleLog;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The tool's end of a connection to a node agent.  Many requests can be in flight
+ * at once; a reader thread hands each response frame to the request it belongs to.
+ */
+public final class AgentConnection implements AutoCloseable {
+    /**
+     * Receives the output of a command run by the agent.  This is called from the
+     * connection's reader thread, in the order in which the output was written.
+     */
+    public interface OutputListener {
+        void onOutput(boolean stderr, byte[] data);
+    }
+
+    /**
+     * The contents and metadata of a file fetched from the agent.
+     */
+    public static final class FileContents {
+        private final int mode;
+        private final long mtimeMs;
+        private final byte[] contents;
+
+        FileContents(int mode, long mtimeMs, byte[] contents) {
+            this.mode = mode;
+            this.mtimeMs = mtimeMs;
+            this.contents = contents;
+        }
+
+        public int mode() {
+            return mode;
+        }
+
+        public long mtimeMs() {
+            return mtimeMs;
+        }
+
+        public byte[] contents() {
+            return contents;
+        }
+    }
+
+    /**
+     * A request which is waiting for its result.
+     */
+    private static final class Request {
+        private final OutputListener listener;
+        private final CompletableFuture<Object> result = new CompletableFuture<>();
+
+        Request(OutputListener listener) {
+            this.listener = listener;
+        }
+    }
+
+    /**
+     * The result of a request whose connection was lost before it completed.
+     */
+    private static final Object CONNECTION_LOST = new Object();
+
+    private final String name;
+
+    private final DataInputStream in;
+
+    private final DataOutputStream out;
+
+    private final Process process;
+
+    private final Map<Integer, Request> requests = new ConcurrentHashMap<>();
+
+    private final AtomicInteger nextId = new AtomicInteger(1);
+
+    private final CompletableFuture<Void> ready = new CompletableFuture<>();
+
+    private final Thread readerThread;
+
+    private volatile boolean closed = false;
+
+    /**
+     * Start talking to an agent which runs as a child process, such as an ssh
+     * session.  Anything which the process writes to stderr goes to the log.
+     */
+    public static AgentConnection fromProcess(String name, Process process, CastleLog log) {
+        Thread stderrThread = new Thread(() -> {
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(process.getErrorStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    log.printf("** %s agent: %s%n", name, line);
+                }
+            } catch (IOException e) {
+                // The process exited.
+            }
+        }, "CastleAgentStderr_" + name);
+        stderrThread.setDaemon(true);
+        stderrThread.start();
+        return new AgentConnection(name, process.getInputStream(),
+            process.getOutputStream(), process);
+    }
+
+    public AgentConnection(String name, InputStream in, OutputStream out, Process process) {
+        this.name = name;
+        this.in = new DataInputStream(new BufferedInputStream(in));
+        this.out = new DataOutputStream(new BufferedOutputStream(out));
+        this.process = process;
+        this.readerThread = new Thread(this::readResponses, "CastleAgentReader_" + name);
+        this.readerThread.setDaemon(true);
+        this.readerThread.start();
+    }
+
+    /**
+     * Wait for the agent to say hello.
+     *
+     * @return      True if the agent is ready for requests; false if it did not
+     *              start in time, or something other than an agent answered.
+     */
+    public boolean awaitReady(long timeoutMs) throws InterruptedException {
+        try {
+            ready.get(timeoutMs, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (ExecutionException | TimeoutException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Return true if the connection has failed or been closed.
+     */
+    public boolean closed() {
+        return closed;
+    }
+
+    /**
+     * Run a shell command line on the node.  If we are interrupted while waiting,
+     * we ask the agent to kill the command.
+     *
+     * @param commandLine   The command line, which the agent passes to the shell.
+     * @param stdin         The bytes to write to the command's stdin, or null.
+     * @param listener      Receives the command's output.
+     *
+     * @return              The command's exit status, or
+     *                      CommandStats#SSH_CONNECTION_FAILURE if the request could
+     *                      not be sent, the agent reported an error, or the
+     *                      connection was lost while the command was running.  The
+     *                      error, if any, is passed to the listener as stderr.
+     *
+     * @throws IOException  If the connection was already closed, so that nothing
+     *                      was sent.  Only in this case is it safe to run the
+     *                      command some other way.
+     */
+    public int exec(String commandLine, byte[] stdin, OutputListener listener)
+            throws IOException, InterruptedException {
+        Request request = new Request(listener);
+        int id = register(request);
+        try {
+            try {
+                synchronized (out) {
+                    AgentProtocol.writeHeader(out, AgentProtocol.EXEC, id);
+                    AgentProtocol.writeString(out, commandLine);
+                    AgentProtocol.writeBytes(out, stdin);
+                    out.flush();
+                }
+            } catch (IOException e) {
+                // Part of the request, or all of it, may have reached the agent, so
+                // the command may be running.  The connection is no use to anyone
+                // after a failed write.
+                close();
+                throw e;
+            }
+            Object result = await(request);
+            if (result == CONNECTION_LOST) {
+                return CommandStats.SSH_CONNECTION_FAILURE;
+            }
+            return (Integer) result;
+        } catch (IOException e) {
+            // Once we have started sending the request, the command may have run,
+            // so we report the failure the way ssh would rather than letting the
+            // caller run it again.
+            requests.remove(id);
+            if (listener != null) {
+                listener.onOutput(true, String.format("castle agent: %s%n",
+                    e.getMessage()).getBytes(StandardCharsets.UTF_8));
+            }
+            return CommandStats.SSH_CONNECTION_FAILURE;
+        } catch (InterruptedException e) {
+            try {
+                synchronized (out) {
+                    AgentProtocol.writeHeader(out, AgentProtocol.KILL, id);
+                    out.flush();
+                }
+            } catch (IOException ioe) {
+                // The agent kills everything when the connection closes.
+            }
+            throw e;
+        } finally {
+            requests.remove(id);
+        }
+    }
+
+    /**
+     * Write a file on the node.  The agent writes a temporary file and renames it
+     * into place, so readers never see a partial file.
+     *
+     * @throws IOException  If the file could not be written.
+     */
+    public void putFile(String path, int mode, long mtimeMs, byte[] contents)
+            throws IOException, InterruptedException {
+        if (contents.length > AgentProtocol.MAX_FILE_BYTES) {
+            throw new IOException("File is too large to send in one frame.");
+        }
+        Request request = new Request(null);
+        int id = register(request);
+        try {
+            synchronized (out) {
+                AgentProtocol.writeHeader(out, AgentProtocol.PUT, id);
+                AgentProtocol.writeString(out, path);
+                out.writeInt(mode);
+                out.writeLong(mtimeMs);
+                AgentProtocol.writeBytes(out, contents);
+                out.flush();
+            }
+            if (await(request) == CONNECTION_LOST) {
+                throw new IOException("Lost the connection to the agent.");
+            }
+        } finally {
+            requests.remove(id);
+        }
+    }
+
+    /**
+     * Read a file from the node.
+     *
+     * @throws IOException  If the file could not be read, is not a regular file,
+     *                      or is too large to send in one frame.
+     */
+    public FileContents getFile(String path) throws IOException, InterruptedException {
+        Request request = new Request(null);
+        int id = register(request);
+        try {
+            synchronized (out) {
+                AgentProtocol.writeHeader(out, AgentProtocol.GET, id);
+                AgentProtocol.writeString(out, path);
+                out.flush();
+            }
+            Object result = await(request);
+            if (result == CONNECTION_LOST) {
+                throw new IOException("Lost the connection to the agent.");
+            }
+            return (FileContents) result;
+        } finally {
+            requests.remove(id);
+        }
+    }
+
+    private int register(Request request) throws IOException {
+        int id = nextId.getAndIncrement();
+        requests.put(id, request);
+        if (closed) {
+            requests.remove(id);
+            throw new IOException("The connection to the agent is closed.");
+        }
+        return id;
+    }
+
+    private Object await(Request request) throws IOException, InterruptedException {
+        try {
+            return request.result.get();
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause().getMessage());
+        }
+    }
+
+    private void readResponses() {
+        try {
+            byte type = in.readByte();
+            in.readInt();
+            if ((type != AgentProtocol.HELLO) || (in.readInt() != AgentProtocol.MAGIC)) {
+                throw new IOException("Unexpected greeting from the agent.");
+            }
+            int version = in.readInt();
+            if (version != AgentProtocol.VERSION) {
+                throw new IOException("Unsupported agent protocol version " + version);
+            }
+            ready.complete(null);
+            while (true) {
+                type = in.readByte();
+                int id = in.readInt();
+                Request request = requests.get(id);
+                switch (type) {
+                    case AgentProtocol.STDOUT:
+                    case AgentProtocol.STDERR: {
+                        byte[] data = AgentProtocol.readBytes(in);
+                        if ((request != null) && (request.listener != null)) {
+                            request.listener.onOutput(type == AgentProtocol.STDERR, data);
+                        }
+                        break;
+                    }
+                    case AgentProtocol.EXIT: {
+                        int exitCode = in.readInt();
+                        if (request != null) {
+                            request.result.complete(exitCode);
+                        }
+                        break;
+                    }
+                    case AgentProtocol.DATA: {
+                        int mode = in.readInt();
+                        long mtimeMs = in.readLong();
+                        byte[] contents = AgentProtocol.readBytes(in);
+                        if (request != null) {
+                            request.result.complete(new FileContents(mode, mtimeMs, contents));
+                        }
+                        break;
+                    }
+                    case AgentProtocol.ERROR: {
+                        String message = AgentProtocol.readString(in);
+                        if (request != null) {
+                            request.result.completeExceptionally(new IOException(message));
+                        }
+                        break;
+                    }
+                    default:
+                        throw new IOException("Unknown response type " + type);
+                }
+            }
+        } catch (Throwable e) {
+            ready.completeExceptionally(e);
+        } finally {
+            closed = true;
+            for (Request request : requests.values()) {
+                request.result.complete(CONNECTION_LOST);
+            }
+            close();
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            // The agent exits when its input is closed.
+            synchronized (out) {
+                out.close();
+            }
+        } catch (IOException e) {
+            // Ignore.
+        }
+        if (process != null) {
+            process.destroy();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "AgentConnection(" + name + ")";
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.command;
+
+import io.confluent.castle.common.CastleLog;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps a connection open to the Castle agent on each node, so that commands can
+ * be sent to the agent rather than each starting an ssh process of its own.
+ *
+ * The agent is started over ssh, once the Castle source has been copied to the
+ * node.  If it can't be started, commands use ssh as before, and we don't try
+ * again for a while.
+ */
+public final class AgentConnectionPool implements AutoCloseable {
+    /**
+     * How long to wait for a new agent to start up.  This includes starting a JVM.
+     */
+    private static final long AGENT_START_TIMEOUT_MS = 30000;
+
+    /**
+     * How long to wait before trying again to start an agent which failed to start.
+     */
+    private static final long AGENT_RETRY_DELAY_MS = 60000;
+
+    /**
+     * Starts an agent on a node.
+     */
+    public interface Connector {
+        AgentConnection connect() throws IOException, InterruptedException;
+    }
+
+    /**
+     * The agent connection state for a node.  Accesses are protected by
+     * synchronizing on this object.
+     */
+    private static final class NodeAgent {
+        private AgentConnection connection = null;
+        private String key = null;
+        private String failedKey = null;
+        private long failedMs = 0;
+
+        synchronized AgentConnection connection(String nodeName, CastleLog log, String key,
+                                                Connector connector)
+                throws InterruptedException {
+            if (connection != null) {
+                if (!key.equals(this.key)) {
+                    log.printf("** %s: the node address changed.  Closing the old agent " +
+                        "connection.%n", nodeName);
+                    stop();
+                } else if (connection.closed()) {
+                    log.printf("** %s: lost the agent connection.%n", nodeName);
+                    stop();
+                }
+            }
+            if (connection != null) {
+                return connection;
+            }
+            long nowMs = System.currentTimeMillis();
+            if (key.equals(failedKey) && (nowMs - failedMs < AGENT_RETRY_DELAY_MS)) {
+                return null;
+            }
+            AgentConnection newConnection = null;
+            try {
+                newConnection = connector.connect();
+                if (!newConnection.awaitReady(AGENT_START_TIMEOUT_MS)) {
+                    log.printf("** %s: the agent did not start.  Using ssh instead.%n",
+                        nodeName);
+                    newConnection.close();
+                    newConnection = null;
+                }
+            } catch (IOException e) {
+                log.printf("** %s: unable to start the agent: %s%n", nodeName, e.getMessage());
+                newConnection = null;
+            } catch (InterruptedException e) {
+                if (newConnection != null) {
+                    newConnection.close();
+                }
+                throw e;
+            }
+            if (newConnection == null) {
+                failedKey = key;
+                failedMs = System.currentTimeMillis();
+                return null;
+            }
+            log.printf("** %s: started the agent.%n", nodeName);
+            failedKey = null;
+            this.key = key;
+            connection = newConnection;
+            return connection;
+        }
+
+        synchronized void reset() {
+            failedKey = null;
+        }
+
+        synchronized void stop() {
+            if (connection != null) {
+                connection.close();
+                connection = null;
+            }
+        }
+    }
+
+    private final boolean enabled;
+
+    private final Map<String, NodeAgent> agents = new ConcurrentHashMap<>();
+
+    private boolean closed = false;
+
+    public AgentConnectionPool(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean enabled() {
+        return enabled;
+    }
+
+    /**
+     * Get the agent connection for a node, starting the agent if there isn't a
+     * working connection already.
+     *
+     * @param nodeName      The node name.
+     * @param log           The log to write messages about the connection to.
+     * @param key           Identifies where the agent runs.  If this changes, the
+     *                      old connection is closed and a new agent is started.
+     * @param connector     Starts the agent.
+     *
+     * @return              The connection, or null if commands should use ssh.
+     */
+    public AgentConnection connection(String nodeName, CastleLog log, String key,
+                                      Connector connector) throws InterruptedException {
+        NodeAgent agent = agent(nodeName);
+        if (agent == null) {
+            return null;
+        }
+        return agent.connection(nodeName, log, key, connector);
+    }
+
+    /**
+     * Forget that the agent failed to start on a node, so that the next command
+     * tries again.  This is called after the agent has been copied to the node.
+     */
+    public void reset(String nodeName) {
+        NodeAgent agent = agents.get(nodeName);
+        if (agent != null) {
+            agent.reset();
+        }
+    }
+
+    /**
+     * Close the agent connection to a node, if there is one.
+     */
+    public void invalidate(String nodeName) {
+        NodeAgent agent = agents.get(nodeName);
+        if (agent != null) {
+            agent.stop();
+        }
+    }
+
+    private synchronized NodeAgent agent(String nodeName) {
+        if (!enabled || closed) {
+            return null;
+        }
+        return agents.computeIfAbsent(nodeName, name -> new NodeAgent());
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        for (NodeAgent agent : agents.values()) {
+            agent.stop();
+        }
+    }
+}
@@ -17,22 +17,31 @@
 
 package io.confluent.castle.command;
 
+import java.io.OutputStream;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * A command which the Castle tool needs to run.
  */
 public interface Command {
+    /**
+     * The default maximum number of bytes of output which a command may capture
+     * in a StringBuilder.
+     */
+    long DEFAULT_OUTPUT_LIMIT = 64L * 1024L * 1024L;
+
     enum Operation {
         SSH,
         RSYNC_TO,
-        RSYNC_FROM;
+        RSYNC_FROM,
+        PUT_FILE;
     }
 
     /**
      * Set the command arguments.
      *
-     * This option is mutually exclusive with syncTo and syncFrom.
+     * This option is mutually exclusive with syncTo, syncFrom, and putFile.
      *
      * @param args                  The arguments to use.
      */
@@ -41,7 +50,7 @@ public interface Command {
     /**
      * Set the command arguments.
      *
-     * This option is mutually exclusive with syncTo and syncFrom.
+     * This option is mutually exclusive with syncTo, syncFrom, and putFile.
      *
      * @param args                  The arguments to use.
      */
@@ -50,7 +59,7 @@ public interface Command {
     /**
      * Copy files to the remote node.
      *
-     * This option is mutually exclusive with args and syncFrom.
+     * This option is mutually exclusive with args, syncFrom, and putFile.
      *
      * @param local                 The local path to copy from.
      * @param remote                The remote path to copy to.
@@ -60,13 +69,25 @@ public interface Command {
     /**
      * Copy files from the remote node.
      *
-     * This option is mutually exclusive with args and syncTo.
+     * This option is mutually exclusive with args, syncTo, and putFile.
      *
      * @param remote                The remote path to copy from.
      * @param local                 The local path to copy to.
      */
     Command syncFrom(String remote, String local);
 
+    /**
+     * Write a file on the remote node.  The contents are written to a temporary
+     * file next to the remote path, which is then renamed into place.  This avoids
+     * writing a local file and copying it with rsync.
+     *
+     * This option is mutually exclusive with args, syncTo, and syncFrom.
+     *
+     * @param remote                The remote path to write.
+     * @param contents              The contents of the file.
+     */
+    Command putFile(String remote, byte[] contents);
+
     /**
      * Capture the output to the given StringBuilder.
      *
@@ -76,6 +97,38 @@ public interface Command {
      */
     Command captureOutput(StringBuilder stringBuilder);
 
+    /**
+     * Copy the standard output to the given stream as it arrives, rather than
+     * buffering all of it.  The stream is closed once the command has run.
+     *
+     * If the stream throws an exception, nothing more is written to it, and
+     * running the command throws an exception once the command has exited.
+     *
+     * @param outputStream          The stream to copy the output to.  By
+     *                              default, the output is not streamed.
+     */
+    Command streamOutput(OutputStream outputStream);
+
+    /**
+     * Pass each line of the standard output to the given consumer as it
+     * arrives.  The line terminators are not included.
+     *
+     * @param consumer              The consumer.
+     */
+    default Command outputLines(Consumer<String> consumer) {
+        return streamOutput(new LineOutputStream(consumer));
+    }
+
+    /**
+     * Set the maximum number of bytes of output to capture in a StringBuilder.
+     * If the command produces more, running it throws an exception once it has
+     * exited.  Output which is only streamed doesn't count, since it never
+     * accumulates in memory.
+     *
+     * @param outputLimit           The limit.  Defaults to DEFAULT_OUTPUT_LIMIT.
+     */
+    Command setOutputLimit(long outputLimit);
+
     /**
      * Set whether we should capture the command output.
      */
@@ -133,4 +186,49 @@ public interface Command {
         }
         return bld.toString();
     }
+
+    /**
+     * Translate ssh arguments into the command line which the remote shell would
+     * run.  Leading ssh options which don't change what the command does, such as
+     * -n, are dropped.
+     *
+     * @param args  The argument list.
+     * @return      The shell command line, or null if the arguments use other ssh
+     *              options, or have no command.
+     */
+    static String shellCommandLine(List<String> args) {
+        int i = 0;
+        while ((i < args.size()) && (args.get(i).equals("-n") ||
+                args.get(i).equals("-q") || args.get(i).equals("-T"))) {
+            i++;
+        }
+        if ((i < args.size()) && args.get(i).equals("--")) {
+            i++;
+        } else if ((i < args.size()) && args.get(i).startsWith("-")) {
+            return null;
+        }
+        if (i == args.size()) {
+            return null;
+        }
+        // Like ssh, join the arguments with spaces and let the shell parse them.
+        return String.join(" ", args.subList(i, args.size()));
+    }
+
+    /**
+     * Quote a string so that the shell treats it as a single word.
+     */
+    static String shellQuote(String str) {
+        return "'" + str.replace("'", "'\\''") + "'";
+    }
+
+    /**
+     * Get the temporary path to write a file to before renaming it into place.
+     * The temporary file is hidden, and in the same directory, so that the rename
+     * is atomic.
+     */
+    static String tempPath(String path) {
+        int lastSlash = path.lastIndexOf('/');
+        return path.substring(0, lastSlash + 1) + "." + path.substring(lastSlash + 1) +
+            ".castle-tmp";
+    }
 }
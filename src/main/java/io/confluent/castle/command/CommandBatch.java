@@ -0,0 +1,268 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.command;
+
+import io.confluent.castle.cluster.CastleNode;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Runs several steps on a node in a single remote session.
+ *
+ * The steps are turned into a bash script which is sent to the node on stdin.
+ * Small files are sent inline as part of the script, rather than each being
+ * copied with rsync.  The steps run in order, and the batch stops at the first
+ * step which fails.  The exit status of each step is reported back.
+ */
+public final class CommandBatch {
+    /**
+     * The exit status reported for steps which did not run.
+     */
+    public static final int NOT_RUN = -1;
+
+    private static final String SCRIPT_COMMAND = "bash -s";
+
+    /**
+     * A step in the batch.
+     */
+    private static final class Step {
+        private final List<String> description;
+        private final String script;
+
+        Step(List<String> description, String script) {
+            this.description = description;
+            this.script = script;
+        }
+    }
+
+    /**
+     * The result of running a batch.
+     */
+    public static final class Result {
+        private final List<List<String>> steps;
+        private final int[] exitCodes;
+        private final int returnCode;
+        private final String output;
+
+        Result(List<List<String>> steps, int[] exitCodes, int returnCode, String output) {
+            this.steps = steps;
+            this.exitCodes = exitCodes;
+            this.returnCode = returnCode;
+            this.output = output;
+        }
+
+        /**
+         * The exit status of each step, or NOT_RUN for steps which did not run.
+         */
+        public int[] exitCodes() {
+            return Arrays.copyOf(exitCodes, exitCodes.length);
+        }
+
+        /**
+         * The exit status of the remote session.  This is the exit status of the
+         * failed step, if any, or the ssh status if the session could not be run.
+         */
+        public int returnCode() {
+            return returnCode;
+        }
+
+        /**
+         * The standard output of the steps.
+         */
+        public String output() {
+            return output;
+        }
+
+        /**
+         * Return the index of the first step which did not succeed, or -1 if they
+         * all succeeded.
+         */
+        public int failedStep() {
+            for (int i = 0; i < exitCodes.length; i++) {
+                if (exitCodes[i] != 0) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Throw an exception describing the failed step, if there is one.
+         */
+        public void check() {
+            int failedStep = failedStep();
+            if (failedStep < 0) {
+                return;
+            }
+            if (exitCodes[failedStep] == NOT_RUN) {
+                throw new CommandResultException(Arrays.asList(SCRIPT_COMMAND.split(" ")),
+                    returnCode);
+            }
+            throw new CommandResultException(steps.get(failedStep), exitCodes[failedStep]);
+        }
+    }
+
+    private final CastleNode node;
+
+    private final List<Step> steps = new ArrayList<>();
+
+    private final String nonce = UUID.randomUUID().toString().replace("-", "");
+
+    public CommandBatch(CastleNode node) {
+        this.node = node;
+    }
+
+    /**
+     * Add a step which runs a command.  The arguments are the same as those
+     * passed to Command#args.
+     */
+    public CommandBatch args(String... args) {
+        return argList(Arrays.asList(args));
+    }
+
+    /**
+     * Add a step which runs a command.  The arguments are the same as those
+     * passed to Command#argList.
+     */
+    public CommandBatch argList(List<String> args) {
+        String commandLine = Command.shellCommandLine(args);
+        if (commandLine == null) {
+            throw new RuntimeException("Unable to run " + Command.joinArgs(args) +
+                " in a batch.");
+        }
+        // Each step runs in its own subshell, as it would in its own ssh session.
+        steps.add(new Step(Collections.unmodifiableList(new ArrayList<>(args)),
+            "(\n" + commandLine + "\n) </dev/null"));
+        return this;
+    }
+
+    /**
+     * Add a step which writes a file on the node.  Like Command#putFile, the
+     * contents are written to a temporary file, which is then renamed into place.
+     *
+     * @param path          The path of the file to write.
+     * @param contents      The contents of the file.
+     */
+    public CommandBatch writeFile(String path, byte[] contents) {
+        String tempPath = Command.tempPath(path);
+        String delimiter = "CASTLE_EOF_" + nonce;
+        String encoded = Base64.getMimeEncoder(76, new byte[] {'\n'}).
+            encodeToString(contents);
+        steps.add(new Step(Arrays.asList("write", path),
+            "base64 -d > " + Command.shellQuote(tempPath) + " <<'" + delimiter + "' && " +
+            "mv -f " + Command.shellQuote(tempPath) + " " + Command.shellQuote(path) + "\n" +
+            encoded + (encoded.isEmpty() ? "" : "\n") + delimiter));
+        return this;
+    }
+
+    /**
+     * Add a step which writes a file on the node.
+     *
+     * @param path          The path of the file to write.
+     * @param contents      The contents of the file, which will be encoded as UTF-8.
+     */
+    public CommandBatch writeFile(String path, String contents) {
+        return writeFile(path, contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Run the batch.
+     *
+     * @return      The result.  The steps after a failed step are not run.
+     */
+    public Result run() throws Exception {
+        return run(node.uplink().command());
+    }
+
+    /**
+     * Run the batch, throwing an exception if any step fails.
+     *
+     * @return      The result.
+     */
+    public Result mustRun() throws Exception {
+        Result result = run();
+        result.check();
+        return result;
+    }
+
+    Result run(Command command) throws Exception {
+        List<List<String>> descriptions = new ArrayList<>();
+        StringBuilder summary = new StringBuilder();
+        for (Step step : steps) {
+            descriptions.add(step.description);
+            summary.append(String.format("**   %d: %s%n", descriptions.size(),
+                Command.joinArgs(step.description)));
+        }
+        node.log().printf("** %s: BATCH of %d step(s)%n%s", node.nodeName(),
+            steps.size(), summary);
+        StringBuilder output = new StringBuilder();
+        int returnCode = command.args(SCRIPT_COMMAND).
+            setStdin(script().getBytes(StandardCharsets.UTF_8)).
+            captureOutput(output).
+            run();
+        int[] exitCodes = new int[steps.size()];
+        Arrays.fill(exitCodes, NOT_RUN);
+        String stepOutput = output.toString();
+        String marker = "\n" + marker();
+        int markerIndex = stepOutput.lastIndexOf(marker);
+        if (markerIndex >= 0) {
+            String[] codes = stepOutput.substring(markerIndex + marker.length()).
+                trim().split(" ");
+            for (int i = 0; (i < codes.length) && (i < exitCodes.length); i++) {
+                if (!codes[i].isEmpty()) {
+                    exitCodes[i] = Integer.parseInt(codes[i]);
+                }
+            }
+            stepOutput = stepOutput.substring(0, markerIndex);
+        }
+        return new Result(descriptions, exitCodes, returnCode, stepOutput);
+    }
+
+    /**
+     * Create the script which runs the steps.  At the end, the script prints a
+     * line which starts with the marker and lists the exit status of each step
+     * which ran.
+     */
+    String script() {
+        StringBuilder bld = new StringBuilder();
+        bld.append("castle_codes=''\n");
+        bld.append("castle_exit() {\n");
+        bld.append("  printf '\\n%s%s\\n' '").append(marker()).
+            append("' \"$castle_codes\"\n");
+        bld.append("  exit \"$1\"\n");
+        bld.append("}\n");
+        for (Step step : steps) {
+            bld.append(step.script).append("\n");
+            bld.append("castle_code=$?\n");
+            bld.append("castle_codes=\"$castle_codes $castle_code\"\n");
+            bld.append("[ $castle_code -eq 0 ] || castle_exit $castle_code\n");
+        }
+        bld.append("castle_exit 0\n");
+        return bld.toString();
+    }
+
+    private String marker() {
+        return "CASTLE_BATCH_" + nonce + ":";
+    }
+}
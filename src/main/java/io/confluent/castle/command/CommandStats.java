@@ -0,0 +1,67 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.command;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the commands which have been run for a node, and how many of them failed.
+ */
+public final class CommandStats {
+    /**
+     * The exit status which ssh uses when it could not connect to the remote node.
+     */
+    public static final int SSH_CONNECTION_FAILURE = 255;
+
+    private final AtomicLong numCommands = new AtomicLong(0);
+
+    private final AtomicLong numFailures = new AtomicLong(0);
+
+    private final AtomicLong numConnectionFailures = new AtomicLong(0);
+
+    /**
+     * Record the exit status of a command which ran to completion.
+     */
+    public void record(int exitStatus) {
+        numCommands.incrementAndGet();
+        if (exitStatus != 0) {
+            numFailures.incrementAndGet();
+        }
+        if (exitStatus == SSH_CONNECTION_FAILURE) {
+            numConnectionFailures.incrementAndGet();
+        }
+    }
+
+    public long numCommands() {
+        return numCommands.get();
+    }
+
+    /**
+     * The number of commands which exited with a non-zero status.
+     */
+    public long numFailures() {
+        return numFailures.get();
+    }
+
+    /**
+     * The number of commands which exited with the ssh connection failure status.
+     */
+    public long numConnectionFailures() {
+        return numConnectionFailures.get();
+    }
+}
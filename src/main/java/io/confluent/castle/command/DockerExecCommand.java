@@ -0,0 +1,277 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.command;
+
+import io.confluent.castle.cluster.CastleNode;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A command implementation that uses docker exec to run commands in a container,
+ * rather than ssh.
+ *
+ * Files are copied with rsync, using docker exec as rsync's remote shell, so that
+ * only the changes are sent.  Single files are written by piping them to a command
+ * in the container.
+ */
+public class DockerExecCommand implements Command {
+    /**
+     * Run before every command, so that commands start in the user's home
+     * directory, as they would over ssh.
+     */
+    private static final String CD_HOME = "cd; ";
+
+    private final CastleNode node;
+
+    private final String docker;
+
+    private final String containerName;
+
+    private final String dockerUser;
+
+    private Operation operation = Operation.SSH;
+
+    private List<String> args = null;
+
+    private String local = null;
+
+    private String remote = null;
+
+    private boolean captureStderr = false;
+
+    private StringBuilder stringBuilder = null;
+
+    private OutputStream outputStream = null;
+
+    private long outputLimit = DEFAULT_OUTPUT_LIMIT;
+
+    private byte[] stdin = null;
+
+    private byte[] contents = null;
+
+    public DockerExecCommand(CastleNode node, String containerName, String dockerUser) {
+        this(node, "docker", containerName, dockerUser);
+    }
+
+    DockerExecCommand(CastleNode node, String docker, String containerName,
+                      String dockerUser) {
+        this.node = node;
+        this.docker = docker;
+        this.containerName = containerName;
+        this.dockerUser = dockerUser;
+    }
+
+    @Override
+    public Command args(String... args) {
+        return argList(Arrays.asList(args));
+    }
+
+    @Override
+    public Command argList(List<String> args) {
+        this.operation = Operation.SSH;
+        this.args = new ArrayList<>(args);
+        this.local = null;
+        this.remote = null;
+        this.contents = null;
+        return this;
+    }
+
+    @Override
+    public Command syncTo(String local, String remote) {
+        this.operation = Operation.RSYNC_TO;
+        this.args = null;
+        this.local = local;
+        this.remote = remote;
+        this.contents = null;
+        return this;
+    }
+
+    @Override
+    public Command syncFrom(String remote, String local) {
+        this.operation = Operation.RSYNC_FROM;
+        this.args = null;
+        this.local = local;
+        this.remote = remote;
+        this.contents = null;
+        return this;
+    }
+
+    @Override
+    public Command putFile(String remote, byte[] contents) {
+        this.operation = Operation.PUT_FILE;
+        this.args = null;
+        this.local = null;
+        this.remote = remote;
+        this.contents = Arrays.copyOf(contents, contents.length);
+        return this;
+    }
+
+    @Override
+    public Command captureOutput(StringBuilder stringBuilder) {
+        this.stringBuilder = stringBuilder;
+        return this;
+    }
+
+    @Override
+    public Command streamOutput(OutputStream outputStream) {
+        this.outputStream = outputStream;
+        return this;
+    }
+
+    @Override
+    public Command setOutputLimit(long outputLimit) {
+        this.outputLimit = outputLimit;
+        return this;
+    }
+
+    @Override
+    public Command setCaptureStderr(boolean captureStderr) {
+        this.captureStderr = captureStderr;
+        return this;
+    }
+
+    @Override
+    public Command setStdin(byte[] stdin) {
+        if (stdin == null) {
+            this.stdin = null;
+        } else {
+            this.stdin = Arrays.copyOf(stdin, stdin.length);
+        }
+        return this;
+    }
+
+    @Override
+    public int run() throws Exception {
+        return createRunner().run();
+    }
+
+    @Override
+    public void mustRun() throws Exception {
+        createRunner().mustRun();
+    }
+
+    @Override
+    public void exec() throws Exception {
+        new NodeShellRunner(node, makeCommandLine(true)).
+            setCaptureOutput(stringBuilder).
+            setCaptureStderr(captureStderr).
+            setStdin(stdinBytes()).
+            exec();
+    }
+
+    private NodeShellRunner createRunner() {
+        return new NodeShellRunner(node, makeCommandLine(false)).
+            setCaptureOutput(stringBuilder).
+            setCaptureStderr(captureStderr).
+            setOutputStream(outputStream).
+            setOutputLimit(outputLimit).
+            setStdin(stdinBytes());
+    }
+
+    /**
+     * Get the bytes to send to stdin.  When writing a file, this is the contents.
+     */
+    private byte[] stdinBytes() {
+        return (operation == Operation.PUT_FILE) ? contents : stdin;
+    }
+
+    /**
+     * Create the docker exec command line, up to and including the container name.
+     *
+     * @param tty       True if docker should allocate a terminal.
+     */
+    private List<String> createExecPreamble(boolean tty) {
+        List<String> preamble = new ArrayList<>();
+        preamble.add(docker);
+        preamble.add("exec");
+        preamble.add(tty ? "-it" : "-i");
+        if (!dockerUser.isEmpty()) {
+            preamble.add("--user");
+            preamble.add(dockerUser);
+        }
+        preamble.add(containerName);
+        return preamble;
+    }
+
+    /**
+     * Create the remote shell which rsync uses.  rsync appends the container name
+     * and its own command line.
+     */
+    private String createRsyncShell() {
+        List<String> shell = createExecPreamble(false);
+        shell.remove(shell.size() - 1);
+        return String.join(" ", shell);
+    }
+
+    List<String> makeCommandLine(boolean interactive) {
+        if (containerName.isEmpty()) {
+            throw new RuntimeException("No docker container configured for " +
+                node.nodeName());
+        }
+        List<String> commandLine = new ArrayList<>();
+        switch (operation) {
+            case SSH:
+                if (args == null) {
+                    throw new RuntimeException("You must supply command arguments.");
+                }
+                String shellCommandLine = Command.shellCommandLine(args);
+                if (shellCommandLine != null) {
+                    commandLine.addAll(createExecPreamble(false));
+                    commandLine.addAll(Arrays.asList("bash", "-c",
+                        CD_HOME + shellCommandLine));
+                } else if (interactive && args.isEmpty()) {
+                    commandLine.addAll(createExecPreamble(true));
+                    commandLine.addAll(Arrays.asList("bash", "-l"));
+                } else {
+                    throw new RuntimeException("Docker exec can't run commands with " +
+                        "ssh options: " + Command.joinArgs(args));
+                }
+                break;
+            case RSYNC_TO:
+                if ((local == null) || (remote == null)) {
+                    throw new RuntimeException("The local and remote paths must be non-null.");
+                }
+                commandLine.addAll(Arrays.asList("rsync", "-aqi", "--delete",
+                    "--blocking-io", "-e", createRsyncShell(),
+                    local, containerName + ":" + remote));
+                break;
+            case RSYNC_FROM:
+                if ((local == null) || (remote == null)) {
+                    throw new RuntimeException("The local and remote paths must be non-null.");
+                }
+                commandLine.addAll(Arrays.asList("rsync", "-aqi", "--delete",
+                    "--blocking-io", "-e", createRsyncShell(),
+                    containerName + ":" + remote, local));
+                break;
+            case PUT_FILE:
+                if ((remote == null) || (contents == null)) {
+                    throw new RuntimeException("The remote path and contents must be non-null.");
+                }
+                String tempPath = Command.shellQuote(Command.tempPath(remote));
+                commandLine.addAll(createExecPreamble(false));
+                commandLine.addAll(Arrays.asList("bash", "-c",
+                    CD_HOME + "cat > " + tempPath + " && mv -f " + tempPath + " " +
+                        Command.shellQuote(remote)));
+                break;
+        }
+        return commandLine;
+    }
+}
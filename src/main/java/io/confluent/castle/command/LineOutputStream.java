@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.command;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * An output stream which splits what is written to it into lines, and passes
+ * each line to a consumer.  Line terminators are not included.  Each line is
+ * decoded as a whole, so multibyte characters may be split across writes.
+ *
+ * When the stream is closed, any final line without a terminator is passed to
+ * the consumer as well.
+ */
+public class LineOutputStream extends OutputStream {
+    /**
+     * The longest line we will buffer.
+     */
+    public static final int MAX_LINE_BYTES = 1024 * 1024;
+
+    private static final int INITIAL_BUFFER_SIZE = 256;
+
+    private final Consumer<String> consumer;
+
+    private byte[] line = new byte[INITIAL_BUFFER_SIZE];
+
+    private int length = 0;
+
+    private boolean closed = false;
+
+    public LineOutputStream(Consumer<String> consumer) {
+        this.consumer = consumer;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] buf, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("The stream is closed.");
+        }
+        int start = off;
+        int end = off + len;
+        for (int i = off; i < end; i++) {
+            if (buf[i] == '\n') {
+                append(buf, start, i - start);
+                emit();
+                start = i + 1;
+            }
+        }
+        append(buf, start, end - start);
+    }
+
+    private void append(byte[] buf, int off, int len) throws IOException {
+        if (len == 0) {
+            return;
+        }
+        int newLength = length + len;
+        if (newLength > MAX_LINE_BYTES) {
+            throw new IOException("Found a line longer than " + MAX_LINE_BYTES + " bytes.");
+        }
+        if (newLength > line.length) {
+            line = Arrays.copyOf(line, Math.min(MAX_LINE_BYTES,
+                Math.max(newLength, line.length * 2)));
+        }
+        System.arraycopy(buf, off, line, length, len);
+        length = newLength;
+    }
+
+    private void emit() {
+        int end = length;
+        if ((end > 0) && (line[end - 1] == '\r')) {
+            end--;
+        }
+        consumer.accept(new String(line, 0, end, StandardCharsets.UTF_8));
+        length = 0;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (length > 0) {
+            emit();
+        }
+    }
+}
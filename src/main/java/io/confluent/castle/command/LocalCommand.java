@@ -0,0 +1,286 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.command;
+
+import io.confluent.castle.cluster.CastleNode;
+
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A command which runs on a local node.
+ *
+ * Commands are run directly, inside the node's namespaces, rather than over ssh.
+ * Files are copied and written directly, by translating the node's paths into
+ * paths on this machine.
+ */
+public class LocalCommand implements Command {
+    /**
+     * The directories which each local node has its own copy of.
+     */
+    public static final List<String> PRIVATE_DIRECTORIES =
+        Arrays.asList("/mnt", "/tmp");
+
+    /**
+     * Defined before every command.  Local nodes run as root in their own user
+     * namespace, where sudo itself doesn't work, and isn't needed.
+     */
+    private static final String SUDO_SHIM = "sudo() { \"$@\"; }; export -f sudo; ";
+
+    private final CastleNode node;
+
+    private final long pid;
+
+    private final String rootDir;
+
+    private Operation operation = Operation.SSH;
+
+    private List<String> args = null;
+
+    private String local = null;
+
+    private String remote = null;
+
+    private boolean captureStderr = false;
+
+    private StringBuilder stringBuilder = null;
+
+    private OutputStream outputStream = null;
+
+    private long outputLimit = DEFAULT_OUTPUT_LIMIT;
+
+    private byte[] stdin = null;
+
+    private byte[] contents = null;
+
+    /**
+     * Create a new local command.
+     *
+     * @param node      The node.
+     * @param pid       The process which holds the node's namespaces.
+     * @param rootDir   The directory which holds the node's private directories.
+     */
+    public LocalCommand(CastleNode node, long pid, String rootDir) {
+        this.node = node;
+        this.pid = pid;
+        this.rootDir = rootDir;
+    }
+
+    /**
+     * Translate a path on a local node into the path on this machine.
+     *
+     * @param rootDir   The directory which holds the node's private directories.
+     * @param path      The path on the node.
+     * @return          The path on this machine.
+     */
+    public static String hostPath(String rootDir, String path) {
+        for (String dir : PRIVATE_DIRECTORIES) {
+            if (path.equals(dir) || path.startsWith(dir + "/")) {
+                return rootDir + path;
+            }
+        }
+        return path;
+    }
+
+    @Override
+    public Command args(String... args) {
+        return argList(Arrays.asList(args));
+    }
+
+    @Override
+    public Command argList(List<String> args) {
+        this.operation = Operation.SSH;
+        this.args = new ArrayList<>(args);
+        this.local = null;
+        this.remote = null;
+        this.contents = null;
+        return this;
+    }
+
+    @Override
+    public Command syncTo(String local, String remote) {
+        this.operation = Operation.RSYNC_TO;
+        this.args = null;
+        this.local = local;
+        this.remote = remote;
+        this.contents = null;
+        return this;
+    }
+
+    @Override
+    public Command syncFrom(String remote, String local) {
+        this.operation = Operation.RSYNC_FROM;
+        this.args = null;
+        this.local = local;
+        this.remote = remote;
+        this.contents = null;
+        return this;
+    }
+
+    @Override
+    public Command putFile(String remote, byte[] contents) {
+        this.operation = Operation.PUT_FILE;
+        this.args = null;
+        this.local = null;
+        this.remote = remote;
+        this.contents = Arrays.copyOf(contents, contents.length);
+        return this;
+    }
+
+    @Override
+    public Command captureOutput(StringBuilder stringBuilder) {
+        this.stringBuilder = stringBuilder;
+        return this;
+    }
+
+    @Override
+    public Command streamOutput(OutputStream outputStream) {
+        this.outputStream = outputStream;
+        return this;
+    }
+
+    @Override
+    public Command setOutputLimit(long outputLimit) {
+        this.outputLimit = outputLimit;
+        return this;
+    }
+
+    @Override
+    public Command setCaptureStderr(boolean captureStderr) {
+        this.captureStderr = captureStderr;
+        return this;
+    }
+
+    @Override
+    public Command setStdin(byte[] stdin) {
+        if (stdin == null) {
+            this.stdin = null;
+        } else {
+            this.stdin = Arrays.copyOf(stdin, stdin.length);
+        }
+        return this;
+    }
+
+    @Override
+    public int run() throws Exception {
+        if (operation == Operation.PUT_FILE) {
+            return writeFile();
+        }
+        return new NodeShellRunner(node, makeCommandLine(false)).
+            setCaptureOutput(stringBuilder).
+            setCaptureStderr(captureStderr).
+            setOutputStream(outputStream).
+            setOutputLimit(outputLimit).
+            setStdin(stdin).
+            run();
+    }
+
+    @Override
+    public void mustRun() throws Exception {
+        int returnCode = run();
+        if (returnCode != 0) {
+            throw new CommandResultException(describe(), returnCode);
+        }
+    }
+
+    @Override
+    public void exec() throws Exception {
+        new NodeShellRunner(node, makeCommandLine(true)).
+            setStdin(stdin).
+            exec();
+    }
+
+    private int writeFile() throws Exception {
+        if ((remote == null) || (contents == null)) {
+            throw new RuntimeException("The remote path and contents must be non-null.");
+        }
+        long startNs = System.nanoTime();
+        Path path = Paths.get(hostPath(rootDir, remote));
+        Path tempPath = Paths.get(hostPath(rootDir, Command.tempPath(remote)));
+        try {
+            Files.write(tempPath, contents);
+            Files.move(tempPath, path, StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tempPath);
+        }
+        node.commandStats().record(0);
+        node.eventLog().command(node.nodeName(), Command.joinArgs(describe()),
+            startNs, System.nanoTime(), 0, 0);
+        node.log().printf("** %s: WROTE (local) %d bytes to %s%n",
+            node.nodeName(), contents.length, remote);
+        return 0;
+    }
+
+    private List<String> makeCommandLine(boolean interactive) {
+        List<String> commandLine = new ArrayList<>();
+        switch (operation) {
+            case SSH:
+                if (args == null) {
+                    throw new RuntimeException("You must supply command arguments.");
+                }
+                if (pid <= 0) {
+                    throw new RuntimeException("The local node " + node.nodeName() +
+                        " is not running.");
+                }
+                String shellCommandLine = Command.shellCommandLine(args);
+                commandLine.addAll(Arrays.asList("nsenter",
+                    "--target", Long.toString(pid),
+                    "--user", "--mount", "--pid", "--wd=/tmp", "--",
+                    "bash"));
+                if (shellCommandLine != null) {
+                    commandLine.add("-c");
+                    commandLine.add(SUDO_SHIM + shellCommandLine);
+                } else if (!(interactive && args.isEmpty())) {
+                    throw new RuntimeException("Local nodes can't run commands with " +
+                        "ssh options: " + Command.joinArgs(args));
+                }
+                break;
+            case RSYNC_TO:
+                if ((local == null) || (remote == null)) {
+                    throw new RuntimeException("The local and remote paths must be non-null.");
+                }
+                commandLine.addAll(Arrays.asList("rsync", "-aqi", "--delete",
+                    local, hostPath(rootDir, remote)));
+                break;
+            case RSYNC_FROM:
+                if ((local == null) || (remote == null)) {
+                    throw new RuntimeException("The local and remote paths must be non-null.");
+                }
+                commandLine.addAll(Arrays.asList("rsync", "-aqi", "--delete",
+                    hostPath(rootDir, remote), local));
+                break;
+            case PUT_FILE:
+                throw new RuntimeException("Files are written directly on local nodes.");
+        }
+        return commandLine;
+    }
+
+    private List<String> describe() {
+        if (operation == Operation.PUT_FILE) {
+            return Arrays.asList("put", remote);
+        }
+        return makeCommandLine(false);
+    }
+}
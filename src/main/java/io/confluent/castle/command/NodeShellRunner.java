@@ -19,101 +19,28 @@ package io.confluent.castle.command;
 
 import io.confluent.castle.cluster.CastleNode;
 import io.confluent.castle.common.CastleLog;
+import io.confluent.castle.common.CastleUtil;
 
-import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Runs a shell command for a node and captures the output to a log file, and
- * possibly a stringbuilder.
+ * possibly a stringbuilder or an output stream.  The output is copied by the
+ * shared OutputPump, so running a command doesn't start any threads.  If the
+ * command has stdin, it is written from a shared pool of threads, so that the
+ * calling thread stays responsive to interrupts while the process reads it.
  */
 public class NodeShellRunner {
-    private static final int OUTPUT_REDIRECTOR_BUFFER_SIZE = 32768;
-
-    /**
-     * A thread which reads the stdout from the process we're running.
-     */
-    private static final class OutputHandler implements Runnable {
-        private final InputStream stream;
-        private final List<StringBuilder> stringBuilders;
-        private final CastleLog castleLog;
-        private final boolean newlineTerminate;
-
-        OutputHandler(InputStream stream, List<StringBuilder> stringBuilders,
-                      CastleLog castleLog, boolean newlineTerminate) {
-            this.stream = stream;
-            this.stringBuilders = stringBuilders;
-            this.castleLog = castleLog;
-            this.newlineTerminate = newlineTerminate;
-        }
-
-        @Override
-        public void run() {
-            byte[] arr = new byte[OUTPUT_REDIRECTOR_BUFFER_SIZE];
-            boolean endedWithNewline = true;
-            try {
-                while (true) {
-                    int ret = stream.read(arr, 0, arr.length - 1);
-                    if (ret == -1) {
-                        break;
-                    }
-                    for (StringBuilder stringBuilder : stringBuilders) {
-                        synchronized (stringBuilder) {
-                            stringBuilder.append(new String(arr, 0, ret, StandardCharsets.UTF_8));
-                        }
-                    }
-                    if (castleLog != null) {
-                        synchronized (castleLog) {
-                            castleLog.write(arr, 0, ret);
-                        }
-                        if (ret >= 0) {
-                            endedWithNewline = (arr[ret] == '\n');
-                        }
-                    }
-                }
-                if (newlineTerminate && (!endedWithNewline)) {
-                    synchronized (castleLog) {
-                        castleLog.write(new byte[] {'\n'});
-                    }
-                }
-            } catch (EOFException e) {
-            } catch (IOException e) {
-                castleLog.printf("OutputHandler IOException: %s%n", e.getMessage());
-            }
-        }
-    }
-
-    /**
-     * A thread which writes to a process' stdin.
-     */
-    private static final class StdinHandler implements Runnable {
-        private final byte[] data;
-        private final OutputStream stream;
-        private final CastleLog castleLog;
-
-        StdinHandler(OutputStream stream, byte[] data, CastleLog castleLog) {
-            this.data = data;
-            this.stream = stream;
-            this.castleLog = castleLog;
-        }
-
-        @Override
-        public void run() {
-            try {
-                stream.write(data);
-                stream.close();
-            } catch (EOFException e) {
-            } catch (IOException e) {
-                castleLog.printf("StdinHandler IOException: %s%n", e.getMessage());
-            }
-        }
-    }
+    private static final ExecutorService STDIN_WRITERS = Executors.newCachedThreadPool(
+        CastleUtil.createThreadFactory("CastleStdinWriter%d", true));
 
     private final CastleNode node;
 
@@ -125,8 +52,14 @@ public class NodeShellRunner {
 
     private boolean logOutputOnSuccess = true;
 
+    private boolean recordStats = true;
+
     private byte[] stdin = null;
 
+    private OutputStream outputStream = null;
+
+    private long outputLimit = Command.DEFAULT_OUTPUT_LIMIT;
+
     public NodeShellRunner(CastleNode node, List<String> commandLine) {
         this.node = node;
         this.commandLine = commandLine;
@@ -142,11 +75,31 @@ public class NodeShellRunner {
         return this;
     }
 
+    public NodeShellRunner setOutputStream(OutputStream outputStream) {
+        this.outputStream = outputStream;
+        return this;
+    }
+
+    public NodeShellRunner setOutputLimit(long outputLimit) {
+        this.outputLimit = outputLimit;
+        return this;
+    }
+
     public NodeShellRunner setLogOutputOnSuccess(boolean logOutputOnSuccess) {
         this.logOutputOnSuccess = logOutputOnSuccess;
         return this;
     }
 
+    /**
+     * Set whether the node's CommandStats count this command.  Probes which are
+     * expected to fail, such as checking whether a new instance accepts ssh yet,
+     * should not be counted, since they would look like connection failures.
+     */
+    public NodeShellRunner setRecordStats(boolean recordStats) {
+        this.recordStats = recordStats;
+        return this;
+    }
+
     public NodeShellRunner setStdin(byte[] stdin) {
         if (stdin == null) {
             this.stdin = null;
@@ -169,62 +122,106 @@ public class NodeShellRunner {
                 stderrBuilders.add(captureOutput);
             }
         }
-        OutputHandler stdoutHandler = null, stderrHandler = null;
-        StdinHandler stdinHandler = null;
         StringBuilder errorStringBuilder = null;
-        Thread stdoutThread = null, stderrThread = null, stdinThread = null;
+        if (!logOutputOnSuccess) {
+            errorStringBuilder = new StringBuilder();
+            stdoutBuilders.add(errorStringBuilder);
+            stderrBuilders.add(errorStringBuilder);
+        }
+        OutputCapture capture = new OutputCapture(stdoutBuilders, stderrBuilders,
+            outputStream, outputLimit);
+        CompletableFuture<Void> stdoutFuture = null, stderrFuture = null;
+        Future<?> stdinFuture = null;
         Process process = null;
+        long startNs = System.nanoTime();
         try {
             node.log().printf("** %s: RUNNING %s%n", node.nodeName(), Command.joinArgs(commandLine));
             process = builder.start();
-            if (stdin != null) {
-                stdinHandler = new StdinHandler(process.getOutputStream(), stdin, node.log());
-                stdinThread = new Thread(stdinHandler, "CastleSshStdin_" + node.nodeName());
-                stdinThread.start();
-            }
+            OutputPump pump = OutputPump.instance();
             if (logOutputOnSuccess) {
-                stdoutHandler = new OutputHandler(process.getInputStream(), stdoutBuilders, node.log(), true);
-                stderrHandler = new OutputHandler(process.getErrorStream(), stderrBuilders, node.log(), false);
+                stdoutFuture = pump.pump(process.getInputStream(), process,
+                    capture.stdout(), node.log(), true);
+                stderrFuture = pump.pump(process.getErrorStream(), process,
+                    capture.stderr(), node.log(), false);
             } else {
-                errorStringBuilder = new StringBuilder();
-                stdoutBuilders.add(errorStringBuilder);
-                stderrBuilders.add(errorStringBuilder);
-                stdoutHandler = new OutputHandler(process.getInputStream(), stdoutBuilders, null, false);
-                stderrHandler = new OutputHandler(process.getErrorStream(), stderrBuilders, null, false);
+                stdoutFuture = pump.pump(process.getInputStream(), process,
+                    capture.stdout(), null, false);
+                stderrFuture = pump.pump(process.getErrorStream(), process,
+                    capture.stderr(), null, false);
+            }
+            if (stdin != null) {
+                // The pump threads drain the output while we write, so the process
+                // can't get stuck waiting for us to read.  If we are interrupted,
+                // killing the process makes a blocked write fail.
+                stdinFuture = STDIN_WRITERS.submit(
+                    writeStdin(process.getOutputStream(), stdin));
             }
-            stdoutThread = new Thread(stdoutHandler, "CastleSshStdout_" + node.nodeName());
-            stdoutThread.start();
-            stderrThread = new Thread(stderrHandler, "CastleSshStderr_" + node.nodeName());
-            stderrThread.start();
             retCode = process.waitFor();
-            stdoutThread.join();
-            stderrThread.join();
-            if (stdinThread != null) {
-                stdinThread.join();
+            if (recordStats) {
+                node.commandStats().record(retCode);
             }
-            node.log().printf("** %s: FINISHED %s with RESULT %d%n",
-                node.nodeName(), Command.joinArgs(commandLine), retCode);
-        } finally {
+        } catch (InterruptedException e) {
+            // The action was cancelled.  Kill the process right away rather than
+            // asking it to exit, since it may be in the middle of a long transfer.
+            node.log().printf("** %s: INTERRUPTED %s%n",
+                node.nodeName(), Command.joinArgs(commandLine));
+            node.eventLog().command(node.nodeName(), Command.joinArgs(commandLine),
+                startNs, System.nanoTime(), null, 0);
             if (process != null) {
-                process.destroy();
-                process.waitFor();
-            }
-            if (stdoutThread != null) {
-                stdoutThread.join();
+                process.destroyForcibly();
             }
-            if (stderrThread != null) {
-                stderrThread.join();
-            }
-            if (stdinThread != null) {
-                stdinThread.join();
+            throw e;
+        } finally {
+            try {
+                if (process != null) {
+                    // Destroying the process closes its pipes, so only do it now
+                    // if it is still running.  Otherwise the pump would lose the
+                    // output which is still in the pipes.
+                    if (process.isAlive()) {
+                        process.destroy();
+                    }
+                    process.waitFor();
+                    OutputPump.instance().processExited();
+                }
+                if (stdinFuture != null) {
+                    stdinFuture.cancel(true);
+                }
+                if (stdoutFuture != null) {
+                    stdoutFuture.get();
+                }
+                if (stderrFuture != null) {
+                    stderrFuture.get();
+                }
+                if (process != null) {
+                    // Close stdin, if the writer didn't.
+                    process.destroy();
+                }
+            } finally {
+                capture.endOfOutput();
             }
             if ((errorStringBuilder != null) && (retCode != 0)) {
                 node.log().print(errorStringBuilder.toString());
             }
         }
+        node.eventLog().command(node.nodeName(), Command.joinArgs(commandLine),
+            startNs, System.nanoTime(), retCode, capture.totalBytes());
+        node.log().printf("** %s: FINISHED %s with RESULT %d%n",
+            node.nodeName(), Command.joinArgs(commandLine), retCode);
+        capture.finish();
         return retCode;
     }
 
+    private Runnable writeStdin(OutputStream stream, byte[] bytes) {
+        return () -> {
+            try (OutputStream out = stream) {
+                out.write(bytes);
+            } catch (IOException e) {
+                node.log().printf("** %s: unable to write stdin: %s%n",
+                    node.nodeName(), e.getMessage());
+            }
+        };
+    }
+
     public void mustRun() throws Exception {
         int returnCode = run();
         if (returnCode != 0) {
@@ -0,0 +1,374 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.command;
+
+import io.confluent.castle.common.CastleUtil;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Delivers the output of a command to the buffers and the stream which capture
+ * it.  Only output which is appended to a buffer counts against the limit.
+ * Output which is only streamed or logged doesn't, since it never accumulates
+ * in memory.
+ *
+ * Once the limit is exceeded, or the stream fails, nothing more is captured, and
+ * finish() throws an exception describing the problem.
+ *
+ * The stream belongs to the caller, and may be slow or may block.  So that it
+ * can't hold up the shared threads which read the output, such as the
+ * OutputPump threads, the output is handed to a bounded queue, and a separate
+ * thread copies it from there to the stream.  When the queue is full, the pump
+ * stops reading the pipe until there is room, which stalls only this command.
+ */
+final class OutputCapture {
+    /**
+     * The longest UTF-8 sequence which may be left over from one write to the next.
+     */
+    static final int MAX_LEFTOVER = 4;
+
+    /**
+     * The number of bytes which may wait for the stream before we stop reading.
+     */
+    static final int MAX_QUEUED_BYTES = 1024 * 1024;
+
+    private static final ExecutorService STREAM_WRITERS = Executors.newCachedThreadPool(
+        CastleUtil.createThreadFactory("CastleOutputStreamWriter%d", true));
+
+    /**
+     * Copies queued output to the caller's stream, and then closes it.
+     */
+    private final class StreamWriter implements Runnable {
+        private final ArrayDeque<byte[]> chunks = new ArrayDeque<>();
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private int queuedBytes = 0;
+        private boolean ended = false;
+
+        synchronized boolean ready() {
+            return queuedBytes < MAX_QUEUED_BYTES;
+        }
+
+        /**
+         * Queue some output.  If the queue is full, this waits for room, so
+         * callers which can't afford to wait should check ready() first.
+         */
+        synchronized void add(byte[] buf, int off, int len) throws InterruptedException {
+            while ((queuedBytes >= MAX_QUEUED_BYTES) && !done.isDone()) {
+                wait();
+            }
+            if (done.isDone()) {
+                return;
+            }
+            chunks.add(Arrays.copyOfRange(buf, off, off + len));
+            queuedBytes += len;
+            notifyAll();
+        }
+
+        synchronized void end() {
+            ended = true;
+            notifyAll();
+        }
+
+        private synchronized byte[] take() throws InterruptedException {
+            while (chunks.isEmpty() && !ended) {
+                wait();
+            }
+            byte[] chunk = chunks.poll();
+            if (chunk != null) {
+                queuedBytes -= chunk.length;
+                notifyAll();
+            }
+            return chunk;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    byte[] chunk = take();
+                    if (chunk == null) {
+                        break;
+                    }
+                    // After a failure, keep draining, so the pump isn't stalled.
+                    if (!failed()) {
+                        try {
+                            outputStream.write(chunk);
+                        } catch (IOException | RuntimeException e) {
+                            fail(e);
+                        }
+                    }
+                }
+                try {
+                    outputStream.close();
+                } catch (IOException | RuntimeException e) {
+                    fail(e);
+                }
+            } catch (InterruptedException e) {
+                fail(e);
+            } finally {
+                synchronized (this) {
+                    done.complete(null);
+                    chunks.clear();
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Receives the output of one pipe.
+     */
+    final class Sink {
+        private final List<StringBuilder> stringBuilders;
+        private final StreamWriter streamWriter;
+        private final CharsetDecoder decoder;
+        private final byte[] leftover = new byte[MAX_LEFTOVER];
+        private int leftoverLength = 0;
+        private long totalBytes = 0;
+
+        Sink(List<StringBuilder> stringBuilders, StreamWriter streamWriter) {
+            this.stringBuilders = new ArrayList<>(stringBuilders);
+            this.streamWriter = streamWriter;
+            this.decoder = stringBuilders.isEmpty() ? null :
+                StandardCharsets.UTF_8.newDecoder().
+                    onMalformedInput(CodingErrorAction.REPLACE).
+                    onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+
+        boolean isEmpty() {
+            return stringBuilders.isEmpty() && (streamWriter == null);
+        }
+
+        /**
+         * Return true if write() can be called without waiting for the caller's
+         * stream to catch up.
+         */
+        boolean ready() {
+            return (streamWriter == null) || streamWriter.ready();
+        }
+
+        /**
+         * Capture some output.
+         *
+         * If there are bytes left over from the previous write, and there are at
+         * least MAX_LEFTOVER bytes in the buffer before the offset, they will be
+         * copied there rather than into a new buffer.
+         *
+         * @param buf           The buffer.
+         * @param off           The offset of the output in the buffer.
+         * @param len           The length of the output.
+         * @param charBuffer    A buffer to decode into.
+         *
+         * @throws InterruptedException     If we were interrupted while waiting
+         *                                  for room in the stream's queue.
+         */
+        void write(byte[] buf, int off, int len, CharBuffer charBuffer)
+                throws InterruptedException {
+            totalBytes += len;
+            if (isEmpty() || failed()) {
+                return;
+            }
+            if (streamWriter != null) {
+                streamWriter.add(buf, off, len);
+            }
+            if ((decoder == null) || !reserve(len)) {
+                return;
+            }
+            ByteBuffer in;
+            if (leftoverLength == 0) {
+                in = ByteBuffer.wrap(buf, off, len);
+            } else if (off >= MAX_LEFTOVER) {
+                System.arraycopy(leftover, 0, buf, off - leftoverLength, leftoverLength);
+                in = ByteBuffer.wrap(buf, off - leftoverLength, leftoverLength + len);
+            } else {
+                byte[] joined = new byte[leftoverLength + len];
+                System.arraycopy(leftover, 0, joined, 0, leftoverLength);
+                System.arraycopy(buf, off, joined, leftoverLength, len);
+                in = ByteBuffer.wrap(joined);
+            }
+            decode(in, charBuffer, false);
+            leftoverLength = in.remaining();
+            in.get(leftover, 0, leftoverLength);
+        }
+
+        /**
+         * Finish capturing the output of this pipe.  Any bytes left over are
+         * decoded as replacement characters.
+         */
+        void finish(CharBuffer charBuffer) {
+            if ((decoder == null) || (leftoverLength == 0)) {
+                return;
+            }
+            decode(ByteBuffer.wrap(leftover, 0, leftoverLength), charBuffer, true);
+            leftoverLength = 0;
+        }
+
+        private void decode(ByteBuffer in, CharBuffer charBuffer, boolean endOfInput) {
+            while (true) {
+                charBuffer.clear();
+                CoderResult result = decoder.decode(in, charBuffer, endOfInput);
+                if (endOfInput && result.isUnderflow()) {
+                    result = decoder.flush(charBuffer);
+                }
+                append(charBuffer);
+                if (!result.isOverflow()) {
+                    return;
+                }
+            }
+        }
+
+        private void append(CharBuffer charBuffer) {
+            charBuffer.flip();
+            if (!charBuffer.hasRemaining()) {
+                return;
+            }
+            for (StringBuilder stringBuilder : stringBuilders) {
+                synchronized (stringBuilder) {
+                    stringBuilder.append(charBuffer);
+                }
+            }
+        }
+    }
+
+    private final OutputStream outputStream;
+
+    private final StreamWriter streamWriter;
+
+    private final long limit;
+
+    private final Sink stdout;
+
+    private final Sink stderr;
+
+    private long captured = 0;
+
+    private RuntimeException failure = null;
+
+    /**
+     * Create a new output capture.
+     *
+     * @param stdoutBuilders    The buffers to append standard output to.
+     * @param stderrBuilders    The buffers to append standard error to.
+     * @param outputStream      The stream to copy standard output to, or null.
+     * @param limit             The maximum number of bytes to capture.
+     */
+    OutputCapture(List<StringBuilder> stdoutBuilders, List<StringBuilder> stderrBuilders,
+                  OutputStream outputStream, long limit) {
+        this.outputStream = outputStream;
+        this.limit = limit;
+        if (outputStream == null) {
+            this.streamWriter = null;
+        } else {
+            this.streamWriter = new StreamWriter();
+            STREAM_WRITERS.execute(streamWriter);
+        }
+        this.stdout = new Sink(stdoutBuilders, streamWriter);
+        this.stderr = new Sink(stderrBuilders, null);
+    }
+
+    Sink stdout() {
+        return stdout;
+    }
+
+    Sink stderr() {
+        return stderr;
+    }
+
+    /**
+     * The number of bytes of output which both pipes produced, whether or not
+     * they were captured.  This must be called after both pipes have been
+     * finished.
+     */
+    long totalBytes() {
+        return stdout.totalBytes + stderr.totalBytes;
+    }
+
+    private synchronized boolean reserve(int len) {
+        if (failure != null) {
+            return false;
+        }
+        captured += len;
+        if (captured > limit) {
+            failure = new RuntimeException(String.format("The command output exceeded " +
+                "the capture limit of %d bytes.", limit));
+            return false;
+        }
+        return true;
+    }
+
+    private synchronized boolean failed() {
+        return failure != null;
+    }
+
+    private synchronized void fail(Exception e) {
+        if (failure == null) {
+            failure = new RuntimeException("Failed to process the command output: " +
+                e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Tell the stream writer that there is no more output, so that it closes the
+     * stream once it has written what is queued.  This must be called once the
+     * pipes have been finished, even if the command failed, so that the writer
+     * doesn't wait forever.  It may be called more than once.
+     */
+    void endOfOutput() {
+        if (streamWriter != null) {
+            streamWriter.end();
+        }
+    }
+
+    /**
+     * Finish capturing, and wait for the output stream to be written and closed.
+     * This must be called after both pipes have been finished.
+     *
+     * @throws RuntimeException     If the capture limit was exceeded, or the
+     *                              output stream failed.
+     */
+    void finish() throws InterruptedException {
+        endOfOutput();
+        if (streamWriter != null) {
+            try {
+                streamWriter.done.get();
+            } catch (ExecutionException e) {
+                fail(e);
+            }
+        }
+        synchronized (this) {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.command;
+
+import io.confluent.castle.common.CastleLog;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Copies the output of child processes to their logs and capture buffers.
+ *
+ * Rather than starting threads for each process, a few shared pump threads
+ * service all of the output pipes.  The JDK doesn't let us select on process
+ * pipes, so each pump thread polls its pipes with available(), and only reads
+ * when that won't block.  When all of its pipes are idle, it parks for up to a
+ * few milliseconds at a time.  New pipes and exited processes wake it up right
+ * away, so the backoff only delays output from processes which are still
+ * running, never the completion of a command.
+ *
+ * Each pump thread has a single read buffer and a single character buffer which
+ * it reuses for every pipe it services.  The output is handed to an
+ * OutputCapture sink, which decodes it incrementally, so a character split
+ * across two reads is not garbled.  The sink never runs the caller's output
+ * stream on a pump thread.  If the stream falls behind, we leave that command's
+ * output in its pipe until it catches up.
+ *
+ * Once a process has exited, everything it wrote is already in the pipe, so we
+ * read only what available() reports and then close the pipe.  We never make a
+ * read which could block: if the process handed its output pipe to a background
+ * process which is still running, that process' later output is dropped rather
+ * than stalling every other pipe serviced by the same pump thread.
+ */
+final class OutputPump {
+    private static final int BUFFER_SIZE = 32768;
+
+    private static final long MAX_IDLE_PARK_NS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private static final long MIN_IDLE_PARK_NS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private static final int NUM_THREADS =
+        Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() / 2));
+
+    private static final OutputPump INSTANCE = new OutputPump(NUM_THREADS);
+
+    /**
+     * Get the shared output pump.
+     */
+    static OutputPump instance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Copies one pipe.  Only accessed by the pump thread which owns it.
+     */
+    private static final class Task {
+        private final InputStream stream;
+        private final Process process;
+        private final OutputCapture.Sink sink;
+        private final CastleLog castleLog;
+        private final boolean newlineTerminate;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        private boolean endedWithNewline = true;
+
+        Task(InputStream stream, Process process, OutputCapture.Sink sink,
+             CastleLog castleLog, boolean newlineTerminate) {
+            this.stream = stream;
+            this.process = process;
+            this.sink = sink;
+            this.castleLog = castleLog;
+            this.newlineTerminate = newlineTerminate;
+        }
+
+        /**
+         * Copy whatever output is available without blocking.
+         *
+         * @return  True if we made progress.
+         */
+        boolean poll(byte[] buffer, CharBuffer charBuffer) {
+            if (!sink.ready()) {
+                // The caller's stream is behind.  Leave the output in the pipe
+                // until it catches up.
+                return false;
+            }
+            try {
+                // Check whether the process has exited before checking for data,
+                // so that we can't miss output written just before it exited.
+                boolean alive = process.isAlive();
+                int available = stream.available();
+                if (available <= 0) {
+                    if (alive) {
+                        return false;
+                    }
+                    finish(charBuffer);
+                    return true;
+                }
+                // We read after the space which the sink uses to decode characters
+                // split across reads.
+                int ret = stream.read(buffer, OutputCapture.MAX_LEFTOVER,
+                    Math.min(available, BUFFER_SIZE));
+                if (ret == -1) {
+                    finish(charBuffer);
+                    return true;
+                }
+                if (ret > 0) {
+                    handle(buffer, OutputCapture.MAX_LEFTOVER, ret, charBuffer);
+                }
+            } catch (IOException e) {
+                if (castleLog != null) {
+                    castleLog.printf("OutputPump IOException: %s%n", e.getMessage());
+                }
+                finish(charBuffer);
+            } catch (InterruptedException e) {
+                // The sink had room, so it should not have waited.
+                Thread.currentThread().interrupt();
+                finish(charBuffer);
+            }
+            return true;
+        }
+
+        private void handle(byte[] buffer, int offset, int length, CharBuffer charBuffer)
+                throws IOException, InterruptedException {
+            if (castleLog != null) {
+                castleLog.write(buffer, offset, length);
+            }
+            endedWithNewline = buffer[offset + length - 1] == '\n';
+            sink.write(buffer, offset, length, charBuffer);
+        }
+
+        private void finish(CharBuffer charBuffer) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                // Ignore.
+            }
+            sink.finish(charBuffer);
+            if (newlineTerminate && (!endedWithNewline) && (castleLog != null)) {
+                try {
+                    castleLog.write(new byte[] {'\n'});
+                } catch (IOException e) {
+                    // Nowhere to log to.
+                }
+            }
+            future.complete(null);
+        }
+    }
+
+    /**
+     * A thread which services some of the pipes.
+     */
+    private static final class PumpThread extends Thread {
+        private final LinkedBlockingQueue<Task> incoming = new LinkedBlockingQueue<>();
+        private final byte[] buffer = new byte[OutputCapture.MAX_LEFTOVER + BUFFER_SIZE];
+        private final CharBuffer charBuffer = CharBuffer.allocate(OutputCapture.MAX_LEFTOVER + BUFFER_SIZE);
+        private final List<Task> tasks = new ArrayList<>();
+
+        /**
+         * Set when there may be work to do, so that we poll again before parking.
+         */
+        private volatile boolean woken = false;
+
+        PumpThread(int index) {
+            super("CastleOutputPump" + index);
+            setDaemon(true);
+        }
+
+        void wake() {
+            woken = true;
+            LockSupport.unpark(this);
+        }
+
+        @Override
+        public void run() {
+            long idleParkNs = 0;
+            try {
+                while (true) {
+                    if (tasks.isEmpty()) {
+                        tasks.add(incoming.take());
+                        idleParkNs = 0;
+                    }
+                    incoming.drainTo(tasks);
+                    boolean progress = false;
+                    for (Iterator<Task> iter = tasks.iterator(); iter.hasNext(); ) {
+                        Task task = iter.next();
+                        if (task.poll(buffer, charBuffer)) {
+                            progress = true;
+                        }
+                        if (task.future.isDone()) {
+                            iter.remove();
+                        }
+                    }
+                    if (progress || woken) {
+                        woken = false;
+                        idleParkNs = 0;
+                    } else {
+                        idleParkNs = Math.min(MAX_IDLE_PARK_NS,
+                            Math.max(MIN_IDLE_PARK_NS, idleParkNs * 2));
+                        // pump() and processExited() unpark us, so we don't wait
+                        // out the backoff when there is work to do.
+                        LockSupport.parkNanos(this, idleParkNs);
+                        if (Thread.interrupted()) {
+                            throw new InterruptedException();
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                for (Task task : tasks) {
+                    task.future.completeExceptionally(e);
+                }
+            }
+        }
+    }
+
+    private final PumpThread[] threads;
+
+    private final AtomicInteger nextThread = new AtomicInteger(0);
+
+    private OutputPump(int numThreads) {
+        this.threads = new PumpThread[numThreads];
+        for (int i = 0; i < numThreads; i++) {
+            threads[i] = new PumpThread(i);
+            threads[i].start();
+        }
+    }
+
+    /**
+     * Start copying a process' output pipe.
+     *
+     * @param stream            The pipe.
+     * @param process           The process which writes to the pipe.
+     * @param sink              The sink which captures the output.
+     * @param castleLog         The log to copy the output to, or null.
+     * @param newlineTerminate  True if we should end the log output with a newline.
+     *
+     * @return                  A future which is completed when the pipe reaches
+     *                          end-of-file.
+     */
+    CompletableFuture<Void> pump(InputStream stream, Process process, OutputCapture.Sink sink,
+                                 CastleLog castleLog, boolean newlineTerminate) {
+        Task task = new Task(stream, process, sink, castleLog, newlineTerminate);
+        int index = Math.floorMod(nextThread.getAndIncrement(), threads.length);
+        threads[index].incoming.add(task);
+        threads[index].wake();
+        return task.future;
+    }
+
+    /**
+     * Tell the pump that a process has exited, so that it copies the rest of the
+     * process' output and completes its futures right away, rather than when it
+     * next polls.
+     */
+    void processExited() {
+        for (PumpThread thread : threads) {
+            thread.wake();
+        }
+    }
+}
@@ -20,6 +20,7 @@ package io.confluent.castle.command;
 import io.confluent.castle.cluster.CastleNode;
 import io.confluent.castle.common.CastleUtil;
 
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -50,14 +51,52 @@ public class SshCommand implements Command {
 
     private StringBuilder stringBuilder = null;
 
+    private OutputStream outputStream = null;
+
+    private long outputLimit = DEFAULT_OUTPUT_LIMIT;
+
     private byte[] stdin = null;
 
+    private byte[] contents = null;
+
+    private boolean recordStats = true;
+
+    /**
+     * The pool of master connections to share, or null to always connect directly.
+     */
+    private final SshConnectionPool connectionPool;
+
+    /**
+     * True if the last command line we made used a shared master connection.
+     */
+    private boolean sharedConnection = false;
+
     public SshCommand(CastleNode node, String dns, String sshUser, int sshPort, String sshIdentityFile) {
+        this(node, dns, sshUser, sshPort, sshIdentityFile, null);
+    }
+
+    public SshCommand(CastleNode node, String dns, String sshUser, int sshPort,
+                      String sshIdentityFile, SshConnectionPool connectionPool) {
         this.node = node;
         this.dns = dns;
         this.sshUser = sshUser;
         this.sshPort = sshPort;
         this.sshIdentityFile = sshIdentityFile;
+        this.connectionPool = connectionPool;
+    }
+
+    /**
+     * The address which we ssh to.
+     */
+    public String dns() {
+        return dns;
+    }
+
+    /**
+     * Identifies the ssh destination, including the user and port.
+     */
+    public String destination() {
+        return sshUser + "@" + dns + ":" + sshPort;
     }
 
     @Override
@@ -71,6 +110,7 @@ public class SshCommand implements Command {
         this.args = new ArrayList<>(args);
         this.local = null;
         this.remote = null;
+        this.contents = null;
         return this;
     }
 
@@ -80,6 +120,7 @@ public class SshCommand implements Command {
         this.args = null;
         this.local = local;
         this.remote = remote;
+        this.contents = null;
         return this;
     }
 
@@ -89,6 +130,17 @@ public class SshCommand implements Command {
         this.args = null;
         this.local = local;
         this.remote = remote;
+        this.contents = null;
+        return this;
+    }
+
+    @Override
+    public Command putFile(String remote, byte[] contents) {
+        this.operation = Operation.PUT_FILE;
+        this.args = null;
+        this.local = null;
+        this.remote = remote;
+        this.contents = Arrays.copyOf(contents, contents.length);
         return this;
     }
 
@@ -98,6 +150,18 @@ public class SshCommand implements Command {
         return this;
     }
 
+    @Override
+    public Command streamOutput(OutputStream outputStream) {
+        this.outputStream = outputStream;
+        return this;
+    }
+
+    @Override
+    public Command setOutputLimit(long outputLimit) {
+        this.outputLimit = outputLimit;
+        return this;
+    }
+
     @Override
     public Command setCaptureStderr(boolean captureStderr) {
         this.captureStderr = captureStderr;
@@ -114,34 +178,74 @@ public class SshCommand implements Command {
         return this;
     }
 
+    /**
+     * Set whether the node's CommandStats count this command.
+     */
+    public SshCommand setRecordStats(boolean recordStats) {
+        this.recordStats = recordStats;
+        return this;
+    }
+
     @Override
     public int run() throws Exception {
-        return new NodeShellRunner(node, makeCommandLine()).
+        int returnCode = new NodeShellRunner(node, makeCommandLine(true)).
             setCaptureOutput(stringBuilder).
             setCaptureStderr(captureStderr).
-            setStdin(stdin).
+            setOutputStream(outputStream).
+            setOutputLimit(outputLimit).
+            setStdin(stdinBytes()).
+            setRecordStats(recordStats).
             run();
+        maybeInvalidateConnection(returnCode);
+        return returnCode;
     }
 
     @Override
     public void mustRun() throws Exception {
-        new NodeShellRunner(node, makeCommandLine()).
-            setCaptureOutput(stringBuilder).
-            setCaptureStderr(captureStderr).
-            setStdin(stdin).
-            mustRun();
+        try {
+            new NodeShellRunner(node, makeCommandLine(true)).
+                setCaptureOutput(stringBuilder).
+                setCaptureStderr(captureStderr).
+                setOutputStream(outputStream).
+                setOutputLimit(outputLimit).
+                setStdin(stdinBytes()).
+                setRecordStats(recordStats).
+                mustRun();
+        } catch (CommandResultException e) {
+            maybeInvalidateConnection(e.returnCode());
+            throw e;
+        }
+    }
+
+    /**
+     * Get the bytes to send to stdin.  When writing a file, this is the contents.
+     */
+    private byte[] stdinBytes() {
+        return (operation == Operation.PUT_FILE) ? contents : stdin;
+    }
+
+    /**
+     * If ssh could not reach the node over a shared master connection, close the
+     * master, in case it is the problem.
+     */
+    private void maybeInvalidateConnection(int returnCode) {
+        if (sharedConnection && returnCode == CommandStats.SSH_CONNECTION_FAILURE) {
+            connectionPool.invalidate(node.nodeName());
+        }
     }
 
     @Override
     public void exec() throws Exception {
-        new NodeShellRunner(node, makeCommandLine()).
+        // Don't share a master connection, since exec exits without closing it.
+        new NodeShellRunner(node, makeCommandLine(false)).
             setCaptureOutput(stringBuilder).
             setCaptureStderr(captureStderr).
-            setStdin(stdin).
+            setStdin(stdinBytes()).
             exec();
     }
 
-    private List<String> makeCommandLine() {
+    private List<String> makeCommandLine(boolean shareConnection)
+            throws InterruptedException {
         List<String> commandLine = new ArrayList<>();
         if (dns.isEmpty()) {
             throw new RuntimeException("No DNS address configured for " + node.nodeName());
@@ -151,7 +255,7 @@ public class SshCommand implements Command {
                 if (args == null) {
                     throw new RuntimeException("You must supply ssh arguments.");
                 }
-                commandLine.addAll(createSshCommandPreamble());
+                commandLine.addAll(createSshCommandPreamble(shareConnection));
                 commandLine.add(dns);
                 commandLine.addAll(args);
                 break;
@@ -163,7 +267,7 @@ public class SshCommand implements Command {
                 commandLine.add("-aqi");
                 commandLine.add("--delete");
                 commandLine.add("-e");
-                commandLine.add(CastleUtil.join(createSshCommandPreamble(), " "));
+                commandLine.add(CastleUtil.join(createSshCommandPreamble(shareConnection), " "));
                 commandLine.add(local);
                 commandLine.add(dns + ":" + remote);
                 break;
@@ -175,15 +279,35 @@ public class SshCommand implements Command {
                 commandLine.add("-aqi");
                 commandLine.add("--delete");
                 commandLine.add("-e");
-                commandLine.add(CastleUtil.join(createSshCommandPreamble(), " "));
+                commandLine.add(CastleUtil.join(createSshCommandPreamble(shareConnection), " "));
                 commandLine.add(dns + ":" + remote);
                 commandLine.add(local);
                 break;
+            case PUT_FILE:
+                if ((remote == null) || (contents == null)) {
+                    throw new RuntimeException("The remote path and contents must be non-null.");
+                }
+                String tempPath = Command.shellQuote(Command.tempPath(remote));
+                commandLine.addAll(createSshCommandPreamble(shareConnection));
+                commandLine.add(dns);
+                commandLine.addAll(Arrays.asList("cat", ">", tempPath, "&&",
+                    "mv", "-f", tempPath, Command.shellQuote(remote)));
+                break;
         }
         return commandLine;
     }
 
-    public List<String> createSshCommandPreamble() {
+    /**
+     * Create the ssh command line, without the address to connect to.  If we have
+     * a connection pool, this uses the node's master connection, starting it if
+     * needed.
+     */
+    public List<String> createSshCommandPreamble() throws InterruptedException {
+        return createSshCommandPreamble(true);
+    }
+
+    private List<String> createSshCommandPreamble(boolean shareConnection)
+            throws InterruptedException {
         List<String> commandLine = new ArrayList<>();
         commandLine.add("ssh");
 
@@ -213,6 +337,18 @@ public class SshCommand implements Command {
         commandLine.add("-o");
         commandLine.add("UserKnownHostsFile=/dev/null");
 
+        sharedConnection = false;
+        if (shareConnection && connectionPool != null) {
+            String controlPath = connectionPool.controlPath(node.nodeName(), node.log(),
+                dns, commandLine);
+            if (controlPath != null) {
+                commandLine.add("-o");
+                commandLine.add("ControlMaster=no");
+                commandLine.add("-o");
+                commandLine.add("ControlPath=" + controlPath);
+                sharedConnection = true;
+            }
+        }
         return commandLine;
     }
 
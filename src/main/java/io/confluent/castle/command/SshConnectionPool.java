@@ -0,0 +1,354 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.command;
+
+import io.confluent.castle.common.CastleLog;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps a persistent ssh master connection open to each node, so that ssh and
+ * rsync commands can share it instead of each doing their own TCP connection,
+ * key exchange, and authentication.  See the ControlMaster option in ssh_config(5).
+ *
+ * The control sockets are kept in a private temporary directory for each cluster.
+ * Each master is an ssh process which we own, and which is killed when the pool is
+ * closed.  If a master can't be started, commands connect directly as before.
+ */
+public final class SshConnectionPool implements AutoCloseable {
+    /**
+     * How long to wait for a new master connection to become usable.
+     */
+    private static final long MASTER_START_TIMEOUT_MS = 15000;
+
+    /**
+     * How long to wait before trying again to start a master connection which
+     * failed to start.
+     */
+    private static final long MASTER_RETRY_DELAY_MS = 30000;
+
+    /**
+     * How often to ask a master connection whether it is still healthy.
+     */
+    private static final long HEALTH_CHECK_INTERVAL_MS = 30000;
+
+    private static final long CHECK_POLL_MS = 20;
+
+    private static final File DEV_NULL = new File("/dev/null");
+
+    /**
+     * A master connection to a node.
+     */
+    private static final class Master {
+        private final String key;
+        private final String dns;
+        private final String controlPath;
+        private final List<String> preamble;
+        private final Process process;
+        private long lastCheckMs;
+
+        Master(String key, String dns, String controlPath, List<String> preamble,
+               Process process, long lastCheckMs) {
+            this.key = key;
+            this.dns = dns;
+            this.controlPath = controlPath;
+            this.preamble = preamble;
+            this.process = process;
+            this.lastCheckMs = lastCheckMs;
+        }
+    }
+
+    /**
+     * The master connection state for a node.  Accesses are protected by
+     * synchronizing on this object, so that starting a master for one node
+     * doesn't hold up commands for other nodes.
+     */
+    private final class NodeConnection {
+        private final String controlPath;
+        private Master master = null;
+        private String failedKey = null;
+        private long failedMs = 0;
+
+        NodeConnection(String controlPath) {
+            this.controlPath = controlPath;
+        }
+
+        synchronized String controlPath(String nodeName, CastleLog log, String dns,
+                                        List<String> preamble) throws InterruptedException {
+            String key = dns + " " + String.join(" ", preamble);
+            long nowMs = System.currentTimeMillis();
+            if (master != null) {
+                if (!master.key.equals(key)) {
+                    log.printf("** %s: the ssh destination changed.  Closing the old " +
+                        "master connection.%n", nodeName);
+                    stop();
+                } else if (!master.process.isAlive()) {
+                    log.printf("** %s: the ssh master connection exited with code %d.%n",
+                        nodeName, master.process.exitValue());
+                    stop();
+                } else if (nowMs - master.lastCheckMs >= HEALTH_CHECK_INTERVAL_MS) {
+                    if (check(master.preamble, master.controlPath, master.dns)) {
+                        master.lastCheckMs = nowMs;
+                    } else {
+                        log.printf("** %s: the ssh master connection failed its health " +
+                            "check.%n", nodeName);
+                        stop();
+                    }
+                }
+            }
+            if (master != null) {
+                return master.controlPath;
+            }
+            if (key.equals(failedKey) && (nowMs - failedMs < MASTER_RETRY_DELAY_MS)) {
+                return null;
+            }
+            master = start(nodeName, log, key, dns, preamble);
+            if (master == null) {
+                failedKey = key;
+                failedMs = System.currentTimeMillis();
+                return null;
+            }
+            failedKey = null;
+            return master.controlPath;
+        }
+
+        private Master start(String nodeName, CastleLog log, String key, String dns,
+                             List<String> preamble) throws InterruptedException {
+            List<String> commandLine = new ArrayList<>(preamble);
+            commandLine.add("-M");
+            commandLine.add("-N");
+            commandLine.add("-o");
+            commandLine.add("ControlPersist=no");
+            commandLine.add("-o");
+            commandLine.add("ServerAliveInterval=15");
+            commandLine.add("-o");
+            commandLine.add("ServerAliveCountMax=3");
+            commandLine.add("-S");
+            commandLine.add(controlPath);
+            commandLine.add(dns);
+            Process process;
+            try {
+                new File(controlPath).delete();
+                process = new ProcessBuilder(commandLine).
+                    redirectInput(ProcessBuilder.Redirect.from(DEV_NULL)).
+                    redirectOutput(ProcessBuilder.Redirect.appendTo(DEV_NULL)).
+                    redirectError(ProcessBuilder.Redirect.appendTo(DEV_NULL)).
+                    start();
+            } catch (IOException e) {
+                log.printf("** %s: unable to start an ssh master connection: %s%n",
+                    nodeName, e.getMessage());
+                return null;
+            }
+            long deadlineMs = System.currentTimeMillis() + MASTER_START_TIMEOUT_MS;
+            try {
+                while (true) {
+                    if (!process.isAlive()) {
+                        log.printf("** %s: the ssh master connection exited with code %d " +
+                            "while starting.  Connecting directly instead.%n",
+                            nodeName, process.exitValue());
+                        return null;
+                    }
+                    if (new File(controlPath).exists() && check(preamble, controlPath, dns)) {
+                        break;
+                    }
+                    if (System.currentTimeMillis() >= deadlineMs) {
+                        log.printf("** %s: timed out waiting for the ssh master connection." +
+                            "  Connecting directly instead.%n", nodeName);
+                        destroy(process);
+                        return null;
+                    }
+                    Thread.sleep(CHECK_POLL_MS);
+                }
+            } catch (InterruptedException e) {
+                destroy(process);
+                throw e;
+            }
+            log.printf("** %s: started an ssh master connection.%n", nodeName);
+            return new Master(key, dns, controlPath, new ArrayList<>(preamble), process,
+                System.currentTimeMillis());
+        }
+
+        synchronized void stop() {
+            if (master != null) {
+                destroy(master.process);
+                master = null;
+            }
+            new File(controlPath).delete();
+        }
+    }
+
+    private final boolean enabled;
+
+    private final Map<String, NodeConnection> connections = new ConcurrentHashMap<>();
+
+    private final AtomicInteger nextSocketId = new AtomicInteger(0);
+
+    private final Thread shutdownHook = new Thread(this::stopAll, "SshConnectionPoolShutdownHook");
+
+    private Path socketDirectory = null;
+
+    private boolean closed = false;
+
+    public SshConnectionPool(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean enabled() {
+        return enabled;
+    }
+
+    /**
+     * Get the control socket to use for commands to a node, starting a master
+     * connection if there isn't a healthy one already.
+     *
+     * @param nodeName      The node name.
+     * @param log           The log to write messages about the connection to.
+     * @param dns           The address to ssh to.
+     * @param preamble      The ssh command line options, without the address or any
+     *                      connection sharing options.
+     *
+     * @return              The path of the control socket, or null if commands
+     *                      should connect directly.
+     */
+    public String controlPath(String nodeName, CastleLog log, String dns,
+                              List<String> preamble) throws InterruptedException {
+        NodeConnection connection = connection(nodeName);
+        if (connection == null) {
+            return null;
+        }
+        return connection.controlPath(nodeName, log, dns, preamble);
+    }
+
+    /**
+     * Close the master connection to a node, if there is one.  This is called when
+     * a command which used the connection could not reach the node, in case the
+     * master is no longer working.  The next command will start a new one.
+     */
+    public void invalidate(String nodeName) {
+        NodeConnection connection = connections.get(nodeName);
+        if (connection != null) {
+            connection.stop();
+        }
+    }
+
+    private synchronized NodeConnection connection(String nodeName) {
+        if (!enabled || closed) {
+            return null;
+        }
+        NodeConnection connection = connections.get(nodeName);
+        if (connection == null) {
+            if (socketDirectory == null) {
+                try {
+                    // Unix socket paths are limited to about 100 characters, so we
+                    // use a short temporary directory rather than the working directory.
+                    socketDirectory = Files.createTempDirectory("castle-ssh");
+                } catch (IOException e) {
+                    throw new RuntimeException("Unable to create a directory for ssh " +
+                        "control sockets", e);
+                }
+                Runtime.getRuntime().addShutdownHook(shutdownHook);
+            }
+            connection = new NodeConnection(socketDirectory.resolve(
+                Integer.toString(nextSocketId.getAndIncrement())).toString());
+            connections.put(nodeName, connection);
+        }
+        return connection;
+    }
+
+    /**
+     * Ask a master connection whether it is running.
+     */
+    private static boolean check(List<String> preamble, String controlPath, String dns)
+            throws InterruptedException {
+        List<String> commandLine = new ArrayList<>();
+        commandLine.add(preamble.get(0));
+        commandLine.add("-S");
+        commandLine.add(controlPath);
+        commandLine.add("-O");
+        commandLine.add("check");
+        commandLine.add(dns);
+        try {
+            Process process = new ProcessBuilder(commandLine).
+                redirectInput(ProcessBuilder.Redirect.from(DEV_NULL)).
+                redirectOutput(ProcessBuilder.Redirect.appendTo(DEV_NULL)).
+                redirectError(ProcessBuilder.Redirect.appendTo(DEV_NULL)).
+                start();
+            if (!process.waitFor(MASTER_START_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                destroy(process);
+                return false;
+            }
+            return process.exitValue() == 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static void destroy(Process process) {
+        process.destroy();
+        try {
+            if (!process.waitFor(1, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+            }
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void stopAll() {
+        for (NodeConnection connection : connections.values()) {
+            connection.stop();
+        }
+    }
+
+    @Override
+    public void close() {
+        Path directory;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            directory = socketDirectory;
+        }
+        stopAll();
+        connections.clear();
+        if (directory != null) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                // The JVM is already shutting down, and the hook will run.
+            }
+            try {
+                // The sockets were removed when the masters were stopped.
+                Files.deleteIfExists(directory);
+            } catch (IOException e) {
+                // Ignore failures to clean up the temporary directory.
+            }
+        }
+    }
+}
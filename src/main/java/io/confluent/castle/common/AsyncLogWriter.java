@@ -0,0 +1,328 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.common;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes CastleLog files in the background.
+ *
+ * Threads which log add their lines to the log's queue, and never wait for the
+ * disk.  A single shared writer thread drains the queues into a large buffer
+ * for each file.  It flushes a file once its oldest unflushed data is
+ * FLUSH_INTERVAL_MS old, or once the buffer fills up.  Closing or flushing a log
+ * drains its queue on the calling thread, as does a shutdown hook, so nothing
+ * which was logged before then is lost.
+ *
+ * If a log falls more than MAX_QUEUED_BYTES behind, further output is dropped
+ * until the writer catches up, and a line saying how much was dropped is
+ * written in its place.
+ */
+final class AsyncLogWriter {
+    private static final Logger log = LoggerFactory.getLogger(AsyncLogWriter.class);
+
+    static final int BUFFER_SIZE = 256 * 1024;
+
+    static final long FLUSH_INTERVAL_MS = 200;
+
+    static final long MAX_QUEUED_BYTES = 16L * 1024L * 1024L;
+
+    private static final AsyncLogWriter INSTANCE = new AsyncLogWriter();
+
+    /**
+     * Get the shared log writer.
+     */
+    static AsyncLogWriter instance() {
+        return INSTANCE;
+    }
+
+    /**
+     * An entry in a log's queue: either a line of text with its timestamp
+     * prefix, or raw bytes.  Text is encoded by the writer thread.
+     */
+    private static final class Entry {
+        private final byte[] prefix;
+        private final String text;
+        private final byte[] bytes;
+
+        Entry(byte[] prefix, String text, byte[] bytes) {
+            this.prefix = prefix;
+            this.text = text;
+            this.bytes = bytes;
+        }
+
+        void writeTo(OutputStream outputStream) throws IOException {
+            if (prefix != null) {
+                outputStream.write(prefix);
+            }
+            if (text != null) {
+                outputStream.write(text.getBytes(StandardCharsets.UTF_8));
+            }
+            if (bytes != null) {
+                outputStream.write(bytes);
+            }
+        }
+
+        long size() {
+            long size = 0;
+            if (prefix != null) {
+                size += prefix.length;
+            }
+            if (text != null) {
+                size += text.length();
+            }
+            if (bytes != null) {
+                size += bytes.length;
+            }
+            return size;
+        }
+    }
+
+    /**
+     * The queue and buffer for one log file.
+     *
+     * Writing to the buffer happens under the channel's monitor.  Threads which
+     * append to the queue never take it.
+     */
+    final class Channel {
+        private final String name;
+        private final ConcurrentLinkedQueue<Entry> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicLong queuedBytes = new AtomicLong(0);
+        private final AtomicLong droppedBytes = new AtomicLong(0);
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+        private final BufferedOutputStream outputStream;
+        private long unflushedSinceMs = -1;
+        private IOException failure = null;
+        private volatile boolean closed = false;
+
+        Channel(String name, OutputStream outputStream) {
+            this.name = name;
+            this.outputStream = new BufferedOutputStream(outputStream, BUFFER_SIZE);
+        }
+
+        void append(byte[] prefix, String text, byte[] bytes) {
+            if (closed) {
+                return;
+            }
+            Entry entry = new Entry(prefix, text, bytes);
+            long size = entry.size();
+            if (queuedBytes.addAndGet(size) > MAX_QUEUED_BYTES) {
+                queuedBytes.addAndGet(-size);
+                droppedBytes.addAndGet(size);
+                return;
+            }
+            queue.add(entry);
+            if (scheduled.compareAndSet(false, true)) {
+                ready.add(this);
+                LockSupport.unpark(thread);
+            }
+        }
+
+        /**
+         * Write everything in the queue to the buffer.
+         */
+        private synchronized void drain() {
+            if (closed) {
+                return;
+            }
+            while (true) {
+                Entry entry = queue.poll();
+                if (entry == null) {
+                    break;
+                }
+                queuedBytes.addAndGet(-entry.size());
+                write(entry);
+            }
+            long dropped = droppedBytes.getAndSet(0);
+            if (dropped > 0) {
+                write(new Entry(CastleLog.timestampPrefix(System.currentTimeMillis()),
+                    String.format("*** Dropped %d bytes of log output because the " +
+                        "log writer fell behind.%n", dropped), null));
+            }
+        }
+
+        private void write(Entry entry) {
+            if (failure != null) {
+                return;
+            }
+            try {
+                entry.writeTo(outputStream);
+                if (unflushedSinceMs < 0) {
+                    unflushedSinceMs = System.currentTimeMillis();
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        private synchronized long unflushedSinceMs() {
+            return unflushedSinceMs;
+        }
+
+        private synchronized void flushBuffer() {
+            if (closed || (failure != null) || (unflushedSinceMs < 0)) {
+                return;
+            }
+            unflushedSinceMs = -1;
+            try {
+                outputStream.flush();
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        private void fail(IOException e) {
+            failure = e;
+            log.error("Unable to write log {}", name, e);
+        }
+
+        /**
+         * Write everything which has been logged so far to the file.
+         *
+         * @throws IOException  If writing to the file failed.
+         */
+        synchronized void flush() throws IOException {
+            drain();
+            flushBuffer();
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        /**
+         * Write everything which has been logged so far, and close the file.
+         * Anything logged afterwards is discarded.
+         *
+         * @throws IOException  If writing to or closing the file failed.
+         */
+        synchronized void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            try {
+                flush();
+            } finally {
+                closed = true;
+                channels.remove(this);
+                outputStream.close();
+            }
+        }
+    }
+
+    /**
+     * The channels which have entries waiting to be drained.
+     */
+    private final ConcurrentLinkedQueue<Channel> ready = new ConcurrentLinkedQueue<>();
+
+    /**
+     * All open channels.
+     */
+    private final Set<Channel> channels = ConcurrentHashMap.newKeySet();
+
+    private final Thread thread;
+
+    private AsyncLogWriter() {
+        this.thread = CastleUtil.createThreadFactory("CastleLogWriter", true).
+            newThread(this::run);
+        this.thread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flushAll,
+            "CastleLogWriterShutdownHook"));
+    }
+
+    /**
+     * Create a new channel which writes to the given stream.  The channel owns
+     * the stream, and closes it when it is closed.
+     */
+    Channel open(String name, OutputStream outputStream) {
+        Channel channel = new Channel(name, outputStream);
+        channels.add(channel);
+        return channel;
+    }
+
+    private void run() {
+        List<Channel> dirty = new ArrayList<>();
+        while (true) {
+            try {
+                Channel channel;
+                while ((channel = ready.poll()) != null) {
+                    // Clear the flag first, so that entries appended while we drain
+                    // schedule the channel again.
+                    channel.scheduled.set(false);
+                    channel.drain();
+                    if (!dirty.contains(channel)) {
+                        dirty.add(channel);
+                    }
+                }
+                long nowMs = System.currentTimeMillis();
+                long nextFlushMs = Long.MAX_VALUE;
+                for (int i = dirty.size() - 1; i >= 0; i--) {
+                    Channel dirtyChannel = dirty.get(i);
+                    long unflushedSinceMs = dirtyChannel.unflushedSinceMs();
+                    if (unflushedSinceMs < 0) {
+                        dirty.remove(i);
+                    } else if (unflushedSinceMs + FLUSH_INTERVAL_MS <= nowMs) {
+                        dirtyChannel.flushBuffer();
+                        dirty.remove(i);
+                    } else {
+                        nextFlushMs = Math.min(nextFlushMs,
+                            unflushedSinceMs + FLUSH_INTERVAL_MS);
+                    }
+                }
+                if (!ready.isEmpty()) {
+                    continue;
+                }
+                if (nextFlushMs == Long.MAX_VALUE) {
+                    LockSupport.park(this);
+                } else {
+                    LockSupport.parkNanos(this,
+                        TimeUnit.MILLISECONDS.toNanos(Math.max(1, nextFlushMs - nowMs)));
+                }
+            } catch (Throwable e) {
+                log.error("Unexpected error in the log writer", e);
+            }
+        }
+    }
+
+    /**
+     * Write everything which has been logged to every open file.
+     */
+    private void flushAll() {
+        for (Channel channel : channels) {
+            try {
+                channel.flush();
+            } catch (IOException e) {
+                // The failure was already logged.
+            }
+        }
+    }
+}
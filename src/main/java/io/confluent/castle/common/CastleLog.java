@@ -28,32 +28,50 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
 
+/**
+ * A log for a node, or for the whole cluster.
+ *
+ * Logs which are written to files are written asynchronously, by
+ * AsyncLogWriter, so that threads which log never wait for the disk.  Other
+ * logs are written directly.
+ */
 public final class CastleLog implements AutoCloseable, Logger {
     private static final Logger log = LoggerFactory.getLogger(CastleLog.class);
 
+    private static final DateTimeFormatter TIMESTAMP_FORMAT =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss ");
+
+    /**
+     * The timestamp prefix for the current second.  Lines logged in the same
+     * second share it, rather than each formatting the time.
+     */
+    private static final class TimestampPrefix {
+        private final long second;
+        private final byte[] bytes;
+
+        TimestampPrefix(long second, byte[] bytes) {
+            this.second = second;
+            this.bytes = bytes;
+        }
+    }
+
+    private static volatile TimestampPrefix cachedPrefix = new TimestampPrefix(-1, null);
+
     private final String name;
     private OutputStream outputStream;
+    private final AsyncLogWriter.Channel channel;
     private final boolean enableDebug;
 
     public static CastleLog fromFile(String logBase, String nodeName, boolean enableDebug) throws IOException {
         File file = new File(new File(logBase), nodeName + ".clog");
         FileOutputStream outputStream = new FileOutputStream(file, true);
-        CastleLog log = null;
-        try {
-            log = new CastleLog(nodeName, outputStream, enableDebug);
-        } finally {
-            if (log == null) {
-                try {
-                    outputStream.close();
-                } catch (Throwable throwable) {
-                    // Nowhere to log to
-                }
-            }
-        }
-        return log;
+        return new CastleLog(nodeName,
+            AsyncLogWriter.instance().open(nodeName, outputStream), enableDebug);
     }
 
     public static CastleLog fromStdout(String name, boolean enableDebug) throws IOException {
@@ -72,9 +90,35 @@ public final class CastleLog implements AutoCloseable, Logger {
     public CastleLog(String name, OutputStream outputStream, boolean enableDebug) {
         this.name = name;
         this.outputStream = outputStream;
+        this.channel = null;
         this.enableDebug = enableDebug;
     }
 
+    private CastleLog(String name, AsyncLogWriter.Channel channel, boolean enableDebug) {
+        this.name = name;
+        this.outputStream = null;
+        this.channel = channel;
+        this.enableDebug = enableDebug;
+    }
+
+    /**
+     * Get the timestamp prefix for a log line.  The returned array must not be
+     * modified.
+     *
+     * @param nowMs     The current time in milliseconds.
+     */
+    static byte[] timestampPrefix(long nowMs) {
+        long second = nowMs / 1000;
+        TimestampPrefix prefix = cachedPrefix;
+        if (prefix.second != second) {
+            String str = TIMESTAMP_FORMAT.format(
+                Instant.ofEpochSecond(second).atZone(ZoneId.systemDefault()));
+            prefix = new TimestampPrefix(second, str.getBytes(StandardCharsets.UTF_8));
+            cachedPrefix = prefix;
+        }
+        return prefix.bytes;
+    }
+
     public static void debugToAll(String str, CastleLog... logs) {
         for (CastleLog log : logs) {
             log.debug(str);
@@ -89,9 +133,18 @@ public final class CastleLog implements AutoCloseable, Logger {
 
     public void print(String str) {
         try {
-            String prefix = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").
-                format(new Date()) + " ";
-            write((prefix + str).getBytes(StandardCharsets.UTF_8));
+            byte[] prefix = timestampPrefix(System.currentTimeMillis());
+            if (channel != null) {
+                channel.append(prefix, str, null);
+            } else {
+                byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+                synchronized (this) {
+                    if (outputStream != null) {
+                        outputStream.write(prefix);
+                        outputStream.write(bytes);
+                    }
+                }
+            }
             if (log.isTraceEnabled()) {
                 if ((str.length() > 0) && (str.charAt(str.length() - 1) == '\n')) {
                     str = str.substring(0, str.length() - 1);
@@ -120,24 +173,50 @@ public final class CastleLog implements AutoCloseable, Logger {
         print(msg + System.lineSeparator());
     }
 
-    public synchronized void write(byte[] buf) throws IOException {
-        if (outputStream != null) {
-            outputStream.write(buf);
+    public void write(byte[] buf) throws IOException {
+        write(buf, 0, buf.length);
+    }
+
+    public void write(byte[] buf, int off, int len) throws IOException {
+        if (channel != null) {
+            // The caller may reuse the buffer once we return.
+            channel.append(null, null, Arrays.copyOfRange(buf, off, off + len));
+            return;
+        }
+        synchronized (this) {
+            if (outputStream != null) {
+                outputStream.write(buf, off, len);
+            }
         }
     }
 
-    public synchronized void write(byte[] buf, int off, int len) throws IOException {
-        if (outputStream != null) {
-            outputStream.write(buf, off, len);
+    /**
+     * Write everything which has been logged so far.
+     */
+    public void flush() throws IOException {
+        if (channel != null) {
+            channel.flush();
+            return;
+        }
+        synchronized (this) {
+            if (outputStream != null) {
+                outputStream.flush();
+            }
         }
     }
 
     @Override
-    public synchronized void close() throws IOException {
-        if (outputStream != null) {
-            outputStream.close();
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            return;
+        }
+        synchronized (this) {
+            if (outputStream != null) {
+                outputStream.close();
+            }
+            outputStream = null;
         }
-        outputStream = null;
     }
 
     @Override
@@ -208,9 +208,14 @@ public final class CastleUtil {
     public static final CastleReturnCode getProcessStatus(CastleCluster cluster,
                                                         CastleNode node, String processPattern) throws Exception {
         String effectivePattern = "[" + processPattern.substring(0, 1) + "]" + processPattern.substring(1);
-        StringBuilder stringBuilder = new StringBuilder();
+        List<String> pids = new ArrayList<>();
         int retVal = node.uplink().command().
-            captureOutput(stringBuilder).
+            outputLines(line -> {
+                String pid = line.trim();
+                if (!pid.isEmpty()) {
+                    pids.add(pid);
+                }
+            }).
             args("-n", "--", "ps", "aux", "|", "awk", "'/" + effectivePattern + "/ { print $2 }'").
             run();
         if (retVal != 0) {
@@ -218,7 +223,7 @@ public final class CastleUtil {
                 node.nodeName(), processPattern);
             return CastleReturnCode.TOOL_FAILED;
         }
-        String pidString = stringBuilder.toString().trim();
+        String pidString = String.join(" ", pids);
         if (pidString.isEmpty()) {
             cluster.clusterLog().printf("%s: %s is not running.%n",
                 node.nodeName(), processPattern);
@@ -240,9 +245,15 @@ public final class CastleUtil {
      */
     public static final CastleReturnCode getJavaProcessStatus(CastleCluster cluster,
                                                             CastleNode node, String processPattern) throws Exception {
-        StringBuilder stringBuilder = new StringBuilder();
+        List<String> pids = new ArrayList<>();
         int retVal = node.uplink().command().
-            captureOutput(stringBuilder).
+            outputLines(line -> {
+                // jcmd prints the pid, followed by the main class and arguments.
+                String pid = line.trim().split(" ", 2)[0];
+                if (!pid.isEmpty()) {
+                    pids.add(pid);
+                }
+            }).
             args("-n", "--", "jcmd", "|", "grep", processPattern).
             run();
         if (retVal == 255) {
@@ -254,11 +265,7 @@ public final class CastleUtil {
                 node.nodeName(), processPattern);
             return CastleReturnCode.CLUSTER_FAILED;
         }
-        String pidString = stringBuilder.toString();
-        int firstSpace = pidString.indexOf(" ");
-        if (firstSpace != -1) {
-            pidString = pidString.substring(0, firstSpace - 1);
-        }
+        String pidString = String.join(" ", pids);
         cluster.clusterLog().printf("%s: %s is running as pid %s%n",
             node.nodeName(), processPattern, pidString);
         return CastleReturnCode.SUCCESS;
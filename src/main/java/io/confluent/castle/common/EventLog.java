@@ -0,0 +1,427 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.common;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.BufferedReader;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static io.confluent.castle.common.JsonUtil.JSON_SERDE;
+
+/**
+ * A machine-readable log of what happened during a run.
+ *
+ * Each line of the log is a JSON object describing one event: a command which
+ * ran for a node, an action which ran, or a call to a cloud API.  Each run begins
+ * with a run event holding the wall-clock time when it started.  Start and end
+ * times are in nanoseconds since the start of the run.
+ *
+ * Like the node logs, the events are written in the background, so recording
+ * one never waits for the disk.
+ *
+ * Every castle command starts a run, but only the ones which run actions record
+ * much in it.  Once the log grows past MAX_FILE_BYTES, the next run moves it
+ * aside to FILE_NAME.1, replacing the previous one, and starts a new file.
+ */
+public final class EventLog implements AutoCloseable {
+    public static final String FILE_NAME = "events.ndjson";
+
+    /**
+     * The size at which we start a new log file, keeping one old one.
+     */
+    public static final long MAX_FILE_BYTES = 64L * 1024L * 1024L;
+
+    public static final String RUN = "run";
+
+    public static final String COMMAND = "command";
+
+    public static final String ACTION = "action";
+
+    public static final String CLOUD = "cloud";
+
+    private static final ObjectWriter WRITER =
+        JSON_SERDE.writer().without(SerializationFeature.INDENT_OUTPUT);
+
+    /**
+     * The ID of the action which the current thread is running, if any.
+     */
+    private static final ThreadLocal<String> CURRENT_ACTION = new ThreadLocal<>();
+
+    public static class Event {
+        private final String event;
+        private final Long epochMs;
+        private final String action;
+        private final String node;
+        private final String command;
+        private final Long startNs;
+        private final Long endNs;
+        private final Integer exitCode;
+        private final Long outputBytes;
+        private final String error;
+
+        @JsonCreator
+        public Event(@JsonProperty("event") String event,
+                     @JsonProperty("epochMs") Long epochMs,
+                     @JsonProperty("action") String action,
+                     @JsonProperty("node") String node,
+                     @JsonProperty("command") String command,
+                     @JsonProperty("startNs") Long startNs,
+                     @JsonProperty("endNs") Long endNs,
+                     @JsonProperty("exitCode") Integer exitCode,
+                     @JsonProperty("outputBytes") Long outputBytes,
+                     @JsonProperty("error") String error) {
+            this.event = event;
+            this.epochMs = epochMs;
+            this.action = action;
+            this.node = node;
+            this.command = command;
+            this.startNs = startNs;
+            this.endNs = endNs;
+            this.exitCode = exitCode;
+            this.outputBytes = outputBytes;
+            this.error = error;
+        }
+
+        /**
+         * The kind of event: run, command, action, or cloud.
+         */
+        @JsonProperty
+        public String event() {
+            return event;
+        }
+
+        /**
+         * For run events, the wall-clock time when the run started.
+         */
+        @JsonProperty
+        public Long epochMs() {
+            return epochMs;
+        }
+
+        /**
+         * The ID of the action, or the action which ran the command.
+         */
+        @JsonProperty
+        public String action() {
+            return action;
+        }
+
+        @JsonProperty
+        public String node() {
+            return node;
+        }
+
+        /**
+         * The command line, or the cloud API call.
+         */
+        @JsonProperty
+        public String command() {
+            return command;
+        }
+
+        @JsonProperty
+        public Long startNs() {
+            return startNs;
+        }
+
+        @JsonProperty
+        public Long endNs() {
+            return endNs;
+        }
+
+        @JsonProperty
+        public Integer exitCode() {
+            return exitCode;
+        }
+
+        /**
+         * The number of bytes which the command wrote to stdout and stderr.
+         */
+        @JsonProperty
+        public Long outputBytes() {
+            return outputBytes;
+        }
+
+        /**
+         * If the action or call failed with an exception, its message.
+         */
+        @JsonProperty
+        public String error() {
+            return error;
+        }
+
+        public long durationNs() {
+            if ((startNs == null) || (endNs == null)) {
+                return 0;
+            }
+            return endNs - startNs;
+        }
+
+        /**
+         * The type of the action, or the empty string if there is no action.
+         */
+        public String actionType() {
+            if (action == null) {
+                return "";
+            }
+            int colon = action.indexOf(':');
+            return (colon < 0) ? action : action.substring(0, colon);
+        }
+    }
+
+    /**
+     * The channel to write to, or null if events are discarded.
+     */
+    private final AsyncLogWriter.Channel channel;
+
+    private final long baseNs = System.nanoTime();
+
+    /**
+     * Open the event log at the given path, appending to it if it exists.  If it
+     * has grown too large, it is rotated first.
+     */
+    public static EventLog fromFile(String path) throws IOException {
+        Path file = Paths.get(path);
+        if (Files.isRegularFile(file) && (Files.size(file) >= MAX_FILE_BYTES)) {
+            Files.move(file, Paths.get(path + ".1"), StandardCopyOption.REPLACE_EXISTING);
+        }
+        FileOutputStream outputStream = new FileOutputStream(path, true);
+        EventLog eventLog = new EventLog(AsyncLogWriter.instance().open(path, outputStream));
+        eventLog.write(new Event(RUN, System.currentTimeMillis(),
+            null, null, null, null, null, null, null, null));
+        return eventLog;
+    }
+
+    /**
+     * Create an event log which discards all events.
+     */
+    public static EventLog disabled() {
+        return new EventLog(null);
+    }
+
+    private EventLog(AsyncLogWriter.Channel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Set the action which the current thread is running, so that the commands
+     * it runs can be attributed to it.
+     *
+     * @param actionId      The action ID, or null to clear it.
+     */
+    public static void setCurrentAction(String actionId) {
+        if (actionId == null) {
+            CURRENT_ACTION.remove();
+        } else {
+            CURRENT_ACTION.set(actionId);
+        }
+    }
+
+    public static String currentAction() {
+        return CURRENT_ACTION.get();
+    }
+
+    public boolean enabled() {
+        return channel != null;
+    }
+
+    /**
+     * Record a command which ran for a node.
+     *
+     * @param node          The node name.
+     * @param command       The command line.
+     * @param startNs       The System#nanoTime when the command started.
+     * @param endNs         The System#nanoTime when the command finished.
+     * @param exitCode      The exit code, or null if the command didn't finish.
+     * @param outputBytes   The number of bytes of output.
+     */
+    public void command(String node, String command, long startNs, long endNs,
+                        Integer exitCode, long outputBytes) {
+        if (channel == null) {
+            return;
+        }
+        write(new Event(COMMAND, null, currentAction(), node, command,
+            startNs - baseNs, endNs - baseNs, exitCode, outputBytes, null));
+    }
+
+    /**
+     * Record an action which ran.
+     *
+     * @param actionId      The action ID.
+     * @param node          The node name.
+     * @param startNs       The System#nanoTime when the action started.
+     * @param endNs         The System#nanoTime when the action finished.
+     * @param error         The exception which the action failed with, or null.
+     */
+    public void action(String actionId, String node, long startNs, long endNs,
+                       Throwable error) {
+        if (channel == null) {
+            return;
+        }
+        write(new Event(ACTION, null, actionId, node, null,
+            startNs - baseNs, endNs - baseNs, null, null, errorMessage(error)));
+    }
+
+    /**
+     * Record a call to a cloud API.
+     *
+     * @param call          A description of the call.
+     * @param startNs       The System#nanoTime when the call started.
+     * @param endNs         The System#nanoTime when the call finished.
+     * @param error         The exception which the call failed with, or null.
+     */
+    public void cloud(String call, long startNs, long endNs, Throwable error) {
+        if (channel == null) {
+            return;
+        }
+        write(new Event(CLOUD, null, currentAction(), null, call,
+            startNs - baseNs, endNs - baseNs, null, null, errorMessage(error)));
+    }
+
+    private static String errorMessage(Throwable error) {
+        if (error == null) {
+            return null;
+        }
+        return error.getClass().getSimpleName() + ": " + error.getMessage();
+    }
+
+    private void write(Event event) {
+        try {
+            byte[] json = WRITER.writeValueAsBytes(event);
+            byte[] line = new byte[json.length + 1];
+            System.arraycopy(json, 0, line, 0, json.length);
+            line[json.length] = '\n';
+            channel.append(null, null, line);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Write all the events recorded so far.
+     */
+    public void flush() throws IOException {
+        if (channel != null) {
+            channel.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    /**
+     * Read the events from an event log file, and the rotated file before it, if
+     * there is one.
+     *
+     * @param path          The path to read.
+     * @param allRuns       If false, only the events from the last run which ran
+     *                      any actions are returned.  Commands such as plan start
+     *                      a run too, but it has no actions, so it is skipped.
+     */
+    public static List<Event> read(String path, boolean allRuns) throws IOException {
+        EventReader reader = new EventReader(allRuns);
+        Path rotated = Paths.get(path + ".1");
+        if (Files.isRegularFile(rotated)) {
+            reader.read(rotated);
+        }
+        reader.read(Paths.get(path));
+        return reader.events();
+    }
+
+    private static final class EventReader {
+        private final boolean allRuns;
+
+        /**
+         * The events read so far.  If we only want the last run, these are the
+         * events of the current run.
+         */
+        private final List<Event> events = new ArrayList<>();
+
+        /**
+         * If we only want the last run, the events of the last run before the
+         * current one which ran any actions, or null if there was none.
+         */
+        private List<Event> lastRun = null;
+
+        private boolean hasActions = false;
+
+        EventReader(boolean allRuns) {
+            this.allRuns = allRuns;
+        }
+
+        void read(Path path) throws IOException {
+            try (BufferedReader reader = Files.newBufferedReader(path,
+                    StandardCharsets.UTF_8)) {
+                while (true) {
+                    String line = reader.readLine();
+                    if (line == null) {
+                        break;
+                    }
+                    line = line.trim();
+                    if (line.isEmpty()) {
+                        continue;
+                    }
+                    Event event;
+                    try {
+                        event = JSON_SERDE.readValue(line, Event.class);
+                    } catch (JsonProcessingException e) {
+                        // A run which was killed may have left a partial last line.
+                        continue;
+                    }
+                    add(event);
+                }
+            }
+        }
+
+        private void add(Event event) {
+            if (RUN.equals(event.event()) && !allRuns) {
+                if (hasActions) {
+                    lastRun = new ArrayList<>(events);
+                }
+                events.clear();
+                hasActions = false;
+            }
+            if (ACTION.equals(event.event())) {
+                hasActions = true;
+            }
+            events.add(event);
+        }
+
+        List<Event> events() {
+            // If no run had any actions, fall back on the last run.
+            return (allRuns || hasActions || (lastRun == null)) ? events : lastRun;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.jmx;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The binary JMX dump format.
+ *
+ * A file starts with the magic bytes "CJMX", a version byte, and the schema:
+ * a varint column count, then each column's type byte and name.  Strings are
+ * written as a varint length followed by UTF-8 bytes.
+ *
+ * The rows follow in blocks of up to BLOCK_ROWS rows.  Each block starts with
+ * its row count, its first and last timestamps, and the length of its body, so
+ * that readers can skip blocks outside of a time range without decoding them.
+ * In the body, the timestamps are stored as varint deltas of deltas.  Then
+ * each column is stored in turn: a presence byte, a bitmap of the rows which
+ * have a value if only some do, and the values which are present.  Longs are
+ * stored as varint deltas.  Doubles are XORed with the previous value, and the
+ * meaningful bits of the result are stored, as in Facebook's Gorilla.  Strings
+ * are stored as a dictionary followed by varint indexes into it.
+ */
+public final class JmxBinaryFormat {
+    static final byte[] MAGIC = "CJMX".getBytes(StandardCharsets.US_ASCII);
+
+    static final byte VERSION = 1;
+
+    /**
+     * The maximum number of rows in a block.  At a one second period, a block
+     * covers a little over four minutes.
+     */
+    static final int BLOCK_ROWS = 256;
+
+    static final byte ALL_PRESENT = 0;
+
+    static final byte SOME_PRESENT = 1;
+
+    static final byte NONE_PRESENT = 2;
+
+    public enum ColumnType {
+        LONG,
+        DOUBLE,
+        STRING;
+
+        /**
+         * Get the column type to use for an attribute value.  Values we know
+         * nothing about are assumed to be doubles.
+         */
+        public static ColumnType of(Object value) {
+            if ((value instanceof Long) || (value instanceof Integer) ||
+                    (value instanceof Short) || (value instanceof Byte)) {
+                return LONG;
+            } else if ((value == null) || (value instanceof Number)) {
+                return DOUBLE;
+            } else {
+                return STRING;
+            }
+        }
+    }
+
+    static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    static void writeString(ByteArrayOutputStream out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private JmxBinaryFormat() {
+    }
+}
@@ -0,0 +1,361 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.jmx;
+
+import io.confluent.castle.jmx.JmxBinaryFormat.ColumnType;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static io.confluent.castle.jmx.JmxBinaryFormat.ALL_PRESENT;
+import static io.confluent.castle.jmx.JmxBinaryFormat.NONE_PRESENT;
+import static io.confluent.castle.jmx.JmxBinaryFormat.SOME_PRESENT;
+import static io.confluent.castle.jmx.JmxBinaryFormat.unZigZag;
+
+/**
+ * Reads files in the binary JMX dump format, one block at a time.
+ *
+ * A truncated final block, as left by a dumper which was killed while writing
+ * it, is ignored.
+ */
+public final class JmxBinaryReader implements AutoCloseable {
+    /**
+     * A block of rows.
+     */
+    public static final class Block {
+        private final long[] timesMs;
+        private final Object[][] values;
+
+        Block(long[] timesMs, Object[][] values) {
+            this.timesMs = timesMs;
+            this.values = values;
+        }
+
+        public int rows() {
+            return timesMs.length;
+        }
+
+        public long timeMs(int row) {
+            return timesMs[row];
+        }
+
+        /**
+         * Get a value.  Values are Longs, Doubles, or Strings, depending on the
+         * column type.  Missing values are null.
+         */
+        public Object value(int column, int row) {
+            return values[column][row];
+        }
+    }
+
+    /**
+     * Decodes the body of a block.
+     */
+    private static final class Cursor {
+        private final byte[] buf;
+        private int pos = 0;
+        private int bitPos = 0;
+
+        Cursor(byte[] buf) {
+            this.buf = buf;
+        }
+
+        int readByte() {
+            if (pos >= buf.length) {
+                throw new RuntimeException("Unexpected end of block.");
+            }
+            return buf[pos++] & 0xff;
+        }
+
+        long readVarLong() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= ((long) (b & 0x7f)) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new RuntimeException("Invalid varint.");
+        }
+
+        String readString() {
+            int length = (int) readVarLong();
+            if (length > buf.length - pos) {
+                throw new RuntimeException("Unexpected end of block.");
+            }
+            String value = new String(buf, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return value;
+        }
+
+        long readBits(int bits) {
+            long value = 0;
+            while (bits > 0) {
+                if (pos >= buf.length) {
+                    throw new RuntimeException("Unexpected end of block.");
+                }
+                int take = Math.min(8 - bitPos, bits);
+                int chunk = (buf[pos] >>> (8 - bitPos - take)) & ((1 << take) - 1);
+                value = (value << take) | chunk;
+                bitPos += take;
+                bits -= take;
+                if (bitPos == 8) {
+                    pos++;
+                    bitPos = 0;
+                }
+            }
+            return value;
+        }
+
+        void finishBits() {
+            if (bitPos > 0) {
+                pos++;
+                bitPos = 0;
+            }
+        }
+    }
+
+    private final InputStream in;
+    private final List<String> columnNames;
+    private final List<ColumnType> columnTypes;
+
+    /**
+     * Create a reader, and read the file header.
+     *
+     * @param in        The input stream.  It will be closed when the reader is.
+     */
+    public JmxBinaryReader(InputStream in) throws IOException {
+        this.in = new BufferedInputStream(in);
+        byte[] magic = new byte[JmxBinaryFormat.MAGIC.length];
+        readFully(magic);
+        if (!Arrays.equals(magic, JmxBinaryFormat.MAGIC)) {
+            throw new RuntimeException("This is not a binary JMX dump file.");
+        }
+        int version = readByte();
+        if (version != JmxBinaryFormat.VERSION) {
+            throw new RuntimeException("Unsupported binary JMX dump version " + version);
+        }
+        int numColumns = (int) readVarLong();
+        List<String> names = new ArrayList<>();
+        List<ColumnType> types = new ArrayList<>();
+        for (int column = 0; column < numColumns; column++) {
+            int type = readByte();
+            if (type >= ColumnType.values().length) {
+                throw new RuntimeException("Unknown column type " + type);
+            }
+            types.add(ColumnType.values()[type]);
+            byte[] name = new byte[(int) readVarLong()];
+            readFully(name);
+            names.add(new String(name, StandardCharsets.UTF_8));
+        }
+        this.columnNames = Collections.unmodifiableList(names);
+        this.columnTypes = Collections.unmodifiableList(types);
+    }
+
+    /**
+     * The column names, not including the time column.
+     */
+    public List<String> columnNames() {
+        return columnNames;
+    }
+
+    public List<ColumnType> columnTypes() {
+        return columnTypes;
+    }
+
+    /**
+     * Read the next block.
+     *
+     * @return          The block, or null if there are no more blocks.
+     */
+    public Block nextBlock() throws IOException {
+        return nextBlock(Long.MIN_VALUE);
+    }
+
+    /**
+     * Read the next block which has rows at or after a given time.  Earlier
+     * blocks are skipped without being decoded.
+     *
+     * @param minTimeMs The time in milliseconds.
+     * @return          The block, or null if there are no more blocks.
+     */
+    public Block nextBlock(long minTimeMs) throws IOException {
+        try {
+            while (true) {
+                int first = in.read();
+                if (first < 0) {
+                    return null;
+                }
+                int rows = (int) readVarLong(first);
+                long firstTimeMs = unZigZag(readVarLong());
+                long lastTimeMs = unZigZag(readVarLong());
+                byte[] body = new byte[(int) readVarLong()];
+                readFully(body);
+                if (lastTimeMs >= minTimeMs) {
+                    return decode(rows, firstTimeMs, new Cursor(body));
+                }
+            }
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private Block decode(int rows, long firstTimeMs, Cursor cursor) {
+        long[] timesMs = new long[rows];
+        timesMs[0] = firstTimeMs;
+        long delta = 0;
+        for (int row = 1; row < rows; row++) {
+            delta += unZigZag(cursor.readVarLong());
+            timesMs[row] = timesMs[row - 1] + delta;
+        }
+        Object[][] values = new Object[columnTypes.size()][];
+        for (int column = 0; column < values.length; column++) {
+            values[column] = decodeColumn(columnTypes.get(column), rows, cursor);
+        }
+        return new Block(timesMs, values);
+    }
+
+    private Object[] decodeColumn(ColumnType type, int rows, Cursor cursor) {
+        Object[] values = new Object[rows];
+        boolean[] present = new boolean[rows];
+        int presence = cursor.readByte();
+        if (presence == NONE_PRESENT) {
+            return values;
+        } else if (presence == ALL_PRESENT) {
+            Arrays.fill(present, true);
+        } else if (presence == SOME_PRESENT) {
+            for (int row = 0; row < rows; row++) {
+                present[row] = cursor.readBits(1) != 0;
+            }
+            cursor.finishBits();
+        } else {
+            throw new RuntimeException("Invalid presence byte " + presence);
+        }
+        switch (type) {
+            case LONG:
+                decodeLongs(present, values, cursor);
+                break;
+            case DOUBLE:
+                decodeDoubles(present, values, cursor);
+                break;
+            case STRING:
+                decodeStrings(present, values, cursor);
+                break;
+        }
+        return values;
+    }
+
+    private void decodeLongs(boolean[] present, Object[] values, Cursor cursor) {
+        long prev = 0;
+        for (int row = 0; row < values.length; row++) {
+            if (present[row]) {
+                prev += unZigZag(cursor.readVarLong());
+                values[row] = prev;
+            }
+        }
+    }
+
+    private void decodeDoubles(boolean[] present, Object[] values, Cursor cursor) {
+        boolean first = true;
+        long prev = 0;
+        int leading = 0;
+        int trailing = 0;
+        for (int row = 0; row < values.length; row++) {
+            if (!present[row]) {
+                continue;
+            }
+            if (first) {
+                prev = cursor.readBits(64);
+                first = false;
+            } else if (cursor.readBits(1) != 0) {
+                if (cursor.readBits(1) != 0) {
+                    leading = (int) cursor.readBits(5);
+                    int significant = (int) cursor.readBits(6);
+                    if (significant == 0) {
+                        significant = 64;
+                    }
+                    trailing = 64 - leading - significant;
+                }
+                prev ^= cursor.readBits(64 - leading - trailing) << trailing;
+            }
+            values[row] = Double.longBitsToDouble(prev);
+        }
+        cursor.finishBits();
+    }
+
+    private void decodeStrings(boolean[] present, Object[] values, Cursor cursor) {
+        String[] dictionary = new String[(int) cursor.readVarLong()];
+        for (int i = 0; i < dictionary.length; i++) {
+            dictionary[i] = cursor.readString();
+        }
+        for (int row = 0; row < values.length; row++) {
+            if (present[row]) {
+                values[row] = dictionary[(int) cursor.readVarLong()];
+            }
+        }
+    }
+
+    private int readByte() throws IOException {
+        int b = in.read();
+        if (b < 0) {
+            throw new EOFException();
+        }
+        return b;
+    }
+
+    private void readFully(byte[] buf) throws IOException {
+        int off = 0;
+        while (off < buf.length) {
+            int read = in.read(buf, off, buf.length - off);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            off += read;
+        }
+    }
+
+    private long readVarLong() throws IOException {
+        return readVarLong(readByte());
+    }
+
+    private long readVarLong(int first) throws IOException {
+        long value = first & 0x7f;
+        int b = first;
+        for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+            if (shift >= 64) {
+                throw new RuntimeException("Invalid varint.");
+            }
+            b = readByte();
+            value |= ((long) (b & 0x7f)) << shift;
+        }
+        return value;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.jmx;
+
+import io.confluent.castle.jmx.JmxBinaryFormat.ColumnType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static io.confluent.castle.jmx.JmxBinaryFormat.ALL_PRESENT;
+import static io.confluent.castle.jmx.JmxBinaryFormat.BLOCK_ROWS;
+import static io.confluent.castle.jmx.JmxBinaryFormat.NONE_PRESENT;
+import static io.confluent.castle.jmx.JmxBinaryFormat.SOME_PRESENT;
+import static io.confluent.castle.jmx.JmxBinaryFormat.writeString;
+import static io.confluent.castle.jmx.JmxBinaryFormat.writeVarLong;
+import static io.confluent.castle.jmx.JmxBinaryFormat.zigZag;
+
+/**
+ * Writes rows in the binary JMX dump format.
+ *
+ * Rows are buffered until a block is full, and each block is written to the
+ * output stream with a single write.
+ */
+public final class JmxBinaryWriter implements AutoCloseable {
+    /**
+     * Packs bits into bytes, most significant bit first.
+     */
+    private static final class BitWriter {
+        private final ByteArrayOutputStream out;
+        private int current = 0;
+        private int numBits = 0;
+
+        BitWriter(ByteArrayOutputStream out) {
+            this.out = out;
+        }
+
+        void write(long value, int bits) {
+            while (bits > 0) {
+                int take = Math.min(8 - numBits, bits);
+                int chunk = (int) ((value >>> (bits - take)) & ((1 << take) - 1));
+                current = (current << take) | chunk;
+                numBits += take;
+                bits -= take;
+                if (numBits == 8) {
+                    out.write(current);
+                    current = 0;
+                    numBits = 0;
+                }
+            }
+        }
+
+        void finish() {
+            if (numBits > 0) {
+                out.write(current << (8 - numBits));
+                current = 0;
+                numBits = 0;
+            }
+        }
+    }
+
+    private final OutputStream out;
+    private final ColumnType[] types;
+    private final long[] timesMs = new long[BLOCK_ROWS];
+    private final boolean[][] present;
+    private final long[][] longs;
+    private final double[][] doubles;
+    private final String[][] strings;
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream block = new ByteArrayOutputStream();
+    private final BitWriter bits = new BitWriter(body);
+    private int rows = 0;
+
+    /**
+     * Create a writer, and write the file header.
+     *
+     * @param out       The output stream.  It will be closed when the writer is.
+     * @param names     The column names, not including the time column.
+     * @param types     The column types.
+     */
+    public JmxBinaryWriter(OutputStream out, List<String> names,
+                           List<ColumnType> types) throws IOException {
+        if (names.size() != types.size()) {
+            throw new RuntimeException("Got " + names.size() + " column names, but " +
+                types.size() + " column types.");
+        }
+        this.out = out;
+        this.types = types.toArray(new ColumnType[0]);
+        int numColumns = this.types.length;
+        this.present = new boolean[numColumns][BLOCK_ROWS];
+        this.longs = new long[numColumns][];
+        this.doubles = new double[numColumns][];
+        this.strings = new String[numColumns][];
+        for (int column = 0; column < numColumns; column++) {
+            switch (this.types[column]) {
+                case LONG:
+                    longs[column] = new long[BLOCK_ROWS];
+                    break;
+                case DOUBLE:
+                    doubles[column] = new double[BLOCK_ROWS];
+                    break;
+                case STRING:
+                    strings[column] = new String[BLOCK_ROWS];
+                    break;
+            }
+        }
+        block.write(JmxBinaryFormat.MAGIC, 0, JmxBinaryFormat.MAGIC.length);
+        block.write(JmxBinaryFormat.VERSION);
+        writeVarLong(block, numColumns);
+        for (int column = 0; column < numColumns; column++) {
+            block.write(this.types[column].ordinal());
+            writeString(block, names.get(column));
+        }
+        block.writeTo(out);
+        block.reset();
+        out.flush();
+    }
+
+    /**
+     * Add a row.
+     *
+     * @param timeMs    The time of the row in milliseconds.
+     * @param values    The values of the columns.  Null values, and values which
+     *                  don't fit the column's type, are stored as missing.
+     */
+    public void append(long timeMs, Object[] values) throws IOException {
+        timesMs[rows] = timeMs;
+        for (int column = 0; column < types.length; column++) {
+            Object value = values[column];
+            boolean valid = (value != null);
+            switch (types[column]) {
+                case LONG:
+                    if (value instanceof Number) {
+                        longs[column][rows] = ((Number) value).longValue();
+                    } else {
+                        valid = false;
+                    }
+                    break;
+                case DOUBLE:
+                    if (value instanceof Number) {
+                        doubles[column][rows] = ((Number) value).doubleValue();
+                    } else {
+                        valid = false;
+                    }
+                    break;
+                case STRING:
+                    strings[column][rows] = valid ? value.toString() : null;
+                    break;
+            }
+            present[column][rows] = valid;
+        }
+        rows++;
+        if (rows == BLOCK_ROWS) {
+            flush();
+        }
+    }
+
+    /**
+     * Write out any buffered rows as a block.
+     */
+    public void flush() throws IOException {
+        if (rows == 0) {
+            out.flush();
+            return;
+        }
+        writeTimes();
+        for (int column = 0; column < types.length; column++) {
+            writeColumn(column);
+        }
+        writeVarLong(block, rows);
+        writeVarLong(block, zigZag(timesMs[0]));
+        writeVarLong(block, zigZag(timesMs[rows - 1]));
+        writeVarLong(block, body.size());
+        body.writeTo(block);
+        block.writeTo(out);
+        out.flush();
+        body.reset();
+        block.reset();
+        rows = 0;
+    }
+
+    private void writeTimes() {
+        long prevDelta = 0;
+        for (int row = 1; row < rows; row++) {
+            long delta = timesMs[row] - timesMs[row - 1];
+            writeVarLong(body, zigZag(delta - prevDelta));
+            prevDelta = delta;
+        }
+    }
+
+    private void writeColumn(int column) {
+        boolean[] columnPresent = present[column];
+        int numPresent = 0;
+        for (int row = 0; row < rows; row++) {
+            if (columnPresent[row]) {
+                numPresent++;
+            }
+        }
+        if (numPresent == 0) {
+            body.write(NONE_PRESENT);
+            return;
+        } else if (numPresent == rows) {
+            body.write(ALL_PRESENT);
+        } else {
+            body.write(SOME_PRESENT);
+            for (int row = 0; row < rows; row++) {
+                bits.write(columnPresent[row] ? 1 : 0, 1);
+            }
+            bits.finish();
+        }
+        switch (types[column]) {
+            case LONG:
+                writeLongs(columnPresent, longs[column]);
+                break;
+            case DOUBLE:
+                writeDoubles(columnPresent, doubles[column]);
+                break;
+            case STRING:
+                writeStrings(columnPresent, strings[column]);
+                break;
+        }
+    }
+
+    private void writeLongs(boolean[] columnPresent, long[] values) {
+        long prev = 0;
+        for (int row = 0; row < rows; row++) {
+            if (columnPresent[row]) {
+                writeVarLong(body, zigZag(values[row] - prev));
+                prev = values[row];
+            }
+        }
+    }
+
+    private void writeDoubles(boolean[] columnPresent, double[] values) {
+        boolean first = true;
+        long prev = 0;
+        int prevLeading = -1;
+        int prevTrailing = 0;
+        for (int row = 0; row < rows; row++) {
+            if (!columnPresent[row]) {
+                continue;
+            }
+            long value = Double.doubleToRawLongBits(values[row]);
+            if (first) {
+                bits.write(value, 64);
+                first = false;
+                prev = value;
+                continue;
+            }
+            long xor = value ^ prev;
+            prev = value;
+            if (xor == 0) {
+                bits.write(0, 1);
+                continue;
+            }
+            bits.write(1, 1);
+            int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+            int trailing = Long.numberOfTrailingZeros(xor);
+            if ((prevLeading >= 0) && (leading >= prevLeading) && (trailing >= prevTrailing)) {
+                bits.write(0, 1);
+                bits.write(xor >>> prevTrailing, 64 - prevLeading - prevTrailing);
+            } else {
+                int significant = 64 - leading - trailing;
+                bits.write(1, 1);
+                bits.write(leading, 5);
+                // 64 significant bits is stored as 0, since 0 can't occur.
+                bits.write(significant & 0x3f, 6);
+                bits.write(xor >>> trailing, significant);
+                prevLeading = leading;
+                prevTrailing = trailing;
+            }
+        }
+        bits.finish();
+    }
+
+    private void writeStrings(boolean[] columnPresent, String[] values) {
+        Map<String, Integer> indexes = new HashMap<>();
+        List<String> dictionary = new ArrayList<>();
+        for (int row = 0; row < rows; row++) {
+            if (columnPresent[row] && !indexes.containsKey(values[row])) {
+                indexes.put(values[row], dictionary.size());
+                dictionary.add(values[row]);
+            }
+        }
+        writeVarLong(body, dictionary.size());
+        for (String value : dictionary) {
+            writeString(body, value);
+        }
+        for (int row = 0; row < rows; row++) {
+            if (columnPresent[row]) {
+                writeVarLong(body, indexes.get(values[row]));
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -26,18 +26,16 @@ import net.sourceforge.argparse4j.ArgumentParsers;
 import net.sourceforge.argparse4j.inf.ArgumentParser;
 import net.sourceforge.argparse4j.inf.Namespace;
 
-import javax.management.Attribute;
-import javax.management.InstanceNotFoundException;
-import javax.management.MBeanAttributeInfo;
-import javax.management.MBeanInfo;
 import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
 import javax.management.remote.JMXConnector;
 import javax.management.remote.JMXConnectorFactory;
 import javax.management.remote.JMXServiceURL;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.Socket;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
@@ -48,8 +46,10 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.ListIterator;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
@@ -63,7 +63,8 @@ import static net.sourceforge.argparse4j.impl.Arguments.store;
 /**
  * The JMX Dumper agent.
  *
- * Periodically dumps JMX state to comma-separated files.
+ * Periodically dumps JMX state to comma-separated files, or to files in the
+ * binary format described in JmxBinaryFormat.
  */
 public final class JmxDumper {
     private final static int DEFAULT_PERIOD_MS = 1000;
@@ -116,109 +117,249 @@ public final class JmxDumper {
         }
     }
 
-    private final class CsvFile implements AutoCloseable {
-        private final JmxFileConfig file;
-        private final OutputStreamWriter writer;
-
-        public CsvFile(JmxFileConfig file) throws Exception {
+    /**
+     * A file which we are dumping MBeans to.
+     */
+    abstract static class DumpFile implements AutoCloseable {
+        final JmxFileConfig file;
+        final int segment;
+        final List<JmxTarget> targets;
+        final int numColumns;
+        final int[] columnObjects;
+        final int[] columnAttributes;
+
+        DumpFile(JmxFileConfig file, int segment, List<JmxTarget> targets) {
             this.file = file;
-            OutputStream outputStream = Files.newOutputStream(Paths.get(file.path()), WRITE, CREATE_NEW);
-            try {
-                this.writer = new OutputStreamWriter(outputStream, StandardCharsets.UTF_8);
-            } catch (Throwable t) {
-                outputStream.close();
-                throw t;
+            this.segment = segment;
+            this.targets = targets;
+            int numColumns = 0;
+            for (JmxTarget target : targets) {
+                numColumns += target.attributes().size();
+            }
+            this.numColumns = numColumns;
+            this.columnObjects = new int[numColumns];
+            this.columnAttributes = new int[numColumns];
+        }
+
+        /**
+         * Find where the sampler keeps the value of each column.
+         */
+        void bind(JmxSampler sampler) {
+            int column = 0;
+            for (JmxTarget target : targets) {
+                int object = sampler.objectIndex(target.objectName());
+                for (String attribute : target.attributes()) {
+                    columnObjects[column] = object;
+                    columnAttributes[column] = sampler.attributeIndex(object, attribute);
+                    column++;
+                }
             }
         }
 
+        /**
+         * Get the value of a column from the last sample.
+         *
+         * @return          The value, or null if the MBean went away.
+         */
+        Object value(JmxSampler sampler, int column) {
+            int object = columnObjects[column];
+            if (sampler.missing(object)) {
+                return null;
+            }
+            Object value = sampler.value(object, columnAttributes[column]);
+            if (value == null) {
+                throw new RuntimeException("getAttributes failed to fetch a value for " +
+                    sampler.objectName(object) + ":" +
+                    sampler.attributeName(object, columnAttributes[column]) + ".");
+            }
+            return value;
+        }
+
+        abstract void writeHeader() throws Exception;
+
+        abstract void storeJmx(long time, JmxSampler sampler) throws Exception;
+
+        @Override
+        public abstract void close() throws IOException;
+    }
+
+    private DumpFile openFile(JmxFileConfig file, int segment, List<JmxTarget> targets)
+            throws Exception {
+        OutputStream outputStream = Files.newOutputStream(
+            Paths.get(segmentPath(file.path(), segment)), WRITE, CREATE_NEW);
+        try {
+            if (file.format().equals(JmxFileConfig.BINARY)) {
+                return new BinaryFile(file, segment, targets, outputStream);
+            } else {
+                return new CsvFile(file, segment, targets, outputStream);
+            }
+        } catch (Throwable t) {
+            outputStream.close();
+            throw t;
+        }
+    }
+
+    static final class CsvFile extends DumpFile {
+        private final OutputStream outputStream;
+        private final CsvRow row = new CsvRow();
+
+        CsvFile(JmxFileConfig file, int segment, List<JmxTarget> targets,
+                OutputStream outputStream) {
+            super(file, segment, targets);
+            this.outputStream = new BufferedOutputStream(outputStream);
+        }
+
+        @Override
         public void writeHeader() throws Exception {
-            HashMap<String, String> shortNames = new HashMap<>();
             CsvRow headerRow = new CsvRow();
             headerRow.add("time");
-            for (JmxObjectConfig object : file.objects()) {
-                String prev = shortNames.get(object.shortName());
-                if (prev != null) {
-                    throw new RuntimeException("shortName collision: both " + prev + " and " +
-                        object.name() + " have the shortName " + object.shortName());
-                }
-                shortNames.put(object.shortName(), object.name());
-                for (String attribute : object.attributes()) {
-                    headerRow.add(object.shortName() + ":" + attribute);
+            for (JmxTarget target : targets) {
+                for (String attribute : target.attributes()) {
+                    headerRow.add(target.columnPrefix() + ":" + attribute);
                 }
             }
-            writer.write(headerRow.asString());
-            writer.flush();
+            headerRow.writeLine(outputStream);
+            outputStream.flush();
         }
 
         @Override
         public void close() throws IOException {
-            writer.flush();
-            writer.close();
+            outputStream.flush();
+            outputStream.close();
         }
 
-        public void storeJmx(long time) throws Exception {
-            CsvRow row = new CsvRow();
+        @Override
+        public void storeJmx(long time, JmxSampler sampler) throws Exception {
+            row.reset();
             row.addTimeMs(time);
-            for (JmxObjectConfig object : file.objects()) {
-                HashMap<String, Object> values = new HashMap<>();
-                List<Attribute> attributeList = null;
-                Collection<String> attributesToGet = object.attributes();
-                if (attributesToGet.isEmpty()) {
-                    attributesToGet = objectNameToAllAttributes.get(object.name());
-                }
-                try {
-                    attributeList = connection.getAttributes(object.objectName(),
-                        attributesToGet.toArray(new String[0])).asList();
-                } catch (Throwable e) {
-                    throw new RuntimeException("Failed to get attributes for object " + object.name(), e);
+            for (int column = 0; column < numColumns; column++) {
+                Object value = value(sampler, column);
+                if (value == null) {
+                    // The MBean went away.  Leave its cells empty until the next
+                    // discovery drops it.
+                    row.addEmpty();
+                } else {
+                    row.addObject(value);
                 }
-                for (Attribute attribute : attributeList) {
-                    try {
-                        values.put(attribute.getName(), attribute.getValue());
-                    } catch (Throwable e) {
-                        throw new RuntimeException("Failed to get a value for attribute " + attribute, e);
-                    }
+            }
+            row.writeLine(outputStream);
+        }
+    }
+
+    /**
+     * A file in the binary format.  The column types come from the first
+     * sample, so the header is written along with the first row.
+     */
+    static final class BinaryFile extends DumpFile {
+        private final OutputStream outputStream;
+        private final List<String> names = new ArrayList<>();
+        private final Object[] values;
+        private JmxBinaryWriter writer = null;
+
+        BinaryFile(JmxFileConfig file, int segment, List<JmxTarget> targets,
+                   OutputStream outputStream) {
+            super(file, segment, targets);
+            this.outputStream = outputStream;
+            for (JmxTarget target : targets) {
+                for (String attribute : target.attributes()) {
+                    names.add(target.columnPrefix() + ":" + attribute);
                 }
-                for (String attributeName : attributesToGet) {
-                    Object value = values.get(attributeName);
-                    if (value == null) {
-                        throw new RuntimeException("getAttributes failed to fetch a value for " +
-                            object.name() + ":" + attributeName + ".");
-                    }
-                    row.addObject(value);
+            }
+            this.values = new Object[numColumns];
+        }
+
+        @Override
+        public void writeHeader() {
+        }
+
+        @Override
+        public void storeJmx(long time, JmxSampler sampler) throws Exception {
+            for (int column = 0; column < numColumns; column++) {
+                values[column] = value(sampler, column);
+            }
+            if (writer == null) {
+                List<JmxBinaryFormat.ColumnType> types = new ArrayList<>();
+                for (Object value : values) {
+                    types.add(JmxBinaryFormat.ColumnType.of(value));
                 }
+                writer = new JmxBinaryWriter(outputStream, names, types);
+            }
+            writer.append(time, values);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (writer != null) {
+                writer.close();
+            } else {
+                outputStream.close();
             }
-            writer.write(row.asString());
         }
     }
 
-    private static final class CsvRow {
+    /**
+     * Builds a CSV row.  A row can be reset and reused, and writeLine writes it
+     * without creating a String.
+     */
+    static final class CsvRow {
         private boolean first = true;
         private final StringBuilder bld = new StringBuilder();
+        private char[] chars = new char[0];
+        private byte[] bytes = new byte[0];
 
-        CsvRow addTimeMs(long timeMs) {
+        void reset() {
+            first = true;
+            bld.setLength(0);
+        }
+
+        private void separate() {
             if (!first) bld.append(", ");
             first = false;
-            double time = timeMs;
-            time /= 1000.0;
-            bld.append(String.format("%.3f", time));
+        }
+
+        /**
+         * Add a time in seconds, with three decimal places.
+         */
+        CsvRow addTimeMs(long timeMs) {
+            separate();
+            if (timeMs < 0) {
+                bld.append('-');
+                timeMs = -timeMs;
+            }
+            long millis = timeMs % 1000;
+            bld.append(timeMs / 1000).append('.');
+            if (millis < 100) bld.append('0');
+            if (millis < 10) bld.append('0');
+            bld.append(millis);
             return this;
         }
 
         CsvRow add(Number val) {
-            if (!first) bld.append(", ");
-            first = false;
-            bld.append(val);
+            separate();
+            if ((val instanceof Long) || (val instanceof Integer) ||
+                    (val instanceof Short) || (val instanceof Byte)) {
+                bld.append(val.longValue());
+            } else if (val instanceof Double) {
+                bld.append(val.doubleValue());
+            } else if (val instanceof Float) {
+                bld.append(val.floatValue());
+            } else {
+                bld.append(val);
+            }
             return this;
         }
 
         CsvRow add(String val) {
-            if (!first) bld.append(", ");
-            first = false;
+            separate();
             bld.append("\"").append(val).append("\"");
             return this;
         }
 
+        CsvRow addEmpty() {
+            separate();
+            return this;
+        }
+
         CsvRow addObject(Object value) {
             if (value instanceof Number) {
                 add((Number) value);
@@ -234,6 +375,37 @@ public final class JmxDumper {
             bld.append(System.lineSeparator());
             return bld.toString();
         }
+
+        void writeLine(Writer writer) throws IOException {
+            bld.append(System.lineSeparator());
+            int length = bld.length();
+            if (chars.length < length) {
+                chars = new char[Math.max(length, chars.length * 2)];
+            }
+            bld.getChars(0, length, chars, 0);
+            writer.write(chars, 0, length);
+        }
+
+        /**
+         * Write the row as UTF-8.  Rows which are all ASCII, which most are, are
+         * copied straight into a reused buffer.
+         */
+        void writeLine(OutputStream outputStream) throws IOException {
+            bld.append(System.lineSeparator());
+            int length = bld.length();
+            if (bytes.length < length) {
+                bytes = new byte[Math.max(length, bytes.length * 2)];
+            }
+            for (int i = 0; i < length; i++) {
+                char c = bld.charAt(i);
+                if (c >= 0x80) {
+                    outputStream.write(bld.toString().getBytes(StandardCharsets.UTF_8));
+                    return;
+                }
+                bytes[i] = (byte) c;
+            }
+            outputStream.write(bytes, 0, length);
+        }
     }
 
     public final class Probe implements Runnable {
@@ -283,31 +455,34 @@ public final class JmxDumper {
         }
 
         private final boolean load() throws Exception {
-            Collection<JmxObjectConfig> objects = dumperConfig.allObjects();
-            for (JmxObjectConfig object : objects) {
-                MBeanInfo info = null;
-                try {
-                    info = connection.getMBeanInfo(object.objectName());
-                } catch (InstanceNotFoundException e) {
-                    System.out.printf("** Unable to locate %s%n", object.name());
+            for (JmxFileConfig file : dumperConfig.files()) {
+                checkShortNames(file);
+            }
+            int numTargets = 0;
+            for (JmxFileConfig file : dumperConfig.files()) {
+                List<JmxTarget> targets = JmxTarget.discover(connection, file, allAttributes);
+                if (targets == null) {
                     return false;
                 }
-                ArrayList<String> attributeList = new ArrayList<>();
-                for (MBeanAttributeInfo attributeInfo : info.getAttributes()) {
-                    System.out.printf("** %s contains: %s%n", object.name(), attributeInfo);
-                    attributeList.add(attributeInfo.getName());
-                }
-                objectNameToAllAttributes.put(object.name(), attributeList);
-                for (String attribute : object.attributes()) {
-                    if (!attributeList.contains(attribute)) {
-                        throw new RuntimeException("Unable to find attribute " + attribute + " for " +
-                            object.name() + ".  Found: " + String.join("|", attributeList));
-                    }
-                }
+                fileTargets.put(file, targets);
+                numTargets += targets.size();
             }
-            System.out.printf("** Located %d object names.%n", objects.size());
+            System.out.printf("** Located %d object names.%n", numTargets);
+            nextDiscoveryMs = System.currentTimeMillis() + dumperConfig.discoveryPeriodMs();
             return true;
         }
+
+        private void checkShortNames(JmxFileConfig file) {
+            HashMap<String, String> shortNames = new HashMap<>();
+            for (JmxObjectConfig object : file.objects()) {
+                String prev = shortNames.get(object.shortName());
+                if (prev != null) {
+                    throw new RuntimeException("shortName collision: both " + prev + " and " +
+                        object.name() + " have the shortName " + object.shortName());
+                }
+                shortNames.put(object.shortName(), object.name());
+            }
+        }
     }
 
     public final class OpenFiles implements Runnable {
@@ -315,11 +490,14 @@ public final class JmxDumper {
         public void run() {
             try {
                 for (JmxFileConfig file : dumperConfig.files()) {
-                    CsvFile csvFile = new CsvFile(file);
-                    csvFiles.add(csvFile);
-                    csvFile.writeHeader();
+                    DumpFile dumpFile = openFile(file, 0, fileTargets.get(file));
+                    dumpFiles.add(dumpFile);
+                    dumpFile.writeHeader();
                 }
-                executorService.submit(new StoreJmx());
+                createSampler();
+                // A periodic task is scheduled once, rather than once per period.
+                executorService.scheduleWithFixedDelay(new StoreJmx(), 0,
+                    dumperConfig.periodMs(), TimeUnit.MILLISECONDS);
             } catch (Throwable t) {
                 completer.completeExceptionally(t);
             }
@@ -331,27 +509,79 @@ public final class JmxDumper {
         public void run() {
             long time = System.currentTimeMillis();
             try {
-                for (CsvFile csvFile : csvFiles) {
-                    csvFile.storeJmx(time);
+                if (time >= nextDiscoveryMs) {
+                    rediscover();
+                    nextDiscoveryMs = time + dumperConfig.discoveryPeriodMs();
+                }
+                if (!sampler.sample()) {
+                    nextDiscoveryMs = 0;
+                }
+                for (int i = 0; i < dumpFiles.size(); i++) {
+                    dumpFiles.get(i).storeJmx(time, sampler);
                 }
-                executorService.schedule(this, dumperConfig.periodMs(),
-                    TimeUnit.MILLISECONDS);
             } catch (Throwable t) {
                 completer.completeExceptionally(t);
+                // Throwing cancels the later periods.
+                throw new RuntimeException(t);
+            }
+        }
+
+        /**
+         * Expand the pattern object names again.  When the MBeans for a file
+         * change, the file's columns change, so we close it and start a new
+         * segment with its own header.
+         */
+        private void rediscover() throws Exception {
+            boolean changed = false;
+            for (ListIterator<DumpFile> iter = dumpFiles.listIterator(); iter.hasNext(); ) {
+                DumpFile dumpFile = iter.next();
+                List<JmxTarget> targets =
+                    JmxTarget.discover(connection, dumpFile.file, allAttributes);
+                if ((targets == null) || targets.equals(dumpFile.targets)) {
+                    continue;
+                }
+                DumpFile next = openFile(dumpFile.file, dumpFile.segment + 1, targets);
+                System.out.printf("** The objects for %s changed.  Continuing in %s%n",
+                    dumpFile.file.path(), segmentPath(dumpFile.file.path(), next.segment));
+                dumpFile.close();
+                iter.set(next);
+                next.writeHeader();
+                changed = true;
+            }
+            if (changed) {
+                createSampler();
             }
         }
     }
 
+    /**
+     * Create a sampler for the MBeans of every file, and point the files at it.
+     */
+    private void createSampler() {
+        List<JmxTarget> targets = new ArrayList<>();
+        for (DumpFile dumpFile : dumpFiles) {
+            targets.addAll(dumpFile.targets);
+        }
+        sampler = new JmxSampler(connection, samplingService,
+            dumperConfig.samplingThreads(), targets);
+        for (DumpFile dumpFile : dumpFiles) {
+            dumpFile.bind(sampler);
+        }
+    }
+
     public final class Shutdown implements Runnable {
         @Override
         public void run() {
             try {
-                System.out.printf("Closing csv files for %s.%n", url);
-                for (Iterator<CsvFile> iter = csvFiles.iterator(); iter.hasNext(); ) {
-                    CsvFile csvFile = iter.next();
-                    csvFile.close();
+                System.out.printf("Closing files for %s.%n", url);
+                for (Iterator<DumpFile> iter = dumpFiles.iterator(); iter.hasNext(); ) {
+                    DumpFile dumpFile = iter.next();
+                    dumpFile.close();
                     iter.remove();
                 }
+                if (samplingService != null) {
+                    samplingService.shutdownNow();
+                }
                 System.out.printf("Closing JMX connection for %s.%n", url);
                 if (connector != null) {
                     connector.close();
@@ -398,14 +628,41 @@ public final class JmxDumper {
     private final ScheduledExecutorService executorService;
     private JMXConnector connector = null;
     private MBeanServerConnection connection = null;
-    private final List<CsvFile> csvFiles = new ArrayList<>();
-    private final HashMap<String, List<String>> objectNameToAllAttributes = new HashMap<>();
+    private final ExecutorService samplingService;
+    private final List<DumpFile> dumpFiles = new ArrayList<>();
+    private final Map<JmxFileConfig, List<JmxTarget>> fileTargets = new HashMap<>();
+    private final Map<ObjectName, List<String>> allAttributes = new HashMap<>();
+    private JmxSampler sampler = null;
+    private volatile long nextDiscoveryMs = Long.MAX_VALUE;
 
     JmxDumper(String endpoint, JmxDumperConfig dumperConfig, Completer completer) throws Exception {
         this.url = new DumperUrl(endpoint);
         this.dumperConfig = dumperConfig;
         this.completer = completer;
         this.executorService = Executors.newSingleThreadScheduledExecutor();
+        this.samplingService = (dumperConfig.samplingThreads() <= 1) ? null :
+            Executors.newFixedThreadPool(dumperConfig.samplingThreads(), runnable -> {
+                Thread thread = new Thread(runnable, "JmxDumperSampler-" + url);
+                thread.setDaemon(true);
+                return thread;
+            });
+    }
+
+    /**
+     * Get the path of a segment of a file.  The first segment uses the path
+     * itself.  Later ones put the segment number before the extension, so
+     * segment 2 of jmx.csv is jmx.2.csv.
+     */
+    static String segmentPath(String path, int segment) {
+        if (segment == 0) {
+            return path;
+        }
+        int lastSlash = path.lastIndexOf('/');
+        int lastDot = path.lastIndexOf('.');
+        if (lastDot <= lastSlash + 1) {
+            return path + "." + segment;
+        }
+        return path.substring(0, lastDot) + "." + segment + path.substring(lastDot);
     }
 
     public synchronized void start() throws Exception {
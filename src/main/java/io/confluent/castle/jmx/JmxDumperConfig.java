@@ -29,13 +29,25 @@ import java.util.List;
 public final class JmxDumperConfig {
     private final static int DEFAULT_PERIOD_MS = 1000;
 
+    private final static int DEFAULT_DISCOVERY_PERIOD_MS = 60000;
+
+    private final static int DEFAULT_SAMPLING_THREADS = 4;
+
     private final int periodMs;
+    private final int discoveryPeriodMs;
+    private final int samplingThreads;
     private final List<JmxFileConfig> files;
 
     @JsonCreator
     public JmxDumperConfig(@JsonProperty("periodMs") int periodMs,
+                           @JsonProperty("discoveryPeriodMs") int discoveryPeriodMs,
+                           @JsonProperty("samplingThreads") int samplingThreads,
                            @JsonProperty("files") List<JmxFileConfig> files) {
         this.periodMs = (periodMs <= 0) ? DEFAULT_PERIOD_MS : periodMs;
+        this.discoveryPeriodMs = (discoveryPeriodMs <= 0) ?
+            DEFAULT_DISCOVERY_PERIOD_MS : discoveryPeriodMs;
+        this.samplingThreads = (samplingThreads <= 0) ?
+            DEFAULT_SAMPLING_THREADS : samplingThreads;
         this.files = (files == null) ? Collections.emptyList() : new ArrayList<>(files);
     }
 
@@ -44,6 +56,22 @@ public final class JmxDumperConfig {
         return periodMs;
     }
 
+    /**
+     * How often to expand pattern object names again, to find new MBeans.
+     */
+    @JsonProperty
+    public int discoveryPeriodMs() {
+        return discoveryPeriodMs;
+    }
+
+    /**
+     * The number of MBeans to fetch attributes from at once.
+     */
+    @JsonProperty
+    public int samplingThreads() {
+        return samplingThreads;
+    }
+
     @JsonProperty
     public List<JmxFileConfig> files() {
         return files;
@@ -0,0 +1,186 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.jmx;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.Namespace;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+import static net.sourceforge.argparse4j.impl.Arguments.store;
+
+/**
+ * Converts binary JMX dump files to CSV, in the same format that the JMX
+ * dumper writes, or to JSON, with one object per row.
+ */
+public final class JmxExport {
+    static final String CSV = "csv";
+
+    static final String JSON = "json";
+
+    /**
+     * Export the rows of a binary file.
+     *
+     * @param reader    The reader for the binary file.
+     * @param writer    The writer to export to.
+     * @param format    csv or json.
+     * @param startMs   Rows before this time are skipped.
+     * @param endMs     Rows after this time are skipped.
+     */
+    static void export(JmxBinaryReader reader, Writer writer, String format,
+                       long startMs, long endMs) throws IOException {
+        if (format.equals(JSON)) {
+            exportJson(reader, writer, startMs, endMs);
+        } else {
+            exportCsv(reader, writer, startMs, endMs);
+        }
+        writer.flush();
+    }
+
+    private static void exportCsv(JmxBinaryReader reader, Writer writer,
+                                  long startMs, long endMs) throws IOException {
+        JmxDumper.CsvRow headerRow = new JmxDumper.CsvRow();
+        headerRow.add("time");
+        for (String name : reader.columnNames()) {
+            headerRow.add(name);
+        }
+        writer.write(headerRow.asString());
+        int numColumns = reader.columnNames().size();
+        JmxDumper.CsvRow csvRow = new JmxDumper.CsvRow();
+        for (JmxBinaryReader.Block block = reader.nextBlock(startMs); block != null;
+                block = reader.nextBlock(startMs)) {
+            for (int row = 0; row < block.rows(); row++) {
+                long timeMs = block.timeMs(row);
+                if (timeMs < startMs) {
+                    continue;
+                } else if (timeMs > endMs) {
+                    return;
+                }
+                csvRow.reset();
+                csvRow.addTimeMs(timeMs);
+                for (int column = 0; column < numColumns; column++) {
+                    Object value = block.value(column, row);
+                    if (value == null) {
+                        csvRow.addEmpty();
+                    } else {
+                        csvRow.addObject(value);
+                    }
+                }
+                csvRow.writeLine(writer);
+            }
+        }
+    }
+
+    private static void exportJson(JmxBinaryReader reader, Writer writer,
+                                   long startMs, long endMs) throws IOException {
+        List<String> names = reader.columnNames();
+        JsonGenerator generator = JmxDumper.JSON_SERDE.getFactory().createGenerator(writer);
+        generator.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+        generator.setRootValueSeparator(null);
+        try {
+            for (JmxBinaryReader.Block block = reader.nextBlock(startMs); block != null;
+                    block = reader.nextBlock(startMs)) {
+                for (int row = 0; row < block.rows(); row++) {
+                    long timeMs = block.timeMs(row);
+                    if (timeMs < startMs) {
+                        continue;
+                    } else if (timeMs > endMs) {
+                        return;
+                    }
+                    generator.writeStartObject();
+                    generator.writeNumberField("time", BigDecimal.valueOf(timeMs, 3));
+                    for (int column = 0; column < names.size(); column++) {
+                        generator.writeFieldName(names.get(column));
+                        Object value = block.value(column, row);
+                        if (value instanceof Long) {
+                            generator.writeNumber((Long) value);
+                        } else if (value instanceof Double) {
+                            generator.writeNumber((Double) value);
+                        } else if (value == null) {
+                            generator.writeNull();
+                        } else {
+                            generator.writeString(value.toString());
+                        }
+                    }
+                    generator.writeEndObject();
+                    generator.writeRaw(System.lineSeparator());
+                }
+            }
+        } finally {
+            generator.close();
+        }
+    }
+
+    private static long toMs(Double seconds, long defaultMs) {
+        return (seconds == null) ? defaultMs : (long) Math.floor(seconds * 1000);
+    }
+
+    public static void main(String[] args) throws Exception {
+        ArgumentParser parser = ArgumentParsers.newFor("jmx-export").
+            addHelp(true).build().
+            description("Converts binary JMX dump files to CSV or JSON.");
+
+        parser.addArgument("--format")
+            .action(store())
+            .type(String.class)
+            .dest("format")
+            .metavar("FORMAT")
+            .choices(CSV, JSON)
+            .setDefault(CSV)
+            .help("The format to export to: " + CSV + " or " + JSON + ".");
+        parser.addArgument("--start")
+            .action(store())
+            .type(Double.class)
+            .dest("start")
+            .metavar("START")
+            .help("Skip rows before this time, in seconds since the epoch.");
+        parser.addArgument("--end")
+            .action(store())
+            .type(Double.class)
+            .dest("end")
+            .metavar("END")
+            .help("Skip rows after this time, in seconds since the epoch.");
+        parser.addArgument("input_path")
+            .action(store())
+            .type(String.class)
+            .required(true)
+            .dest("input_path")
+            .metavar("INPUT_PATH")
+            .help("The binary JMX dump file to read.");
+
+        Namespace res = parser.parseArgsOrFail(args);
+        long startMs = toMs(res.get("start"), Long.MIN_VALUE);
+        long endMs = toMs(res.get("end"), Long.MAX_VALUE);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(System.out,
+            StandardCharsets.UTF_8));
+        try (JmxBinaryReader reader = new JmxBinaryReader(
+                Files.newInputStream(Paths.get(res.getString("input_path"))))) {
+            export(reader, writer, res.getString("format"), startMs, endMs);
+        }
+    }
+};
@@ -25,13 +25,24 @@ import java.util.Collections;
 import java.util.List;
 
 public final class JmxFileConfig {
+    public static final String CSV = "csv";
+
+    public static final String BINARY = "binary";
+
     private final String path;
+    private final String format;
     private final List<JmxObjectConfig> objects;
 
     @JsonCreator
     public JmxFileConfig(@JsonProperty("path") String path,
+                         @JsonProperty("format") String format,
                          @JsonProperty("objects") List<JmxObjectConfig> objects) {
         this.path = (path == null) ? "" : path;
+        this.format = (format == null) ? CSV : format;
+        if (!(this.format.equals(CSV) || this.format.equals(BINARY))) {
+            throw new RuntimeException("Unknown format " + this.format + " for " + this.path +
+                ".  The formats are " + CSV + " and " + BINARY + ".");
+        }
         this.objects = (objects == null) ? Collections.emptyList() : new ArrayList<>(objects);
     }
 
@@ -40,6 +51,14 @@ public final class JmxFileConfig {
         return path;
     }
 
+    /**
+     * The file format: csv, or binary, which is described in JmxBinaryFormat.
+     */
+    @JsonProperty
+    public String format() {
+        return format;
+    }
+
     @JsonProperty
     public List<JmxObjectConfig> objects() {
         return objects;
@@ -25,19 +25,31 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
+/**
+ * Describes an MBean, or a set of MBeans, to dump.
+ *
+ * If the name is a pattern, such as kafka.log:type=Log,name=Size,topic=*,partition=*,
+ * it is expanded to the MBeans which match it, and expanded again periodically
+ * as MBeans come and go.
+ */
 public final class JmxObjectConfig {
+    private final static int DEFAULT_MAX_OBJECTS = 1000;
+
     private final String name;
     private final String shortName;
     private final List<String> attributes;
+    private final int maxObjects;
     private final ObjectName objectName;
 
     @JsonCreator
     public JmxObjectConfig(@JsonProperty("name") String name,
                            @JsonProperty("shortName") String shortName,
-                           @JsonProperty("attributes") List<String> attributes) throws Exception {
+                           @JsonProperty("attributes") List<String> attributes,
+                           @JsonProperty("maxObjects") int maxObjects) throws Exception {
         this.name = (name == null) ? "" : name;
         this.shortName = (shortName == null) ? "" : shortName;
         this.attributes = (attributes == null) ? Collections.emptyList() : new ArrayList<>(attributes);
+        this.maxObjects = (maxObjects <= 0) ? DEFAULT_MAX_OBJECTS : maxObjects;
         this.objectName = new ObjectName(this.name);
     }
 
@@ -56,6 +68,14 @@ public final class JmxObjectConfig {
         return attributes;
     }
 
+    /**
+     * If the name is a pattern, the maximum number of MBeans to expand it to.
+     */
+    @JsonProperty
+    public int maxObjects() {
+        return maxObjects;
+    }
+
     ObjectName objectName() {
         return objectName;
     }
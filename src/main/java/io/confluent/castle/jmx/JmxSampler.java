@@ -0,0 +1,241 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.jmx;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Fetches the attributes of a fixed set of MBeans.
+ *
+ * Everything the sampler needs is laid out when it is created: the distinct
+ * MBeans, the attribute names to request from each, and the arrays which hold
+ * the values.  Sampling reuses all of them, so that the dumper's own garbage
+ * doesn't disturb the process it is measuring.  The JMX calls themselves
+ * still allocate.  When the MBeans change, a new sampler is created.
+ *
+ * Each MBean is fetched once, even if several targets use it.  JMX has no
+ * call which reads more than one MBean, so the MBeans are divided into
+ * stripes, and the stripes are fetched on the sampling threads.
+ */
+final class JmxSampler {
+    private final MBeanServerConnection connection;
+    private final ExecutorService samplingService;
+    private final ObjectName[] objectNames;
+    private final String[][] attributes;
+    private final boolean[] fromPattern;
+    private final Object[][] values;
+    private final boolean[] missing;
+    private final List<Callable<Void>> stripes;
+    private final List<Future<Void>> futures;
+    private volatile boolean vanished = false;
+
+    /**
+     * Create a sampler.
+     *
+     * @param connection        The MBean server connection.
+     * @param samplingService   The executor to fetch stripes on, or null to
+     *                          fetch everything on the calling thread.
+     * @param numStripes        The number of stripes.
+     * @param targets           The targets to sample.
+     */
+    JmxSampler(MBeanServerConnection connection, ExecutorService samplingService,
+               int numStripes, Collection<JmxTarget> targets) {
+        this.connection = connection;
+        this.samplingService = samplingService;
+        Map<ObjectName, Set<String>> toFetch = new LinkedHashMap<>();
+        Map<ObjectName, Boolean> patterns = new LinkedHashMap<>();
+        for (JmxTarget target : targets) {
+            toFetch.computeIfAbsent(target.objectName(), k -> new LinkedHashSet<>()).
+                addAll(target.attributes());
+            patterns.merge(target.objectName(), target.fromPattern(), (a, b) -> a && b);
+        }
+        int numObjects = toFetch.size();
+        this.objectNames = new ObjectName[numObjects];
+        this.attributes = new String[numObjects][];
+        this.fromPattern = new boolean[numObjects];
+        this.values = new Object[numObjects][];
+        this.missing = new boolean[numObjects];
+        int object = 0;
+        for (Map.Entry<ObjectName, Set<String>> entry : toFetch.entrySet()) {
+            objectNames[object] = entry.getKey();
+            attributes[object] = entry.getValue().toArray(new String[0]);
+            fromPattern[object] = patterns.get(entry.getKey());
+            values[object] = new Object[attributes[object].length];
+            object++;
+        }
+        numStripes = Math.max(1, Math.min(numStripes, numObjects));
+        this.stripes = new ArrayList<>(numStripes);
+        for (int stripe = 0; stripe < numStripes; stripe++) {
+            final int first = stripe;
+            final int step = numStripes;
+            stripes.add(() -> {
+                for (int i = first; i < objectNames.length; i += step) {
+                    fetch(i);
+                }
+                return null;
+            });
+        }
+        this.futures = new ArrayList<>(numStripes);
+    }
+
+    /**
+     * Get the index of an MBean.
+     */
+    int objectIndex(ObjectName objectName) {
+        for (int object = 0; object < objectNames.length; object++) {
+            if (objectNames[object].equals(objectName)) {
+                return object;
+            }
+        }
+        throw new RuntimeException("Not sampling " + objectName);
+    }
+
+    /**
+     * Get the index of an attribute of an MBean.
+     */
+    int attributeIndex(int object, String attribute) {
+        int index = Arrays.asList(attributes[object]).indexOf(attribute);
+        if (index < 0) {
+            throw new RuntimeException("Not sampling " + objectNames[object] + ":" + attribute);
+        }
+        return index;
+    }
+
+    /**
+     * Fetch the attributes of every MBean.
+     *
+     * @return          False if an MBean which was found through a pattern went
+     *                  away.  Its values are missing until the next discovery.
+     */
+    boolean sample() throws Exception {
+        vanished = false;
+        if ((samplingService == null) || (stripes.size() == 1)) {
+            for (Callable<Void> stripe : stripes) {
+                stripe.call();
+            }
+            return !vanished;
+        }
+        try {
+            for (Callable<Void> stripe : stripes) {
+                futures.add(samplingService.submit(stripe));
+            }
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception) {
+                        throw (Exception) e.getCause();
+                    }
+                    throw e;
+                }
+            }
+        } finally {
+            for (Future<Void> future : futures) {
+                future.cancel(true);
+            }
+            futures.clear();
+        }
+        return !vanished;
+    }
+
+    private void fetch(int object) throws Exception {
+        ObjectName objectName = objectNames[object];
+        String[] names = attributes[object];
+        Object[] objectValues = values[object];
+        AttributeList attributeList;
+        try {
+            attributeList = connection.getAttributes(objectName, names);
+        } catch (InstanceNotFoundException e) {
+            if (!fromPattern[object]) {
+                throw new RuntimeException("Failed to get attributes for object " +
+                    objectName, e);
+            }
+            if (!missing[object]) {
+                System.out.printf("** %s went away.%n", objectName);
+            }
+            missing[object] = true;
+            vanished = true;
+            return;
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to get attributes for object " + objectName, e);
+        }
+        missing[object] = false;
+        int size = attributeList.size();
+        if (size == names.length) {
+            // Usually the attributes come back in the order we asked for them.
+            boolean inOrder = true;
+            for (int i = 0; i < size; i++) {
+                Attribute attribute = (Attribute) attributeList.get(i);
+                if (!names[i].equals(attribute.getName())) {
+                    inOrder = false;
+                    break;
+                }
+                objectValues[i] = attribute.getValue();
+            }
+            if (inOrder) {
+                return;
+            }
+        }
+        Arrays.fill(objectValues, null);
+        for (int i = 0; i < size; i++) {
+            Attribute attribute = (Attribute) attributeList.get(i);
+            int index = Arrays.asList(names).indexOf(attribute.getName());
+            if (index >= 0) {
+                objectValues[index] = attribute.getValue();
+            }
+        }
+    }
+
+    /**
+     * True if the MBean could not be found in the last sample.
+     */
+    boolean missing(int object) {
+        return missing[object];
+    }
+
+    /**
+     * Get a value from the last sample.  Null if the MBean didn't return it.
+     */
+    Object value(int object, int attribute) {
+        return values[object][attribute];
+    }
+
+    ObjectName objectName(int object) {
+        return objectNames[object];
+    }
+
+    String attributeName(int object, int attribute) {
+        return attributes[object][attribute];
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.jmx;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * An MBean to sample, and the columns it fills in.
+ */
+final class JmxTarget {
+    private final ObjectName objectName;
+    private final String columnPrefix;
+    private final List<String> attributes;
+    private final boolean fromPattern;
+
+    JmxTarget(ObjectName objectName, String columnPrefix, List<String> attributes,
+              boolean fromPattern) {
+        this.objectName = objectName;
+        this.columnPrefix = columnPrefix;
+        this.attributes = Collections.unmodifiableList(new ArrayList<>(attributes));
+        this.fromPattern = fromPattern;
+    }
+
+    ObjectName objectName() {
+        return objectName;
+    }
+
+    /**
+     * The prefix of the column names, which is followed by a colon and the
+     * attribute name.
+     */
+    String columnPrefix() {
+        return columnPrefix;
+    }
+
+    List<String> attributes() {
+        return attributes;
+    }
+
+    /**
+     * True if the MBean was found by expanding a pattern.  Such MBeans may go
+     * away, for example when a topic is deleted.
+     */
+    boolean fromPattern() {
+        return fromPattern;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof JmxTarget)) {
+            return false;
+        }
+        JmxTarget other = (JmxTarget) o;
+        return objectName.equals(other.objectName) &&
+            columnPrefix.equals(other.columnPrefix) &&
+            attributes.equals(other.attributes) &&
+            (fromPattern == other.fromPattern);
+    }
+
+    @Override
+    public int hashCode() {
+        return objectName.hashCode() ^ columnPrefix.hashCode() ^ attributes.hashCode();
+    }
+
+    /**
+     * Get the column prefix for an MBean which matched a pattern.  This is the
+     * short name followed by the key properties which the pattern left open,
+     * in alphabetical order.  For example, LogSize[partition=0;topic=foo].
+     * Semicolons are used rather than commas, so that the header needs no
+     * escaping.
+     */
+    static String columnPrefix(String shortName, ObjectName pattern, ObjectName name) {
+        Map<String, String> open = new TreeMap<>();
+        for (Map.Entry<String, String> entry : name.getKeyPropertyList().entrySet()) {
+            String key = entry.getKey();
+            if ((pattern.getKeyProperty(key) == null) || pattern.isPropertyValuePattern(key)) {
+                open.put(key, entry.getValue());
+            }
+        }
+        StringBuilder bld = new StringBuilder(shortName);
+        if (pattern.isDomainPattern()) {
+            open.put("domain", name.getDomain());
+        }
+        bld.append("[");
+        String prefix = "";
+        for (Map.Entry<String, String> entry : open.entrySet()) {
+            bld.append(prefix).append(entry.getKey()).append("=").append(entry.getValue());
+            prefix = ";";
+        }
+        return bld.append("]").toString();
+    }
+
+    /**
+     * Find the MBeans to sample for a file.
+     *
+     * Object names which are patterns are expanded with a single queryNames call,
+     * and capped at the object's maxObjects.  Object names which are not patterns
+     * must exist.
+     *
+     * @param connection        The MBean server connection.
+     * @param file              The file configuration.
+     * @param allAttributes     A cache of the attribute names of each MBean, used
+     *                          for objects which don't list their attributes.
+     * @return                  The MBeans to sample, or null if an MBean which was
+     *                          named exactly doesn't exist yet.
+     */
+    static List<JmxTarget> discover(MBeanServerConnection connection, JmxFileConfig file,
+                                    Map<ObjectName, List<String>> allAttributes)
+            throws Exception {
+        List<JmxTarget> targets = new ArrayList<>();
+        for (JmxObjectConfig object : file.objects()) {
+            ObjectName objectName = object.objectName();
+            if (!objectName.isPattern()) {
+                List<String> attributes;
+                try {
+                    attributes = attributes(connection, object, objectName, allAttributes);
+                } catch (InstanceNotFoundException e) {
+                    System.out.printf("** Unable to locate %s%n", object.name());
+                    return null;
+                }
+                targets.add(new JmxTarget(objectName, object.shortName(), attributes, false));
+                continue;
+            }
+            Set<ObjectName> names = connection.queryNames(objectName, null);
+            List<ObjectName> sorted = new ArrayList<>(names);
+            Collections.sort(sorted);
+            if (sorted.size() > object.maxObjects()) {
+                System.out.printf("** %s matched %d objects.  Only dumping the first %d.%n",
+                    object.name(), sorted.size(), object.maxObjects());
+                sorted = sorted.subList(0, object.maxObjects());
+            }
+            for (ObjectName name : sorted) {
+                List<String> attributes;
+                try {
+                    attributes = attributes(connection, object, name, allAttributes);
+                } catch (InstanceNotFoundException e) {
+                    // The MBean went away after we listed it.
+                    continue;
+                }
+                targets.add(new JmxTarget(name, columnPrefix(object.shortName(), objectName, name),
+                    attributes, true));
+            }
+        }
+        return targets;
+    }
+
+    private static List<String> attributes(MBeanServerConnection connection,
+            JmxObjectConfig object, ObjectName name,
+            Map<ObjectName, List<String>> allAttributes) throws Exception {
+        List<String> attributeList = allAttributes.get(name);
+        if (attributeList == null) {
+            if ((!object.attributes().isEmpty()) && object.objectName().isPattern()) {
+                // Listing the attributes of every MBean which matches a pattern
+                // would take a round trip each.  getAttributes will tell us if any
+                // are missing.
+                return object.attributes();
+            }
+            attributeList = new ArrayList<>();
+            for (MBeanAttributeInfo attributeInfo :
+                    connection.getMBeanInfo(name).getAttributes()) {
+                System.out.printf("** %s contains: %s%n", name, attributeInfo);
+                attributeList.add(attributeInfo.getName());
+            }
+            allAttributes.put(name, attributeList);
+        }
+        if (object.attributes().isEmpty()) {
+            return attributeList;
+        }
+        for (String attribute : object.attributes()) {
+            if (!attributeList.contains(attribute)) {
+                throw new RuntimeException("Unable to find attribute " + attribute + " for " +
+                    name + ".  Found: " + String.join("|", attributeList));
+            }
+        }
+        return object.attributes();
+    }
+
+    @Override
+    public String toString() {
+        return objectName.toString();
+    }
+}
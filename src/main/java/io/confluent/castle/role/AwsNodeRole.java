@@ -254,7 +254,7 @@ public class AwsNodeRole implements Role, UplinkRole {
             new Function<Void, Ec2Cloud>() {
                 @Override
                 public Ec2Cloud apply(Void v) {
-                    return new Ec2Cloud(settings);
+                    return new Ec2Cloud(settings, cluster.eventLog());
                 }
             });
         return new Ec2Uplink(this, cluster, node, cloud);
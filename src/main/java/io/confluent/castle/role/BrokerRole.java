@@ -42,6 +42,8 @@ public class BrokerRole implements Role {
 
     public static final int PORT = 9092;
 
+    public static final int JMX_PORT = 9192;
+
     private final int initialDelayMs;
 
     private final Map<String, String> conf;
@@ -107,7 +109,8 @@ public class BrokerRole implements Role {
                     bld.append(prefix);
                     prefix = ",";
                     CastleNode node = cluster.nodes().get(nodeName);
-                    bld.append(String.format("%s:%d", node.uplink().internalDns(), PORT));
+                    bld.append(String.format("%s:%d", node.uplink().internalDns(),
+                        PORT + node.uplink().portOffset()));
                 }
                 return bld.toString();
             }
@@ -49,6 +49,13 @@ public class DockerNodeRole implements Role, UplinkRole {
      */
     private final String dockerUser;
 
+    /**
+     * True if commands should be run with docker exec, rather than ssh.
+     * Containers started this way don't publish an ssh port or have their ssh key
+     * copied out.
+     */
+    private final boolean dockerExec;
+
     /**
      * The ssh port to use.
      */
@@ -74,12 +81,14 @@ public class DockerNodeRole implements Role, UplinkRole {
     @JsonCreator
     public DockerNodeRole(@JsonProperty("imageId") String imageId,
                           @JsonProperty("dockerUser") String dockerUser,
+                          @JsonProperty("dockerExec") boolean dockerExec,
                           @JsonProperty("sshPort") int sshPort,
                           @JsonProperty("containerName") String containerName,
                           @JsonProperty("sshIdentityPath") String sshIdentityPath,
                           @JsonProperty("additionalFiles") List<AdditionalFile> additionalFiles) {
         this.imageId = imageId == null ? "" : imageId;
         this.dockerUser = dockerUser == null ? "" : dockerUser;
+        this.dockerExec = dockerExec;
         this.sshPort = sshPort < 0 ? 0 : sshPort;
         this.containerName = containerName == null ? "" : containerName;
         this.sshIdentityPath = sshIdentityPath == null ? "" : sshIdentityPath;
@@ -97,6 +106,11 @@ public class DockerNodeRole implements Role, UplinkRole {
         return dockerUser;
     }
 
+    @JsonProperty
+    public boolean dockerExec() {
+        return dockerExec;
+    }
+
     @JsonProperty
     public synchronized int sshPort() {
         return sshPort;
@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.role;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.confluent.castle.action.Action;
+import io.confluent.castle.action.DestroyNodesAction;
+import io.confluent.castle.action.LocalDestroyAction;
+import io.confluent.castle.action.LocalInitAction;
+import io.confluent.castle.action.UplinkCheckAction;
+import io.confluent.castle.cluster.CastleCluster;
+import io.confluent.castle.cluster.CastleNode;
+import io.confluent.castle.uplink.LocalUplink;
+import io.confluent.castle.uplink.Uplink;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * A node which runs as processes on the machine running Castle, without ssh.
+ *
+ * Each local node has its own root directory.  Its processes see the mnt and
+ * tmp directories under the root directory as /mnt and /tmp.  They also run in
+ * their own process ID namespace, so that tools like ps and jcmd only find the
+ * node's own processes.  The network is shared, so each node's services listen
+ * on the standard ports plus the node's port offset.
+ *
+ * Local nodes need unprivileged user namespaces, and the unshare and nsenter
+ * tools from util-linux.
+ */
+public class LocalNodeRole implements Role, UplinkRole {
+    /**
+     * The port offset of a node is its index times this stride, unless it is
+     * configured.  No two of the standard ports are a multiple of the stride
+     * apart, so the shifted ports of different nodes never collide.
+     */
+    public static final int DEFAULT_PORT_STRIDE = 23;
+
+    /**
+     * The directory to create the root directories of the nodes in.  Each node's
+     * root directory is named after the node.
+     * If this is not set, an empty string will be used, and the nodes will use
+     * the "local" directory under the Castle working directory.
+     */
+    private final String baseDir;
+
+    /**
+     * The port offset, or null to use the default.
+     */
+    private final Integer portOffset;
+
+    /**
+     * The process which holds the node's namespaces, or 0 if the node is not
+     * running.
+     */
+    private long pid;
+
+    @JsonCreator
+    public LocalNodeRole(@JsonProperty("baseDir") String baseDir,
+                         @JsonProperty("portOffset") Integer portOffset,
+                         @JsonProperty("pid") long pid) {
+        this.baseDir = baseDir == null ? "" : baseDir;
+        this.portOffset = portOffset;
+        this.pid = pid < 0 ? 0 : pid;
+    }
+
+    @JsonProperty
+    public String baseDir() {
+        return baseDir;
+    }
+
+    @JsonProperty
+    public Integer portOffset() {
+        return portOffset;
+    }
+
+    @JsonProperty
+    public synchronized long pid() {
+        return pid;
+    }
+
+    public synchronized void setPid(long pid) {
+        this.pid = pid;
+    }
+
+    @Override
+    public Collection<Action> createActions(String nodeName) {
+        ArrayList<Action> actions = new ArrayList<>();
+        actions.add(new DestroyNodesAction(nodeName));
+        actions.add(new LocalDestroyAction(nodeName, this));
+        actions.add(new LocalInitAction(nodeName, this));
+        actions.add(new UplinkCheckAction(nodeName));
+        return actions;
+    }
+
+    @Override
+    public Uplink createUplink(CastleCluster cluster, CastleNode node) {
+        return new LocalUplink(this, cluster, node);
+    }
+};
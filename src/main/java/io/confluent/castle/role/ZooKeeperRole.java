@@ -31,6 +31,12 @@ public class ZooKeeperRole implements Role {
     public static final String ZOOKEEPER_CLASS_NAME =
         "org.apache.zookeeper.server.quorum.QuorumPeerMain";
 
+    public static final int PORT = 2181;
+
+    public static final int PEER_PORT = 2888;
+
+    public static final int ELECTION_PORT = 3888;
+
     private final int initialDelayMs;
 
     @JsonCreator
@@ -17,7 +17,12 @@
 
 package io.confluent.castle.tool;
 
+import io.confluent.castle.action.ActionDurationHistory;
+import io.confluent.castle.action.ActionJournal;
+import io.confluent.castle.action.ActionPlan;
+import io.confluent.castle.action.ActionTracer;
 import io.confluent.castle.common.CastleLog;
+import io.confluent.castle.common.EventLog;
 
 import java.io.IOException;
 import java.nio.file.Paths;
@@ -41,6 +46,10 @@ public class CastleEnvironment {
         return CastleLog.fromFile(workingDirectory, nodeName, true);
     }
 
+    public EventLog createEventLog() throws IOException {
+        return EventLog.fromFile(eventLogPath());
+    }
+
     public String workingDirectory() {
         return workingDirectory;
     }
@@ -48,4 +57,34 @@ public class CastleEnvironment {
     public String clusterOutputPath() {
         return Paths.get(workingDirectory, CLUSTER_FILE_NAME).toAbsolutePath().toString();
     }
+
+    public String actionDurationHistoryPath() {
+        return Paths.get(workingDirectory, ActionDurationHistory.FILE_NAME).
+            toAbsolutePath().toString();
+    }
+
+    public String actionJournalPath() {
+        return Paths.get(workingDirectory, ActionJournal.FILE_NAME).
+            toAbsolutePath().toString();
+    }
+
+    public String actionTracePath() {
+        return Paths.get(workingDirectory, ActionTracer.TRACE_FILE_NAME).
+            toAbsolutePath().toString();
+    }
+
+    public String actionSummaryPath() {
+        return Paths.get(workingDirectory, ActionTracer.SUMMARY_FILE_NAME).
+            toAbsolutePath().toString();
+    }
+
+    public String eventLogPath() {
+        return Paths.get(workingDirectory, EventLog.FILE_NAME).
+            toAbsolutePath().toString();
+    }
+
+    public String actionPlanPath() {
+        return Paths.get(workingDirectory, ActionPlan.SUMMARY_FILE_NAME).
+            toAbsolutePath().toString();
+    }
 };
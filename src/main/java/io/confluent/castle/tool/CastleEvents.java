@@ -0,0 +1,265 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.tool;
+
+import io.confluent.castle.common.EventLog;
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.Namespace;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import static net.sourceforge.argparse4j.impl.Arguments.store;
+import static net.sourceforge.argparse4j.impl.Arguments.storeTrue;
+
+/**
+ * Summarizes the event log which castle writes to its working directory.
+ *
+ * The reports are:
+ *   slowest:       The slowest commands on each node.
+ *   action-types:  The time spent running actions of each type, and running
+ *                  commands for them.
+ *   nodes:         The time spent running commands for each node.
+ *   cloud:         The time spent calling each cloud API.
+ */
+public final class CastleEvents {
+    static final String SLOWEST = "slowest";
+
+    static final String ACTION_TYPES = "action-types";
+
+    static final String NODES = "nodes";
+
+    static final String CLOUD = "cloud";
+
+    /**
+     * Totals for a group of events.
+     */
+    static final class Totals {
+        private long count = 0;
+        private long failures = 0;
+        private long totalNs = 0;
+        private long maxNs = 0;
+        private long outputBytes = 0;
+
+        void add(EventLog.Event event) {
+            count++;
+            long durationNs = event.durationNs();
+            totalNs += durationNs;
+            maxNs = Math.max(maxNs, durationNs);
+            if (failed(event)) {
+                failures++;
+            }
+            if (event.outputBytes() != null) {
+                outputBytes += event.outputBytes();
+            }
+        }
+    }
+
+    private static boolean failed(EventLog.Event event) {
+        if (event.error() != null) {
+            return true;
+        }
+        return (event.event().equals(EventLog.COMMAND)) &&
+            ((event.exitCode() == null) || (event.exitCode() != 0));
+    }
+
+    private static long toMillis(long ns) {
+        return TimeUnit.NANOSECONDS.toMillis(ns);
+    }
+
+    private static <K> Totals totals(Map<K, Totals> map, K key) {
+        Totals totals = map.get(key);
+        if (totals == null) {
+            totals = new Totals();
+            map.put(key, totals);
+        }
+        return totals;
+    }
+
+    /**
+     * Describe the slowest commands for each node.
+     *
+     * @param events    The events.
+     * @param limit     The number of commands to show for each node.
+     */
+    static String slowest(List<EventLog.Event> events, int limit) {
+        Map<String, List<EventLog.Event>> byNode = new TreeMap<>();
+        for (EventLog.Event event : events) {
+            if (event.event().equals(EventLog.COMMAND)) {
+                byNode.computeIfAbsent(event.node(), k -> new ArrayList<>()).add(event);
+            }
+        }
+        StringBuilder bld = new StringBuilder();
+        for (Map.Entry<String, List<EventLog.Event>> entry : byNode.entrySet()) {
+            List<EventLog.Event> commands = entry.getValue();
+            commands.sort(Comparator.comparingLong(EventLog.Event::durationNs).reversed());
+            bld.append(String.format("%s:%n", entry.getKey()));
+            bld.append(String.format("  %10s %6s %12s  %-32s %s%n",
+                "TIME_MS", "EXIT", "OUTPUT_BYTES", "ACTION", "COMMAND"));
+            for (EventLog.Event event : commands.subList(0, Math.min(limit, commands.size()))) {
+                bld.append(String.format("  %10d %6s %12d  %-32s %s%n",
+                    toMillis(event.durationNs()),
+                    (event.exitCode() == null) ? "-" : event.exitCode().toString(),
+                    (event.outputBytes() == null) ? 0 : event.outputBytes(),
+                    (event.action() == null) ? "-" : event.action(),
+                    event.command()));
+            }
+        }
+        return bld.toString();
+    }
+
+    /**
+     * Describe the time spent on each type of action.  The command columns count
+     * the commands which ran on behalf of actions of that type.
+     */
+    static String actionTypes(List<EventLog.Event> events) {
+        Map<String, Totals> actions = new TreeMap<>();
+        Map<String, Totals> commands = new TreeMap<>();
+        for (EventLog.Event event : events) {
+            if (event.event().equals(EventLog.ACTION)) {
+                totals(actions, event.actionType()).add(event);
+                totals(commands, event.actionType());
+            } else if (event.event().equals(EventLog.COMMAND)) {
+                totals(actions, event.actionType());
+                totals(commands, event.actionType()).add(event);
+            }
+        }
+        StringBuilder bld = new StringBuilder();
+        bld.append(String.format("%-24s %8s %8s %12s %10s %10s %12s %14s%n",
+            "TYPE", "ACTIONS", "FAILED", "ACTION_MS", "COMMANDS", "FAILED", "COMMAND_MS",
+            "OUTPUT_BYTES"));
+        for (Map.Entry<String, Totals> entry : actions.entrySet()) {
+            Totals action = entry.getValue();
+            Totals command = commands.get(entry.getKey());
+            bld.append(String.format("%-24s %8d %8d %12d %10d %10d %12d %14d%n",
+                entry.getKey().isEmpty() ? "(none)" : entry.getKey(),
+                action.count, action.failures, toMillis(action.totalNs),
+                command.count, command.failures, toMillis(command.totalNs),
+                command.outputBytes));
+        }
+        return bld.toString();
+    }
+
+    /**
+     * Describe the commands which ran for each node.
+     */
+    static String nodes(List<EventLog.Event> events) {
+        Map<String, Totals> nodes = new TreeMap<>();
+        for (EventLog.Event event : events) {
+            if (event.event().equals(EventLog.COMMAND)) {
+                totals(nodes, event.node()).add(event);
+            }
+        }
+        StringBuilder bld = new StringBuilder();
+        bld.append(String.format("%-24s %10s %10s %12s %10s %14s%n",
+            "NODE", "COMMANDS", "FAILED", "COMMAND_MS", "MAX_MS", "OUTPUT_BYTES"));
+        for (Map.Entry<String, Totals> entry : nodes.entrySet()) {
+            Totals totals = entry.getValue();
+            bld.append(String.format("%-24s %10d %10d %12d %10d %14d%n",
+                entry.getKey(), totals.count, totals.failures, toMillis(totals.totalNs),
+                toMillis(totals.maxNs), totals.outputBytes));
+        }
+        return bld.toString();
+    }
+
+    /**
+     * Describe the calls made to each cloud API.
+     */
+    static String cloud(List<EventLog.Event> events) {
+        Map<String, Totals> calls = new TreeMap<>();
+        for (EventLog.Event event : events) {
+            if (event.event().equals(EventLog.CLOUD)) {
+                String call = event.command();
+                int space = call.indexOf(' ');
+                totals(calls, (space < 0) ? call : call.substring(0, space)).add(event);
+            }
+        }
+        StringBuilder bld = new StringBuilder();
+        bld.append(String.format("%-32s %8s %8s %12s %10s%n",
+            "CALL", "COUNT", "FAILED", "TOTAL_MS", "MAX_MS"));
+        for (Map.Entry<String, Totals> entry : calls.entrySet()) {
+            Totals totals = entry.getValue();
+            bld.append(String.format("%-32s %8d %8d %12d %10d%n",
+                entry.getKey(), totals.count, totals.failures,
+                toMillis(totals.totalNs), toMillis(totals.maxNs)));
+        }
+        return bld.toString();
+    }
+
+    static String report(String report, List<EventLog.Event> events, int limit) {
+        switch (report) {
+            case SLOWEST:
+                return slowest(events, limit);
+            case ACTION_TYPES:
+                return actionTypes(events);
+            case NODES:
+                return nodes(events);
+            case CLOUD:
+                return cloud(events);
+            default:
+                throw new RuntimeException("Unknown report " + report);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        ArgumentParser parser = ArgumentParsers.newFor("castle-events").
+            addHelp(true).build().
+            description("Summarizes the castle event log.");
+
+        parser.addArgument("-w", "--working-directory")
+            .action(store())
+            .type(String.class)
+            .dest("working_directory")
+            .metavar("WORKING_DIRECTORY")
+            .setDefault(".")
+            .help("The castle working directory which contains the event log.");
+        parser.addArgument("--limit")
+            .action(store())
+            .type(Integer.class)
+            .dest("limit")
+            .metavar("LIMIT")
+            .setDefault(5)
+            .help("The number of commands to show for each node in the slowest report.");
+        parser.addArgument("--all-runs")
+            .action(storeTrue())
+            .type(Boolean.class)
+            .dest("all_runs")
+            .setDefault(false)
+            .help("Include every run in the event log, rather than just the last one.");
+        parser.addArgument("report")
+            .action(store())
+            .type(String.class)
+            .dest("report")
+            .metavar("REPORT")
+            .choices(SLOWEST, ACTION_TYPES, NODES, CLOUD)
+            .help("The report to print: " + SLOWEST + ", " + ACTION_TYPES + ", " +
+                NODES + ", or " + CLOUD + ".");
+
+        Namespace res = parser.parseArgsOrFail(args);
+        String path = Paths.get(res.getString("working_directory"), EventLog.FILE_NAME).
+            toString();
+        List<EventLog.Event> events = EventLog.read(path, res.getBoolean("all_runs"));
+        System.out.print(report(res.getString("report"), events, res.getInt("limit")));
+    }
+};
@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.tool;
+
+import io.confluent.castle.action.ActionPlan;
+import io.confluent.castle.action.ActionScheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Implements "castle plan", which prints what running the given targets would do,
+ * and how long it should take, without running anything.
+ */
+public final class CastlePlan {
+    final static String COMMAND = "plan";
+
+    /**
+     * Get the targets to plan from the command-line targets.
+     */
+    static List<String> parse(List<String> targets) {
+        if (targets.isEmpty() || !targets.get(0).equals(COMMAND)) {
+            throw new RuntimeException("Plan must come before the targets to plan.");
+        }
+        List<String> planTargets = new ArrayList<>(targets.subList(1, targets.size()));
+        if (planTargets.isEmpty()) {
+            throw new RuntimeException("You must supply at least one target to plan.");
+        }
+        if (planTargets.contains(COMMAND) || planTargets.contains(CastleSsh.COMMAND)) {
+            throw new RuntimeException("Plan cannot be combined with " + COMMAND +
+                " or " + CastleSsh.COMMAND + ".");
+        }
+        return planTargets;
+    }
+
+    /**
+     * Build the plan and print it.
+     *
+     * @param builder       The scheduler builder which would be used to run the targets.
+     * @param summaryPath   The path to write the plan summary to.
+     * @param dotPath       If this is not empty, the path to write a DOT graph to.
+     */
+    public static void run(ActionScheduler.Builder builder, String summaryPath,
+                           String dotPath) throws Exception {
+        ActionPlan plan = builder.buildPlan();
+        System.out.print(plan.summary());
+        plan.writeSummary(summaryPath);
+        System.out.printf("%nWrote plan to %s%n", summaryPath);
+        if (!dotPath.isEmpty()) {
+            plan.writeDot(dotPath);
+            System.out.printf("Wrote DOT graph to %s%n", dotPath);
+        }
+    }
+};
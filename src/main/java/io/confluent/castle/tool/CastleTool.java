@@ -30,8 +30,14 @@ import net.sourceforge.argparse4j.ArgumentParserBuilder;
 import net.sourceforge.argparse4j.ArgumentParsers;
 import net.sourceforge.argparse4j.inf.ArgumentParser;
 import net.sourceforge.argparse4j.inf.Namespace;
+import io.confluent.castle.action.ActionDurationHistory;
+import io.confluent.castle.action.ActionJournal;
 import io.confluent.castle.action.ActionRegistry;
+import io.confluent.castle.action.ActionResource;
 import io.confluent.castle.action.ActionScheduler;
+import io.confluent.castle.action.ActionTracer;
+import io.confluent.castle.action.ExecutorMode;
+import io.confluent.castle.action.SchedulingPolicy;
 import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleClusterSpec;
 import io.confluent.castle.common.CastleLog;
@@ -61,6 +67,19 @@ public final class CastleTool {
     private static final boolean CASTLE_VERBOSE_DEFAULT = false;
     private static final String CASTLE_MAX_CONCURRENT_ACTIONS = "CASTLE_MAX_CONCURRENT_ACTIONS";
     private static final int CASTLE_MAX_CONCURRENT_ACTIONS_DEFAULT = 6;
+    private static final String CASTLE_EXECUTOR_MODE = "CASTLE_EXECUTOR_MODE";
+    private static final String CASTLE_EXECUTOR_MODE_DEFAULT = ExecutorMode.SHARED.toString();
+    private static final String CASTLE_MAX_EXECUTOR_THREADS = "CASTLE_MAX_EXECUTOR_THREADS";
+    private static final String CASTLE_RESOURCE_LIMITS = "CASTLE_RESOURCE_LIMITS";
+    private static final String CASTLE_SCHEDULING_POLICY = "CASTLE_SCHEDULING_POLICY";
+    private static final String CASTLE_SCHEDULING_POLICY_DEFAULT = SchedulingPolicy.FIFO.toString();
+    private static final String CASTLE_ADAPTIVE_CONCURRENCY = "CASTLE_ADAPTIVE_CONCURRENCY";
+    private static final boolean CASTLE_ADAPTIVE_CONCURRENCY_DEFAULT = false;
+    private static final String CASTLE_MIN_CONCURRENT_ACTIONS = "CASTLE_MIN_CONCURRENT_ACTIONS";
+    private static final int CASTLE_MIN_CONCURRENT_ACTIONS_DEFAULT = 1;
+    private static final String CASTLE_RESUME = "CASTLE_RESUME";
+    private static final boolean CASTLE_RESUME_DEFAULT = false;
+    private static final String CASTLE_PLAN_DOT = "CASTLE_PLAN_DOT";
     private static final String CASTLE_PREFIX = "CASTLE_";
 
     private static final String CASTLE_DESCRIPTION = String.format(
@@ -84,6 +103,9 @@ public final class CastleTool {
         "destroyNodes:    Destroy all nodes.%n" +
         "%n" +
         "ssh [nodes] [cmd]: Ssh to the given node(s)%n" +
+        "%n" +
+        "plan [targets]:    Print the actions which the targets would run, and%n" +
+        "                   predict how long they will take, without running them.%n" +
         "%n");
 
     private static String getEnv(String name, String defaultValue) {
@@ -150,6 +172,40 @@ public final class CastleTool {
         }
     }
 
+    /**
+     * Create a scheduler builder for the given targets, configured from the
+     * command-line arguments.
+     */
+    private static ActionScheduler.Builder createSchedulerBuilder(CastleCluster cluster,
+            List<String> targets, Namespace res, ActionDurationHistory durationHistory,
+            ActionJournal journal) throws Exception {
+        int maxConcurrentActions = res.getInt(CASTLE_MAX_CONCURRENT_ACTIONS);
+        Map<ActionResource, Integer> resourceLimits =
+            ActionResource.parseLimits(res.getString(CASTLE_RESOURCE_LIMITS));
+        ExecutorMode executorMode =
+            ExecutorMode.fromString(res.getString(CASTLE_EXECUTOR_MODE));
+        int maxExecutorThreads = res.getInt(CASTLE_MAX_EXECUTOR_THREADS);
+        int minAdaptiveConcurrency = 0;
+        int maxAdaptiveConcurrency = 0;
+        if (res.getBoolean(CASTLE_ADAPTIVE_CONCURRENCY)) {
+            minAdaptiveConcurrency = res.getInt(CASTLE_MIN_CONCURRENT_ACTIONS);
+            maxAdaptiveConcurrency = maxConcurrentActions;
+        }
+        SchedulingPolicy schedulingPolicy =
+            SchedulingPolicy.fromString(res.getString(CASTLE_SCHEDULING_POLICY));
+        return cluster.createSchedulerBuilder(targets,
+                ActionRegistry.INSTANCE.actions(cluster.nodes().keySet())).
+            setMaxConcurrentActions(maxConcurrentActions).
+            setResourceLimits(resourceLimits).
+            setSchedulingPolicy(schedulingPolicy).
+            setExecutorMode(executorMode).
+            setMaxExecutorThreads(maxExecutorThreads).
+            setDurationHistory(durationHistory).
+            setAdaptiveConcurrency(minAdaptiveConcurrency, maxAdaptiveConcurrency).
+            setJournal(journal).
+            setResume(res.getBoolean(CASTLE_RESUME));
+    }
+
     public static void main(String[] args) throws Throwable {
         ArgumentParser parser = ArgumentParsers.newFor("castle-tool").
             addHelp(true).build().
@@ -184,7 +240,83 @@ public final class CastleTool {
             .metavar(CASTLE_MAX_CONCURRENT_ACTIONS)
             .setDefault(Integer.valueOf(getEnv(CASTLE_MAX_CONCURRENT_ACTIONS,
                 Integer.toString(CASTLE_MAX_CONCURRENT_ACTIONS_DEFAULT))))
-            .help("The maximum number of concurrent actions to allow.");
+            .help("The maximum number of concurrent actions to allow, across all " +
+                "resource classes except lightweight-probe, which is not limited.");
+        parser.addArgument("--adaptive-concurrency")
+            .action(storeTrue())
+            .type(Boolean.class)
+            .required(false)
+            .dest(CASTLE_ADAPTIVE_CONCURRENCY)
+            .metavar(CASTLE_ADAPTIVE_CONCURRENCY)
+            .setDefault(getEnvBoolean(CASTLE_ADAPTIVE_CONCURRENCY,
+                CASTLE_ADAPTIVE_CONCURRENCY_DEFAULT))
+            .help("Adjust the number of concurrent actions as the run goes, between " +
+                "--min-concurrent-actions and --max-concurrent-actions.  The limit goes " +
+                "up while throughput improves, and is halved when commands fail, ssh " +
+                "cannot connect, or actions take much longer than usual.");
+        parser.addArgument("--min-concurrent-actions")
+            .action(store())
+            .type(Integer.class)
+            .dest(CASTLE_MIN_CONCURRENT_ACTIONS)
+            .metavar(CASTLE_MIN_CONCURRENT_ACTIONS)
+            .setDefault(Integer.valueOf(getEnv(CASTLE_MIN_CONCURRENT_ACTIONS,
+                Integer.toString(CASTLE_MIN_CONCURRENT_ACTIONS_DEFAULT))))
+            .help("The minimum number of concurrent actions to allow, when using " +
+                "--adaptive-concurrency.");
+        parser.addArgument("--resource-limits")
+            .action(store())
+            .type(String.class)
+            .dest(CASTLE_RESOURCE_LIMITS)
+            .metavar(CASTLE_RESOURCE_LIMITS)
+            .setDefault(getEnv(CASTLE_RESOURCE_LIMITS, ""))
+            .help("Limits on the number of concurrent actions for each resource class, " +
+                "such as bulk-transfer=2,cloud-api=4.  These override the concurrencyLimits " +
+                "in the cluster conf, and apply on top of --max-concurrent-actions.  The " +
+                "resource classes are default, cloud-api, bulk-transfer, remote-cpu and " +
+                "lightweight-probe.");
+        parser.addArgument("--scheduling-policy")
+            .action(store())
+            .type(String.class)
+            .dest(CASTLE_SCHEDULING_POLICY)
+            .metavar(CASTLE_SCHEDULING_POLICY)
+            .setDefault(getEnv(CASTLE_SCHEDULING_POLICY, CASTLE_SCHEDULING_POLICY_DEFAULT))
+            .help("The order in which to run actions when concurrency is limited.  " +
+                "Either fifo, or critical-path to run the actions with the longest " +
+                "remaining chain of dependent actions first.");
+        parser.addArgument("--executor-mode")
+            .action(store())
+            .type(String.class)
+            .dest(CASTLE_EXECUTOR_MODE)
+            .metavar(CASTLE_EXECUTOR_MODE)
+            .setDefault(getEnv(CASTLE_EXECUTOR_MODE, CASTLE_EXECUTOR_MODE_DEFAULT))
+            .help("How to run actions: shared to use a bounded thread pool shared by " +
+                "all nodes, virtual to use virtual threads, or per-node to use a " +
+                "dedicated thread for each node.");
+        parser.addArgument("--max-executor-threads")
+            .action(store())
+            .type(Integer.class)
+            .dest(CASTLE_MAX_EXECUTOR_THREADS)
+            .metavar(CASTLE_MAX_EXECUTOR_THREADS)
+            .setDefault(Integer.valueOf(getEnv(CASTLE_MAX_EXECUTOR_THREADS,
+                Integer.toString(ActionScheduler.DEFAULT_MAX_EXECUTOR_THREADS))))
+            .help("The maximum number of threads to use in the shared executor mode.");
+        parser.addArgument("--resume")
+            .action(storeTrue())
+            .type(Boolean.class)
+            .required(false)
+            .dest(CASTLE_RESUME)
+            .metavar(CASTLE_RESUME)
+            .setDefault(getEnvBoolean(CASTLE_RESUME, CASTLE_RESUME_DEFAULT))
+            .help("Skip setup actions which the action journal shows already completed " +
+                "with the same inputs in an earlier run.");
+        parser.addArgument("--plan-dot")
+            .action(store())
+            .type(String.class)
+            .dest(CASTLE_PLAN_DOT)
+            .metavar(CASTLE_PLAN_DOT)
+            .setDefault(getEnv(CASTLE_PLAN_DOT, ""))
+            .help("When running plan, also write the action graph to this path in " +
+                "Graphviz DOT format.");
         parser.addArgument("target")
             .nargs("*")
             .action(store())
@@ -228,20 +360,47 @@ public final class CastleTool {
             CastleEnvironment env = new CastleEnvironment(workingDirectory);
             CastleClusterSpec clusterSpec = readClusterSpec(clusterPath);
 
-            int maxConcurrentActions = res.getInt(CASTLE_MAX_CONCURRENT_ACTIONS);
             try (CastleCluster cluster = new CastleCluster(env, clusterLog,
                     shutdownManager, clusterSpec)) {
                 if (targets.contains(CastleSsh.COMMAND)) {
                     CastleSsh.run(cluster, targets);
+                } else if (targets.contains(CastlePlan.COMMAND)) {
+                    ActionDurationHistory durationHistory =
+                        ActionDurationHistory.load(env.actionDurationHistoryPath());
+                    ActionJournal journal = ActionJournal.load(env.actionJournalPath());
+                    CastlePlan.run(createSchedulerBuilder(cluster, CastlePlan.parse(targets),
+                            res, durationHistory, journal), env.actionPlanPath(),
+                        res.getString(CASTLE_PLAN_DOT));
                 } else {
-                    try (ActionScheduler scheduler = cluster.createScheduler(targets,
-                            ActionRegistry.INSTANCE.actions(cluster.nodes().keySet()),
-                            maxConcurrentActions)) {
+                    ActionDurationHistory durationHistory =
+                        ActionDurationHistory.load(env.actionDurationHistoryPath());
+                    ActionTracer tracer = new ActionTracer();
+                    ActionJournal journal = ActionJournal.load(env.actionJournalPath());
+                    try (ActionScheduler scheduler = createSchedulerBuilder(cluster, targets,
+                            res, durationHistory, journal).
+                                setTracer(tracer).
+                                build()) {
                         signalHandler.register(CastleSignalHandler.CastleSignal.HUP,
                             () -> scheduler.logCurrentActions(System.out));
                         scheduler.await(cluster.conf().globalTimeout(), TimeUnit.SECONDS);
                     } finally {
                         signalHandler.unregister(CastleSignalHandler.CastleSignal.HUP);
+                        CastleUtil.closeQuietly(clusterLog, journal, "action journal");
+                        try {
+                            durationHistory.save();
+                        } catch (Exception e) {
+                            clusterLog.error("Unable to save action durations to {}",
+                                env.actionDurationHistoryPath(), e);
+                        }
+                        try {
+                            tracer.writeTrace(env.actionTracePath());
+                            tracer.writeSummary(env.actionSummaryPath());
+                            clusterLog.printf("*** Wrote action trace to %s and summary to %s%n",
+                                env.actionTracePath(), env.actionSummaryPath());
+                        } catch (Exception e) {
+                            clusterLog.error("Unable to write action trace to {}",
+                                env.actionTracePath(), e);
+                        }
                     }
                 }
             }
@@ -20,7 +20,9 @@ package io.confluent.castle.uplink;
 import io.confluent.castle.cloud.DockerCloud;
 import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleNode;
+import io.confluent.castle.command.AgentCommand;
 import io.confluent.castle.command.Command;
+import io.confluent.castle.command.DockerExecCommand;
 import io.confluent.castle.command.SshCommand;
 import io.confluent.castle.common.CastleLog;
 import io.confluent.castle.common.CastleUtil;
@@ -54,8 +56,15 @@ public class DockerUplink implements Uplink {
      */
     @Override
     public Command command() {
-        return new SshCommand(node, "localhost", role.dockerUser(),
-            role.sshPort(), role.sshIdentityPath());
+        if (role.dockerExec()) {
+            return new DockerExecCommand(node, role.containerName(), role.dockerUser());
+        }
+        SshCommand sshCommand = new SshCommand(node, "localhost", role.dockerUser(),
+            role.sshPort(), role.sshIdentityPath(), cluster.sshConnectionPool());
+        if (cluster.agentConnectionPool().enabled()) {
+            return new AgentCommand(node, sshCommand, cluster.agentConnectionPool());
+        }
+        return sshCommand;
     }
 
     @Override
@@ -70,6 +79,9 @@ public class DockerUplink implements Uplink {
 
     @Override
     public boolean canLogin() {
+        if (role.dockerExec()) {
+            return started();
+        }
         return role.sshPort() > 0;
     }
 
@@ -93,6 +105,9 @@ public class DockerUplink implements Uplink {
         String containerId = cloud.startup(cluster, node, role, containerName);
         node.log().printf("*** Created a new docker container %s%n", containerId);
         role.setContainerName(containerName);
+        if (role.dockerExec()) {
+            return;
+        }
         role.setSshPort(cloud.getDockerPort(cluster, node, containerName));
         role.setSshIdentityPath(cloud.saveSshKeyFile(cluster, node, containerName, role.dockerUser()));
     }
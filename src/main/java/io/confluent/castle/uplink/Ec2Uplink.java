@@ -17,25 +17,117 @@
 
 package io.confluent.castle.uplink;
 
+import io.confluent.castle.action.RetryPolicy;
 import io.confluent.castle.cloud.Ec2Cloud;
 import io.confluent.castle.cloud.Ec2InstanceInfo;
 import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleNode;
+import io.confluent.castle.command.AgentCommand;
 import io.confluent.castle.command.Command;
+import io.confluent.castle.command.CommandResultException;
 import io.confluent.castle.command.SshCommand;
 import io.confluent.castle.common.CastleLog;
+import io.confluent.castle.common.CastleUtil;
 import io.confluent.castle.role.AwsNodeRole;
+import io.confluent.castle.tool.CastleReturnCode;
+import io.confluent.castle.tool.CastleShutdownHook;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Represents an uplink to a Docker node.
  */
 public class Ec2Uplink implements Uplink {
-    private final static int DNS_POLL_DELAY_MS = 200;
+    private final static int POLL_DELAY_MS = 200;
 
-    private final static int SSH_POLL_DELAY_MS = 200;
+    private final static int POLL_MAX_DELAY_MS = 5000;
+
+    /**
+     * Used to back off between checks on whether a new instance has its DNS names
+     * and accepts ssh connections.  The instance may take a minute or two to boot,
+     * so there is no limit on attempts; the global timeout bounds how long we wait.
+     */
+    private final static RetryPolicy POLL_BACKOFF = new RetryPolicy(Integer.MAX_VALUE,
+        POLL_DELAY_MS, POLL_MAX_DELAY_MS, null, null);
+
+    /**
+     * How long each ssh check waits for a connection.  An instance which is still
+     * booting often drops packets rather than refusing them, and without a timeout
+     * ssh would wait for minutes.
+     */
+    private final static int SSH_CHECK_CONNECT_TIMEOUT_S = 5;
+
+    /**
+     * The most ssh checks which we run at once, across all nodes.  Further checks
+     * wait in the queue.
+     */
+    private final static int MAX_SSH_CHECK_THREADS = 16;
+
+    private final static long SSH_CHECK_THREAD_KEEPALIVE_MS = 60000;
+
+    /**
+     * The threads which run the ssh checks, shared by all nodes.
+     */
+    private final static ExecutorService SSH_CHECK_EXECUTOR = createSshCheckExecutor();
+
+    private static ExecutorService createSshCheckExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_SSH_CHECK_THREADS,
+            MAX_SSH_CHECK_THREADS, SSH_CHECK_THREAD_KEEPALIVE_MS, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            CastleUtil.createThreadFactory("Ec2UplinkSshCheck%d", true));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * An instance which we created for this node, and are waiting to become ready.
+     */
+    private static final class Candidate {
+        private final String instanceId;
+        private String privateDns = "";
+        private String publicDns = "";
+        private volatile boolean terminated = false;
+
+        Candidate(String instanceId) {
+            this.instanceId = instanceId;
+        }
+    }
+
+    /**
+     * Terminates a candidate on shutdown, unless it has already been terminated,
+     * or it is the node's instance.  The node's instance is handled by
+     * DestroyAwsInstancesShutdownHook.  Without this, a replacement instance
+     * would leak if castle exited while the node was starting up.
+     */
+    private final class TerminateCandidateShutdownHook extends CastleShutdownHook {
+        private final Candidate candidate;
+
+        TerminateCandidateShutdownHook(Candidate candidate) {
+            super("TerminateCandidateShutdownHook_" + candidate.instanceId);
+            this.candidate = candidate;
+        }
+
+        @Override
+        public void run(CastleReturnCode returnCode) throws Throwable {
+            if (candidate.terminated || candidate.instanceId.equals(role.instanceId())) {
+                return;
+            }
+            cluster.clusterLog().printf("*** Terminating unused instance %s%n",
+                candidate.instanceId);
+            cloud.terminateInstance(candidate.instanceId).get();
+        }
+    }
 
     private final AwsNodeRole role;
 
@@ -57,6 +149,9 @@ public class Ec2Uplink implements Uplink {
      */
     @Override
     public Command command() {
+        if (cluster.agentConnectionPool().enabled()) {
+            return new AgentCommand(node, sshCommand(), cluster.agentConnectionPool());
+        }
         return sshCommand();
     }
 
@@ -65,7 +160,8 @@ public class Ec2Uplink implements Uplink {
             role.dns(),
             role.sshUser(),
             role.sshPort(),
-            role.sshIdentityFile());
+            role.sshIdentityFile(),
+            cluster.sshConnectionPool());
     }
 
     @Override
@@ -83,56 +179,187 @@ public class Ec2Uplink implements Uplink {
         return !role.privateDns().isEmpty();
     }
 
+    /**
+     * Create a new instance, and wait for it to get its DNS names and accept ssh
+     * connections.
+     *
+     * If speculative startup is enabled, and the instance takes much longer to
+     * become ready than other nodes' instances did, we create a replacement
+     * instance.  Whichever instance is ready first is used, and the others are
+     * terminated.  The candidates are checked in parallel, so that one which is
+     * still booting doesn't hold up one which is already reachable.
+     */
     @Override
     public void startup() throws Exception {
+        StragglerDetector detector = cluster.stragglerDetector();
+        if (detector != null) {
+            detector.starting();
+        }
+        long startNs = System.nanoTime();
+        List<Candidate> candidates = new ArrayList<>();
+        Candidate winner = null;
+        try {
+            candidates.add(createCandidate());
+            // Record the first instance in the role, so that the shutdown hook can
+            // terminate it if we exit unexpectedly.  Every candidate also has its
+            // own shutdown hook, which covers the replacements.
+            role.setInstanceId(candidates.get(0).instanceId);
+            for (int attempt = 1; winner == null; attempt++) {
+                Thread.sleep(POLL_BACKOFF.backoffMs(attempt));
+                List<Candidate> ready = new ArrayList<>();
+                for (Candidate candidate : candidates) {
+                    if (checkCandidateDns(candidate)) {
+                        ready.add(candidate);
+                    }
+                }
+                winner = firstReachable(ready);
+                if ((winner == null) && (detector != null)) {
+                    maybeCreateReplacement(detector, candidates, startNs);
+                }
+            }
+        } finally {
+            terminateLosers(candidates, winner);
+        }
+        role.setInstanceId(winner.instanceId);
+        role.setPrivateDns(winner.privateDns);
+        role.setPublicDns(winner.publicDns);
+        if (detector != null) {
+            detector.started(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNs));
+        }
+        CastleLog.printToAll(String.format("*** Successfully created an AWS node for %s%n",
+            node.nodeName()), node.log(), cluster.clusterLog());
+    }
+
+    private Candidate createCandidate() throws Exception {
         node.log().printf("*** Creating new instance with instance type %s, imageId %s%n",
             role.instanceType(), role.imageId());
-        String instanceId = cloud.createInstance(role.instanceType(), role.imageId(),
-            node.nodeIndex()).get();
-        role.setInstanceId(instanceId);
-
-        // Wait for the DNS to be set up.
-        do {
-            if (DNS_POLL_DELAY_MS > 0) {
-                Thread.sleep(DNS_POLL_DELAY_MS);
-            }
-        } while (!checkStartingInstanceDns());
+        Candidate candidate = new Candidate(cloud.createInstance(role.instanceType(),
+            role.imageId(), node.nodeIndex()).get());
+        cluster.shutdownManager().addHookIfMissing(new TerminateCandidateShutdownHook(candidate));
+        return candidate;
+    }
+
+    private void maybeCreateReplacement(StragglerDetector detector,
+                                        List<Candidate> candidates,
+                                        long startNs) throws Exception {
+        if (candidates.size() > detector.conf().maxReplacements()) {
+            return;
+        }
+        long deadlineMs = detector.deadlineMs();
+        if (deadlineMs < 0) {
+            return;
+        }
+        // Each replacement gets its own deadline before we start another one.
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNs);
+        if (elapsedMs < deadlineMs * candidates.size()) {
+            return;
+        }
+        CastleLog.printToAll(String.format("*** %s: startup has taken %d ms, which is longer " +
+            "than the deadline of %d ms.  Creating a replacement instance.%n",
+            node.nodeName(), elapsedMs, deadlineMs), node.log(), cluster.clusterLog());
+        candidates.add(createCandidate());
+    }
 
-        // Wait for the SSH to work
-        do {
-            if (SSH_POLL_DELAY_MS > 0) {
-                Thread.sleep(SSH_POLL_DELAY_MS);
+    private void terminateLosers(List<Candidate> candidates, Candidate winner) {
+        List<Candidate> losers = new ArrayList<>();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (Candidate candidate : candidates) {
+            if (candidate != winner) {
+                node.log().printf("*** Terminating unused instance %s%n", candidate.instanceId);
+                losers.add(candidate);
+                futures.add(cloud.terminateInstance(candidate.instanceId));
             }
-        } while (!checkStartingInstanceSsh());
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                futures.get(i).get();
+                losers.get(i).terminated = true;
+            } catch (Exception e) {
+                node.log().error("*** Failed to terminate unused instance", e);
+            }
+        }
     }
 
-    private boolean checkStartingInstanceDns() throws Exception {
-        Ec2InstanceInfo info = cloud.describeInstance(role.instanceId()).get();
+    private boolean checkCandidateDns(Candidate candidate) throws Exception {
+        if (!candidate.privateDns.isEmpty()) {
+            return true;
+        }
+        Ec2InstanceInfo info = cloud.describeInstance(candidate.instanceId).get();
         if (info.privateDns().isEmpty()) {
-            node.log().printf("*** Waiting for private DNS name for %s...%n", role.instanceId());
+            node.log().printf("*** Waiting for private DNS name for %s...%n",
+                candidate.instanceId);
             return false;
         }
         if (info.publicDns().isEmpty()) {
-            node.log().printf("*** Waiting for public DNS name for %s...%n", role.instanceId());
+            node.log().printf("*** Waiting for public DNS name for %s...%n",
+                candidate.instanceId);
             return false;
         }
-        node.log().printf("*** Got privateDnsName = %s, publicDnsName = %s%n",
-            info.privateDns(), info.publicDns());
-        role.setPrivateDns(info.privateDns());
-        role.setPublicDns(info.publicDns());
+        node.log().printf("*** Got privateDnsName = %s, publicDnsName = %s for %s%n",
+            info.privateDns(), info.publicDns(), candidate.instanceId);
+        candidate.privateDns = info.privateDns();
+        candidate.publicDns = info.publicDns();
         return true;
     }
 
-    private boolean checkStartingInstanceSsh() throws Exception {
+    /**
+     * Check whether we can ssh to each of the candidates, all at once.  The first
+     * candidate which accepts a connection wins, and the remaining checks are
+     * cancelled.
+     *
+     * @return          The winning candidate, or null if none were reachable.
+     */
+    private Candidate firstReachable(List<Candidate> candidates) throws Exception {
+        if (candidates.isEmpty()) {
+            return null;
+        }
+        CompletionService<Candidate> completionService =
+            new ExecutorCompletionService<>(SSH_CHECK_EXECUTOR);
+        List<Future<Candidate>> futures = new ArrayList<>();
+        try {
+            for (Candidate candidate : candidates) {
+                futures.add(completionService.submit(
+                    () -> checkCandidateSsh(candidate) ? candidate : null));
+            }
+            for (int i = 0; i < candidates.size(); i++) {
+                Candidate candidate;
+                try {
+                    candidate = completionService.take().get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception) {
+                        throw (Exception) e.getCause();
+                    }
+                    throw e;
+                }
+                if (candidate != null) {
+                    return candidate;
+                }
+            }
+            return null;
+        } finally {
+            for (Future<Candidate> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private boolean checkCandidateSsh(Candidate candidate) throws Exception {
+        String dns = role.internal() ? candidate.privateDns : candidate.publicDns;
         try {
-            command().args("-n", "--", "echo").mustRun();
-        } catch (Exception e) {
+            // Use a fresh connection rather than the pool, since the instance may
+            // not be the one we end up using.  BatchMode makes ssh fail rather
+            // than prompt if the key is not accepted yet.  The check is expected to
+            // fail while the instance boots, so it is left out of the node's
+            // command stats, which count connection failures.
+            new SshCommand(node, dns, role.sshUser(), role.sshPort(), role.sshIdentityFile()).
+                setRecordStats(false).
+                args("-o", "ConnectTimeout=" + SSH_CHECK_CONNECT_TIMEOUT_S,
+                    "-o", "BatchMode=yes", "-n", "--", "echo").mustRun();
+        } catch (CommandResultException e) {
             node.log().printf("*** Unable to ssh to %s: %s%n",
-                node.nodeName(), e.getMessage());
+                candidate.instanceId, e.getMessage());
             return false;
         }
-        CastleLog.printToAll(String.format("*** Successfully created an AWS node for %s%n",
-            node.nodeName()), node.log(), cluster.clusterLog());
         return true;
     }
 
@@ -0,0 +1,258 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.uplink;
+
+import io.confluent.castle.cluster.CastleCluster;
+import io.confluent.castle.cluster.CastleNode;
+import io.confluent.castle.command.Command;
+import io.confluent.castle.command.LocalCommand;
+import io.confluent.castle.command.NodeShellRunner;
+import io.confluent.castle.common.CastleLog;
+import io.confluent.castle.common.CastleUtil;
+import io.confluent.castle.role.LocalNodeRole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Represents an uplink to a local node.
+ *
+ * A local node is represented by a holder process, which is the first process
+ * in the node's user, mount, and process ID namespaces.  Commands join the
+ * namespaces with nsenter.  Killing the holder process kills every process on
+ * the node.
+ */
+public class LocalUplink implements Uplink {
+    /**
+     * The holder process' name starts with this, followed by the root directory.
+     * This lets us find the holder processes again.
+     */
+    private static final String HOLDER_NAME_PREFIX = "castle-local-node:";
+
+    private static final long START_TIMEOUT_MS = 10000;
+
+    private static final long START_POLL_MS = 20;
+
+    private static final File DEV_NULL = new File("/dev/null");
+
+    private final LocalNodeRole role;
+
+    private final CastleCluster cluster;
+
+    private final CastleNode node;
+
+    public LocalUplink(LocalNodeRole role, CastleCluster cluster, CastleNode node) {
+        this.role = role;
+        this.cluster = cluster;
+        this.node = node;
+    }
+
+    /**
+     * Get the directory which holds the node's private directories.
+     */
+    public String rootDir() {
+        Path baseDir = role.baseDir().isEmpty() ?
+            Paths.get(cluster.env().workingDirectory(), "local") : Paths.get(role.baseDir());
+        return baseDir.resolve(node.nodeName()).toAbsolutePath().toString();
+    }
+
+    /**
+     * Create a new command that will run on the given node.
+     */
+    @Override
+    public Command command() {
+        return new LocalCommand(node, role.pid(), rootDir());
+    }
+
+    @Override
+    public String internalDns() {
+        return "localhost";
+    }
+
+    @Override
+    public int portOffset() {
+        if (role.portOffset() != null) {
+            return role.portOffset();
+        }
+        return node.nodeIndex() * LocalNodeRole.DEFAULT_PORT_STRIDE;
+    }
+
+    @Override
+    public boolean started() {
+        return role.pid() > 0;
+    }
+
+    @Override
+    public boolean canLogin() {
+        return started();
+    }
+
+    @Override
+    public void startup() throws Exception {
+        if (role.pid() > 0) {
+            throw new RuntimeException("Can't start node " + node.nodeName() +
+                " because there is already a process ID set.");
+        }
+        String rootDir = rootDir();
+        for (String dir : LocalCommand.PRIVATE_DIRECTORIES) {
+            Files.createDirectories(Paths.get(LocalCommand.hostPath(rootDir, dir)));
+        }
+        if (!findHolders(rootDir).isEmpty()) {
+            throw new RuntimeException("Can't start node " + node.nodeName() +
+                " because another local node is using " + rootDir);
+        }
+        File holderLog = Paths.get(rootDir, "holder.log").toFile();
+        List<String> commandLine = Arrays.asList("unshare",
+            "--user", "--map-root-user", "--mount", "--pid", "--fork", "--mount-proc", "--",
+            "bash", "-c", "mount --bind \"$1/mnt\" /mnt && mount --bind \"$1/tmp\" /tmp && " +
+                "cd /tmp && exec -a \"$2\" sleep infinity",
+            "castle-local-node", rootDir, HOLDER_NAME_PREFIX + rootDir);
+        node.log().printf("*** %s: STARTING %s%n", node.nodeName(),
+            Command.joinArgs(commandLine));
+        Process process = new ProcessBuilder(commandLine).
+            redirectInput(ProcessBuilder.Redirect.from(DEV_NULL)).
+            redirectOutput(ProcessBuilder.Redirect.appendTo(holderLog)).
+            redirectError(ProcessBuilder.Redirect.appendTo(holderLog)).
+            start();
+        long deadlineMs = System.currentTimeMillis() + START_TIMEOUT_MS;
+        while (true) {
+            List<Long> pids = findHolders(rootDir);
+            if (!pids.isEmpty()) {
+                role.setPid(pids.get(0));
+                break;
+            }
+            if (!process.isAlive()) {
+                throw new RuntimeException("Failed to start local node " + node.nodeName() +
+                    ": " + new String(Files.readAllBytes(holderLog.toPath()),
+                        StandardCharsets.UTF_8).trim());
+            }
+            if (System.currentTimeMillis() >= deadlineMs) {
+                process.destroyForcibly();
+                throw new RuntimeException("Timed out starting local node " + node.nodeName());
+            }
+            Thread.sleep(START_POLL_MS);
+        }
+        node.log().printf("*** %s: Started local node in %s with process ID %d and " +
+            "port offset %d.%n", node.nodeName(), rootDir, role.pid(), portOffset());
+    }
+
+    @Override
+    public void check() throws Exception {
+        List<Long> pids = findHolders(rootDir());
+        if (role.pid() <= 0) {
+            CastleLog.printToAll(String.format("*** %s: No local node process ID.%n",
+                node.nodeName()), node.log(), cluster.clusterLog());
+        } else if (pids.contains(role.pid())) {
+            CastleLog.printToAll(String.format("*** %s: Found local node process %d.%n",
+                node.nodeName(), role.pid()), node.log(), cluster.clusterLog());
+        } else {
+            CastleLog.printToAll(String.format("*** %s: Failed to find local node " +
+                "process %d.%n", node.nodeName(), role.pid()), node.log(), cluster.clusterLog());
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> shutdown() throws Exception {
+        if (role.pid() > 0) {
+            if (findHolders(rootDir()).contains(role.pid())) {
+                kill(role.pid());
+            }
+            role.setPid(0);
+            List<String> rm = new ArrayList<>(Arrays.asList("rm", "-rf", "--"));
+            for (String dir : LocalCommand.PRIVATE_DIRECTORIES) {
+                rm.add(LocalCommand.hostPath(rootDir(), dir));
+            }
+            new NodeShellRunner(node, rm).run();
+        }
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        CastleUtil.completeNull(future);
+        return future;
+    }
+
+    @Override
+    public void shutdownAll() throws Exception {
+        for (long pid : findHolders().keySet()) {
+            node.log().printf("*** %s: Killing local node process %d.%n", node.nodeName(), pid);
+            kill(pid);
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        // nothing to do
+    }
+
+    private void kill(long pid) throws Exception {
+        new NodeShellRunner(node, Arrays.asList("kill", "-9", Long.toString(pid))).run();
+    }
+
+    /**
+     * Find the holder processes of local nodes.
+     *
+     * @return          A map from process IDs to the root directories of the nodes.
+     */
+    static Map<Long, String> findHolders() throws IOException {
+        Map<Long, String> holders = new TreeMap<>();
+        try (DirectoryStream<Path> stream =
+                 Files.newDirectoryStream(Paths.get("/proc"), "[0-9]*")) {
+            for (Path path : stream) {
+                byte[] cmdline;
+                try {
+                    cmdline = Files.readAllBytes(path.resolve("cmdline"));
+                } catch (IOException e) {
+                    // The process exited.
+                    continue;
+                }
+                int end = 0;
+                while ((end < cmdline.length) && (cmdline[end] != 0)) {
+                    end++;
+                }
+                String name = new String(cmdline, 0, end, StandardCharsets.UTF_8);
+                if (name.startsWith(HOLDER_NAME_PREFIX)) {
+                    holders.put(Long.parseLong(path.getFileName().toString()),
+                        name.substring(HOLDER_NAME_PREFIX.length()));
+                }
+            }
+        }
+        return holders;
+    }
+
+    /**
+     * Find the holder processes of the local nodes with the given root directory.
+     */
+    static List<Long> findHolders(String rootDir) throws IOException {
+        List<Long> pids = new ArrayList<>();
+        for (Map.Entry<Long, String> entry : findHolders().entrySet()) {
+            if (entry.getValue().equals(rootDir)) {
+                pids.add(entry.getKey());
+            }
+        }
+        return pids;
+    }
+}
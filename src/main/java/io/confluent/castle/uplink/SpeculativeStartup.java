@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.uplink;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Configures speculative node startup.
+ *
+ * When a node takes much longer to start than its peers did, we start a
+ * replacement for it, and keep whichever one becomes reachable first.  The
+ * deadline is the given percentile of the startup times of the nodes which
+ * have already started, times the multiplier.  We don't set a deadline until
+ * enough of the nodes have started to give a meaningful percentile.
+ */
+public final class SpeculativeStartup {
+    private static final int DEFAULT_PERCENTILE = 50;
+
+    private static final double DEFAULT_MULTIPLIER = 2.0;
+
+    private static final double DEFAULT_MIN_COMPLETED_FRACTION = 0.5;
+
+    private static final long DEFAULT_MIN_DEADLINE_MS = 60000;
+
+    private static final int DEFAULT_MAX_REPLACEMENTS = 1;
+
+    private final int percentile;
+
+    private final double multiplier;
+
+    private final double minCompletedFraction;
+
+    private final long minDeadlineMs;
+
+    private final int maxReplacements;
+
+    @JsonCreator
+    public SpeculativeStartup(@JsonProperty("percentile") int percentile,
+                              @JsonProperty("multiplier") double multiplier,
+                              @JsonProperty("minCompletedFraction") double minCompletedFraction,
+                              @JsonProperty("minDeadlineMs") long minDeadlineMs,
+                              @JsonProperty("maxReplacements") int maxReplacements) {
+        this.percentile = ((percentile <= 0) || (percentile > 100)) ?
+            DEFAULT_PERCENTILE : percentile;
+        this.multiplier = (multiplier <= 0) ? DEFAULT_MULTIPLIER : multiplier;
+        this.minCompletedFraction = ((minCompletedFraction <= 0) || (minCompletedFraction > 1)) ?
+            DEFAULT_MIN_COMPLETED_FRACTION : minCompletedFraction;
+        this.minDeadlineMs = (minDeadlineMs <= 0) ? DEFAULT_MIN_DEADLINE_MS : minDeadlineMs;
+        this.maxReplacements = (maxReplacements <= 0) ? DEFAULT_MAX_REPLACEMENTS : maxReplacements;
+    }
+
+    /**
+     * The percentile of peer startup times to base the deadline on.
+     */
+    @JsonProperty
+    public int percentile() {
+        return percentile;
+    }
+
+    @JsonProperty
+    public double multiplier() {
+        return multiplier;
+    }
+
+    /**
+     * The fraction of the nodes which must have started before we set a deadline.
+     */
+    @JsonProperty
+    public double minCompletedFraction() {
+        return minCompletedFraction;
+    }
+
+    /**
+     * The shortest deadline we will ever use.
+     */
+    @JsonProperty
+    public long minDeadlineMs() {
+        return minDeadlineMs;
+    }
+
+    /**
+     * The maximum number of replacements to start for each node.
+     */
+    @JsonProperty
+    public int maxReplacements() {
+        return maxReplacements;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.uplink;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tracks how long nodes take to start, so that we can tell when a node is a
+ * straggler.  See SpeculativeStartup.
+ */
+public final class StragglerDetector {
+    private final SpeculativeStartup conf;
+
+    private final List<Long> startupTimesMs = new ArrayList<>();
+
+    private int numStarting = 0;
+
+    public StragglerDetector(SpeculativeStartup conf) {
+        this.conf = conf;
+    }
+
+    public SpeculativeStartup conf() {
+        return conf;
+    }
+
+    /**
+     * Record that a node has begun to start up.
+     */
+    public synchronized void starting() {
+        numStarting++;
+    }
+
+    /**
+     * Record that a node has finished starting up.
+     *
+     * @param durationMs    How long the node took to start.
+     */
+    public synchronized void started(long durationMs) {
+        startupTimesMs.add(durationMs);
+    }
+
+    /**
+     * Get the time after which a node which is still starting up counts as a
+     * straggler, or -1 if not enough nodes have started yet to tell.
+     */
+    public synchronized long deadlineMs() {
+        if (startupTimesMs.isEmpty() ||
+                (startupTimesMs.size() < conf.minCompletedFraction() * numStarting)) {
+            return -1;
+        }
+        List<Long> sorted = new ArrayList<>(startupTimesMs);
+        Collections.sort(sorted);
+        int index = (int) Math.ceil(conf.percentile() / 100.0 * sorted.size()) - 1;
+        long percentileMs = sorted.get(Math.max(0, Math.min(index, sorted.size() - 1)));
+        return Math.max(conf.minDeadlineMs(), (long) (percentileMs * conf.multiplier()));
+    }
+}
@@ -42,6 +42,14 @@ public interface Uplink extends AutoCloseable {
      */
     String internalDns();
 
+    /**
+     * Get the amount to add to the standard ports of the services on this node.
+     * This is non-zero when several nodes share one host.
+     */
+    default int portOffset() {
+        return 0;
+    }
+
     /**
      * Return true if the node was started.
      */
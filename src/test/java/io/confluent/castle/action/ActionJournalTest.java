@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.action;
+
+import io.confluent.castle.cluster.CastleCluster;
+import io.confluent.castle.cluster.CastleClusterConf;
+import io.confluent.castle.cluster.CastleClusterSpec;
+import io.confluent.castle.cluster.CastleNodeSpec;
+import io.confluent.castle.common.CastleLog;
+import io.confluent.castle.role.MockCloudRole;
+import io.confluent.castle.role.Role;
+import io.confluent.castle.tool.MockCastleEnvironment;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ActionJournalTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    private static String fingerprint(CastleClusterConf conf) throws Exception {
+        Map<String, CastleNodeSpec> nodes = Collections.singletonMap("node0",
+            new CastleNodeSpec(Collections.singletonList("mockCloud"), null));
+        Map<String, Role> roles = Collections.singletonMap("mockCloud", new MockCloudRole());
+        try (CastleCluster cluster = new CastleCluster(new MockCastleEnvironment(),
+                CastleLog.fromDevNull("cluster", false), null,
+                new CastleClusterSpec(conf, nodes, roles))) {
+            return new ActionJournal().fingerprint(cluster, null,
+                new Action(new ActionId("foo", "node0"), new TargetId[0], new String[0], 0) {
+                });
+        }
+    }
+
+    @Test
+    public void testFingerprintIgnoresSchedulingConf() throws Exception {
+        String fingerprint = fingerprint(new CastleClusterConf("/kafka", "/castle",
+            0, null, null, null, null, null));
+        assertEquals(fingerprint, fingerprint(new CastleClusterConf("/kafka", "/castle",
+            60, Collections.singletonMap("bulk-transfer", 2),
+            Collections.singletonMap("foo", new RetryPolicy(3, 10, 100, null, null)),
+            null, false, true)));
+        assertNotEquals(fingerprint, fingerprint(new CastleClusterConf("/other", "/castle",
+            0, null, null, null, null, null)));
+    }
+
+    @Test
+    public void testRecordAndLoad() throws Exception {
+        File file = File.createTempFile("action_journal", ".log");
+        try {
+            Files.write(file.toPath(), String.format(
+                "{\"type\":\"linuxSetup\",\"scope\":\"node0\",\"fingerprint\":\"abc\"}%n" +
+                "{\"type\":\"linuxSetup\",\"scope\":\"node1\",\"fing").
+                getBytes(StandardCharsets.UTF_8));
+            try (ActionJournal journal = ActionJournal.load(file.getAbsolutePath())) {
+                assertEquals("abc",
+                    journal.completedFingerprint(new ActionId("linuxSetup", "node0")));
+                assertEquals(null,
+                    journal.completedFingerprint(new ActionId("linuxSetup", "node1")));
+                journal.record(new ActionId("linuxSetup", "node0"), "def");
+                journal.record(new ActionId("sourceSetup", "node0"), "ghi");
+            }
+            try (ActionJournal journal = ActionJournal.load(file.getAbsolutePath())) {
+                assertEquals("def",
+                    journal.completedFingerprint(new ActionId("linuxSetup", "node0")));
+                assertEquals("ghi",
+                    journal.completedFingerprint(new ActionId("sourceSetup", "node0")));
+            }
+        } finally {
+            Files.delete(file.toPath());
+        }
+    }
+
+    @Test
+    public void testCompactOnLoad() throws Exception {
+        File file = File.createTempFile("action_journal", ".log");
+        try {
+            Files.write(file.toPath(), String.format(
+                "{\"type\":\"linuxSetup\",\"scope\":\"node0\",\"fingerprint\":\"abc\"}%n" +
+                "{\"type\":\"linuxSetup\",\"scope\":\"node1\",\"fingerprint\":\"def\"}%n" +
+                "{\"type\":\"linuxSetup\",\"scope\":\"node0\",\"fingerprint\":\"ghi\"}%n" +
+                "{\"type\":\"linuxSetup\",\"scope\":\"node1\",\"fing").
+                getBytes(StandardCharsets.UTF_8));
+            try (ActionJournal journal = ActionJournal.load(file.getAbsolutePath())) {
+                assertEquals("ghi",
+                    journal.completedFingerprint(new ActionId("linuxSetup", "node0")));
+                assertEquals("def",
+                    journal.completedFingerprint(new ActionId("linuxSetup", "node1")));
+            }
+            List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+            assertEquals(2, lines.size());
+            assertTrue(lines.get(0).contains("node1"));
+            assertTrue(lines.get(1).contains("ghi"));
+            try (ActionJournal journal = ActionJournal.load(file.getAbsolutePath())) {
+                journal.record(new ActionId("linuxSetup", "node0"), "jkl");
+            }
+            try (ActionJournal journal = ActionJournal.load(file.getAbsolutePath())) {
+                assertEquals("jkl",
+                    journal.completedFingerprint(new ActionId("linuxSetup", "node0")));
+            }
+            assertEquals(2, Files.readAllLines(file.toPath(), StandardCharsets.UTF_8).size());
+        } finally {
+            Files.delete(file.toPath());
+        }
+    }
+
+    @Test
+    public void testPathFingerprintIsCached() throws Exception {
+        Path dir = Files.createTempDirectory("action_journal");
+        Path file = dir.resolve("foo.txt");
+        try {
+            Files.write(file, "foo".getBytes(StandardCharsets.UTF_8));
+            ActionJournal journal = new ActionJournal();
+            String fingerprint = journal.pathFingerprint(dir.toString());
+            assertEquals(ActionJournal.treeFingerprint(dir), fingerprint);
+            Files.write(file, "foobar".getBytes(StandardCharsets.UTF_8));
+            assertEquals(fingerprint, journal.pathFingerprint(dir.toString()));
+            assertNotEquals(fingerprint, new ActionJournal().pathFingerprint(dir.toString()));
+        } finally {
+            Files.delete(file);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testTreeFingerprint() throws Exception {
+        Path dir = Files.createTempDirectory("action_journal");
+        try {
+            Path file = dir.resolve("foo.txt");
+            Files.write(file, "foo".getBytes(StandardCharsets.UTF_8));
+            String fingerprint = ActionJournal.treeFingerprint(dir);
+            assertEquals(fingerprint, ActionJournal.treeFingerprint(dir));
+            Files.write(file, "foobar".getBytes(StandardCharsets.UTF_8));
+            assertNotEquals(fingerprint, ActionJournal.treeFingerprint(dir));
+            Files.delete(file);
+        } finally {
+            Files.delete(dir);
+        }
+        assertEquals("", ActionJournal.treeFingerprint(dir));
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.action;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ActionPermitsTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    @Test
+    public void testPermitsAreGrantedInPriorityOrder() throws Exception {
+        ActionPermits permits = new ActionPermits(0);
+        List<Long> acquired = new ArrayList<>();
+        for (long priority : new long[] {5, 100, 1, 20}) {
+            permits.acquire(priority, () -> acquired.add(priority));
+        }
+        assertEquals(4, permits.numWaiters());
+        assertEquals(Collections.emptyList(), acquired);
+        permits.release();
+        assertEquals(Arrays.asList(100L), acquired);
+        permits.release();
+        permits.release();
+        permits.release();
+        assertEquals(Arrays.asList(100L, 20L, 5L, 1L), acquired);
+        assertEquals(0, permits.numWaiters());
+        assertEquals(0, permits.available());
+    }
+
+    @Test
+    public void testAcquireWithAvailablePermits() throws Exception {
+        ActionPermits permits = new ActionPermits(2);
+        List<Long> acquired = new ArrayList<>();
+        permits.acquire(0, () -> acquired.add(0L));
+        permits.acquire(1, () -> acquired.add(1L));
+        assertEquals(Arrays.asList(0L, 1L), acquired);
+        assertEquals(0, permits.available());
+        permits.release();
+        assertEquals(1, permits.available());
+    }
+
+    @Test
+    public void testSetPermits() throws Exception {
+        ActionPermits permits = new ActionPermits(2);
+        List<Long> acquired = new ArrayList<>();
+        permits.acquire(0, () -> acquired.add(0L));
+        permits.acquire(0, () -> acquired.add(0L));
+        permits.setPermits(1);
+        assertEquals(1, permits.permits());
+        assertEquals(-1, permits.available());
+        permits.release();
+        permits.release();
+        assertEquals(1, permits.available());
+        acquired.clear();
+        permits.acquire(0, () -> acquired.add(0L));
+        permits.acquire(7, () -> acquired.add(7L));
+        assertEquals(Arrays.asList(0L), acquired);
+        assertEquals(1, permits.numWaiters());
+        permits.setPermits(2);
+        assertEquals(Arrays.asList(0L, 7L), acquired);
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.action;
+
+import io.confluent.castle.cluster.CastleCluster;
+import io.confluent.castle.cluster.CastleClusterSpec;
+import io.confluent.castle.cluster.CastleNode;
+import io.confluent.castle.cluster.CastleNodeSpec;
+import io.confluent.castle.common.CastleLog;
+import io.confluent.castle.role.MockCloudRole;
+import io.confluent.castle.role.Role;
+import io.confluent.castle.tool.MockCastleEnvironment;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ActionPlanTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    private CastleCluster createCluster(int numNodes) throws Exception {
+        Map<String, CastleNodeSpec> map = new HashMap<>();
+        CastleNodeSpec specA = new CastleNodeSpec(
+            Arrays.asList(new String[] {"mockCloud"}), null);
+        map.put(String.format("node[0-%d]", numNodes - 1), specA);
+        Map<String, Role> roles = new HashMap<>();
+        roles.put("mockCloud", new MockCloudRole());
+        CastleClusterSpec spec = new CastleClusterSpec(null, map, roles);
+        return new CastleCluster(new MockCastleEnvironment(),
+            CastleLog.fromDevNull("cluster", false), null, spec);
+    }
+
+    private static class NeverRunAction extends Action {
+        NeverRunAction(ActionId id, TargetId[] comesAfter, String[] contains) {
+            super(id, comesAfter, contains, 0);
+        }
+
+        @Override
+        public void call(CastleCluster cluster, CastleNode node) throws Throwable {
+            throw new RuntimeException("Planning should not run " + id());
+        }
+    }
+
+    /**
+     * Create a builder with "up" on each node, which contains "setup".  The "start"
+     * actions come after all of the "setup" actions.
+     */
+    private ActionScheduler.Builder createBuilder(CastleCluster cluster) {
+        ActionDurationHistory history = new ActionDurationHistory();
+        history.record("setup", 1000);
+        history.record("start", 500);
+        ActionScheduler.Builder schedulerBuilder =
+            new ActionScheduler.Builder(cluster).setDurationHistory(history);
+        for (String nodeName : cluster.nodes().keySet()) {
+            schedulerBuilder.addAction(new NeverRunAction(new ActionId("up", nodeName),
+                new TargetId[0], new String[] {"setup"}) {
+                @Override
+                public int estimatedDurationMs() {
+                    return 0;
+                }
+            });
+            schedulerBuilder.addAction(new NeverRunAction(new ActionId("setup", nodeName),
+                new TargetId[0], new String[0]));
+            schedulerBuilder.addAction(new NeverRunAction(new ActionId("start", nodeName),
+                new TargetId[] {new TargetId("setup")}, new String[0]));
+        }
+        schedulerBuilder.addTargetName("up");
+        schedulerBuilder.addTargetName("start");
+        return schedulerBuilder;
+    }
+
+    @Test
+    public void testPlanUnlimited() throws Throwable {
+        CastleCluster cluster = createCluster(3);
+        ActionPlan plan = createBuilder(cluster).buildPlan();
+        assertEquals(9, plan.actions().size());
+        assertEquals(1500, plan.makespanMs());
+        ActionPlan.PlannedAction setup = plan.actions().get(new ActionId("setup", "node1"));
+        assertTrue(setup.fromHistory());
+        assertEquals(0, setup.startedMs());
+        assertEquals(1000, setup.completedMs());
+        assertEquals(1000, plan.actions().get(new ActionId("up", "node1")).completedMs());
+        assertEquals(1000, plan.actions().get(new ActionId("start", "node2")).startedMs());
+        assertEquals(3, plan.criticalPath().size());
+        assertEquals(new ActionId("up", plan.criticalPath().get(0).scope()),
+            plan.criticalPath().get(0));
+    }
+
+    @Test
+    public void testPlanWithConcurrencyLimit() throws Throwable {
+        CastleCluster cluster = createCluster(3);
+        ActionPlan plan = createBuilder(cluster).
+            setMaxConcurrentActions(1).
+            setResourceLimit(ActionResource.LIGHTWEIGHT_PROBE, 1).
+            buildPlan();
+        assertEquals(4500, plan.makespanMs());
+        ActionPlan.PlannedAction last = plan.actions().get(plan.criticalPath().
+            get(plan.criticalPath().size() - 1));
+        assertEquals("start", last.id().type());
+        assertEquals(4500, last.callEndedMs());
+        assertTrue(last.waitedForResources());
+        String summary = plan.summary();
+        assertTrue(summary.contains("Predicted total time: 4500 ms"));
+        assertTrue(summary.contains("resources freed by"));
+    }
+
+    @Test
+    public void testDot() throws Throwable {
+        CastleCluster cluster = createCluster(2);
+        String dot = createBuilder(cluster).buildPlan().toDot();
+        assertTrue(dot.startsWith("digraph castle {"));
+        assertTrue(dot.contains("\"up:node0\" -> \"setup:node0\";"));
+        assertTrue(dot.contains("\"all:setup\" -> \"start:node1\" [style=dashed];"));
+        assertTrue(dot.contains("\"setup:node1\" -> \"all:setup\" [style=dotted];"));
+    }
+}
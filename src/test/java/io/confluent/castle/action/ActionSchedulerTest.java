@@ -21,6 +21,8 @@ import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleClusterSpec;
 import io.confluent.castle.cluster.CastleNode;
 import io.confluent.castle.cluster.CastleNodeSpec;
+import io.confluent.castle.command.CommandResultException;
+import io.confluent.castle.command.NodeShellRunner;
 import io.confluent.castle.common.CastleLog;
 import io.confluent.castle.role.MockCloudRole;
 import io.confluent.castle.role.Role;
@@ -34,11 +36,17 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -46,6 +54,8 @@ public class ActionSchedulerTest {
     @Rule
     final public Timeout globalTimeout = Timeout.millis(120000);
 
+    private static final Pattern NEGATIVE_NUMBER = Pattern.compile(" -[0-9]");
+
     private CastleCluster createCluster(int numNodes) throws Exception {
         Map<String, CastleNodeSpec> map = new HashMap<>();
         CastleNodeSpec specA = new CastleNodeSpec(
@@ -247,6 +257,91 @@ public class ActionSchedulerTest {
         assertEquals(3, numBars.get());
     }
 
+    @Test
+    public void testAllDependencyOnManyNodes() throws Throwable {
+        final int numNodes = 1000;
+        CastleCluster cluster = createCluster(numNodes);
+        final AtomicInteger numFoos = new AtomicInteger(0);
+        final AtomicInteger numBars = new AtomicInteger(0);
+        ActionScheduler.Builder schedulerBuilder =
+            new ActionScheduler.Builder(cluster);
+        for (final String nodeName : cluster.nodes().keySet()) {
+            schedulerBuilder.addAction(new Action(
+                new ActionId("foo", nodeName),
+                new TargetId[0],
+                new String[0],
+                0) {
+                @Override
+                public void call(CastleCluster cluster, CastleNode node) throws Throwable {
+                    numFoos.incrementAndGet();
+                }
+            });
+            schedulerBuilder.addAction(new Action(
+                new ActionId("bar", nodeName),
+                new TargetId[] {
+                    new TargetId("foo")
+                },
+                new String[0],
+                0) {
+                @Override
+                public void call(CastleCluster cluster, CastleNode node) throws Throwable {
+                    assertEquals(numNodes, numFoos.get());
+                    numBars.incrementAndGet();
+                }
+            });
+        }
+        schedulerBuilder.addTargetName("foo");
+        schedulerBuilder.addTargetName("bar");
+        try (ActionScheduler scheduler = schedulerBuilder.build()) {
+            scheduler.await(60000, TimeUnit.MILLISECONDS);
+        }
+        assertEquals(numNodes, numBars.get());
+    }
+
+    @Test
+    public void testSharedExecutorThreadCount() throws Throwable {
+        final int numNodes = 200;
+        final int maxExecutorThreads = 4;
+        CastleCluster cluster = createCluster(numNodes);
+        final Set<Thread> threads = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        final AtomicInteger numRun = new AtomicInteger(0);
+        ActionScheduler.Builder schedulerBuilder =
+            new ActionScheduler.Builder(cluster);
+        schedulerBuilder.setExecutorMode(ExecutorMode.SHARED);
+        schedulerBuilder.setMaxExecutorThreads(maxExecutorThreads);
+        for (final String nodeName : cluster.nodes().keySet()) {
+            schedulerBuilder.addAction(new Action(
+                new ActionId("foo", nodeName),
+                new TargetId[0],
+                new String[] {"bar"},
+                0) {
+                @Override
+                public void call(CastleCluster cluster, CastleNode node) throws Throwable {
+                    threads.add(Thread.currentThread());
+                    numRun.incrementAndGet();
+                }
+            });
+            schedulerBuilder.addAction(new Action(
+                new ActionId("bar", nodeName),
+                new TargetId[0],
+                new String[0],
+                0) {
+                @Override
+                public void call(CastleCluster cluster, CastleNode node) throws Throwable {
+                    threads.add(Thread.currentThread());
+                    numRun.incrementAndGet();
+                }
+            });
+        }
+        schedulerBuilder.addTargetName("foo");
+        try (ActionScheduler scheduler = schedulerBuilder.build()) {
+            scheduler.await(60000, TimeUnit.MILLISECONDS);
+        }
+        assertEquals(2 * numNodes, numRun.get());
+        assertTrue("Expected at most " + maxExecutorThreads + " threads, but found " +
+            threads.size(), threads.size() <= maxExecutorThreads);
+    }
+
     private static class ConcurrentAccessChecker {
         private final int maxConcurrentActions;
         private final AtomicInteger currentlyRunning = new AtomicInteger(0);
@@ -333,4 +428,529 @@ public class ActionSchedulerTest {
         }
         assertEquals(5, concurrentAccessChecker.totalCalls());
     }
+
+    @Test
+    public void testResourceLimits() throws Throwable {
+        CastleCluster cluster = createCluster(3);
+        final CyclicBarrier barrier = new CyclicBarrier(3);
+        ConcurrentAccessChecker concurrentAccessChecker = new ConcurrentAccessChecker(1);
+        ActionScheduler.Builder schedulerBuilder =
+            new ActionScheduler.Builder(cluster);
+        schedulerBuilder.setMaxConcurrentActions(1);
+        for (final String nodeName : cluster.nodes().keySet()) {
+            // Probes are not limited by maxConcurrentActions, so all three must be
+            // able to wait on the barrier at once.
+            schedulerBuilder.addAction(new Action(
+                new ActionId("probe", nodeName),
+                new TargetId[0],
+                new String[0],
+                0) {
+                @Override
+                public ActionResource resource() {
+                    return ActionResource.LIGHTWEIGHT_PROBE;
+                }
+
+                @Override
+                public void call(CastleCluster cluster, CastleNode node) throws Throwable {
+                    barrier.await();
+                }
+            });
+            schedulerBuilder.addAction(new Action(
+                new ActionId("transfer", nodeName),
+                new TargetId[0],
+                new String[0],
+                0) {
+                @Override
+                public ActionResource resource() {
+                    return ActionResource.BULK_TRANSFER;
+                }
+
+                @Override
+                public void call(CastleCluster cluster, CastleNode node) throws Throwable {
+                    concurrentAccessChecker.check();
+                }
+            });
+        }
+        schedulerBuilder.setResourceLimit(ActionResource.BULK_TRANSFER, 1);
+        schedulerBuilder.addTargetName("probe");
+        schedulerBuilder.addTargetName("transfer");
+        try (ActionScheduler scheduler = schedulerBuilder.build()) {
+            scheduler.await(1, TimeUnit.DAYS);
+        }
+        assertEquals(3, concurrentAccessChecker.totalCalls());
+    }
+
+    @Test
+    public void testMaxConcurrentActionsSpansResourceClasses() throws Throwable {
+        final ActionResource[] resources = new ActionResource[] {
+            ActionResource.DEFAULT, ActionResource.BULK_TRANSFER, ActionResource.REMOTE_CPU
+        };
+        final int numNodes = 6;
+        CastleCluster cluster = createCluster(numNodes);
+        final AtomicInteger running = new AtomicInteger(0);
+        final AtomicInteger maxRunning = new AtomicInteger(0);
+        ActionScheduler.Builder schedulerBuilder =
+            new ActionScheduler.Builder(cluster);
+        schedulerBuilder.setMaxConcurrentActions(2);
+        for (int i = 0; i < numNodes; i++) {
+            final ActionResource resource = resources[i % resources.length];
+            schedulerBuilder.addAction(new Action(
+                new ActionId("work", "node" + i),
+                new TargetId[0],
+                new String[0],
+                0) {
+                @Override
+                public ActionResource resource() {
+                    return resource;
+                }
+
+                @Override
+                public void call(CastleCluster cluster, CastleNode node) throws Throwable {
+                    int now = running.incrementAndGet();
+                    maxRunning.accumulateAndGet(now, Math::max);
+                    Thread.sleep(50);
+                    running.decrementAndGet();
+                }
+            });
+        }
+        schedulerBuilder.addTargetName("work");
+        try (ActionScheduler scheduler = schedulerBuilder.build()) {
+            scheduler.await(1, TimeUnit.DAYS);
+        }
+        assertTrue("expected at most 2 actions at once, but saw " + maxRunning.get(),
+            maxRunning.get() <= 2);
+    }
+
+    @Test
+    public void testSaturatedResourceClassDoesNotStarveOthers() throws Throwable {
+        final int numTransfers = 10;
+        final int numProbes = 10;
+        CastleCluster cluster = createCluster(numTransfers + numProbes);
+        final CountDownLatch probesDone = new CountDownLatch(numProbes);
+        final AtomicInteger transfersWhichSawProbes = new AtomicInteger(0);
+        ActionScheduler.Builder schedulerBuilder =
+            new ActionScheduler.Builder(cluster);
+        schedulerBuilder.setExecutorMode(ExecutorMode.SHARED);
+        schedulerBuilder.setMaxExecutorThreads(2);
+        schedulerBuilder.setResourceLimit(ActionResource.BULK_TRANSFER, 1);
+        for (int i = 0; i < numTransfers; i++) {
+            // Each transfer holds the only bulk transfer permit until every probe
+            // has run.  The others wait for the permit.
+            schedulerBuilder.addAction(new Action(
+                new ActionId("transfer", "node" + i),
+                new TargetId[0],
+                new String[0],
+                0) {
+                @Override
+                public ActionResource resource() {
+                    return ActionResource.BULK_TRANSFER;
+                }
+
+                @Override
+                public void call(CastleCluster cluster, CastleNode node) throws Throwable {
+                    if (probesDone.await(60, TimeUnit.SECONDS)) {
+                        transfersWhichSawProbes.incrementAndGet();
+                    }
+                }
+            });
+        }
+        for (int i = numTransfers; i < numTransfers + numProbes; i++) {
+            // The delay lets the transfers queue up first.
+            schedulerBuilder.addAction(new Action(
+                new ActionId("probe", "node" + i),
+                new TargetId[0],
+                new String[0],
+                100) {
+                @Override
+                public ActionResource resource() {
+                    return ActionResource.LIGHTWEIGHT_PROBE;
+                }
+
+                @Override
+                public void call(CastleCluster cluster, CastleNode node) throws Throwable {
+                    probesDone.countDown();
+                }
+            });
+        }
+        schedulerBuilder.addTargetName("transfer");
+        schedulerBuilder.addTargetName("probe");
+        try (ActionScheduler scheduler = schedulerBuilder.build()) {
+            scheduler.await(1, TimeUnit.DAYS);
+        }
+        assertEquals(numTransfers, transfersWhichSawProbes.get());
+    }
+
+    @Test
+    public void testQueuedActionDoesNotHoldPermit() throws Throwable {
+        CastleCluster cluster = createCluster(2);
+        final CountDownLatch otherRan = new CountDownLatch(1);
+        final AtomicInteger slowSawOther = new AtomicInteger(0);
+        ActionScheduler.Builder schedulerBuilder =
+            new ActionScheduler.Builder(cluster);
+        schedulerBuilder.setExecutorMode(ExecutorMode.SHARED);
+        schedulerBuilder.setResourceLimit(ActionResource.BULK_TRANSFER, 2);
+        // The slow action keeps node0 busy until the action on node1 has run.  The
+        // queued action waits behind it, and must not hold the second permit
+        // while it does.
+        schedulerBuilder.addAction(new Action(
+            new ActionId("slow", "node0"), new TargetId[0], new String[0], 0) {
+            @Override
+            public ActionResource resource() {
+                return ActionResource.BULK_TRANSFER;
+            }
+
+            @Override
+            public void call(CastleCluster cluster, CastleNode node) throws Throwable {
+                if (otherRan.await(30, TimeUnit.SECONDS)) {
+                    slowSawOther.incrementAndGet();
+                }
+            }
+        });
+        schedulerBuilder.addAction(new Action(
+            new ActionId("queued", "node0"), new TargetId[0], new String[0], 50) {
+            @Override
+            public ActionResource resource() {
+                return ActionResource.BULK_TRANSFER;
+            }
+        });
+        // The delays put the actions in line in this order: slow, queued, other.
+        schedulerBuilder.addAction(new Action(
+            new ActionId("other", "node1"), new TargetId[0], new String[0], 100) {
+            @Override
+            public ActionResource resource() {
+                return ActionResource.BULK_TRANSFER;
+            }
+
+            @Override
+            public void call(CastleCluster cluster, CastleNode node) throws Throwable {
+                otherRan.countDown();
+            }
+        });
+        schedulerBuilder.addTargetName("slow:node0");
+        schedulerBuilder.addTargetName("queued:node0");
+        schedulerBuilder.addTargetName("other:node1");
+        try (ActionScheduler scheduler = schedulerBuilder.build()) {
+            scheduler.await(1, TimeUnit.DAYS);
+        }
+        assertEquals(1, slowSawOther.get());
+    }
+
+    @Test
+    public void testFailingProbesDoNotLowerAdaptiveConcurrency() throws Throwable {
+        final int numNodes = 16;
+        CastleCluster cluster = createCluster(numNodes);
+        ActionTracer tracer = new ActionTracer();
+        ActionScheduler.Builder schedulerBuilder =
+            new ActionScheduler.Builder(cluster).setTracer(tracer);
+        schedulerBuilder.setAdaptiveConcurrency(1, 8);
+        for (int i = 0; i < numNodes; i++) {
+            schedulerBuilder.addAction(new Action(
+                new ActionId("poll", "node" + i),
+                new TargetId[0],
+                new String[0],
+                0) {
+                @Override
+                public void call(CastleCluster cluster, CastleNode node) throws Throwable {
+                    // Like waiting for a process to start: the check fails a few
+                    // times before it succeeds.
+                    for (int attempt = 0; attempt < 3; attempt++) {
+                        assertEquals(1, new NodeShellRunner(node,
+                            Arrays.asList("sh", "-c", "exit 1")).run());
+                    }
+                    assertEquals(0, new NodeShellRunner(node,
+                        Arrays.asList("sh", "-c", "exit 0")).run());
+                }
+            });
+        }
+        schedulerBuilder.addTargetName("poll");
+        try (ActionScheduler scheduler = schedulerBuilder.build()) {
+            scheduler.await(1, TimeUnit.DAYS);
+        }
+        assertTrue(cluster.nodes().get("node0").commandStats().numFailures() >= 3);
+        long prevLimit = 0;
+        for (long[] change : tracer.concurrencyChanges()) {
+            assertTrue("The limit dropped from " + prevLimit + " to " + change[1],
+                change[1] >= prevLimit);
+            prevLimit = change[1];
+        }
+        assertTrue(prevLimit > 1);
+    }
+
+    @Test
+    public void testActionTracer() throws Throwable {
+        CastleCluster cluster = createCluster(3);
+        ActionTracer tracer = new ActionTracer();
+        ActionScheduler.Builder schedulerBuilder =
+            new ActionScheduler.Builder(cluster).setTracer(tracer);
+        schedulerBuilder.addAction(new Action(
+            new ActionId("slow", "node0"),
+            new TargetId[0],
+            new String[0],
+            0) {
+            @Override
+            public void call(CastleCluster cluster, CastleNode node) throws Throwable {
+                Thread.sleep(50);
+            }
+        });
+        schedulerBuilder.addAction(new Action(
+            new ActionId("after", "node1"),
+            new TargetId[] {
+                new TargetId("slow", "node0")
+            },
+            new String[0],
+            0) {
+            @Override
+            public void call(CastleCluster cluster, CastleNode node) throws Throwable {
+            }
+        });
+        schedulerBuilder.addAction(new Action(
+            new ActionId("fast", "node2"),
+            new TargetId[0],
+            new String[0],
+            0) {
+            @Override
+            public void call(CastleCluster cluster, CastleNode node) throws Throwable {
+            }
+        });
+        schedulerBuilder.addTargetName("slow");
+        schedulerBuilder.addTargetName("after");
+        schedulerBuilder.addTargetName("fast");
+        try (ActionScheduler scheduler = schedulerBuilder.build()) {
+            scheduler.await(1, TimeUnit.DAYS);
+        }
+        assertEquals(3, tracer.timings().size());
+        assertEquals(Arrays.asList(new ActionId("slow", "node0"), new ActionId("after", "node1")),
+            tracer.criticalPath());
+        ActionTracer.ActionTiming slow = tracer.timings().get(new ActionId("slow", "node0"));
+        assertTrue(slow.callDurationNs() >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertTrue(slow.completedNs() >= slow.callEndedNs());
+        assertEquals(new ActionId("slow", "node0"),
+            tracer.timings().get(new ActionId("after", "node1")).cause());
+        String summary = tracer.summary();
+        assertTrue(summary.contains("Critical path:"));
+        assertTrue(summary.contains("slow:node0"));
+        assertFalse(NEGATIVE_NUMBER.matcher(summary).find());
+        assertEquals(2L, ActionTracer.percentile(Arrays.asList(1L, 2L, 3L, 4L), 0.5));
+        assertEquals(4L, ActionTracer.percentile(Arrays.asList(1L, 2L, 3L, 4L), 0.99));
+    }
+
+    private void addResumeTestActions(ActionScheduler.Builder schedulerBuilder,
+                                      CastleCluster cluster,
+                                      final AtomicInteger numPreps,
+                                      final AtomicInteger numWorks,
+                                      final int expectedPreps) {
+        for (final String nodeName : cluster.nodes().keySet()) {
+            schedulerBuilder.addAction(new Action(
+                new ActionId("prep", nodeName),
+                new TargetId[0],
+                new String[0],
+                0) {
+                @Override
+                public boolean resumable() {
+                    return true;
+                }
+
+                @Override
+                public void call(CastleCluster cluster, CastleNode node) throws Throwable {
+                    numPreps.incrementAndGet();
+                }
+            });
+            schedulerBuilder.addAction(new Action(
+                new ActionId("work", nodeName),
+                new TargetId[] {
+                    new TargetId("prep")
+                },
+                new String[0],
+                0) {
+                @Override
+                public void call(CastleCluster cluster, CastleNode node) throws Throwable {
+                    assertEquals(expectedPreps, numPreps.get());
+                    numWorks.incrementAndGet();
+                }
+            });
+        }
+        schedulerBuilder.addTargetName("prep");
+        schedulerBuilder.addTargetName("work");
+    }
+
+    @Test
+    public void testResumeFromJournal() throws Throwable {
+        CastleCluster cluster = createCluster(3);
+        ActionJournal journal = new ActionJournal();
+        AtomicInteger numPreps = new AtomicInteger(0);
+        AtomicInteger numWorks = new AtomicInteger(0);
+        ActionScheduler.Builder schedulerBuilder =
+            new ActionScheduler.Builder(cluster).setJournal(journal);
+        addResumeTestActions(schedulerBuilder, cluster, numPreps, numWorks, 3);
+        try (ActionScheduler scheduler = schedulerBuilder.build()) {
+            scheduler.await(1, TimeUnit.DAYS);
+        }
+        assertEquals(3, numWorks.get());
+        assertTrue(journal.completedFingerprint(new ActionId("prep", "node1")) != null);
+        assertEquals(null, journal.completedFingerprint(new ActionId("work", "node1")));
+
+        // The inputs of prep:node0 have changed, so only it should run again.
+        journal.record(new ActionId("prep", "node0"), "stale");
+        numPreps.set(0);
+        numWorks.set(0);
+        schedulerBuilder = new ActionScheduler.Builder(cluster).
+            setJournal(journal).setResume(true);
+        addResumeTestActions(schedulerBuilder, cluster, numPreps, numWorks, 1);
+        try (ActionScheduler scheduler = schedulerBuilder.build()) {
+            scheduler.await(1, TimeUnit.DAYS);
+        }
+        assertEquals(1, numPreps.get());
+        assertEquals(3, numWorks.get());
+    }
+
+    @Test
+    public void testFailureCancelsRunningCommands() throws Throwable {
+        CastleCluster cluster = createCluster(3);
+        final CountDownLatch commandsStarted = new CountDownLatch(2);
+        final AtomicInteger numInterrupted = new AtomicInteger(0);
+        final AtomicInteger numLater = new AtomicInteger(0);
+        ActionScheduler.Builder schedulerBuilder =
+            new ActionScheduler.Builder(cluster);
+        schedulerBuilder.addAction(new Action(
+            new ActionId("fail", "node0"),
+            new TargetId[0],
+            new String[0],
+            0) {
+            @Override
+            public void call(CastleCluster cluster, CastleNode node) throws Throwable {
+                commandsStarted.await();
+                throw new RuntimeException("Injected failure");
+            }
+        });
+        for (String nodeName : new String[] {"node1", "node2"}) {
+            schedulerBuilder.addAction(new Action(
+                new ActionId("sleep", nodeName),
+                new TargetId[0],
+                new String[0],
+                0) {
+                @Override
+                public void call(CastleCluster cluster, CastleNode node) throws Throwable {
+                    NodeShellRunner runner =
+                        new NodeShellRunner(node, Arrays.asList("sleep", "1000"));
+                    commandsStarted.countDown();
+                    try {
+                        runner.run();
+                    } catch (InterruptedException e) {
+                        numInterrupted.incrementAndGet();
+                        throw e;
+                    }
+                }
+            });
+            schedulerBuilder.addAction(new Action(
+                new ActionId("later", nodeName),
+                new TargetId[] {
+                    new TargetId("sleep", nodeName)
+                },
+                new String[0],
+                0) {
+                @Override
+                public void call(CastleCluster cluster, CastleNode node) throws Throwable {
+                    numLater.incrementAndGet();
+                }
+            });
+        }
+        schedulerBuilder.addTargetName("fail");
+        schedulerBuilder.addTargetName("sleep");
+        schedulerBuilder.addTargetName("later");
+        try (ActionScheduler scheduler = schedulerBuilder.build()) {
+            scheduler.await(1, TimeUnit.DAYS);
+            fail("Expected the scheduler to fail.");
+        } catch (ExecutionException e) {
+            assertEquals("Injected failure", e.getCause().getMessage());
+        }
+        assertEquals(2, numInterrupted.get());
+        assertEquals(0, numLater.get());
+    }
+
+    @Test
+    public void testRetryPolicy() throws Throwable {
+        CastleCluster cluster = createCluster(2);
+        final AtomicInteger numAttempts = new AtomicInteger(0);
+        final AtomicInteger numAfter = new AtomicInteger(0);
+        ActionScheduler.Builder schedulerBuilder =
+            new ActionScheduler.Builder(cluster);
+        schedulerBuilder.addAction(new Action(
+            new ActionId("flaky", "node0"),
+            new TargetId[0],
+            new String[0],
+            0) {
+            @Override
+            public void call(CastleCluster cluster, CastleNode node) throws Throwable {
+                if (numAttempts.incrementAndGet() < 3) {
+                    throw new CommandResultException(Arrays.asList("rsync"), 255);
+                }
+            }
+        });
+        schedulerBuilder.addAction(new Action(
+            new ActionId("after", "node1"),
+            new TargetId[] {
+                new TargetId("flaky", "node0")
+            },
+            new String[0],
+            0) {
+            @Override
+            public void call(CastleCluster cluster, CastleNode node) throws Throwable {
+                assertEquals(3, numAttempts.get());
+                numAfter.incrementAndGet();
+            }
+        });
+        schedulerBuilder.setRetryPolicies(Collections.singletonMap("flaky",
+            new RetryPolicy(3, 1, 10, null, null)));
+        schedulerBuilder.addTargetName("flaky");
+        schedulerBuilder.addTargetName("after");
+        try (ActionScheduler scheduler = schedulerBuilder.build()) {
+            scheduler.await(1, TimeUnit.DAYS);
+        }
+        assertEquals(3, numAttempts.get());
+        assertEquals(1, numAfter.get());
+
+        // With only two attempts allowed, the run fails.
+        numAttempts.set(0);
+        schedulerBuilder = new ActionScheduler.Builder(cluster);
+        schedulerBuilder.addAction(new Action(
+            new ActionId("flaky", "node0"),
+            new TargetId[0],
+            new String[0],
+            0) {
+            @Override
+            public RetryPolicy retryPolicy() {
+                return new RetryPolicy(2, 1, 10, null, null);
+            }
+
+            @Override
+            public void call(CastleCluster cluster, CastleNode node) throws Throwable {
+                numAttempts.incrementAndGet();
+                throw new CommandResultException(Arrays.asList("rsync"), 255);
+            }
+        });
+        schedulerBuilder.addTargetName("flaky");
+        try (ActionScheduler scheduler = schedulerBuilder.build()) {
+            scheduler.await(1, TimeUnit.DAYS);
+            fail("Expected the scheduler to fail.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof CommandResultException);
+        }
+        assertEquals(2, numAttempts.get());
+    }
+
+    @Test
+    public void testParseResourceLimits() throws Throwable {
+        Map<ActionResource, Integer> limits =
+            ActionResource.parseLimits("bulk-transfer=2, cloud-api=4");
+        assertEquals(2, limits.size());
+        assertEquals(Integer.valueOf(2), limits.get(ActionResource.BULK_TRANSFER));
+        assertEquals(Integer.valueOf(4), limits.get(ActionResource.CLOUD_API));
+        assertTrue(ActionResource.parseLimits("").isEmpty());
+        try {
+            ActionResource.parseLimits("bogus=1");
+            fail("Expected an exception about an unknown resource class.");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("Unknown resource class"));
+        }
+    }
 };
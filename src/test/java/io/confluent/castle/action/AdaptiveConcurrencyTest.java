@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.action;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AdaptiveConcurrencyTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    private static void acquire(AdaptiveConcurrency concurrency) {
+        AtomicBoolean acquired = new AtomicBoolean(false);
+        concurrency.acquire(0, () -> acquired.set(true));
+        assertTrue(acquired.get());
+    }
+
+    private static void recordSuccess(AdaptiveConcurrency concurrency) throws Exception {
+        int limit = concurrency.limit();
+        for (int i = 0; i < limit; i++) {
+            acquire(concurrency);
+        }
+        for (int i = 0; i < limit; i++) {
+            concurrency.record("foo", System.nanoTime(), 10, 10, 0, false);
+        }
+        for (int i = 0; i < limit; i++) {
+            concurrency.release();
+        }
+    }
+
+    private static List<Long> limits(ActionTracer tracer) {
+        List<Long> limits = new ArrayList<>();
+        for (long[] change : tracer.concurrencyChanges()) {
+            limits.add(change[1]);
+        }
+        return limits;
+    }
+
+    @Test
+    public void testIncreaseAndDecrease() throws Exception {
+        ActionTracer tracer = new ActionTracer();
+        AdaptiveConcurrency concurrency = new AdaptiveConcurrency(1, 6, 1, tracer);
+        assertEquals(1, concurrency.limit());
+        // Slow start doubles the limit.
+        recordSuccess(concurrency);
+        assertEquals(2, concurrency.limit());
+        recordSuccess(concurrency);
+        assertTrue(concurrency.limit() == 4 || concurrency.limit() == 2);
+        while (concurrency.limit() < 4) {
+            recordSuccess(concurrency);
+        }
+        long startNs = System.nanoTime();
+        concurrency.record("foo", startNs, 10, 10, 0, true);
+        assertEquals(2, concurrency.limit());
+        // An action which started before the last decrease can't cause another one.
+        concurrency.record("foo", startNs, 10, 10, 1, false);
+        assertEquals(2, concurrency.limit());
+        // After a decrease, the limit goes up by one at a time.
+        recordSuccess(concurrency);
+        assertEquals(3, concurrency.limit());
+        // A latency spike halves the limit.
+        concurrency.record("foo", System.nanoTime(), 1000, 200, 0, false);
+        assertEquals(1, concurrency.limit());
+        concurrency.record("foo", System.nanoTime(), 10, 10, 0, true);
+        assertEquals(1, concurrency.limit());
+        List<Long> limits = limits(tracer);
+        assertEquals(Arrays.asList(1L, 2L), limits.subList(0, 2));
+        assertEquals(Arrays.asList(4L, 2L, 3L, 1L),
+            limits.subList(limits.size() - 4, limits.size()));
+    }
+
+    @Test
+    public void testUnsaturatedWindowDoesNotIncrease() throws Exception {
+        ActionTracer tracer = new ActionTracer();
+        AdaptiveConcurrency concurrency = new AdaptiveConcurrency(2, 6, 2, tracer);
+        for (int i = 0; i < 10; i++) {
+            acquire(concurrency);
+            concurrency.record("foo", System.nanoTime(), 10, 10, 0, false);
+            concurrency.release();
+        }
+        assertEquals(2, concurrency.limit());
+    }
+
+    @Test
+    public void testInvalidBounds() throws Exception {
+        try {
+            new AdaptiveConcurrency(4, 2, 2, new ActionTracer());
+            fail("Expected an exception about invalid bounds.");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("less than the minimum"));
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.action;
+
+import io.confluent.castle.command.CommandResultException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static io.confluent.castle.common.JsonUtil.JSON_SERDE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RetryPolicyTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    private static CommandResultException commandFailure(int returnCode) {
+        return new CommandResultException(Arrays.asList("ls", "/"), returnCode);
+    }
+
+    @Test
+    public void testIsRetryable() throws Exception {
+        RetryPolicy policy = new RetryPolicy(3, 0, 0, null,
+            Collections.singletonList("IOException"));
+        assertTrue(policy.isRetryable(commandFailure(255)));
+        assertFalse(policy.isRetryable(commandFailure(1)));
+        assertTrue(policy.isRetryable(new IOException()));
+        assertTrue(policy.isRetryable(new java.io.EOFException()));
+        assertTrue(policy.isRetryable(new RuntimeException(commandFailure(255))));
+        assertFalse(policy.isRetryable(new RuntimeException()));
+        assertFalse(RetryPolicy.NONE.isRetryable(new RuntimeException()));
+        assertTrue(RetryPolicy.TRANSFER.isRetryable(commandFailure(30)));
+        assertFalse(RetryPolicy.TRANSFER.isRetryable(commandFailure(23)));
+    }
+
+    @Test
+    public void testBackoff() throws Exception {
+        RetryPolicy policy = new RetryPolicy(10, 100, 1000, null, null);
+        assertEquals(100, policy.backoffCapMs(1));
+        assertEquals(200, policy.backoffCapMs(2));
+        assertEquals(800, policy.backoffCapMs(4));
+        assertEquals(1000, policy.backoffCapMs(5));
+        assertEquals(1000, policy.backoffCapMs(100));
+        for (int i = 0; i < 100; i++) {
+            long backoffMs = policy.backoffMs(3);
+            assertTrue(backoffMs >= 0 && backoffMs <= 400);
+        }
+    }
+
+    @Test
+    public void testDeserialize() throws Exception {
+        RetryPolicy policy = JSON_SERDE.readValue("{\"maxAttempts\": 4, " +
+            "\"retryableExitCodes\": [1, 255]}", RetryPolicy.class);
+        assertEquals(4, policy.maxAttempts());
+        assertEquals(1000, policy.initialBackoffMs());
+        assertEquals(30000, policy.maxBackoffMs());
+        assertEquals(Arrays.asList(1, 255), policy.retryableExitCodes());
+        assertEquals(Collections.emptyList(), policy.retryableExceptions());
+        assertTrue(policy.isRetryable(commandFailure(1)));
+    }
+}
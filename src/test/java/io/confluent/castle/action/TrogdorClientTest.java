@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.action;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static io.confluent.castle.common.JsonUtil.JSON_SERDE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class TrogdorClientTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    private static TrogdorClient.CurlResponse parse(String output, int chunkSize)
+            throws IOException {
+        byte[] bytes = output.getBytes(StandardCharsets.UTF_8);
+        TrogdorClient.CurlResponse response = new TrogdorClient.CurlResponse();
+        for (int i = 0; i < bytes.length; i += chunkSize) {
+            response.write(bytes, i, Math.min(chunkSize, bytes.length - i));
+        }
+        response.close();
+        return response;
+    }
+
+    @Test
+    public void testParseResponse() throws Exception {
+        String output = "{\"tasks\":{\"foo\":{\"state\":\"RUNNING\"},\"bar\":{}}}_200";
+        for (int chunkSize : new int[] {1, 2, 3, 5, 7, 1000}) {
+            TrogdorClient.CurlResponse response = parse(output, chunkSize);
+            assertEquals(200, response.status());
+            JsonNode json = response.json();
+            assertEquals("RUNNING", json.get("tasks").get("foo").get("state").textValue());
+            assertEquals(2, json.get("tasks").size());
+        }
+    }
+
+    @Test
+    public void testParseAllTypes() throws Exception {
+        String json = "{\"a\":[1,-2,12345678901,123456789012345678901234567890]," +
+            "\"b\":1.5,\"c\":true,\"d\":false,\"e\":null,\"f\":\"x\\u00e9\"," +
+            "\"g\":[[],{},[{\"h\":\"i\"}]]}";
+        JsonNode expected = JSON_SERDE.readTree(json);
+        for (int chunkSize : new int[] {1, 4, 1000}) {
+            TrogdorClient.CurlResponse response = parse(json + "_200", chunkSize);
+            assertEquals(expected, response.json());
+        }
+        try {
+            parse("{\"a\":[1,2_200", 1).json();
+            fail("expected an incomplete JSON error");
+        } catch (IOException e) {
+        }
+    }
+
+    @Test
+    public void testErrorResponse() throws Exception {
+        TrogdorClient.CurlResponse response = parse("<html>Not Found</html>_404", 3);
+        assertEquals(404, response.status());
+        try {
+            response.json();
+            fail("expected a JSON parse error");
+        } catch (IOException e) {
+        }
+    }
+
+    @Test
+    public void testMissingStatus() throws Exception {
+        assertEquals(-1, parse("{}", 1).status());
+        assertEquals(-1, parse("{}xx", 1).status());
+    }
+}
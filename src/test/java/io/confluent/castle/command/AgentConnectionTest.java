@@ -0,0 +1,228 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.command;
+
+import io.confluent.castle.agent.AgentProtocol;
+import io.confluent.castle.agent.CastleAgent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AgentConnectionTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    private Path tempDir;
+
+    private Socket agentSocket;
+
+    private Thread agentThread;
+
+    private AgentConnection connection;
+
+    @Before
+    public void setUp() throws Exception {
+        tempDir = Files.createTempDirectory("AgentConnectionTest");
+        try (ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            Socket socket = new Socket(InetAddress.getLoopbackAddress(),
+                serverSocket.getLocalPort());
+            agentSocket = serverSocket.accept();
+            CastleAgent agent = new CastleAgent(agentSocket.getInputStream(),
+                agentSocket.getOutputStream(), tempDir.toFile());
+            agentThread = new Thread(() -> {
+                try {
+                    agent.run();
+                } catch (Exception e) {
+                    // The test closed the connection.
+                }
+            }, "AgentConnectionTestAgent");
+            agentThread.start();
+            connection = new AgentConnection("node0", socket.getInputStream(),
+                socket.getOutputStream(), null);
+        }
+        assertTrue(connection.awaitReady(60000));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        connection.close();
+        agentSocket.close();
+        agentThread.join();
+        for (File file : tempDir.toFile().listFiles()) {
+            Files.delete(file.toPath());
+        }
+        Files.delete(tempDir);
+    }
+
+    private static final class Output implements AgentConnection.OutputListener {
+        private final StringBuilder stdout = new StringBuilder();
+        private final StringBuilder stderr = new StringBuilder();
+
+        @Override
+        public synchronized void onOutput(boolean isStderr, byte[] data) {
+            (isStderr ? stderr : stdout).append(new String(data, StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void testExec() throws Exception {
+        Output output = new Output();
+        assertEquals(0, connection.exec("echo hello && echo oops >&2 && pwd", null, output));
+        assertEquals("hello\n" + tempDir.toFile().getCanonicalPath() + "\n",
+            output.stdout.toString());
+        assertEquals("oops\n", output.stderr.toString());
+
+        assertEquals(3, connection.exec("exit 3", null, new Output()));
+
+        output = new Output();
+        assertEquals(0, connection.exec("tr a-z A-Z",
+            "abc".getBytes(StandardCharsets.UTF_8), output));
+        assertEquals("ABC", output.stdout.toString());
+    }
+
+    @Test
+    public void testPutAndGetFile() throws Exception {
+        byte[] contents = "some contents\n".getBytes(StandardCharsets.UTF_8);
+        String path = tempDir.resolve("file").toString();
+        connection.putFile(path, 0640, 123000L, contents);
+        assertArrayEquals(contents, Files.readAllBytes(tempDir.resolve("file")));
+        assertEquals(1, tempDir.toFile().listFiles().length);
+
+        AgentConnection.FileContents file = connection.getFile(path);
+        assertArrayEquals(contents, file.contents());
+        assertEquals(0640, file.mode());
+        assertEquals(123000L, file.mtimeMs());
+
+        try {
+            connection.getFile(tempDir.toString());
+            fail("Expected getFile on a directory to fail.");
+        } catch (IOException e) {
+            // expected
+        }
+        try {
+            connection.putFile(tempDir.toString(), 0644, 0, contents);
+            fail("Expected putFile on a directory to fail.");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testKillBeforeStart() throws Exception {
+        // Talk to the agent directly, since AgentConnection only sends a KILL once
+        // it has been interrupted.
+        Socket socket;
+        Socket killAgentSocket;
+        try (ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            socket = new Socket(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort());
+            killAgentSocket = serverSocket.accept();
+        }
+        CastleAgent agent = new CastleAgent(killAgentSocket.getInputStream(),
+            killAgentSocket.getOutputStream(), tempDir.toFile());
+        Thread thread = new Thread(() -> {
+            try {
+                agent.run();
+            } catch (Exception e) {
+                // The test closed the connection.
+            }
+        }, "AgentConnectionTestKillAgent");
+        thread.start();
+        DataInputStream fromAgent = new DataInputStream(socket.getInputStream());
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(socket.getOutputStream()))) {
+            assertEquals(AgentProtocol.HELLO, fromAgent.readByte());
+            fromAgent.readInt();
+            assertEquals(AgentProtocol.MAGIC, fromAgent.readInt());
+            assertEquals(AgentProtocol.VERSION, fromAgent.readInt());
+            final int numCommands = 10;
+            // Send each KILL right behind its EXEC, so that it usually arrives before
+            // the worker thread has started the process.  If the kill were lost,
+            // the command would run for ten minutes.
+            for (int id = 1; id <= numCommands; id++) {
+                AgentProtocol.writeHeader(out, AgentProtocol.EXEC, id);
+                AgentProtocol.writeString(out, "sleep 600");
+                AgentProtocol.writeBytes(out, null);
+                AgentProtocol.writeHeader(out, AgentProtocol.KILL, id);
+            }
+            out.flush();
+            int numFinished = 0;
+            while (numFinished < numCommands) {
+                byte type = fromAgent.readByte();
+                fromAgent.readInt();
+                switch (type) {
+                    case AgentProtocol.EXIT:
+                        assertTrue(fromAgent.readInt() != 0);
+                        numFinished++;
+                        break;
+                    case AgentProtocol.ERROR:
+                        AgentProtocol.readString(fromAgent);
+                        numFinished++;
+                        break;
+                    default:
+                        AgentProtocol.readBytes(fromAgent);
+                        break;
+                }
+            }
+        }
+        thread.join();
+        killAgentSocket.close();
+        socket.close();
+    }
+
+    @Test
+    public void testConnectionLost() throws Exception {
+        Thread closer = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+                agentSocket.close();
+            } catch (Exception e) {
+                // ignore
+            }
+        });
+        closer.start();
+        assertEquals(CommandStats.SSH_CONNECTION_FAILURE,
+            connection.exec("sleep 60", null, new Output()));
+        closer.join();
+        assertTrue(connection.closed());
+        try {
+            connection.exec("true", null, new Output());
+            fail("Expected exec on a closed connection to fail.");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
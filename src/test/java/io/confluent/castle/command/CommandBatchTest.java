@@ -0,0 +1,257 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.command;
+
+import io.confluent.castle.cluster.CastleCluster;
+import io.confluent.castle.cluster.CastleClusterSpec;
+import io.confluent.castle.cluster.CastleNode;
+import io.confluent.castle.cluster.CastleNodeSpec;
+import io.confluent.castle.common.CastleLog;
+import io.confluent.castle.role.MockCloudRole;
+import io.confluent.castle.role.Role;
+import io.confluent.castle.tool.MockCastleEnvironment;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CommandBatchTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    /**
+     * Runs commands with the local shell, the way sshd would on the node.
+     */
+    private static final class BashCommand implements Command {
+        private final File workingDirectory;
+        private List<String> args;
+        private byte[] stdin;
+        private StringBuilder output;
+        private int numRuns = 0;
+
+        BashCommand(File workingDirectory) {
+            this.workingDirectory = workingDirectory;
+        }
+
+        @Override
+        public Command args(String... args) {
+            return argList(Arrays.asList(args));
+        }
+
+        @Override
+        public Command argList(List<String> args) {
+            this.args = args;
+            return this;
+        }
+
+        @Override
+        public Command syncTo(String local, String remote) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Command syncFrom(String remote, String local) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Command putFile(String remote, byte[] contents) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Command captureOutput(StringBuilder stringBuilder) {
+            this.output = stringBuilder;
+            return this;
+        }
+
+        @Override
+        public Command streamOutput(OutputStream outputStream) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Command setOutputLimit(long outputLimit) {
+            return this;
+        }
+
+        @Override
+        public Command setCaptureStderr(boolean captureStderr) {
+            return this;
+        }
+
+        @Override
+        public Command setStdin(byte[] stdin) {
+            this.stdin = stdin;
+            return this;
+        }
+
+        @Override
+        public int run() throws Exception {
+            numRuns++;
+            Process process = new ProcessBuilder("bash", "-c", Command.shellCommandLine(args)).
+                directory(workingDirectory).
+                redirectError(ProcessBuilder.Redirect.INHERIT).
+                start();
+            try (OutputStream processStdin = process.getOutputStream()) {
+                processStdin.write(stdin);
+            }
+            ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            try (InputStream processStdout = process.getInputStream()) {
+                int ret;
+                while ((ret = processStdout.read(buffer)) != -1) {
+                    stdout.write(buffer, 0, ret);
+                }
+            }
+            output.append(new String(stdout.toByteArray(), StandardCharsets.UTF_8));
+            return process.waitFor();
+        }
+
+        @Override
+        public void mustRun() throws Exception {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void exec() throws Exception {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private Path tempDir;
+
+    private CastleCluster cluster;
+
+    private CastleNode node;
+
+    @Before
+    public void setUp() throws Exception {
+        tempDir = Files.createTempDirectory("CommandBatchTest");
+        Map<String, CastleNodeSpec> nodes = Collections.singletonMap("node0",
+            new CastleNodeSpec(Collections.singletonList("mockCloud"), null));
+        Map<String, Role> roles = Collections.singletonMap("mockCloud", new MockCloudRole());
+        cluster = new CastleCluster(new MockCastleEnvironment(),
+            CastleLog.fromDevNull("cluster", false), null,
+            new CastleClusterSpec(null, nodes, roles));
+        node = cluster.nodes().get("node0");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        cluster.close();
+        for (File file : tempDir.toFile().listFiles()) {
+            Files.delete(file.toPath());
+        }
+        Files.delete(tempDir);
+    }
+
+    @Test
+    public void testStepsRunInOneSession() throws Exception {
+        byte[] binary = new byte[] {0, 1, 2, '\n', (byte) 0xff, '\'', '"', '$'};
+        String path = tempDir.resolve("it's a file").toString();
+        BashCommand command = new BashCommand(tempDir.toFile());
+        CommandBatch.Result result = new CommandBatch(node).
+            args("-n", "--", "echo", "one").
+            writeFile(path, binary).
+            writeFile(tempDir.resolve("empty").toString(), new byte[0]).
+            args("cat", "-", "&&", "printf", "two").
+            args("nohup", "sleep", "0", "&>/dev/null", "</dev/null", "&").
+            run(command);
+        assertEquals(1, command.numRuns);
+        assertArrayEquals(new int[] {0, 0, 0, 0, 0}, result.exitCodes());
+        assertEquals(-1, result.failedStep());
+        assertEquals(0, result.returnCode());
+        assertEquals("one\ntwo", result.output());
+        assertArrayEquals(binary, Files.readAllBytes(tempDir.resolve("it's a file")));
+        assertEquals(0, Files.size(tempDir.resolve("empty")));
+        assertEquals(2, tempDir.toFile().listFiles().length);
+        result.check();
+    }
+
+    @Test
+    public void testStopsAtFailedStep() throws Exception {
+        CommandBatch.Result result = new CommandBatch(node).
+            args("true").
+            args("exit", "3").
+            args("touch", "notrun").
+            run(new BashCommand(tempDir.toFile()));
+        assertArrayEquals(new int[] {0, 3, CommandBatch.NOT_RUN}, result.exitCodes());
+        assertEquals(1, result.failedStep());
+        assertEquals(3, result.returnCode());
+        assertFalse(tempDir.resolve("notrun").toFile().exists());
+        try {
+            result.check();
+            fail("Expected check to throw.");
+        } catch (CommandResultException e) {
+            assertEquals(Arrays.asList("exit", "3"), e.commandLine());
+            assertEquals(3, e.returnCode());
+        }
+    }
+
+    @Test
+    public void testShellCommandLine() {
+        assertEquals("ps aux | grep java",
+            Command.shellCommandLine(Arrays.asList("-n", "--", "ps", "aux", "|",
+                "grep", "java")));
+        assertEquals("echo hi", Command.shellCommandLine(Arrays.asList("echo", "hi")));
+        assertNull(Command.shellCommandLine(Arrays.asList("-t", "--", "top")));
+        assertNull(Command.shellCommandLine(Arrays.asList("-n", "--")));
+        try {
+            new CommandBatch(node).args("-t", "--", "top");
+            fail("Expected a batch step with -t to be rejected.");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("top"));
+        }
+    }
+
+    @Test
+    public void testTempPathAndShellQuote() throws Exception {
+        assertEquals("/mnt/conf/.broker.properties.castle-tmp",
+            Command.tempPath("/mnt/conf/broker.properties"));
+        assertEquals(".foo.castle-tmp", Command.tempPath("foo"));
+        String str = "it's a \"$weird\" `string`";
+        StringBuilder output = new StringBuilder();
+        BashCommand command = new BashCommand(tempDir.toFile());
+        command.args("printf", "%s", Command.shellQuote(str)).
+            setStdin(new byte[0]).
+            captureOutput(output);
+        assertEquals(0, command.run());
+        assertEquals(str, output.toString());
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.command;
+
+import io.confluent.castle.cluster.CastleCluster;
+import io.confluent.castle.cluster.CastleClusterSpec;
+import io.confluent.castle.cluster.CastleNode;
+import io.confluent.castle.cluster.CastleNodeSpec;
+import io.confluent.castle.common.CastleLog;
+import io.confluent.castle.role.MockCloudRole;
+import io.confluent.castle.role.Role;
+import io.confluent.castle.tool.MockCastleEnvironment;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class DockerExecCommandTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    /**
+     * A stand-in for docker.  It records each command line in the calls file, then
+     * skips the exec options and container name, and runs the rest of the command
+     * with the home directory inside the temporary directory.
+     */
+    private static final String FAKE_DOCKER =
+        "#!/bin/bash\n" +
+        "dir=$(dirname \"$0\")\n" +
+        "echo \"$*\" >> \"$dir/calls\"\n" +
+        "shift\n" +
+        "while [ $# -gt 0 ]; do\n" +
+        "  case \"$1\" in\n" +
+        "    -i|-it) ;;\n" +
+        "    --user) shift ;;\n" +
+        "    *) break ;;\n" +
+        "  esac\n" +
+        "  shift\n" +
+        "done\n" +
+        "shift\n" +
+        "HOME=\"$dir/home\" exec \"$@\"\n";
+
+    private Path tempDir;
+
+    private String docker;
+
+    private CastleCluster cluster;
+
+    private CastleNode node;
+
+    @Before
+    public void setUp() throws Exception {
+        tempDir = Files.createTempDirectory("DockerExecCommandTest");
+        Path script = tempDir.resolve("docker");
+        Files.write(script, FAKE_DOCKER.getBytes(StandardCharsets.UTF_8));
+        script.toFile().setExecutable(true);
+        docker = script.toString();
+        Files.createDirectory(tempDir.resolve("home"));
+        Map<String, CastleNodeSpec> nodes = Collections.singletonMap("node0",
+            new CastleNodeSpec(Collections.singletonList("mockCloud"), null));
+        Map<String, Role> roles = Collections.singletonMap("mockCloud", new MockCloudRole());
+        cluster = new CastleCluster(new MockCastleEnvironment(),
+            CastleLog.fromDevNull("cluster", false), null,
+            new CastleClusterSpec(null, nodes, roles));
+        node = cluster.nodes().get("node0");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        cluster.close();
+        for (File file : tempDir.resolve("home").toFile().listFiles()) {
+            Files.delete(file.toPath());
+        }
+        for (File file : tempDir.toFile().listFiles()) {
+            Files.delete(file.toPath());
+        }
+        Files.delete(tempDir);
+    }
+
+    private DockerExecCommand command() {
+        return new DockerExecCommand(node, docker, "ducker00", "ducker");
+    }
+
+    private List<String> calls() throws Exception {
+        return Files.readAllLines(tempDir.resolve("calls"), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testRunsInHomeDirectory() throws Exception {
+        StringBuilder output = new StringBuilder();
+        command().args("-n", "--", "pwd", "&&", "cat").
+            setStdin("hello".getBytes(StandardCharsets.UTF_8)).
+            captureOutput(output).
+            mustRun();
+        assertEquals(tempDir.resolve("home").toString() + "\nhello", output.toString());
+        assertEquals(Collections.singletonList(
+            "exec -i --user ducker ducker00 bash -c cd; pwd && cat"), calls());
+        try {
+            command().args("exit", "3").mustRun();
+            fail("Expected the command to fail.");
+        } catch (CommandResultException e) {
+            assertEquals(3, e.returnCode());
+        }
+    }
+
+    @Test
+    public void testPutFile() throws Exception {
+        byte[] contents = new byte[] {0, 1, 2, '\n', (byte) 0xff, '\'', '"', '$'};
+        Path path = tempDir.resolve("home").resolve("it's a file");
+        command().putFile(path.toString(), contents).mustRun();
+        assertArrayEquals(contents, Files.readAllBytes(path));
+        assertFalse(Files.exists(Paths.get(Command.tempPath(path.toString()))));
+    }
+
+    @Test
+    public void testCommandLines() throws Exception {
+        DockerExecCommand command = command();
+        command.syncTo("/src/", "/mnt/src");
+        assertEquals(Arrays.asList("rsync", "-aqi", "--delete", "--blocking-io",
+            "-e", docker + " exec -i --user ducker", "/src/", "ducker00:/mnt/src"),
+            command.makeCommandLine(false));
+        command.syncFrom("/mnt/logs", "/tmp/logs");
+        assertEquals(Arrays.asList("rsync", "-aqi", "--delete", "--blocking-io",
+            "-e", docker + " exec -i --user ducker", "ducker00:/mnt/logs", "/tmp/logs"),
+            command.makeCommandLine(false));
+        command.argList(Collections.emptyList());
+        assertEquals(Arrays.asList(docker, "exec", "-it", "--user", "ducker",
+            "ducker00", "bash", "-l"), command.makeCommandLine(true));
+        command.args("-t", "top");
+        try {
+            command.makeCommandLine(false);
+            fail("Expected ssh options to be rejected.");
+        } catch (RuntimeException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.command;
+
+import io.confluent.castle.cluster.CastleCluster;
+import io.confluent.castle.cluster.CastleClusterSpec;
+import io.confluent.castle.cluster.CastleNode;
+import io.confluent.castle.cluster.CastleNodeSpec;
+import io.confluent.castle.common.CastleLog;
+import io.confluent.castle.role.MockCloudRole;
+import io.confluent.castle.role.Role;
+import io.confluent.castle.tool.MockCastleEnvironment;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class NodeShellRunnerTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    private CastleCluster cluster;
+
+    private CastleNode node;
+
+    @Before
+    public void setUp() throws Exception {
+        Map<String, CastleNodeSpec> nodes = Collections.singletonMap("node0",
+            new CastleNodeSpec(Collections.singletonList("mockCloud"), null));
+        Map<String, Role> roles = Collections.singletonMap("mockCloud", new MockCloudRole());
+        cluster = new CastleCluster(new MockCastleEnvironment(),
+            CastleLog.fromDevNull("cluster", false), null,
+            new CastleClusterSpec(null, nodes, roles));
+        node = cluster.nodes().get("node0");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        cluster.close();
+    }
+
+    @Test
+    public void testStdin() throws Exception {
+        StringBuilder output = new StringBuilder();
+        assertEquals(0, new NodeShellRunner(node, Arrays.asList("tr", "a-z", "A-Z")).
+            setCaptureOutput(output).
+            setStdin("abc".getBytes(StandardCharsets.UTF_8)).
+            run());
+        assertEquals("ABC", output.toString());
+    }
+
+    @Test
+    public void testRecordStats() throws Exception {
+        assertEquals(CommandStats.SSH_CONNECTION_FAILURE,
+            new NodeShellRunner(node, Arrays.asList("bash", "-c", "exit 255")).
+                setRecordStats(false).
+                run());
+        assertEquals(0, node.commandStats().numCommands());
+        assertEquals(0, node.commandStats().numConnectionFailures());
+        assertEquals(CommandStats.SSH_CONNECTION_FAILURE,
+            new NodeShellRunner(node, Arrays.asList("bash", "-c", "exit 255")).run());
+        assertEquals(1, node.commandStats().numCommands());
+        assertEquals(1, node.commandStats().numConnectionFailures());
+    }
+
+    @Test
+    public void testInterruptWhileWritingStdin() throws Exception {
+        // The command never reads its stdin, so writing this much would block
+        // once the pipe is full.
+        final byte[] stdin = new byte[16 * 1024 * 1024];
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread thread = new Thread(() -> {
+            try {
+                new NodeShellRunner(node, Arrays.asList("sleep", "600")).
+                    setStdin(stdin).
+                    run();
+            } catch (Throwable e) {
+                error.set(e);
+            }
+        }, "NodeShellRunnerTestRunner");
+        thread.start();
+        Thread.sleep(500);
+        thread.interrupt();
+        thread.join(TimeUnit.SECONDS.toMillis(30));
+        assertFalse(thread.isAlive());
+        assertTrue(error.get() instanceof InterruptedException);
+    }
+}
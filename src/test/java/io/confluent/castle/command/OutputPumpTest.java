@@ -0,0 +1,266 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.command;
+
+import io.confluent.castle.common.CastleLog;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class OutputPumpTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    private static Process start(String script) throws Exception {
+        return new ProcessBuilder("bash", "-c", script).start();
+    }
+
+    private static OutputCapture.Sink sink(StringBuilder output) {
+        return new OutputCapture(Collections.singletonList(output), Collections.emptyList(),
+            null, Command.DEFAULT_OUTPUT_LIMIT).stdout();
+    }
+
+    @Test
+    public void testCaptureAndLog() throws Exception {
+        ByteArrayOutputStream logStream = new ByteArrayOutputStream();
+        CastleLog log = new CastleLog("test", logStream, false);
+        StringBuilder output = new StringBuilder();
+        Process process = start("echo foo; printf bar");
+        OutputCapture capture = new OutputCapture(Collections.singletonList(output),
+            Collections.emptyList(), null, Command.DEFAULT_OUTPUT_LIMIT);
+        CompletableFuture<Void> stdout = OutputPump.instance().pump(process.getInputStream(),
+            process, capture.stdout(), log, true);
+        CompletableFuture<Void> stderr = OutputPump.instance().pump(process.getErrorStream(),
+            process, capture.stderr(), log, false);
+        assertEquals(0, process.waitFor());
+        stdout.get();
+        stderr.get();
+        assertEquals("foo\nbar", output.toString());
+        assertEquals("foo\nbar\n", new String(logStream.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testMultibyteCharacterSplitAcrossReads() throws Exception {
+        StringBuilder output = new StringBuilder();
+        // Write the two bytes of U+00E9 with a pause in between, so that they
+        // arrive in separate reads.
+        Process process = start("printf 'caf\\303'; sleep 0.2; printf '\\251!'");
+        CompletableFuture<Void> stdout = OutputPump.instance().pump(process.getInputStream(),
+            process, sink(output), null, false);
+        assertEquals(0, process.waitFor());
+        stdout.get();
+        assertEquals("caf\u00e9!", output.toString());
+    }
+
+    @Test
+    public void testTruncatedCharacterIsReplaced() throws Exception {
+        StringBuilder output = new StringBuilder();
+        Process process = start("printf 'abc\\303'");
+        CompletableFuture<Void> stdout = OutputPump.instance().pump(process.getInputStream(),
+            process, sink(output), null, false);
+        assertEquals(0, process.waitFor());
+        stdout.get();
+        assertEquals("abc\ufffd", output.toString());
+    }
+
+    @Test
+    public void testManyConcurrentProcesses() throws Exception {
+        final int numProcesses = 20;
+        List<Process> processes = new ArrayList<>();
+        List<StringBuilder> outputs = new ArrayList<>();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < numProcesses; i++) {
+            StringBuilder output = new StringBuilder();
+            Process process = start("for j in $(seq 1 2000); do echo " + i + "-$j; done");
+            futures.add(OutputPump.instance().pump(process.getInputStream(),
+                process, sink(output), null, false));
+            processes.add(process);
+            outputs.add(output);
+        }
+        for (int i = 0; i < numProcesses; i++) {
+            assertEquals(0, processes.get(i).waitFor());
+            futures.get(i).get();
+            StringBuilder expected = new StringBuilder();
+            for (int j = 1; j <= 2000; j++) {
+                expected.append(i).append("-").append(j).append("\n");
+            }
+            assertEquals(expected.toString(), outputs.get(i).toString());
+        }
+    }
+
+    @Test
+    public void testBackgroundProcessHoldingPipe() throws Exception {
+        StringBuilder output = new StringBuilder();
+        // The background sleep inherits stdout, so the pipe does not reach
+        // end-of-file when bash exits.
+        Process process = start("sleep 600 & echo $!");
+        CompletableFuture<Void> stdout = OutputPump.instance().pump(process.getInputStream(),
+            process, sink(output), null, false);
+        assertEquals(0, process.waitFor());
+        OutputPump.instance().processExited();
+        stdout.get(30, TimeUnit.SECONDS);
+        String pid = output.toString().trim();
+        new ProcessBuilder("kill", pid).start().waitFor();
+
+        // Other pipes are still serviced.
+        StringBuilder otherOutput = new StringBuilder();
+        Process other = start("echo other");
+        CompletableFuture<Void> otherStdout = OutputPump.instance().pump(
+            other.getInputStream(), other, sink(otherOutput), null, false);
+        assertEquals(0, other.waitFor());
+        otherStdout.get(30, TimeUnit.SECONDS);
+        assertEquals("other\n", otherOutput.toString());
+    }
+
+    @Test
+    public void testStreamOutputLines() throws Exception {
+        List<String> lines = new ArrayList<>();
+        OutputCapture capture = new OutputCapture(Collections.emptyList(),
+            Collections.emptyList(), new LineOutputStream(lines::add),
+            Command.DEFAULT_OUTPUT_LIMIT);
+        Process process = start("printf 'a\\nbb\\r\\n'; sleep 0.2; printf 'c\\n\\nd'");
+        CompletableFuture<Void> stdout = OutputPump.instance().pump(process.getInputStream(),
+            process, capture.stdout(), null, false);
+        assertEquals(0, process.waitFor());
+        stdout.get();
+        capture.finish();
+        assertEquals(Arrays.asList("a", "bb", "c", "", "d"), lines);
+    }
+
+    @Test
+    public void testOutputLimit() throws Exception {
+        StringBuilder output = new StringBuilder();
+        OutputCapture capture = new OutputCapture(Collections.singletonList(output),
+            Collections.singletonList(output), null, 1000);
+        Process process = start("head -c 600 /dev/zero; head -c 600 /dev/zero >&2");
+        CompletableFuture<Void> stdout = OutputPump.instance().pump(process.getInputStream(),
+            process, capture.stdout(), null, false);
+        CompletableFuture<Void> stderr = OutputPump.instance().pump(process.getErrorStream(),
+            process, capture.stderr(), null, false);
+        assertEquals(0, process.waitFor());
+        stdout.get();
+        stderr.get();
+        assertTrue(output.length() <= 1000);
+        try {
+            capture.finish();
+            fail("expected the capture limit to be exceeded");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("capture limit of 1000 bytes"));
+        }
+    }
+
+    @Test
+    public void testStreamedOutputIsNotLimited() throws Exception {
+        List<String> lines = new ArrayList<>();
+        OutputCapture capture = new OutputCapture(Collections.emptyList(),
+            Collections.emptyList(), new LineOutputStream(lines::add), 1000);
+        Process process = start("for j in $(seq 1 1000); do echo line-$j; done");
+        CompletableFuture<Void> stdout = OutputPump.instance().pump(process.getInputStream(),
+            process, capture.stdout(), null, false);
+        assertEquals(0, process.waitFor());
+        OutputPump.instance().processExited();
+        stdout.get();
+        capture.finish();
+        assertTrue(capture.totalBytes() > 1000);
+        assertEquals(1000, lines.size());
+        assertEquals("line-1000", lines.get(999));
+    }
+
+    @Test
+    public void testBlockedOutputStreamDoesNotStallOtherCommands() throws Exception {
+        final CountDownLatch unblock = new CountDownLatch(1);
+        final AtomicLong written = new AtomicLong(0);
+        OutputCapture blocked = new OutputCapture(Collections.emptyList(),
+            Collections.emptyList(), new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[] {(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] buf, int off, int len) throws IOException {
+                    try {
+                        unblock.await();
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                    written.addAndGet(len);
+                }
+            }, Command.DEFAULT_OUTPUT_LIMIT);
+        // Write more than the stream queue can hold.
+        Process blockedProcess = start("head -c 4000000 /dev/zero");
+        CompletableFuture<Void> blockedStdout = OutputPump.instance().pump(
+            blockedProcess.getInputStream(), blockedProcess, blocked.stdout(), null, false);
+
+        // Other commands keep flowing through the pump threads meanwhile.
+        for (int i = 0; i < 5; i++) {
+            StringBuilder output = new StringBuilder();
+            Process process = start("echo other-" + i);
+            CompletableFuture<Void> stdout = OutputPump.instance().pump(
+                process.getInputStream(), process, sink(output), null, false);
+            assertEquals(0, process.waitFor());
+            OutputPump.instance().processExited();
+            stdout.get(30, TimeUnit.SECONDS);
+            assertEquals("other-" + i + "\n", output.toString());
+        }
+        assertEquals(0, written.get());
+
+        unblock.countDown();
+        assertEquals(0, blockedProcess.waitFor());
+        OutputPump.instance().processExited();
+        blockedStdout.get();
+        blocked.finish();
+        assertEquals(4000000, written.get());
+    }
+
+    @Test
+    public void testOutputStreamFailure() throws Exception {
+        OutputCapture capture = new OutputCapture(Collections.emptyList(),
+            Collections.emptyList(), new LineOutputStream(line -> {
+                throw new IllegalStateException("bad line " + line);
+            }), Command.DEFAULT_OUTPUT_LIMIT);
+        Process process = start("echo foo; echo bar");
+        CompletableFuture<Void> stdout = OutputPump.instance().pump(process.getInputStream(),
+            process, capture.stdout(), null, false);
+        assertEquals(0, process.waitFor());
+        stdout.get();
+        try {
+            capture.finish();
+            fail("expected the output stream failure to be reported");
+        } catch (RuntimeException e) {
+            assertEquals("bad line foo", e.getCause().getMessage());
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.command;
+
+import io.confluent.castle.common.CastleLog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SshConnectionPoolTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    /**
+     * A stand-in for ssh.  As a master, it creates the control socket and waits to
+     * be killed.  "-O check" succeeds if the socket exists.  Each master start is
+     * counted in the starts file, and if the fail file exists, masters exit
+     * immediately.
+     */
+    private static final String FAKE_SSH =
+        "#!/bin/sh\n" +
+        "dir=$(dirname \"$0\")\n" +
+        "path=''\n" +
+        "mode=''\n" +
+        "while [ $# -gt 0 ]; do\n" +
+        "  case \"$1\" in\n" +
+        "    -S) path=\"$2\"; shift ;;\n" +
+        "    -M) mode=master ;;\n" +
+        "    -O) mode=\"$2\"; shift ;;\n" +
+        "  esac\n" +
+        "  shift\n" +
+        "done\n" +
+        "if [ \"$mode\" = master ]; then\n" +
+        "  echo start >> \"$dir/starts\"\n" +
+        "  [ -e \"$dir/fail\" ] && exit 255\n" +
+        "  trap 'rm -f \"$path\"; exit 0' TERM\n" +
+        "  touch \"$path\"\n" +
+        "  while true; do sleep 0.05; done\n" +
+        "fi\n" +
+        "[ -e \"$path\" ] && exit 0\n" +
+        "exit 255\n";
+
+    private Path tempDir;
+
+    private List<String> preamble;
+
+    private CastleLog log;
+
+    @Before
+    public void setUp() throws Exception {
+        tempDir = Files.createTempDirectory("SshConnectionPoolTest");
+        Path script = tempDir.resolve("ssh");
+        Files.write(script, FAKE_SSH.getBytes(StandardCharsets.UTF_8));
+        assertTrue(script.toFile().setExecutable(true));
+        preamble = Collections.singletonList(script.toString());
+        log = CastleLog.fromDevNull("node0", false);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        log.close();
+        for (File file : tempDir.toFile().listFiles()) {
+            Files.delete(file.toPath());
+        }
+        Files.delete(tempDir);
+    }
+
+    private int numStarts() throws Exception {
+        Path starts = tempDir.resolve("starts");
+        if (!starts.toFile().exists()) {
+            return 0;
+        }
+        return Files.readAllLines(starts, StandardCharsets.UTF_8).size();
+    }
+
+    @Test
+    public void testReuseAndInvalidate() throws Exception {
+        String controlPath;
+        try (SshConnectionPool pool = new SshConnectionPool(true)) {
+            controlPath = pool.controlPath("node0", log, "host0", preamble);
+            assertNotNull(controlPath);
+            assertTrue(new File(controlPath).exists());
+            assertEquals(controlPath, pool.controlPath("node0", log, "host0", preamble));
+            assertEquals(1, numStarts());
+
+            String otherPath = pool.controlPath("node1", log, "host1", preamble);
+            assertNotNull(otherPath);
+            assertFalse(controlPath.equals(otherPath));
+            assertEquals(2, numStarts());
+
+            pool.invalidate("node0");
+            assertFalse(new File(controlPath).exists());
+            assertEquals(controlPath, pool.controlPath("node0", log, "host0", preamble));
+            assertEquals(3, numStarts());
+
+            // A different destination needs a new master.
+            assertEquals(controlPath, pool.controlPath("node0", log, "host2", preamble));
+            assertEquals(4, numStarts());
+        }
+        assertFalse(new File(controlPath).exists());
+        assertFalse(new File(controlPath).getParentFile().exists());
+    }
+
+    @Test
+    public void testFallBackWhenMasterFails() throws Exception {
+        Files.createFile(tempDir.resolve("fail"));
+        try (SshConnectionPool pool = new SshConnectionPool(true)) {
+            assertNull(pool.controlPath("node0", log, "host0", preamble));
+            assertEquals(1, numStarts());
+            // We don't try again right away.
+            assertNull(pool.controlPath("node0", log, "host0", preamble));
+            assertEquals(1, numStarts());
+        }
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        try (SshConnectionPool pool = new SshConnectionPool(false)) {
+            assertNull(pool.controlPath("node0", log, "host0", preamble));
+        }
+        assertEquals(0, numStarts());
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.common;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CastleLogTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    private Path tempDir;
+
+    @Before
+    public void setUp() throws Exception {
+        tempDir = Files.createTempDirectory("CastleLogTest");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (File file : tempDir.toFile().listFiles()) {
+            Files.delete(file.toPath());
+        }
+        Files.delete(tempDir);
+    }
+
+    private List<String> readLog(String name) throws Exception {
+        return Files.readAllLines(tempDir.resolve(name + ".clog"), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testTimestampPrefixIsCachedPerSecond() throws Exception {
+        byte[] prefix = CastleLog.timestampPrefix(1500000000123L);
+        assertSame(prefix, CastleLog.timestampPrefix(1500000000999L));
+        assertEquals("yyyy-MM-dd HH:mm:ss ".length(), prefix.length);
+        assertTrue(prefix != CastleLog.timestampPrefix(1500000001000L));
+    }
+
+    @Test
+    public void testConcurrentWritersAndClose() throws Exception {
+        final int numThreads = 8;
+        final int numLines = 2000;
+        CastleLog log = CastleLog.fromFile(tempDir.toString(), "node0", false);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < numThreads; t++) {
+            final int thread = t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < numLines; i++) {
+                    if (i % 2 == 0) {
+                        log.printf("thread %d line %d%n", thread, i);
+                    } else {
+                        byte[] buffer = String.format("thread %d line %d%n", thread, i).
+                            getBytes(StandardCharsets.UTF_8);
+                        try {
+                            log.write(buffer, 0, buffer.length);
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                        // The log must have copied the buffer.
+                        buffer[0] = 'X';
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        log.close();
+        log.print("after close\n");
+        List<String> lines = readLog("node0");
+        assertEquals(numThreads * numLines, lines.size());
+        Set<String> expected = new HashSet<>();
+        for (int t = 0; t < numThreads; t++) {
+            for (int i = 0; i < numLines; i++) {
+                expected.add(String.format("thread %d line %d", t, i));
+            }
+        }
+        Set<String> actual = new HashSet<>();
+        for (String line : lines) {
+            if (line.startsWith("thread")) {
+                actual.add(line);
+            } else {
+                actual.add(line.substring("yyyy-MM-dd HH:mm:ss ".length()));
+            }
+        }
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testWriterFlushesInTheBackground() throws Exception {
+        try (CastleLog log = CastleLog.fromFile(tempDir.toString(), "node1", false)) {
+            log.write("one\n".getBytes(StandardCharsets.UTF_8));
+            while (readLog("node1").isEmpty()) {
+                Thread.sleep(10);
+            }
+            assertEquals("one", readLog("node1").get(0));
+            log.print("two\n");
+            log.flush();
+            assertArrayEquals(new Object[] {"one", "two"},
+                readLog("node1").stream().map(line -> line.replaceAll("^.* ", "")).toArray());
+        }
+    }
+}
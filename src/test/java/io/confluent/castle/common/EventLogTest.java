@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.common;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EventLogTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    private Path tempDir;
+
+    @Before
+    public void setUp() throws Exception {
+        tempDir = Files.createTempDirectory("EventLogTest");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (File file : tempDir.toFile().listFiles()) {
+            Files.delete(file.toPath());
+        }
+        Files.delete(tempDir);
+    }
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        String path = tempDir.resolve(EventLog.FILE_NAME).toString();
+        try (EventLog eventLog = EventLog.fromFile(path)) {
+            eventLog.command("node0", "ssh node0 ls", 0, 10, 0, 3);
+        }
+        try (EventLog eventLog = EventLog.fromFile(path)) {
+            long now = System.nanoTime();
+            EventLog.setCurrentAction("brokerStart:node1");
+            try {
+                eventLog.command("node1", "ssh node1 \"echo hi\"", now, now + 2000000, 1, 42);
+            } finally {
+                EventLog.setCurrentAction(null);
+            }
+            eventLog.action("brokerStart:node1", "node1", now, now + 3000000,
+                new RuntimeException("oops"));
+            eventLog.cloud("ec2:RunInstances count=1", now, now + 1000000, null);
+        }
+        // A run which was killed may leave a partial line behind.
+        Files.write(tempDir.resolve(EventLog.FILE_NAME), "{\"event\":\"comm".
+            getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        assertEquals(6, EventLog.read(path, true).size());
+        List<EventLog.Event> events = EventLog.read(path, false);
+        assertEquals(4, events.size());
+        assertEquals(EventLog.RUN, events.get(0).event());
+        assertTrue(events.get(0).epochMs() > 0);
+
+        EventLog.Event command = events.get(1);
+        assertEquals(EventLog.COMMAND, command.event());
+        assertEquals("brokerStart:node1", command.action());
+        assertEquals("brokerStart", command.actionType());
+        assertEquals("node1", command.node());
+        assertEquals("ssh node1 \"echo hi\"", command.command());
+        assertEquals(2000000, command.durationNs());
+        assertEquals(Integer.valueOf(1), command.exitCode());
+        assertEquals(Long.valueOf(42), command.outputBytes());
+        assertNull(command.error());
+
+        EventLog.Event action = events.get(2);
+        assertEquals(EventLog.ACTION, action.event());
+        assertEquals("RuntimeException: oops", action.error());
+        assertNull(action.exitCode());
+
+        EventLog.Event cloud = events.get(3);
+        assertEquals(EventLog.CLOUD, cloud.event());
+        assertNull(cloud.action());
+        assertEquals("ec2:RunInstances count=1", cloud.command());
+    }
+
+    @Test
+    public void testRunsWithoutActionsAreSkipped() throws Exception {
+        String path = tempDir.resolve(EventLog.FILE_NAME).toString();
+        try (EventLog eventLog = EventLog.fromFile(path)) {
+            eventLog.action("brokerStart:node0", "node0", 0, 10, null);
+        }
+        // Commands like plan and status start runs without any actions.
+        try (EventLog eventLog = EventLog.fromFile(path)) {
+            eventLog.command("node0", "ssh node0 ls", 0, 10, 0, 3);
+        }
+        EventLog.fromFile(path).close();
+        List<EventLog.Event> events = EventLog.read(path, false);
+        assertEquals(2, events.size());
+        assertEquals(EventLog.RUN, events.get(0).event());
+        assertEquals("brokerStart:node0", events.get(1).action());
+        assertEquals(5, EventLog.read(path, true).size());
+    }
+
+    @Test
+    public void testRotation() throws Exception {
+        String path = tempDir.resolve(EventLog.FILE_NAME).toString();
+        try (EventLog eventLog = EventLog.fromFile(path)) {
+            eventLog.action("brokerStart:node0", "node0", 0, 10, null);
+        }
+        // Pad the log out to the rotation size.
+        byte[] padding = new byte[(int) EventLog.MAX_FILE_BYTES];
+        Arrays.fill(padding, (byte) '\n');
+        Files.write(tempDir.resolve(EventLog.FILE_NAME), padding, StandardOpenOption.APPEND);
+        try (EventLog eventLog = EventLog.fromFile(path)) {
+            eventLog.action("brokerStart:node1", "node1", 0, 10, null);
+        }
+        assertTrue(Files.size(tempDir.resolve(EventLog.FILE_NAME)) < EventLog.MAX_FILE_BYTES);
+        assertTrue(Files.exists(tempDir.resolve(EventLog.FILE_NAME + ".1")));
+        List<EventLog.Event> events = EventLog.read(path, false);
+        assertEquals(2, events.size());
+        assertEquals("brokerStart:node1", events.get(1).action());
+        assertEquals(4, EventLog.read(path, true).size());
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        try (EventLog eventLog = EventLog.disabled()) {
+            assertFalse(eventLog.enabled());
+            eventLog.command("node0", "ls", 0, 1, 0, 0);
+        }
+    }
+}
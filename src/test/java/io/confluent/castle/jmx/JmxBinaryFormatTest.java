@@ -0,0 +1,207 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.jmx;
+
+import io.confluent.castle.jmx.JmxBinaryFormat.ColumnType;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class JmxBinaryFormatTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    private static final List<String> NAMES = Arrays.asList("Count", "Rate", "State");
+
+    private static final List<ColumnType> TYPES =
+        Arrays.asList(ColumnType.LONG, ColumnType.DOUBLE, ColumnType.STRING);
+
+    private static final long START_MS = 1550000000000L;
+
+    /**
+     * Generate rows which look like a broker's metrics: a counter, a rate, and
+     * a state which rarely changes.  Some values are missing.
+     */
+    private static List<Object[]> rows(int numRows) {
+        Random random = new Random(123);
+        List<Object[]> rows = new ArrayList<>();
+        long count = 1000;
+        for (int row = 0; row < numRows; row++) {
+            count += random.nextInt(50);
+            Object rate = (row % 7 == 3) ? null : (row % 11 == 0) ? Double.NaN :
+                Math.round(random.nextDouble() * 10000) / 100.0;
+            Object state = (row < numRows / 2) ? "Running" : "Stopped";
+            rows.add(new Object[] {count, rate, state});
+        }
+        return rows;
+    }
+
+    private static long timeMs(int row) {
+        return START_MS + (row * 1000L) + ((row % 5 == 0) ? 1 : 0);
+    }
+
+    private static byte[] write(List<Object[]> rows) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JmxBinaryWriter writer = new JmxBinaryWriter(out, NAMES, TYPES)) {
+            for (int row = 0; row < rows.size(); row++) {
+                writer.append(timeMs(row), rows.get(row));
+            }
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testColumnTypes() {
+        assertEquals(ColumnType.LONG, ColumnType.of(3L));
+        assertEquals(ColumnType.LONG, ColumnType.of(3));
+        assertEquals(ColumnType.DOUBLE, ColumnType.of(3.0f));
+        assertEquals(ColumnType.DOUBLE, ColumnType.of(null));
+        assertEquals(ColumnType.STRING, ColumnType.of(true));
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        int numRows = JmxBinaryFormat.BLOCK_ROWS * 2 + 17;
+        List<Object[]> rows = rows(numRows);
+        try (JmxBinaryReader reader = new JmxBinaryReader(
+                new ByteArrayInputStream(write(rows)))) {
+            assertEquals(NAMES, reader.columnNames());
+            assertEquals(TYPES, reader.columnTypes());
+            int row = 0;
+            for (JmxBinaryReader.Block block = reader.nextBlock(); block != null;
+                    block = reader.nextBlock()) {
+                for (int i = 0; i < block.rows(); i++) {
+                    assertEquals(timeMs(row), block.timeMs(i));
+                    Object[] expected = rows.get(row);
+                    Object[] actual = new Object[] {
+                        block.value(0, i), block.value(1, i), block.value(2, i)};
+                    assertArrayEquals(expected, actual);
+                    row++;
+                }
+            }
+            assertEquals(numRows, row);
+        }
+    }
+
+    @Test
+    public void testDoubleEdgeCases() throws Exception {
+        double[] doubles = new double[] {0.0, -0.0, 1.0, Double.MIN_VALUE, Double.MAX_VALUE,
+            Double.NEGATIVE_INFINITY, Double.NaN, 1.0, -123.456, 0.1, 0.1, 1e300, 3.0};
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JmxBinaryWriter writer = new JmxBinaryWriter(out,
+                Arrays.asList("Value"), Arrays.asList(ColumnType.DOUBLE))) {
+            for (int i = 0; i < doubles.length; i++) {
+                writer.append(i, new Object[] {doubles[i]});
+            }
+        }
+        try (JmxBinaryReader reader = new JmxBinaryReader(
+                new ByteArrayInputStream(out.toByteArray()))) {
+            JmxBinaryReader.Block block = reader.nextBlock();
+            assertEquals(doubles.length, block.rows());
+            for (int i = 0; i < doubles.length; i++) {
+                assertEquals(Double.doubleToRawLongBits(doubles[i]),
+                    Double.doubleToRawLongBits((Double) block.value(0, i)));
+            }
+            assertNull(reader.nextBlock());
+        }
+    }
+
+    @Test
+    public void testSkipsBlocksBeforeStart() throws Exception {
+        int numRows = JmxBinaryFormat.BLOCK_ROWS * 3;
+        try (JmxBinaryReader reader = new JmxBinaryReader(
+                new ByteArrayInputStream(write(rows(numRows))))) {
+            JmxBinaryReader.Block block =
+                reader.nextBlock(timeMs(JmxBinaryFormat.BLOCK_ROWS * 2 + 5));
+            assertEquals(timeMs(JmxBinaryFormat.BLOCK_ROWS * 2), block.timeMs(0));
+            assertNull(reader.nextBlock());
+        }
+    }
+
+    @Test
+    public void testTruncatedFile() throws Exception {
+        byte[] bytes = write(rows(JmxBinaryFormat.BLOCK_ROWS + 10));
+        try (JmxBinaryReader reader = new JmxBinaryReader(
+                new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length - 3)))) {
+            assertEquals(JmxBinaryFormat.BLOCK_ROWS, reader.nextBlock().rows());
+            assertNull(reader.nextBlock());
+        }
+    }
+
+    @Test
+    public void testExportCsv() throws Exception {
+        List<Object[]> rows = rows(JmxBinaryFormat.BLOCK_ROWS + 10);
+        StringBuilder expected = new StringBuilder();
+        JmxDumper.CsvRow header = new JmxDumper.CsvRow();
+        header.add("time");
+        for (String name : NAMES) {
+            header.add(name);
+        }
+        expected.append(header.asString());
+        for (int row = 0; row < rows.size(); row++) {
+            JmxDumper.CsvRow csvRow = new JmxDumper.CsvRow();
+            csvRow.addTimeMs(timeMs(row));
+            for (Object value : rows.get(row)) {
+                if (value == null) {
+                    csvRow.addEmpty();
+                } else {
+                    csvRow.addObject(value);
+                }
+            }
+            expected.append(csvRow.asString());
+        }
+        StringWriter writer = new StringWriter();
+        try (JmxBinaryReader reader = new JmxBinaryReader(
+                new ByteArrayInputStream(write(rows)))) {
+            JmxExport.export(reader, writer, JmxExport.CSV, Long.MIN_VALUE, Long.MAX_VALUE);
+        }
+        assertEquals(expected.toString(), writer.toString());
+        int csvBytes = expected.length();
+        int binaryBytes = write(rows).length;
+        // The random rates are the worst case for the XOR encoding.
+        assertTrue("Expected " + binaryBytes + " bytes of binary to be at least 3 times " +
+            "smaller than " + csvBytes + " bytes of CSV", binaryBytes * 3 < csvBytes);
+    }
+
+    @Test
+    public void testExportJsonTimeRange() throws Exception {
+        StringWriter writer = new StringWriter();
+        try (JmxBinaryReader reader = new JmxBinaryReader(
+                new ByteArrayInputStream(write(rows(20))))) {
+            JmxExport.export(reader, writer, JmxExport.JSON, timeMs(3), timeMs(4));
+        }
+        String[] lines = writer.toString().split(System.lineSeparator());
+        assertEquals(2, lines.length);
+        assertEquals("{\"time\":1550000003.000,\"Count\":" + rows(20).get(3)[0] +
+            ",\"Rate\":null,\"State\":\"Running\"}", lines[0]);
+        assertTrue(lines[1].startsWith("{\"time\":1550000004.000,"));
+    }
+}
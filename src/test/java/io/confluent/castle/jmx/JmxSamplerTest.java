@@ -0,0 +1,176 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.jmx;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JmxSamplerTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    private static final String DOMAIN = "io.confluent.castle.jmx.sampler.test";
+
+    public interface GaugeMBean {
+        long getCount();
+
+        String getState();
+    }
+
+    public static final class Gauge implements GaugeMBean {
+        private final long count;
+
+        Gauge(long count) {
+            this.count = count;
+        }
+
+        @Override
+        public long getCount() {
+            return count;
+        }
+
+        @Override
+        public String getState() {
+            return "Running";
+        }
+    }
+
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+    private final List<ObjectName> registered = new ArrayList<>();
+
+    @After
+    public void unregisterMetrics() throws Exception {
+        for (ObjectName name : registered) {
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        }
+    }
+
+    private ObjectName register(int index) throws Exception {
+        ObjectName objectName = new ObjectName(DOMAIN + ":type=Gauge,index=" + index);
+        server.registerMBean(new Gauge(index * 10), objectName);
+        registered.add(objectName);
+        return objectName;
+    }
+
+    private static JmxTarget target(ObjectName name, boolean fromPattern, String... attributes) {
+        return new JmxTarget(name, name.getKeyProperty("index"), Arrays.asList(attributes),
+            fromPattern);
+    }
+
+    @Test
+    public void testSampleSharesObjects() throws Exception {
+        ObjectName gauge0 = register(0);
+        ObjectName gauge1 = register(1);
+        JmxSampler sampler = new JmxSampler(server, null, 4, Arrays.asList(
+            target(gauge0, false, "Count"),
+            target(gauge1, false, "State", "Count"),
+            target(gauge0, false, "State")));
+        assertTrue(sampler.sample());
+        int object0 = sampler.objectIndex(gauge0);
+        int object1 = sampler.objectIndex(gauge1);
+        assertEquals(0L, sampler.value(object0, sampler.attributeIndex(object0, "Count")));
+        assertEquals("Running", sampler.value(object0, sampler.attributeIndex(object0, "State")));
+        assertEquals(10L, sampler.value(object1, sampler.attributeIndex(object1, "Count")));
+    }
+
+    @Test
+    public void testSampleOnSamplingThreads() throws Exception {
+        List<JmxTarget> targets = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            targets.add(target(register(i), true, "Count"));
+        }
+        ExecutorService samplingService = Executors.newFixedThreadPool(3);
+        try {
+            JmxSampler sampler = new JmxSampler(server, samplingService, 3, targets);
+            for (int round = 0; round < 3; round++) {
+                assertTrue(sampler.sample());
+                for (int i = 0; i < 20; i++) {
+                    int object = sampler.objectIndex(registered.get(i));
+                    assertEquals(i * 10L, sampler.value(object, 0));
+                }
+            }
+        } finally {
+            samplingService.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testVanishedObjects() throws Exception {
+        ObjectName gauge0 = register(0);
+        ObjectName gauge1 = register(1);
+        JmxSampler sampler = new JmxSampler(server, null, 1, Arrays.asList(
+            target(gauge0, true, "Count"), target(gauge1, false, "Count")));
+        assertTrue(sampler.sample());
+        server.unregisterMBean(gauge0);
+        assertFalse(sampler.sample());
+        assertTrue(sampler.missing(sampler.objectIndex(gauge0)));
+        assertFalse(sampler.missing(sampler.objectIndex(gauge1)));
+        server.unregisterMBean(gauge1);
+        try {
+            sampler.sample();
+            fail("Expected sampling a missing exact object name to fail.");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains(gauge1.toString()));
+        }
+    }
+
+    @Test
+    public void testCsvRow() throws Exception {
+        JmxDumper.CsvRow row = new JmxDumper.CsvRow();
+        StringWriter writer = new StringWriter();
+        for (long timeMs : new long[] {0, 7, 1550000000012L, 1550000000999L, -1500}) {
+            row.reset();
+            row.addTimeMs(timeMs).add(3).add(2.5).add(0.1f).addEmpty().add("x");
+            row.writeLine(writer);
+            assertEquals(String.format("%.3f", timeMs / 1000.0) + ", 3, 2.5, 0.1, , \"x\"" +
+                System.lineSeparator(), writer.toString());
+            writer.getBuffer().setLength(0);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        row.reset();
+        row.add("ascii");
+        row.writeLine(out);
+        row.reset();
+        row.add("caf\u00e9");
+        row.writeLine(out);
+        assertEquals("\"ascii\"" + System.lineSeparator() + "\"caf\u00e9\"" +
+            System.lineSeparator(), new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.jmx;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class JmxTargetTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    private static final String DOMAIN = "io.confluent.castle.jmx.test";
+
+    public interface TestMetricMBean {
+        long getCount();
+
+        double getValue();
+    }
+
+    public static final class TestMetric implements TestMetricMBean {
+        @Override
+        public long getCount() {
+            return 1;
+        }
+
+        @Override
+        public double getValue() {
+            return 2.0;
+        }
+    }
+
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+    private final List<ObjectName> registered = new ArrayList<>();
+
+    @Before
+    public void registerMetrics() throws Exception {
+        for (String topic : Arrays.asList("foo", "bar")) {
+            for (int partition = 0; partition < 3; partition++) {
+                register(String.format("%s:type=Log,name=Size,topic=%s,partition=%d",
+                    DOMAIN, topic, partition));
+            }
+        }
+    }
+
+    @After
+    public void unregisterMetrics() throws Exception {
+        for (ObjectName name : registered) {
+            server.unregisterMBean(name);
+        }
+    }
+
+    private void register(String name) throws Exception {
+        ObjectName objectName = new ObjectName(name);
+        server.registerMBean(new TestMetric(), objectName);
+        registered.add(objectName);
+    }
+
+    private static JmxFileConfig file(JmxObjectConfig... objects) {
+        return new JmxFileConfig("/tmp/jmx.csv", null, Arrays.asList(objects));
+    }
+
+    @Test
+    public void testColumnPrefix() throws Exception {
+        ObjectName pattern = new ObjectName(DOMAIN + ":type=Log,name=Size,topic=*,*");
+        ObjectName name = new ObjectName(DOMAIN + ":type=Log,name=Size,topic=foo,partition=2");
+        assertEquals("LogSize[partition=2;topic=foo]",
+            JmxTarget.columnPrefix("LogSize", pattern, name));
+        assertEquals("LogSize[domain=" + DOMAIN + ";partition=2;topic=foo]",
+            JmxTarget.columnPrefix("LogSize",
+                new ObjectName("*:type=Log,name=Size,topic=*,*"), name));
+    }
+
+    @Test
+    public void testDiscoverPattern() throws Exception {
+        JmxFileConfig file = file(new JmxObjectConfig(
+            DOMAIN + ":type=Log,name=Size,topic=foo,*", "LogSize", null, 0));
+        List<JmxTarget> targets = JmxTarget.discover(server, file, new HashMap<>());
+        assertEquals(3, targets.size());
+        for (int partition = 0; partition < 3; partition++) {
+            JmxTarget target = targets.get(partition);
+            assertEquals("LogSize[partition=" + partition + "]", target.columnPrefix());
+            assertEquals(Arrays.asList("Count", "Value"), sorted(target.attributes()));
+            assertTrue(target.fromPattern());
+        }
+    }
+
+    @Test
+    public void testDiscoverCapsMatches() throws Exception {
+        JmxFileConfig file = file(new JmxObjectConfig(
+            DOMAIN + ":type=Log,name=Size,*", "LogSize", Collections.singletonList("Count"), 4));
+        List<JmxTarget> targets = JmxTarget.discover(server, file, new HashMap<>());
+        assertEquals(4, targets.size());
+        assertEquals("LogSize[partition=0;topic=bar]", targets.get(0).columnPrefix());
+        assertEquals(Collections.singletonList("Count"), targets.get(0).attributes());
+    }
+
+    @Test
+    public void testDiscoverExactName() throws Exception {
+        String name = DOMAIN + ":type=Log,name=Size,topic=foo,partition=1";
+        JmxTarget target = JmxTarget.discover(server,
+            file(new JmxObjectConfig(name, "FooSize", null, 0)), new HashMap<>()).get(0);
+        assertEquals("FooSize", target.columnPrefix());
+        assertFalse(target.fromPattern());
+        assertNull(JmxTarget.discover(server, file(new JmxObjectConfig(
+            DOMAIN + ":type=Log,name=Size,topic=baz,partition=1", "BazSize", null, 0)),
+            new HashMap<>()));
+    }
+
+    @Test
+    public void testDiscoverFindsNewObjects() throws Exception {
+        JmxFileConfig file = file(new JmxObjectConfig(
+            DOMAIN + ":type=Log,name=Size,topic=baz,*", "LogSize", null, 0));
+        List<JmxTarget> before = JmxTarget.discover(server, file, new HashMap<>());
+        assertEquals(0, before.size());
+        register(DOMAIN + ":type=Log,name=Size,topic=baz,partition=0");
+        List<JmxTarget> after = JmxTarget.discover(server, file, new HashMap<>());
+        assertEquals(1, after.size());
+        assertFalse(before.equals(after));
+        assertEquals(after, JmxTarget.discover(server, file, new HashMap<>()));
+    }
+
+    @Test
+    public void testSegmentPath() {
+        assertEquals("/mnt/logs/jmx.csv", JmxDumper.segmentPath("/mnt/logs/jmx.csv", 0));
+        assertEquals("/mnt/logs/jmx.2.csv", JmxDumper.segmentPath("/mnt/logs/jmx.csv", 2));
+        assertEquals("/mnt/logs.d/jmx.1", JmxDumper.segmentPath("/mnt/logs.d/jmx", 1));
+        assertEquals("/mnt/.jmx.1", JmxDumper.segmentPath("/mnt/.jmx", 1));
+    }
+
+    private static List<String> sorted(List<String> list) {
+        List<String> copy = new ArrayList<>(list);
+        Collections.sort(copy);
+        return copy;
+    }
+}
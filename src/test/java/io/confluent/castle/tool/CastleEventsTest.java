@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.tool;
+
+import io.confluent.castle.common.EventLog;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class CastleEventsTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    private static final long MS = 1000000L;
+
+    private static EventLog.Event command(String action, String node, String command,
+                                          long durationMs, int exitCode, long outputBytes) {
+        return new EventLog.Event(EventLog.COMMAND, null, action, node, command,
+            0L, durationMs * MS, exitCode, outputBytes, null);
+    }
+
+    private static final List<EventLog.Event> EVENTS = Arrays.asList(
+        new EventLog.Event(EventLog.RUN, 1L, null, null, null, null, null, null, null, null),
+        command("sourceSetup:node0", "node0", "rsync a", 300, 0, 10),
+        command("sourceSetup:node0", "node0", "rsync b", 100, 12, 20),
+        command("sourceSetup:node1", "node1", "rsync a", 200, 0, 30),
+        command("brokerStart:node0", "node0", "start", 50, 0, 5),
+        new EventLog.Event(EventLog.ACTION, null, "sourceSetup:node0", "node0", null,
+            0L, 450 * MS, null, null, "RuntimeException: failed"),
+        new EventLog.Event(EventLog.ACTION, null, "sourceSetup:node1", "node1", null,
+            0L, 250 * MS, null, null, null),
+        new EventLog.Event(EventLog.CLOUD, null, null, null, "ec2:RunInstances count=2",
+            0L, 700 * MS, null, null, null));
+
+    @Test
+    public void testSlowest() {
+        assertEquals(String.format(
+            "node0:%n" +
+            "     TIME_MS   EXIT OUTPUT_BYTES  ACTION                           COMMAND%n" +
+            "         300      0           10  sourceSetup:node0                rsync a%n" +
+            "         100     12           20  sourceSetup:node0                rsync b%n" +
+            "node1:%n" +
+            "     TIME_MS   EXIT OUTPUT_BYTES  ACTION                           COMMAND%n" +
+            "         200      0           30  sourceSetup:node1                rsync a%n"),
+            CastleEvents.slowest(EVENTS, 2));
+    }
+
+    @Test
+    public void testActionTypes() {
+        String[] lines = CastleEvents.actionTypes(EVENTS).split(System.lineSeparator());
+        assertEquals(3, lines.length);
+        assertEquals(Arrays.asList("brokerStart", "0", "0", "0", "1", "0", "50", "5"),
+            Arrays.asList(lines[1].trim().split(" +")));
+        assertEquals(Arrays.asList("sourceSetup", "2", "1", "700", "3", "1", "600", "60"),
+            Arrays.asList(lines[2].trim().split(" +")));
+    }
+
+    @Test
+    public void testNodesAndCloud() {
+        String[] lines = CastleEvents.nodes(EVENTS).split(System.lineSeparator());
+        assertEquals(Arrays.asList("node0", "3", "1", "450", "300", "35"),
+            Arrays.asList(lines[1].trim().split(" +")));
+        assertEquals(Arrays.asList("node1", "1", "0", "200", "200", "30"),
+            Arrays.asList(lines[2].trim().split(" +")));
+        lines = CastleEvents.cloud(EVENTS).split(System.lineSeparator());
+        assertEquals(Arrays.asList("ec2:RunInstances", "1", "0", "700", "700"),
+            Arrays.asList(lines[1].trim().split(" +")));
+    }
+}
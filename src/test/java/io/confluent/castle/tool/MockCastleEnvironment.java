@@ -18,6 +18,7 @@
 package io.confluent.castle.tool;
 
 import io.confluent.castle.common.CastleLog;
+import io.confluent.castle.common.EventLog;
 
 import java.io.IOException;
 
@@ -30,4 +31,9 @@ public class MockCastleEnvironment extends CastleEnvironment {
     public CastleLog createCastleLog(String nodeName) throws IOException {
         return CastleLog.fromDevNull(nodeName, false);
     }
+
+    @Override
+    public EventLog createEventLog() {
+        return EventLog.disabled();
+    }
 };
@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.uplink;
+
+import io.confluent.castle.cluster.CastleCluster;
+import io.confluent.castle.cluster.CastleClusterSpec;
+import io.confluent.castle.cluster.CastleNode;
+import io.confluent.castle.cluster.CastleNodeSpec;
+import io.confluent.castle.command.LocalCommand;
+import io.confluent.castle.common.CastleLog;
+import io.confluent.castle.role.LocalNodeRole;
+import io.confluent.castle.role.Role;
+import io.confluent.castle.tool.MockCastleEnvironment;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LocalUplinkTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    private Path tempDir;
+
+    private CastleCluster cluster;
+
+    private static boolean canUnshare() throws Exception {
+        try {
+            Process process = new ProcessBuilder("unshare", "--user", "--map-root-user",
+                "--mount", "--pid", "--fork", "--mount-proc", "true").start();
+            return process.waitFor() == 0;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        tempDir = Files.createTempDirectory("LocalUplinkTest");
+        Map<String, CastleNodeSpec> nodes = new TreeMap<>();
+        nodes.put("node0", new CastleNodeSpec(Collections.singletonList("local"), null));
+        nodes.put("node1", new CastleNodeSpec(Collections.singletonList("local"), null));
+        Map<String, Role> roles = Collections.singletonMap("local",
+            new LocalNodeRole(tempDir.toString(), null, 0));
+        cluster = new CastleCluster(new MockCastleEnvironment(),
+            CastleLog.fromDevNull("cluster", false), null,
+            new CastleClusterSpec(null, nodes, roles));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (CastleNode node : cluster.nodes().values()) {
+            node.uplink().shutdown().get();
+        }
+        cluster.close();
+        Files.walk(tempDir).sorted(Collections.reverseOrder()).map(Path::toFile).
+            forEach(File::delete);
+    }
+
+    @Test
+    public void testHostPath() throws Exception {
+        assertEquals("/root/mnt/kafka", LocalCommand.hostPath("/root", "/mnt/kafka"));
+        assertEquals("/root/mnt", LocalCommand.hostPath("/root", "/mnt"));
+        assertEquals("/root/tmp/", LocalCommand.hostPath("/root", "/tmp/"));
+        assertEquals("/mntx/kafka", LocalCommand.hostPath("/root", "/mntx/kafka"));
+        assertEquals("/home/foo", LocalCommand.hostPath("/root", "/home/foo"));
+    }
+
+    @Test
+    public void testPortOffsets() throws Exception {
+        assertEquals(0, cluster.nodes().get("node0").uplink().portOffset());
+        assertEquals(LocalNodeRole.DEFAULT_PORT_STRIDE,
+            cluster.nodes().get("node1").uplink().portOffset());
+        assertEquals("localhost", cluster.nodes().get("node1").uplink().internalDns());
+    }
+
+    @Test
+    public void testNodesAreIsolated() throws Exception {
+        Assume.assumeTrue("unprivileged user namespaces are not available", canUnshare());
+        CastleNode node0 = cluster.nodes().get("node0");
+        CastleNode node1 = cluster.nodes().get("node1");
+        for (CastleNode node : cluster.nodes().values()) {
+            assertFalse(node.uplink().started());
+            node.uplink().startup();
+            assertTrue(node.uplink().started());
+        }
+
+        // Each node sees its own /mnt.
+        node0.uplink().command().args("echo", "zero", ">", "/mnt/name").mustRun();
+        node1.uplink().command().args("sudo", "mkdir", "-p", "/mnt/conf", "&&",
+            "echo", "one", ">", "/mnt/name").mustRun();
+        assertEquals("zero\n", new String(Files.readAllBytes(
+            tempDir.resolve("node0").resolve("mnt").resolve("name")), StandardCharsets.UTF_8));
+        StringBuilder output = new StringBuilder();
+        node1.uplink().command().args("cat", "/mnt/name").captureOutput(output).mustRun();
+        assertEquals("one\n", output.toString());
+
+        // Files are written without running anything on the node.
+        node1.uplink().command().putFile("/mnt/conf/a.properties",
+            "a=b\n".getBytes(StandardCharsets.UTF_8)).mustRun();
+        output.setLength(0);
+        node1.uplink().command().args("cat", "/mnt/conf/a.properties").
+            captureOutput(output).mustRun();
+        assertEquals("a=b\n", output.toString());
+
+        // Each node only sees its own processes.
+        node0.uplink().command().args("nohup", "sleep", "1000",
+            "&>/dev/null", "</dev/null", "&").mustRun();
+        List<String> lines = new ArrayList<>();
+        node1.uplink().command().args("ps", "-eo", "args").outputLines(lines::add).mustRun();
+        assertFalse(lines.contains("sleep 1000"));
+        lines.clear();
+        node0.uplink().command().args("ps", "-eo", "args").outputLines(lines::add).mustRun();
+        assertTrue(lines.contains("sleep 1000"));
+
+        // Shutting down a node kills its processes.
+        node0.uplink().shutdown().get();
+        assertFalse(node0.uplink().started());
+        assertTrue(LocalUplink.findHolders(tempDir.resolve("node0").toString()).isEmpty());
+        assertEquals(1, LocalUplink.findHolders(tempDir.resolve("node1").toString()).size());
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.uplink;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import static io.confluent.castle.common.JsonUtil.JSON_SERDE;
+import static org.junit.Assert.assertEquals;
+
+public class StragglerDetectorTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    @Test
+    public void testDeadline() throws Exception {
+        StragglerDetector detector =
+            new StragglerDetector(new SpeculativeStartup(50, 2.0, 0.5, 1000, 1));
+        for (int i = 0; i < 4; i++) {
+            detector.starting();
+        }
+        assertEquals(-1, detector.deadlineMs());
+        detector.started(30000);
+        assertEquals(-1, detector.deadlineMs());
+        detector.started(40000);
+        assertEquals(60000, detector.deadlineMs());
+        detector.started(50000);
+        assertEquals(80000, detector.deadlineMs());
+    }
+
+    @Test
+    public void testMinDeadline() throws Exception {
+        StragglerDetector detector =
+            new StragglerDetector(new SpeculativeStartup(90, 1.5, 1.0, 20000, 1));
+        detector.starting();
+        detector.started(100);
+        assertEquals(20000, detector.deadlineMs());
+    }
+
+    @Test
+    public void testDefaults() throws Exception {
+        SpeculativeStartup conf = JSON_SERDE.readValue("{}", SpeculativeStartup.class);
+        assertEquals(50, conf.percentile());
+        assertEquals(2.0, conf.multiplier(), 0.0);
+        assertEquals(0.5, conf.minCompletedFraction(), 0.0);
+        assertEquals(60000, conf.minDeadlineMs());
+        assertEquals(1, conf.maxReplacements());
+    }
+}